@@ -20,6 +20,7 @@
  */
 package org.apache.xalan.extensions;
 
+import java.lang.reflect.Member;
 import java.util.Hashtable;
 
 /**
@@ -38,6 +39,9 @@ public abstract class ExtensionHandlerJava extends ExtensionHandler
   /** Table of cached methods          */
   private Hashtable m_cachedMethods = new Hashtable();
 
+  /** Table of dispatchers of the cached methods, with the same keys */
+  private Hashtable m_dispatchers = new Hashtable();
+
   /**
    * Construct a new extension handler given all the information
    * needed.
@@ -97,4 +101,27 @@ public abstract class ExtensionHandlerJava extends ExtensionHandler
     // Eventually, we want to insert code to mangle the methodKey with methodArgs
     return m_cachedMethods.put(methodKey, methodObj);
   }
+
+  /**
+   * Get the dispatcher that calls a method or constructor from the method
+   * cache through a method handle.
+   * @param methodKey   A key that uniquely identifies this invocation in
+   *                    the stylesheet.
+   * @param member      The method or constructor cached for the key.
+   *
+   * @return The dispatcher of the member
+   */
+  MethodHandleDispatcher getDispatcher(Object methodKey, Member member)
+  {
+    MethodHandleDispatcher dispatcher =
+      (MethodHandleDispatcher) m_dispatchers.get(methodKey);
+
+    if (null == dispatcher || dispatcher.getMember() != member)
+    {
+      dispatcher = new MethodHandleDispatcher(member);
+      m_dispatchers.put(methodKey, dispatcher);
+    }
+
+    return dispatcher;
+  }
 }
@@ -211,10 +211,8 @@ public class ExtensionHandlerJavaClass extends ExtensionHandlerJava
         {
           try
           {
-            paramTypes = c.getParameterTypes();
-            MethodResolver.convertParams(methodArgs, convertedArgs, 
-                        paramTypes, exprContext);
-            return c.newInstance(convertedArgs[0]);
+            return getDispatcher(methodKey, c).invoke(null, methodArgs,
+                                                      exprContext);
           }
           catch (InvocationTargetException ite)
           {
@@ -268,20 +266,16 @@ public class ExtensionHandlerJavaClass extends ExtensionHandlerJava
         {
           try
           {
-            paramTypes = m.getParameterTypes();
-            MethodResolver.convertParams(methodArgs, convertedArgs, 
-                        paramTypes, exprContext);
-            if (Modifier.isStatic(m.getModifiers()))
-              return m.invoke(null, convertedArgs[0]);
+            MethodHandleDispatcher dispatcher = getDispatcher(methodKey, m);
+            if (dispatcher.isStatic())
+              return dispatcher.invoke(null, methodArgs, exprContext);
             else
             {
               // This is tricky.  We get the actual number of target arguments (excluding any
               //   ExpressionContext).  If we passed in the same number, we need the implied object.
-              int nTargetArgs = convertedArgs[0].length;
-              if (ExpressionContext.class.isAssignableFrom(paramTypes[0]))
-                nTargetArgs--;
-              if (methodArgs.length <= nTargetArgs)
-                return m.invoke(m_defaultInstance, convertedArgs[0]);
+              if (methodArgs.length <= dispatcher.getTargetArgCount())
+                return dispatcher.invoke(m_defaultInstance, methodArgs,
+                                         exprContext);
               else  
               {
                 targetObject = methodArgs[0];
@@ -289,7 +283,8 @@ public class ExtensionHandlerJavaClass extends ExtensionHandlerJava
                 if (targetObject instanceof XObject)
                   targetObject = ((XObject) targetObject).object();
                   
-                return m.invoke(targetObject, convertedArgs[0]);
+                return dispatcher.invoke(targetObject, methodArgs,
+                                         exprContext);
               }
             }
           }
@@ -236,9 +236,8 @@ public class ExtensionHandlerJavaPackage extends ExtensionHandlerJava
         {
           try
           {
-            paramTypes = c.getParameterTypes();
-            MethodResolver.convertParams(methodArgs, convertedArgs, paramTypes, exprContext);
-            return c.newInstance(convertedArgs[0]);
+            return getDispatcher(methodKey, c).invoke(null, methodArgs,
+                                                      exprContext);
           }
           catch (InvocationTargetException ite)
           {
@@ -295,9 +294,8 @@ public class ExtensionHandlerJavaPackage extends ExtensionHandlerJava
         {
           try
           {
-            paramTypes = m.getParameterTypes();
-            MethodResolver.convertParams(methodArgs, convertedArgs, paramTypes, exprContext);
-            return m.invoke(null, convertedArgs[0]);
+            return getDispatcher(methodKey, m).invoke(null, methodArgs,
+                                                      exprContext);
           }
           catch (InvocationTargetException ite)
           {
@@ -366,9 +364,9 @@ public class ExtensionHandlerJavaPackage extends ExtensionHandlerJava
         {
           try
           {
-            paramTypes = m.getParameterTypes();
-            MethodResolver.convertParams(methodArgs, convertedArgs, paramTypes, exprContext);
-            return m.invoke(targetObject, convertedArgs[0]);
+            return getDispatcher(methodKey, m).invoke(targetObject,
+                                                      methodArgs,
+                                                      exprContext);
           }
           catch (InvocationTargetException ite)
           {
@@ -0,0 +1,454 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xalan.extensions;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.xpath.objects.XObject;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.traversal.NodeIterator;
+
+/**
+ * Calls a Java extension method or constructor, once it has been resolved
+ * by {@link MethodResolver}, through a method handle instead of
+ * reflection.  The conversion of each argument is chosen once for the
+ * XObject classes of the arguments of the first call, and reused as long
+ * as later calls pass arguments of the same classes; other calls convert
+ * their arguments with {@link MethodResolver#convert}.
+ *
+ * <p>If no method handle can be made for the member, it is called through
+ * reflection.</p>
+ * @xsl.usage internal
+ */
+final class MethodHandleDispatcher
+{
+
+  /** Convert the argument with MethodResolver.convert(). */
+  private static final int CONVERT_ANY = 0;
+
+  /** Convert the argument with XObject.str(). */
+  private static final int CONVERT_STRING = 1;
+
+  /** Convert the argument with XObject.num(). */
+  private static final int CONVERT_NUMBER = 2;
+
+  /** Convert the argument with XObject.bool(). */
+  private static final int CONVERT_BOOLEAN = 3;
+
+  /** Convert the argument with XObject.nodeset(). */
+  private static final int CONVERT_NODESET = 4;
+
+  /** Convert the argument with XObject.nodelist(). */
+  private static final int CONVERT_NODELIST = 5;
+
+  /** The method or constructor. */
+  private final Member m_member;
+
+  /**
+   * The method handle, which takes the target object, unless the member
+   * is static or a constructor, and an array of the converted arguments,
+   * or null to use reflection.
+   */
+  private final MethodHandle m_handle;
+
+  /** The parameter types of the member. */
+  private final Class[] m_paramTypes;
+
+  /**
+   * The class each converted argument must be an instance of, with
+   * primitive types replaced by their wrappers.
+   */
+  private final Class[] m_argTypes;
+
+  /** True if the first parameter is the ExpressionContext. */
+  private final boolean m_hasContext;
+
+  /**
+   * The conversions chosen for the classes of the arguments of one call,
+   * or null before the first call.
+   */
+  private volatile Conversions m_conversions = null;
+
+  /**
+   * Construct a dispatcher.
+   *
+   * @param member The resolved method or constructor.
+   */
+  MethodHandleDispatcher(Member member)
+  {
+    m_member = member;
+    m_paramTypes = (member instanceof Method)
+                   ? ((Method) member).getParameterTypes()
+                   : ((Constructor) member).getParameterTypes();
+    m_hasContext = (m_paramTypes.length > 0)
+      && ExpressionContext.class.isAssignableFrom(m_paramTypes[0]);
+    m_argTypes = new Class[m_paramTypes.length];
+
+    for (int i = 0; i < m_paramTypes.length; i++)
+      m_argTypes[i] = wrapperType(m_paramTypes[i]);
+
+    m_handle = makeHandle(member, m_paramTypes.length);
+  }
+
+  /**
+   * Make the method handle of a member.
+   *
+   * @param member The method or constructor.
+   * @param nParams The number of parameters of the member.
+   *
+   * @return The method handle, or null if the member is not accessible.
+   */
+  private static MethodHandle makeHandle(Member member, int nParams)
+  {
+    try
+    {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      MethodHandle handle;
+
+      if (member instanceof Method)
+        handle = lookup.unreflect((Method) member);
+      else if (Modifier.isAbstract(member.getDeclaringClass().getModifiers()))
+        return null;
+      else
+        handle = lookup.unreflectConstructor((Constructor) member);
+
+      handle = handle.asFixedArity();
+      handle = handle.asType(handle.type().generic());
+
+      return handle.asSpreader(Object[].class, nParams);
+    }
+    catch (IllegalAccessException iae)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Get the method or constructor.
+   *
+   * @return The member.
+   */
+  Member getMember()
+  {
+    return m_member;
+  }
+
+  /**
+   * Get the number of arguments the member takes from the XPath call,
+   * which does not include the ExpressionContext.
+   *
+   * @return The number of arguments.
+   */
+  int getTargetArgCount()
+  {
+    return m_hasContext ? m_paramTypes.length - 1 : m_paramTypes.length;
+  }
+
+  /**
+   * Tell if the member is a static method or a constructor.
+   *
+   * @return true if the member takes no target object.
+   */
+  boolean isStatic()
+  {
+    return !(m_member instanceof Method)
+           || Modifier.isStatic(m_member.getModifiers());
+  }
+
+  /**
+   * Convert the arguments of a call and call the member.
+   *
+   * @param target The target object of an instance method, otherwise
+   *               ignored.
+   * @param argsIn The XSLT/XPath arguments.  If there are more than
+   *               the member takes, the first ones are ignored.
+   * @param exprContext The context passed to a member whose first
+   *                    parameter is an ExpressionContext.
+   *
+   * @return The value returned by the member, or the new object.
+   *
+   * @throws IllegalArgumentException if the arguments or the target do
+   * not suit the member.
+   * @throws InvocationTargetException if the member throws an exception.
+   * @throws Exception if the member cannot be called.
+   * @throws TransformerException if an argument cannot be converted.
+   */
+  Object invoke(Object target, Object[] argsIn, ExpressionContext exprContext)
+          throws Exception
+  {
+    Object[] args = convert(argsIn, exprContext);
+
+    if (null == m_handle)
+    {
+      if (m_member instanceof Method)
+        return ((Method) m_member).invoke(target, args);
+      else
+        return ((Constructor) m_member).newInstance(args);
+    }
+
+    for (int i = 0; i < args.length; i++)
+    {
+      if (null == args[i] ? m_paramTypes[i].isPrimitive()
+                          : !m_argTypes[i].isInstance(args[i]))
+        throw new IllegalArgumentException();
+    }
+
+    boolean isStatic = isStatic();
+
+    if (!isStatic && !m_member.getDeclaringClass().isInstance(target))
+      throw new IllegalArgumentException();
+
+    try
+    {
+      if (isStatic)
+        return (Object) m_handle.invokeExact(args);
+      else
+        return (Object) m_handle.invokeExact(target, args);
+    }
+    catch (Throwable t)
+    {
+      throw new InvocationTargetException(t);
+    }
+  }
+
+  /**
+   * Convert the arguments of a call to the parameter types of the member.
+   *
+   * @param argsIn The XSLT/XPath arguments.
+   * @param exprContext The context.
+   *
+   * @return The converted arguments.
+   *
+   * @throws TransformerException if an argument cannot be converted.
+   */
+  private Object[] convert(Object[] argsIn, ExpressionContext exprContext)
+          throws TransformerException
+  {
+    int nParams = m_paramTypes.length;
+    Object[] args = new Object[nParams];
+    int paramIndex = 0;
+
+    if (m_hasContext)
+      args[paramIndex++] = exprContext;
+
+    if (null == argsIn)
+      return args;
+
+    int first = argsIn.length - nParams + paramIndex;
+    Conversions conversions = m_conversions;
+
+    if (null == conversions || !conversions.matches(argsIn, first))
+      m_conversions = conversions = new Conversions(argsIn, first, paramIndex);
+
+    int[] codes = conversions.m_codes;
+
+    for (int i = first; paramIndex < nParams; i++, paramIndex++)
+    {
+      Object arg = argsIn[i];
+      Class type = m_paramTypes[paramIndex];
+
+      switch (codes[paramIndex])
+      {
+      case CONVERT_STRING :
+        args[paramIndex] = ((XObject) arg).str();
+        break;
+      case CONVERT_NUMBER :
+        args[paramIndex] =
+          MethodResolver.convertDoubleToNumber(((XObject) arg).num(), type);
+        break;
+      case CONVERT_BOOLEAN :
+        args[paramIndex] = ((XObject) arg).bool() ? Boolean.TRUE
+                                                  : Boolean.FALSE;
+        break;
+      case CONVERT_NODESET :
+        args[paramIndex] = ((XObject) arg).nodeset();
+        break;
+      case CONVERT_NODELIST :
+        args[paramIndex] = ((XObject) arg).nodelist();
+        break;
+      default :
+        args[paramIndex] = MethodResolver.convert(arg, type);
+      }
+    }
+
+    return args;
+  }
+
+  /**
+   * Get the conversion of an argument to a parameter type that gives the
+   * same result as {@link MethodResolver#convert}.
+   *
+   * @param arg The argument.
+   * @param type The parameter type.
+   *
+   * @return One of the CONVERT_ constants.
+   */
+  private static int getConversion(Object arg, Class type)
+  {
+    if (!(arg instanceof XObject))
+      return CONVERT_ANY;
+
+    int xsltType = ((XObject) arg).getType();
+
+    switch (xsltType)
+    {
+    case XObject.CLASS_BOOLEAN :
+    case XObject.CLASS_NUMBER :
+    case XObject.CLASS_STRING :
+    case XObject.CLASS_NODESET :
+    case XObject.CLASS_RTREEFRAG :
+      if (type == String.class)
+        return CONVERT_STRING;
+      else if (type == Boolean.TYPE)
+        return CONVERT_BOOLEAN;
+      break;
+    default :
+      return CONVERT_ANY;
+    }
+
+    switch (xsltType)
+    {
+    case XObject.CLASS_STRING :
+      if (type == Object.class)
+        return CONVERT_STRING;
+      // fall through
+    case XObject.CLASS_NUMBER :
+      if (type == Double.TYPE || type == Double.class || type == Float.TYPE
+          || type == Long.TYPE || type == Integer.TYPE
+          || type == Short.TYPE || type == Byte.TYPE)
+        return CONVERT_NUMBER;
+      break;
+    case XObject.CLASS_NODESET :
+      if (type == NodeIterator.class || type == Object.class)
+        return CONVERT_NODESET;
+      else if (type == NodeList.class)
+        return CONVERT_NODELIST;
+      break;
+    }
+
+    return CONVERT_ANY;
+  }
+
+  /**
+   * Get the wrapper class of a primitive type.
+   *
+   * @param type A type.
+   *
+   * @return The wrapper class if the type is primitive, else the type.
+   */
+  private static Class wrapperType(Class type)
+  {
+    if (!type.isPrimitive())
+      return type;
+    else if (type == Double.TYPE)
+      return Double.class;
+    else if (type == Float.TYPE)
+      return Float.class;
+    else if (type == Long.TYPE)
+      return Long.class;
+    else if (type == Integer.TYPE)
+      return Integer.class;
+    else if (type == Short.TYPE)
+      return Short.class;
+    else if (type == Character.TYPE)
+      return Character.class;
+    else if (type == Byte.TYPE)
+      return Byte.class;
+    else if (type == Boolean.TYPE)
+      return Boolean.class;
+    else
+      return Void.class;
+  }
+
+  /**
+   * The conversions of the arguments of a call, for the classes of the
+   * arguments of that call.
+   */
+  private final class Conversions
+  {
+
+    /** The class of each argument, or null if the argument was null. */
+    final Class[] m_classes;
+
+    /** The conversion of each argument, indexed by parameter. */
+    final int[] m_codes;
+
+    /**
+     * Choose the conversions for the arguments of a call.
+     *
+     * @param argsIn The XSLT/XPath arguments.
+     * @param first The index of the argument of the first parameter
+     *              after the ExpressionContext.
+     * @param paramIndex The index of that parameter.
+     */
+    Conversions(Object[] argsIn, int first, int paramIndex)
+    {
+      int nParams = m_paramTypes.length;
+
+      m_classes = new Class[nParams];
+      m_codes = new int[nParams];
+
+      for (int i = first; paramIndex < nParams; i++, paramIndex++)
+      {
+        Object arg = argsIn[i];
+
+        if (null != arg)
+        {
+          m_classes[paramIndex] = arg.getClass();
+          m_codes[paramIndex] = getConversion(arg, m_paramTypes[paramIndex]);
+        }
+      }
+    }
+
+    /**
+     * Tell if the arguments of a call have the classes of the arguments
+     * these conversions were chosen for.
+     *
+     * @param argsIn The XSLT/XPath arguments.
+     * @param first The index of the argument of the first parameter.
+     *
+     * @return true if the conversions can be used for the call.
+     */
+    boolean matches(Object[] argsIn, int first)
+    {
+      int paramIndex = m_hasContext ? 1 : 0;
+
+      for (int i = first; paramIndex < m_classes.length; i++, paramIndex++)
+      {
+        Object arg = argsIn[i];
+        Class c = (null == arg) ? null : arg.getClass();
+
+        if (c != m_classes[paramIndex])
+          return false;
+      }
+
+      return true;
+    }
+  }
+}
@@ -37,6 +37,7 @@ import org.apache.xalan.transformer.TransformerImpl;
 import org.apache.xpath.XPath;
 import org.apache.xpath.objects.XObject;
 import org.apache.xml.serializer.SerializationHandler;
+import org.apache.xml.utils.AsyncFileWriter;
 import org.xml.sax.ContentHandler;
 
 /**
@@ -75,6 +76,15 @@ import org.xml.sax.ContentHandler;
  * with the serializers - hence, you may get extra xml decls in 
  * the middle of your file after appending to it.
  *
+ * <p>If the TransformerFactory attribute
+ * <code>http://xml.apache.org/xalan/properties/output-writer-threads</code>
+ * is set to a positive number, each file is written by one of that many
+ * background threads, in chunks handed over as they fill up.  Files that
+ * are still open when the transformation ends are written as far as they
+ * go, and the transformation then fails with an error.  The attribute
+ * <code>http://xml.apache.org/xalan/properties/output-sync-batch</code>
+ * makes the threads sync the files to disk in batches of that size.
+ *
  * <p>Example:</p>
  * <PRE>
  * &lt;?xml version="1.0"?&gt;
@@ -404,18 +414,32 @@ public class Redirect
     // defined by a first child of the redirect element.
     OutputProperties format = transformer.getOutputFormat();
 
-    // FileOutputStream ostream = new FileOutputStream(file);
-    // Patch from above line to below by <jpvdm@iafrica.com>
-    //  Note that in JDK 1.2.2 at least, FileOutputStream(File)
-    //  is implemented as a call to 
-    //  FileOutputStream(File.getPath, append), thus this should be 
-    //  the equivalent instead of getAbsolutePath()
-    FileOutputStream ostream = new FileOutputStream(file.getPath(), append);
-    
+    AsyncFileWriter asyncWriter = transformer.getAsyncFileWriter();
+    OutputStream ostream;
+    SerializationHandler flistener;
+
     try
     {
-      SerializationHandler flistener = 
-        createSerializationHandler(transformer, ostream, file, format);
+      if (null != asyncWriter)
+      {
+        // The file is written in the background as it is serialized.
+        ostream = asyncWriter.open(file, append);
+        flistener =
+          createSerializationHandler(transformer, ostream, file, format);
+      }
+      else
+      {
+        // FileOutputStream ostream = new FileOutputStream(file);
+        // Patch from above line to below by <jpvdm@iafrica.com>
+        //  Note that in JDK 1.2.2 at least, FileOutputStream(File)
+        //  is implemented as a call to 
+        //  FileOutputStream(File.getPath, append), thus this should be 
+        //  the equivalent instead of getAbsolutePath()
+        FileOutputStream fostream = new FileOutputStream(file.getPath(), append);
+        ostream = fostream;
+        flistener =
+          createSerializationHandler(transformer, fostream, file, format);
+      }
         
       try
       {
@@ -487,4 +511,34 @@ public class Redirect
               format);
       return serializer;
   }
+
+  /**
+   * A class that extends this one could over-ride this public method and receive
+   * a callback for the creation of the serializer used in the redirection, when
+   * the files are written in the background.  The stream then hands what
+   * is written to it to a background thread, in chunks.
+   * @param transformer The transformer
+   * @param ostream The output stream that the serializer wraps
+   * @param file The file associated with the ostream
+   * @param format The format parameter used to create the serializer
+   * @return the serializer that the redirection will go to.
+   * 
+   * @throws java.io.IOException
+   * @throws TransformerException
+   * @see TransformerImpl#getAsyncFileWriter()
+   */
+  public SerializationHandler createSerializationHandler(
+        TransformerImpl transformer,
+        OutputStream ostream,
+        File file,
+        OutputProperties format) 
+        throws java.io.IOException, TransformerException
+  {
+
+      SerializationHandler serializer =
+          transformer.createSerializationHandler(
+              new StreamResult(ostream),
+              format);
+      return serializer;
+  }
 }
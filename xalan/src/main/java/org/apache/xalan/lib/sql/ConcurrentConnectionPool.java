@@ -0,0 +1,911 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xalan.lib.sql;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.xalan.res.XSLMessages;
+import org.apache.xalan.res.XSLTErrorResources;
+
+/**
+ * A connection pool for stylesheets that query the same database from
+ * many transformations at once.  Idle connections are kept in a lock free
+ * stack, so borrowing and returning a connection does not serialize the
+ * threads that use the pool the way the synchronized scans of the
+ * {@link DefaultConnectionPool} do.
+ *
+ * <p>The pool can bound the number of connections in use, and a thread
+ * that asks for a connection when all of them are in use waits up to the
+ * max wait time for one to be returned.  A connection is validated when
+ * it is borrowed, and connections that stay idle longer than the idle
+ * timeout are closed by a background thread, down to the minimum number
+ * of connections.  The pool counts what it does, see the get*Count
+ * methods.</p>
+ *
+ * <p>Like the default pool, the pool only keeps connections once it has
+ * been enabled.  It can be registered by name with the
+ * {@link ConnectionPoolManager}, or used for the connections that
+ * {@link XConnection} makes itself by setting the
+ * <code>org.apache.xalan.lib.sql.ConnectionPool</code> system property
+ * to the name of this class.</p>
+ */
+public class ConcurrentConnectionPool implements ConnectionPool
+{
+  /**
+   * The thread that closes the idle connections of all the pools.
+   */
+  private static ScheduledThreadPoolExecutor m_Evictor = null;
+
+  /**
+   * The driver, loaded when the first connection is made.
+   */
+  private volatile Driver m_Driver = null;
+
+  /**
+   * The basic information to make a JDBC Connection
+   */
+  private String m_driver = "";
+
+  /**
+   */
+  private String m_url = "";
+
+  /**
+   * The connection properties, including the user and password.
+   */
+  private Properties m_ConnectionProtocol = new Properties();
+
+  /**
+   * The number of connections the pool keeps when it is enabled.
+   */
+  private int m_PoolMinSize = 1;
+
+  /**
+   * The number of connections that may be in use at once, or 0 for no
+   * limit.
+   */
+  private int m_PoolMaxSize = 0;
+
+  /**
+   * How long to wait for a connection when m_PoolMaxSize are in use,
+   * in milliseconds, or a negative number to wait forever.
+   */
+  private long m_MaxWait = 30000;
+
+  /**
+   * How long a connection may stay idle before it is closed, in
+   * milliseconds, or 0 to keep idle connections.
+   */
+  private long m_IdleTimeout = 300000;
+
+  /**
+   * true to validate connections when they are borrowed.
+   */
+  private boolean m_ValidateOnBorrow = true;
+
+  /**
+   * The query that validates a connection, or null to ask the driver.
+   */
+  private String m_ValidationQuery = null;
+
+  /**
+   * How long validation may take, in seconds.
+   */
+  private int m_ValidationTimeout = 5;
+
+  /**
+   * The permits for connections in use, or null if there is no limit.
+   */
+  private volatile Semaphore m_Permits = null;
+
+  /**
+   * The idle connections, the most recently used first.
+   */
+  private final ConcurrentLinkedDeque m_Idle = new ConcurrentLinkedDeque();
+
+  /**
+   * The connections in use, each mapped by its Key to its
+   * PooledConnection.
+   */
+  private final ConcurrentHashMap m_InUse = new ConcurrentHashMap();
+
+  /**
+   * The task that closes idle connections, or null.
+   */
+  private ScheduledFuture m_EvictionTask = null;
+
+  /**
+   * Are we active ??
+   */
+  private volatile boolean m_IsActive = false;
+
+  /**
+   * Statistics.
+   */
+  private final AtomicInteger m_IdleCount = new AtomicInteger();
+  private final AtomicInteger m_PeakActive = new AtomicInteger();
+  private final AtomicLong m_Borrowed = new AtomicLong();
+  private final AtomicLong m_Created = new AtomicLong();
+  private final AtomicLong m_Closed = new AtomicLong();
+  private final AtomicLong m_Evicted = new AtomicLong();
+  private final AtomicLong m_ValidationFailures = new AtomicLong();
+  private final AtomicLong m_Timeouts = new AtomicLong();
+  private final AtomicLong m_WaitTime = new AtomicLong();
+
+  /**
+   */
+  public ConcurrentConnectionPool( ) {}
+
+  /**
+   * Return our current Active state
+   *
+   */
+  public boolean isEnabled( )
+  {
+    return m_IsActive;
+  }
+
+  /**
+   * Set the driver call to be used to create connections
+   * @param d
+   *
+   */
+  public void setDriver( String d )
+  {
+    m_driver = d;
+  }
+
+  /**
+   * Set the url used to connect to the database
+   * @param url
+   *
+   */
+  public void setURL( String url )
+  {
+    m_url = url;
+  }
+
+  /**
+   * Set the password in the property set.
+   * @param p
+   *
+   */
+  public void setPassword( String p )
+  {
+    m_ConnectionProtocol.put("password", p);
+  }
+
+  /**
+   * Set the user name in the property set
+   * @param u
+   *
+   */
+  public void setUser( String u )
+  {
+    m_ConnectionProtocol.put("user", u);
+  }
+
+  /**
+   * The Protocol string is used to pass in other connection
+   * properties. A properties file is a general purpose container
+   *
+   * @param p
+   *
+   */
+  public void setProtocol( Properties p )
+  {
+    Enumeration e = p.keys();
+    while (e.hasMoreElements())
+    {
+      String key = (String) e.nextElement();
+      m_ConnectionProtocol.put(key, p.getProperty(key));
+    }
+  }
+
+  /**
+   * Set the number of connections the pool keeps once it is enabled.
+   * Idle connections are not evicted below this number.
+   * @param n
+   *
+   */
+  public void setMinConnections( int n )
+  {
+    m_PoolMinSize = n;
+  }
+
+  /**
+   * Set the number of connections that may be in use at once. This
+   * must be set before the pool is used.
+   * @param n The limit, or 0 for no limit.
+   *
+   */
+  public synchronized void setMaxConnections( int n )
+  {
+    m_PoolMaxSize = Math.max(0, n);
+    m_Permits = (m_PoolMaxSize > 0) ? new Semaphore(m_PoolMaxSize) : null;
+  }
+
+  /**
+   * Set how long getConnection waits when the maximum number of
+   * connections are in use.
+   * @param ms The time in milliseconds, or a negative number to wait
+   * until a connection is returned.
+   *
+   */
+  public void setMaxWait( long ms )
+  {
+    m_MaxWait = ms;
+  }
+
+  /**
+   * Set how long a connection may stay idle before it is closed.
+   * @param ms The time in milliseconds, or 0 to keep idle connections
+   * until the pool is disabled.
+   *
+   */
+  public synchronized void setIdleTimeout( long ms )
+  {
+    m_IdleTimeout = Math.max(0, ms);
+
+    if (m_IsActive)
+    {
+      stopEviction();
+      startEviction();
+    }
+  }
+
+  /**
+   * Set whether connections are validated before they are handed out.
+   * A connection that fails validation is closed and replaced.
+   * @param flag
+   *
+   */
+  public void setValidateOnBorrow( boolean flag )
+  {
+    m_ValidateOnBorrow = flag;
+  }
+
+  /**
+   * Set the query used to validate connections. Without one, the
+   * connection is asked if it is still valid.
+   * @param query
+   *
+   */
+  public void setValidationQuery( String query )
+  {
+    m_ValidationQuery = query;
+  }
+
+  /**
+   * Set how long validating a connection may take.
+   * @param seconds
+   *
+   */
+  public void setValidationTimeout( int seconds )
+  {
+    m_ValidationTimeout = Math.max(0, seconds);
+  }
+
+  /**
+   * Try to aquire a new connection, if it succeeds then return
+   * true, else return false.
+   *
+   */
+  public boolean testConnection( )
+  {
+    try
+    {
+      Connection conn = getConnection();
+      releaseConnection(conn);
+      return true;
+    }
+    catch(Exception e)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Borrow a connection: the most recently returned idle connection that
+   * is still valid, or a new one.
+   *
+   * @return Connection
+   * @throws SQLException if a connection cannot be made, or none is
+   * returned within the max wait time.
+   * @throws IllegalArgumentException if the driver cannot be loaded.
+   */
+  public Connection getConnection( )throws IllegalArgumentException, SQLException
+  {
+    loadDriver();
+
+    Semaphore permits = m_Permits;
+    if (permits != null) acquire(permits);
+
+    try
+    {
+      PooledConnection pcon;
+      while ((pcon = (PooledConnection) m_Idle.pollFirst()) != null)
+      {
+        m_IdleCount.decrementAndGet();
+
+        if (! m_ValidateOnBorrow || isValid(pcon.getConnection())) break;
+
+        m_ValidationFailures.incrementAndGet();
+        close(pcon);
+      }
+
+      if (pcon == null)
+      {
+        pcon = new PooledConnection(createConnection());
+        m_Created.incrementAndGet();
+      }
+
+      pcon.setInUse(true);
+      m_InUse.put(new Key(pcon.getConnection()), pcon);
+      m_Borrowed.incrementAndGet();
+
+      int active = m_InUse.size();
+      int peak;
+      while (active > (peak = m_PeakActive.get())
+             && ! m_PeakActive.compareAndSet(peak, active)) {}
+
+      return pcon.getConnection();
+    }
+    catch (SQLException e)
+    {
+      if (permits != null) permits.release();
+      throw e;
+    }
+    catch (RuntimeException e)
+    {
+      if (permits != null) permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Return a connection to the pool. It is closed if the pool is not
+   * enabled.
+   * @param con
+   *
+   * @throws SQLException
+   */
+  public void releaseConnection( Connection con )throws SQLException
+  {
+    PooledConnection pcon = (PooledConnection) m_InUse.remove(new Key(con));
+    if (pcon == null) return;
+
+    pcon.setInUse(false);
+
+    if (m_IsActive)
+    {
+      pcon.setLastUsed(System.currentTimeMillis());
+      m_Idle.offerFirst(pcon);
+      m_IdleCount.incrementAndGet();
+
+      // The pool may have been disabled while the connection was
+      // being returned.
+      if (! m_IsActive) freeUnused();
+    }
+    else
+    {
+      close(pcon);
+    }
+
+    releasePermit();
+  }
+
+  /**
+   * Close a connection that had an error instead of returning it
+   * to the pool.
+   * @param con
+   *
+   * @throws SQLException
+   */
+  public void releaseConnectionOnError( Connection con )throws SQLException
+  {
+    PooledConnection pcon = (PooledConnection) m_InUse.remove(new Key(con));
+    if (pcon == null) return;
+
+    pcon.setInUse(false);
+    close(pcon);
+    releasePermit();
+  }
+
+  /**
+   * Close the idle connections.
+   *
+   */
+  public void freeUnused( )
+  {
+    PooledConnection pcon;
+    while ((pcon = (PooledConnection) m_Idle.pollFirst()) != null)
+    {
+      m_IdleCount.decrementAndGet();
+      close(pcon);
+    }
+  }
+
+  /**
+   * Does the pool hold any connections, idle or in use ??
+   *
+   */
+  public boolean hasActiveConnections( )
+  {
+    return ! m_InUse.isEmpty() || ! m_Idle.isEmpty();
+  }
+
+  /**
+   * The Pool can be Enabled and Disabled. Enabling the pool fills it
+   * to the minimum number of connections and starts the eviction of
+   * idle connections. Disabling the pool closes the idle connections,
+   * and connections are closed as they are returned.
+   *
+   * @param flag Control the Connection Pool.
+   *
+   */
+  public synchronized void setPoolEnabled( boolean flag )
+  {
+    if (flag == m_IsActive) return;
+
+    m_IsActive = flag;
+
+    if (flag)
+    {
+      try
+      {
+        initializePool();
+      }
+      catch (SQLException e)
+      {
+        // The error is reported again when a connection is requested.
+      }
+
+      startEviction();
+    }
+    else
+    {
+      stopEviction();
+      freeUnused();
+    }
+  }
+
+  /**
+   * Fill the pool with idle connections up to the minimum size.
+   *
+   * @throws IllegalArgumentException
+   * @throws SQLException
+   */
+  public void initializePool( )throws IllegalArgumentException, SQLException
+  {
+    if ( m_PoolMinSize < 1 )
+    {
+      throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_POOLSIZE_LESS_THAN_ONE, null));
+      // "Pool size is less than 1!");
+    }
+
+    loadDriver();
+
+    while (m_IsActive && m_IdleCount.get() + m_InUse.size() < m_PoolMinSize)
+    {
+      PooledConnection pcon = new PooledConnection(createConnection());
+      m_Created.incrementAndGet();
+
+      pcon.setLastUsed(System.currentTimeMillis());
+      m_Idle.offerLast(pcon);
+      m_IdleCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * @return The number of connections in use.
+   */
+  public int getActiveCount( )
+  {
+    return m_InUse.size();
+  }
+
+  /**
+   * @return The number of idle connections.
+   */
+  public int getIdleCount( )
+  {
+    return Math.max(0, m_IdleCount.get());
+  }
+
+  /**
+   * @return The largest number of connections that were in use at once.
+   */
+  public int getPeakActiveCount( )
+  {
+    return m_PeakActive.get();
+  }
+
+  /**
+   * @return The number of connections handed out by getConnection.
+   */
+  public long getBorrowedCount( )
+  {
+    return m_Borrowed.get();
+  }
+
+  /**
+   * @return The number of connections made.
+   */
+  public long getCreatedCount( )
+  {
+    return m_Created.get();
+  }
+
+  /**
+   * @return The number of connections closed, for any reason.
+   */
+  public long getClosedCount( )
+  {
+    return m_Closed.get();
+  }
+
+  /**
+   * @return The number of idle connections closed by the idle timeout.
+   */
+  public long getEvictedCount( )
+  {
+    return m_Evicted.get();
+  }
+
+  /**
+   * @return The number of connections that failed validation.
+   */
+  public long getValidationFailureCount( )
+  {
+    return m_ValidationFailures.get();
+  }
+
+  /**
+   * @return The number of requests that timed out waiting for a
+   * connection.
+   */
+  public long getTimeoutCount( )
+  {
+    return m_Timeouts.get();
+  }
+
+  /**
+   * @return The total time threads waited for a connection, in
+   * milliseconds.
+   */
+  public long getWaitTime( )
+  {
+    return m_WaitTime.get();
+  }
+
+  /**
+   * Summarize the statistics of the pool.
+   */
+  public String toString( )
+  {
+    return "ConcurrentConnectionPool[" + m_url
+      + " active=" + getActiveCount()
+      + " idle=" + getIdleCount()
+      + " peak=" + getPeakActiveCount()
+      + " borrowed=" + getBorrowedCount()
+      + " created=" + getCreatedCount()
+      + " closed=" + getClosedCount()
+      + " evicted=" + getEvictedCount()
+      + " invalid=" + getValidationFailureCount()
+      + " timeouts=" + getTimeoutCount()
+      + " waitms=" + getWaitTime() + "]";
+  }
+
+  /**
+   * Take a permit for a connection, waiting up to the max wait time.
+   *
+   * @param permits
+   * @throws SQLException
+   */
+  private void acquire( Semaphore permits )throws SQLException
+  {
+    if (permits.tryAcquire()) return;
+
+    long start = System.currentTimeMillis();
+
+    try
+    {
+      if (m_MaxWait < 0)
+      {
+        permits.acquire();
+      }
+      else if (! permits.tryAcquire(m_MaxWait, TimeUnit.MILLISECONDS))
+      {
+        m_Timeouts.incrementAndGet();
+        throw new SQLException(XSLMessages.createMessage(
+          XSLTErrorResources.ER_POOL_WAIT_TIMEOUT,
+          new Object[]{ Long.toString(m_MaxWait) }));
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new SQLException(XSLMessages.createMessage(
+        XSLTErrorResources.ER_POOL_INTERRUPTED, null));
+    }
+    finally
+    {
+      m_WaitTime.addAndGet(System.currentTimeMillis() - start);
+    }
+  }
+
+  /**
+   * Give back the permit of a connection that was in use.
+   */
+  private void releasePermit( )
+  {
+    Semaphore permits = m_Permits;
+    if (permits != null) permits.release();
+  }
+
+  /**
+   * Load the driver, once.
+   *
+   * @throws IllegalArgumentException
+   */
+  private void loadDriver( )throws IllegalArgumentException
+  {
+    if (m_Driver != null) return;
+
+    synchronized (this)
+    {
+      if (m_Driver != null) return;
+
+      if ( m_driver == null )
+      {
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_NO_DRIVER_NAME_SPECIFIED, null));
+        // "No Driver Name Specified!");
+      }
+
+      if ( m_url == null )
+      {
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_NO_URL_SPECIFIED, null));
+        // "No URL Specified!");
+      }
+
+      try
+      {
+        Driver driver = (Driver) ObjectFactory.newInstance(
+          m_driver, ObjectFactory.findClassLoader(), true);
+
+        DriverManager.registerDriver(driver);
+        m_Driver = driver;
+      }
+      catch(Exception e)
+      {
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_INVALID_DRIVER_NAME, null));
+        // "Invalid Driver Name Specified!");
+      }
+    }
+  }
+
+  /**
+   *
+   * @throws SQLException
+   */
+  private Connection createConnection( )throws SQLException
+  {
+    // Create a Connection directly from the Driver that was loaded
+    // with the context class loader.
+    Connection con = m_Driver.connect(m_url, m_ConnectionProtocol);
+
+    if (con == null)
+    {
+      throw new SQLException(XSLMessages.createMessage(XSLTErrorResources.ER_INVALID_DRIVER_NAME, null));
+    }
+
+    return con;
+  }
+
+  /**
+   * Check that an idle connection can still be used.
+   *
+   * @param con
+   */
+  private boolean isValid( Connection con )
+  {
+    try
+    {
+      if (con.isClosed()) return false;
+
+      if (m_ValidationQuery == null)
+      {
+        try
+        {
+          return con.isValid(m_ValidationTimeout);
+        }
+        catch (AbstractMethodError e)
+        {
+          // A JDBC 3 driver, isClosed() will have to do.
+          return true;
+        }
+        catch (SQLFeatureNotSupportedException e)
+        {
+          return true;
+        }
+      }
+
+      Statement stmt = con.createStatement();
+      try
+      {
+        stmt.setQueryTimeout(m_ValidationTimeout);
+        stmt.execute(m_ValidationQuery);
+      }
+      finally
+      {
+        stmt.close();
+      }
+
+      return true;
+    }
+    catch (SQLException e)
+    {
+      return false;
+    }
+  }
+
+  /**
+   * Close a connection that has left the pool.
+   *
+   * @param pcon
+   */
+  private void close( PooledConnection pcon )
+  {
+    m_Closed.incrementAndGet();
+    pcon.close();
+  }
+
+  /**
+   * Close the connections that have been idle longer than the idle
+   * timeout, leaving at least the minimum number of connections.
+   */
+  void evictIdle( )
+  {
+    long expired = System.currentTimeMillis() - m_IdleTimeout;
+
+    // The oldest connections are at the end of the deque.
+    Iterator i = m_Idle.descendingIterator();
+    while (i.hasNext())
+    {
+      PooledConnection pcon = (PooledConnection) i.next();
+
+      if (pcon.getLastUsed() > expired) break;
+      if (m_IdleCount.get() + m_InUse.size() <= m_PoolMinSize) break;
+
+      // Only one of the evictor and a borrowing thread can remove it.
+      if (m_Idle.removeLastOccurrence(pcon))
+      {
+        m_IdleCount.decrementAndGet();
+        m_Evicted.incrementAndGet();
+        close(pcon);
+      }
+    }
+  }
+
+  /**
+   * Schedule the eviction of idle connections.
+   */
+  private synchronized void startEviction( )
+  {
+    if (m_IdleTimeout <= 0 || m_EvictionTask != null) return;
+
+    long period = Math.max(1000, m_IdleTimeout / 2);
+
+    m_EvictionTask = getEvictor().scheduleWithFixedDelay(new Runnable()
+    {
+      public void run()
+      {
+        evictIdle();
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Cancel the eviction of idle connections.
+   */
+  private synchronized void stopEviction( )
+  {
+    if (m_EvictionTask == null) return;
+
+    m_EvictionTask.cancel(false);
+    m_EvictionTask = null;
+  }
+
+  /**
+   * Return the thread that evicts the idle connections of all the
+   * pools, starting it if needed.
+   */
+  private static synchronized ScheduledThreadPoolExecutor getEvictor( )
+  {
+    if (m_Evictor == null)
+    {
+      m_Evictor = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+      {
+        public Thread newThread(Runnable r)
+        {
+          Thread t = new Thread(r, "Xalan connection pool evictor");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      m_Evictor.setRemoveOnCancelPolicy(true);
+    }
+
+    return m_Evictor;
+  }
+
+  /**
+   * Identifies a connection in use. Connections are compared by
+   * identity, whatever the driver does with equals() and hashCode().
+   */
+  private static final class Key
+  {
+    /**
+     */
+    private final Connection m_con;
+
+    /**
+     * @param con
+     */
+    Key( Connection con )
+    {
+      m_con = con;
+    }
+
+    /**
+     */
+    public int hashCode( )
+    {
+      return System.identityHashCode(m_con);
+    }
+
+    /**
+     * @param o
+     */
+    public boolean equals( Object o )
+    {
+      return (o instanceof Key) && ((Key) o).m_con == m_con;
+    }
+  }
+}
@@ -110,14 +110,15 @@ public class ConnectionPoolManager
 
 
   /**
-   * Return the connection pool referenced by the name
+   * Return the connection pool referenced by the name. The pool table
+   * is a Hashtable, so lookups do not need to hold the manager lock.
    * @param name
    *
    * @return <code>ConnectionPool</code> a reference to the ConnectionPool
    * object stored in the Pool Table. If the named pool does not exist, return
    * null
    */
-  public synchronized ConnectionPool getPool( String name )
+  public ConnectionPool getPool( String name )
   {
     return (ConnectionPool) m_poolTable.get(name);
   }
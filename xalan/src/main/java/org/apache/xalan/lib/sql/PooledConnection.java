@@ -37,6 +37,11 @@ public class PooledConnection
    */
   private boolean inuse = false;
 
+  // The time the connection was last returned to the pool
+  /**
+   */
+  private long lastused = 0;
+
   // Constructor that takes the passed in JDBC Connection
   // and stores it in the connection attribute.
   /**
@@ -74,6 +79,23 @@ public class PooledConnection
    */
   public boolean inUse( ) { return inuse; }
 
+  /**
+   * Record when the connection was returned to the pool.
+   *
+   * @param value The time in milliseconds.
+   *
+   */
+  public void setLastUsed( long value )
+  {
+    lastused = value;
+  }
+
+  /**
+   * Returns the time the connection was last returned to the pool.
+   *
+   */
+  public long getLastUsed( ) { return lastused; }
+
   /**
    *  Close the real JDBC Connection
    *
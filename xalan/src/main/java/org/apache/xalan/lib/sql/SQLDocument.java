@@ -275,6 +275,43 @@ public class SQLDocument extends DTMDocument
    */
   private boolean m_StreamingMode = true;
 
+  /**
+   * Windowed Streaming Mode Control. In Windowed Streaming mode the last
+   * m_RowWindow rows are kept in the document, so a row can still look
+   * back at the rows just before it. Once the window is full the row
+   * instances are reused, so the memory footprint is constant. 0 if the
+   * rows are not windowed.
+   */
+  private int m_RowWindow = 0;
+
+  /**
+   * The row elements of the window, in document order. Once the window is
+   * full, the newest row is always held by the last of them.
+   */
+  private int[] m_WindowRows = null;
+
+  /**
+   * The number of row elements of the current row-set in the window.
+   */
+  private int m_WindowCount = 0;
+
+  /**
+   * The JDBC fetch size hint for the statement, or 0 to use the driver's
+   * default.
+   */
+  private int m_FetchSize = 0;
+
+  /**
+   * The number of rows fetched from the database.
+   */
+  private long m_RowsFetched = 0;
+
+  /**
+   * An estimate of the number of bytes of the column values fetched from
+   * the database.
+   */
+  private long m_BytesFetched = 0;
+
   /**
    * Multiple Result sets mode (metadata inside rowset).
    */
@@ -362,6 +399,11 @@ public class SQLDocument extends DTMDocument
     try
     {
       m_StreamingMode = "true".equals(xconn.getFeature("streaming"));
+      m_FetchSize = Integer.parseInt(xconn.getFeature("fetch-size"));
+
+      // A window of a single row is the plain streaming mode.
+      int window = Integer.parseInt(xconn.getFeature("streaming-window"));
+      m_RowWindow = (m_StreamingMode && window > 1) ? window : 0;
       m_MultipleResults = "true".equals(xconn.getFeature("multiple-results"));
       m_IsStatementCachingEnabled = "true".equals(xconn.getFeature("cache-statements"));
       m_XConnection = xconn;
@@ -405,6 +447,7 @@ public class SQLDocument extends DTMDocument
     if (! m_QueryParser.hasParameters() )
     {
       m_Statement = conn.createStatement();
+      if (m_FetchSize > 0) m_Statement.setFetchSize(m_FetchSize);
       m_ResultSet = m_Statement.executeQuery(m_QueryParser.getSQLQuery());
 
 
@@ -417,6 +460,7 @@ public class SQLDocument extends DTMDocument
       m_QueryParser.registerOutputParameters(cstmt);
       m_QueryParser.populateStatement(cstmt, m_ExpressionContext);
       m_Statement = cstmt;
+      if (m_FetchSize > 0) m_Statement.setFetchSize(m_FetchSize);
       if (! cstmt.execute()) throw new SQLException("Error in Callable Statement");
 
       m_ResultSet = m_Statement.getResultSet();
@@ -427,6 +471,7 @@ public class SQLDocument extends DTMDocument
         conn.prepareStatement(m_QueryParser.getSQLQuery());
       m_QueryParser.populateStatement(stmt, m_ExpressionContext);
       m_Statement = stmt;
+      if (m_FetchSize > 0) m_Statement.setFetchSize(m_FetchSize);
       m_ResultSet = stmt.executeQuery();
     }
 
@@ -864,13 +909,23 @@ public class SQLDocument extends DTMDocument
 
         m_LastRowIdx = m_FirstRowIdx;
 
-        if (m_StreamingMode)
+        if (m_RowWindow > 0)
+        {
+          m_WindowRows = new int[m_RowWindow];
+          m_WindowRows[0] = m_FirstRowIdx;
+          m_WindowCount = 1;
+        }
+        else if (m_StreamingMode)
         {
           // Let's tie the rows together until the end.
           m_nextsib.setElementAt(m_LastRowIdx, m_LastRowIdx);
         }
 
       }
+      else if (m_RowWindow > 0)
+      {
+        m_LastRowIdx = addWindowRow();
+      }
       else
       {
         //
@@ -888,12 +943,15 @@ public class SQLDocument extends DTMDocument
       // Keep Track of who our parent was when adding new col objects.
       int pcolID = DTM.NULL;
 
+      m_RowsFetched++;
+
       // Columns in JDBC Start at 1 and go to the Extent
       for (int i=1; i<= m_ColCount; i++)
       {
         // Just grab the Column Object Type, we will convert it to a string
         // later.
         Object o = m_ResultSet.getObject(i);
+        m_BytesFetched += estimateSize(o);
 
         // Create a new column object if one does not exist.
         // In Streaming mode, this mechinism will reuse the column
@@ -945,6 +1003,77 @@ public class SQLDocument extends DTMDocument
   }
 
 
+  /**
+   * Make the row element for the next row in Windowed Streaming mode.
+   * Until the window is full a new row element is added after the last
+   * one. After that the column values of each row are moved to the row
+   * element before it, dropping the oldest row, and the last row element
+   * is returned to be overwritten with the new data. The row elements
+   * keep their node identities, so document order stays the order of the
+   * rows; the last one points back to itself until all the data was read,
+   * as in Streaming mode.
+   * @return The row element.
+   */
+  private int addWindowRow( )
+  {
+    if (m_WindowCount < m_RowWindow)
+    {
+      int row = addElement(2, m_Row_TypeID, m_RowSetIdx, m_LastRowIdx);
+      m_WindowRows[m_WindowCount++] = row;
+
+      // The window is full, so tie the last row to itself until the end.
+      if (m_WindowCount == m_RowWindow) m_nextsib.setElementAt(row, row);
+
+      return row;
+    }
+
+    for (int i = 1; i < m_RowWindow; i++)
+    {
+      int to = _firstch(m_WindowRows[i - 1]);
+      int from = _firstch(m_WindowRows[i]);
+
+      while (to != DTM.NULL && from != DTM.NULL)
+      {
+        m_ObjectArray.setAt(_firstch(to), m_ObjectArray.getAt(_firstch(from)));
+        to = _nextsib(to);
+        from = _nextsib(from);
+      }
+    }
+
+    return m_LastRowIdx;
+  }
+
+  /**
+   * Estimate the number of bytes a column value took to fetch: two bytes
+   * per character of a string, the length of a binary value, and eight
+   * bytes for any other value.
+   * @param o The column value.
+   */
+  private static long estimateSize( Object o )
+  {
+    if (o == null) return 0;
+    if (o instanceof String) return 2L * ((String) o).length();
+    if (o instanceof byte[]) return ((byte[]) o).length;
+    return 8;
+  }
+
+  /**
+   * @return The number of rows fetched from the database so far.
+   */
+  public long getRowsFetched( )
+  {
+    return m_RowsFetched;
+  }
+
+  /**
+   * @return An estimate of the number of bytes of the column values
+   * fetched from the database so far.
+   */
+  public long getBytesFetched( )
+  {
+    return m_BytesFetched;
+  }
+
   /**
    * Used by the XConnection to determine if the Document should
    * handle the document differently.
@@ -1047,9 +1176,12 @@ public class SQLDocument extends DTMDocument
         addRowToDTMFromResultSet();
       }
       
+      // In Windowed Streaming mode the row elements are reused, so
+      // only the last row is known to be the end of the rows read.
       if (
         ( id == m_Row_TypeID) &&
-        (identity >= m_LastRowIdx) )
+        (m_RowWindow > 0 ? identity == m_LastRowIdx
+                         : identity >= m_LastRowIdx) )
       {
         if (DEBUG) System.out.println("reading from the ResultSet");
         addRowToDTMFromResultSet();
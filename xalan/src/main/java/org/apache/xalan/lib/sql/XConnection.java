@@ -168,6 +168,18 @@ public class XConnection
    */
   private boolean m_IsStreamingEnabled = true;
 
+  /**
+   * The number of rows an SQLDocument keeps in Streaming Mode. With more
+   * than one row, the rows just before the current one can still be
+   * visited, while the memory footprint stays fixed.
+   */
+  private int m_StreamingWindow = 1;
+
+  /**
+   * The JDBC fetch size hint for queries, or 0 for the driver's default.
+   */
+  private int m_FetchSize = 0;
+
   /**
    *
    */
@@ -605,10 +617,7 @@ public class XConnection
       }
 
 
-      DefaultConnectionPool defpool = new DefaultConnectionPool();
-
-      if ((DEBUG) && (defpool == null))
-        System.out.println("Failed to Create a Default Connection Pool");
+      ConnectionPool defpool = createDefaultPool();
 
       defpool.setDriver(driver);
       defpool.setURL(dbURL);
@@ -651,6 +660,34 @@ public class XConnection
     }
   }
 
+  /**
+   * Create the pool for connections made from a driver and URL.
+   * This is a DefaultConnectionPool, unless the
+   * org.apache.xalan.lib.sql.ConnectionPool system property or service
+   * names another ConnectionPool class, such as
+   * org.apache.xalan.lib.sql.ConcurrentConnectionPool.
+   */
+  private ConnectionPool createDefaultPool( )
+  {
+    try
+    {
+      return (ConnectionPool) ObjectFactory.createObject(
+        "org.apache.xalan.lib.sql.ConnectionPool",
+        "org.apache.xalan.lib.sql.DefaultConnectionPool");
+    }
+    catch (ObjectFactory.ConfigurationError e)
+    {
+      if (DEBUG)
+        System.out.println("Failed to Create the Connection Pool " + e);
+
+      return new DefaultConnectionPool();
+    }
+    catch (ClassCastException e)
+    {
+      return new DefaultConnectionPool();
+    }
+  }
+
   /**
    * Allow the SQL Document to retrive a connection to be used
    * to build the SQL Statement.
@@ -832,6 +869,33 @@ public class XConnection
     if (sqldoc != null) sqldoc.skip(value);
   }
 
+  /**
+   * Get the number of rows a query has fetched from the database so far.
+   * 
+   * @param exprContext
+   * @param o The document returned by the query.
+   * @return The number of rows, or -1 if o is not a query document.
+   */
+  public long getRowsFetched( ExpressionContext exprContext, Object o )
+  {
+    SQLDocument sqldoc = locateSQLDocument( exprContext, o);
+    return (sqldoc != null) ? sqldoc.getRowsFetched() : -1;
+  }
+
+  /**
+   * Get an estimate of the number of bytes of the column values a query
+   * has fetched from the database so far.
+   * 
+   * @param exprContext
+   * @param o The document returned by the query.
+   * @return The number of bytes, or -1 if o is not a query document.
+   */
+  public long getBytesFetched( ExpressionContext exprContext, Object o )
+  {
+    SQLDocument sqldoc = locateSQLDocument( exprContext, o);
+    return (sqldoc != null) ? sqldoc.getBytesFetched() : -1;
+  }
+
   
 
   private void addTypeToData(String typeInfo)
@@ -1326,8 +1390,9 @@ public class XConnection
 
   /**
    * Set feature options for this XConnection.
-   * @param feature The name of the feature being set, currently supports (streaming, inline-variables, multiple-results, cache-statements, default-pool-enabled).
+   * @param feature The name of the feature being set, currently supports (streaming, streaming-window, fetch-size, inline-variables, multiple-results, cache-statements, default-pool-enabled).
    * @param setting The new setting for the specified feature, currently "true" is true and anything else is false.
+   * For streaming-window and fetch-size, the setting is a number.
    *
    */
   public void setFeature(String feature, String setting)
@@ -1340,6 +1405,22 @@ public class XConnection
     {
       m_IsStreamingEnabled = value;
     }
+    else if ( "streaming-window".equalsIgnoreCase(feature) )
+    {
+      try
+      {
+        m_StreamingWindow = Math.max(1, Integer.parseInt(setting));
+      }
+      catch (NumberFormatException e) {}
+    }
+    else if ( "fetch-size".equalsIgnoreCase(feature) )
+    {
+      try
+      {
+        m_FetchSize = Math.max(0, Integer.parseInt(setting));
+      }
+      catch (NumberFormatException e) {}
+    }
     else if ( "inline-variables".equalsIgnoreCase(feature) )
     {
       m_InlineVariables = value;
@@ -1370,7 +1451,7 @@ public class XConnection
   /**
    * Get feature options for this XConnection.
    * @param feature The name of the feature to get the setting for.
-   * @return The setting of the specified feature. Will be "true" or "false" (null if the feature is not known)
+   * @return The setting of the specified feature. Will be "true" or "false", or a number for streaming-window and fetch-size (null if the feature is not known)
    */
   public String getFeature(String feature)
   {
@@ -1378,6 +1459,10 @@ public class XConnection
 
     if ( "streaming".equalsIgnoreCase(feature) )
       value = m_IsStreamingEnabled ? "true" : "false";
+    else if ( "streaming-window".equalsIgnoreCase(feature) )
+      value = String.valueOf(m_StreamingWindow);
+    else if ( "fetch-size".equalsIgnoreCase(feature) )
+      value = String.valueOf(m_FetchSize);
     else if ( "inline-variables".equalsIgnoreCase(feature) )
       value = m_InlineVariables ? "true" : "false";
     else if ( "multiple-results".equalsIgnoreCase(feature) )
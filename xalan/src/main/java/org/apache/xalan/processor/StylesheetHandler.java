@@ -84,6 +84,21 @@ public class StylesheetHandler extends DefaultHandler
    * The flag for the setting of the source_location feature;
    */
   private boolean m_source_location = false;
+
+  /**
+   * The setting of the sort memory budget attribute;
+   */
+  private long m_sortMemoryBudget = 0;
+
+  /**
+   * The setting of the output writer threads attribute;
+   */
+  private int m_outputWriterThreads = 0;
+
+  /**
+   * The setting of the output sync batch attribute;
+   */
+  private int m_outputSyncBatch = 0;
   
   /**
    * Create a StylesheetHandler object, creating a root stylesheet
@@ -112,6 +127,12 @@ public class StylesheetHandler extends DefaultHandler
             TransformerFactoryImpl.FEATURE_INCREMENTAL)).booleanValue();
     m_source_location = ((Boolean) processor.getAttribute(
             TransformerFactoryImpl.FEATURE_SOURCE_LOCATION)).booleanValue();
+    m_sortMemoryBudget = ((Long) processor.getAttribute(
+            TransformerFactoryImpl.ATTRIBUTE_SORT_MEMORY_BUDGET)).longValue();
+    m_outputWriterThreads = ((Integer) processor.getAttribute(
+            TransformerFactoryImpl.ATTRIBUTE_OUTPUT_WRITER_THREADS)).intValue();
+    m_outputSyncBatch = ((Integer) processor.getAttribute(
+            TransformerFactoryImpl.ATTRIBUTE_OUTPUT_SYNC_BATCH)).intValue();
     // m_schema = new XSLTSchema();
     init(processor);
     
@@ -1196,6 +1217,9 @@ public class StylesheetHandler extends DefaultHandler
         m_stylesheetRoot.setOptimizer(m_optimize);
         m_stylesheetRoot.setIncremental(m_incremental);
         m_stylesheetRoot.setSource_location(m_source_location);  		
+        m_stylesheetRoot.setSortMemoryBudget(m_sortMemoryBudget);
+        m_stylesheetRoot.setOutputWriterThreads(m_outputWriterThreads);
+        m_stylesheetRoot.setOutputSyncBatch(m_outputSyncBatch);
     }
     return m_stylesheetRoot;
   }
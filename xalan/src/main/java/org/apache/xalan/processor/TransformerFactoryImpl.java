@@ -96,6 +96,18 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
   public static final String FEATURE_SOURCE_LOCATION =
                              XalanProperties.SOURCE_LOCATION;
 
+  /** Static string to be used for the sort memory budget attribute */
+  public static final String ATTRIBUTE_SORT_MEMORY_BUDGET =
+                             XalanProperties.SORT_MEMORY_BUDGET;
+
+  /** Static string to be used for the output writer threads attribute */
+  public static final String ATTRIBUTE_OUTPUT_WRITER_THREADS =
+                             XalanProperties.OUTPUT_WRITER_THREADS;
+
+  /** Static string to be used for the output sync batch attribute */
+  public static final String ATTRIBUTE_OUTPUT_SYNC_BATCH =
+                             XalanProperties.OUTPUT_SYNC_BATCH;
+
   public javax.xml.transform.Templates processFromNode(Node node)
           throws TransformerConfigurationException
   {
@@ -491,6 +503,29 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
    * default this attribute is set to false. 
    */
   private boolean m_incremental = false;
+
+  /**
+   * Value set by ATTRIBUTE_SORT_MEMORY_BUDGET.
+   * The number of bytes the sort keys of an xsl:sort may use before the
+   * nodes are sorted in runs spilled to temporary files. By default it is
+   * 0, and nodes are always sorted in memory.
+   */
+  private long m_sortMemoryBudget = 0;
+
+  /**
+   * Value set by ATTRIBUTE_OUTPUT_WRITER_THREADS.
+   * The number of threads that write the files of the Redirect extension
+   * in the background. By default it is 0, and the files are written by
+   * the transformation itself.
+   */
+  private int m_outputWriterThreads = 0;
+
+  /**
+   * Value set by ATTRIBUTE_OUTPUT_SYNC_BATCH.
+   * The number of files written in the background that are synced to the
+   * storage device together. By default it is 0, and files are not synced.
+   */
+  private int m_outputSyncBatch = 0;
   
   /**
    * Allows the user to set specific attributes on the underlying
@@ -566,12 +601,84 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
       }
     }
     
+    else if (name.equals(ATTRIBUTE_SORT_MEMORY_BUDGET))
+    {
+      try
+      {
+        if(value instanceof Number)
+        {
+          // Accept a Number object..
+          m_sortMemoryBudget = ((Number)value).longValue();
+        }
+        else if(value instanceof String)
+        {
+          // .. or a String object
+          m_sortMemoryBudget = Long.parseLong(((String)value).trim());
+        }
+        else
+        {
+          throw new NumberFormatException();
+        }
+      }
+      catch (NumberFormatException nfe)
+      {
+        // Give a more meaningful error message
+        throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+      }
+    }
+    
+    else if (name.equals(ATTRIBUTE_OUTPUT_WRITER_THREADS))
+    {
+      m_outputWriterThreads = toInt(name, value);
+    }
+    
+    else if (name.equals(ATTRIBUTE_OUTPUT_SYNC_BATCH))
+    {
+      m_outputSyncBatch = toInt(name, value);
+    }
+    
     else
     {
       throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_NOT_SUPPORTED, new Object[]{name})); //name + "not supported");
     }
   }
 
+  /**
+   * Get the value of an integer attribute.
+   *
+   * @param name The name of the attribute.
+   * @param value A Number or String object.
+   * @return The value as a non-negative int.
+   *
+   * @throws IllegalArgumentException if the value is not a non-negative
+   * integer.
+   */
+  private static int toInt(String name, Object value)
+    throws IllegalArgumentException
+  {
+    try
+    {
+      int i;
+
+      if(value instanceof Number)
+        i = ((Number)value).intValue();
+      else if(value instanceof String)
+        i = Integer.parseInt(((String)value).trim());
+      else
+        throw new NumberFormatException();
+
+      if (i < 0)
+        throw new NumberFormatException();
+
+      return i;
+    }
+    catch (NumberFormatException nfe)
+    {
+      // Give a more meaningful error message
+      throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_BAD_VALUE, new Object[]{name, value})); //name + " bad value " + value);
+    }
+  }
+
   /**
    * Allows the user to retrieve specific attributes on the underlying
    * implementation.
@@ -596,6 +703,18 @@ public class TransformerFactoryImpl extends SAXTransformerFactory
     {
       return m_source_location ? Boolean.TRUE : Boolean.FALSE;
     }
+    else if (name.equals(ATTRIBUTE_SORT_MEMORY_BUDGET))
+    {
+      return new Long(m_sortMemoryBudget);
+    }
+    else if (name.equals(ATTRIBUTE_OUTPUT_WRITER_THREADS))
+    {
+      return new Integer(m_outputWriterThreads);
+    }
+    else if (name.equals(ATTRIBUTE_OUTPUT_SYNC_BATCH))
+    {
+      return new Integer(m_outputSyncBatch);
+    }
     else
       throw new IllegalArgumentException(XSLMessages.createMessage(XSLTErrorResources.ER_ATTRIB_VALUE_NOT_RECOGNIZED, new Object[]{name})); //name + " attribute not recognized");
   }
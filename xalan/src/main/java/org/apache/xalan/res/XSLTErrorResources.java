@@ -366,6 +366,8 @@ public class XSLTErrorResources extends ListResourceBundle
   public static final String ER_POOLSIZE_LESS_THAN_ONE = 
 	 "ER_POOLSIZE_LESS_THAN_ONE";
   public static final String ER_INVALID_DRIVER_NAME = "ER_INVALID_DRIVER_NAME";
+  public static final String ER_POOL_WAIT_TIMEOUT = "ER_POOL_WAIT_TIMEOUT";
+  public static final String ER_POOL_INTERRUPTED = "ER_POOL_INTERRUPTED";
   public static final String ER_ERRORLISTENER = "ER_ERRORLISTENER";
   public static final String ER_ASSERT_NO_TEMPLATE_PARENT = 
 	 "ER_ASSERT_NO_TEMPLATE_PARENT";
@@ -1040,6 +1042,12 @@ public class XSLTErrorResources extends ListResourceBundle
     { ER_INVALID_DRIVER_NAME,
      "Invalid Driver Name Specified!"},
 
+    { ER_POOL_WAIT_TIMEOUT,
+     "Timed out after {0} ms waiting for a connection from the pool"},
+
+    { ER_POOL_INTERRUPTED,
+     "Interrupted while waiting for a connection from the pool"},
+
     { ER_ERRORLISTENER,
      "ErrorListener"},
 
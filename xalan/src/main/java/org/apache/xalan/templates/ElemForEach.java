@@ -301,6 +301,7 @@ public class ElemForEach extends ElemTemplateElement implements ExpressionOwner
   {
 
     NodeSorter sorter = new NodeSorter(xctxt);
+    sorter.setMemoryBudget(getStylesheetRoot().getSortMemoryBudget());
     sourceNodes.setShouldCacheNodes(true);
     sourceNodes.runTo(-1);
     xctxt.pushContextNodeList(sourceNodes);
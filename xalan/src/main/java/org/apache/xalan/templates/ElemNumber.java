@@ -42,9 +42,15 @@ import org.apache.xml.utils.res.CharArrayWrapper;
 import org.apache.xml.utils.res.IntArrayWrapper;
 import org.apache.xml.utils.res.LongArrayWrapper;
 import org.apache.xml.utils.res.StringArrayWrapper;
+import org.apache.xpath.ExpressionOwner;
 import org.apache.xpath.NodeSetDTM;
 import org.apache.xpath.XPath;
 import org.apache.xpath.XPathContext;
+import org.apache.xpath.XPathVisitor;
+import org.apache.xpath.functions.FuncCurrent;
+import org.apache.xpath.functions.FuncExtFunction;
+import org.apache.xpath.functions.Function;
+import org.apache.xpath.operations.Variable;
 import org.apache.xpath.objects.XObject;
 
 import org.w3c.dom.Node;
@@ -520,6 +526,64 @@ public class ElemNumber extends ElemTemplateElement
       m_lettervalue_avt.fixupVariables(vnames, cstate.getGlobalsSize());
     if(null != m_valueExpr)
       m_valueExpr.fixupVariables(vnames, cstate.getGlobalsSize());
+
+    m_countIndexable = isContextFree(m_countMatchPattern)
+                       && isContextFree(m_fromMatchPattern);
+  }
+
+  /**
+   * True if the count and from patterns give the same answer for a node
+   * wherever xsl:number is evaluated, so that counts may be looked up in
+   * an index built once per document.
+   * @serial
+   */
+  private boolean m_countIndexable = false;
+
+  /**
+   * Tell if the nodes counted by this element may be looked up in a
+   * per-document index, rather than found by walking the tree on every
+   * evaluation.  This is the case unless the count or from pattern refers
+   * to variables, current() or extension functions.
+   *
+   * @return true if a count index may be used.
+   */
+  public boolean isCountIndexable()
+  {
+    return m_countIndexable;
+  }
+
+  /**
+   * Tell if a pattern depends only on the node it is matched against.
+   *
+   * @param pattern The pattern, which may be null.
+   *
+   * @return false if the pattern refers to variables, current() or
+   * extension functions.
+   */
+  private static boolean isContextFree(XPath pattern)
+  {
+    if (null == pattern)
+      return true;
+
+    final boolean[] contextFree = { true };
+
+    pattern.getExpression().callVisitors(pattern, new XPathVisitor()
+    {
+      public boolean visitVariableRef(ExpressionOwner owner, Variable var)
+      {
+        contextFree[0] = false;
+        return false;
+      }
+
+      public boolean visitFunction(ExpressionOwner owner, Function func)
+      {
+        if (func instanceof FuncCurrent || func instanceof FuncExtFunction)
+          contextFree[0] = false;
+        return contextFree[0];
+      }
+    });
+
+    return contextFree[0];
   }
 
 
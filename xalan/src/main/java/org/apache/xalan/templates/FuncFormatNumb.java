@@ -20,6 +20,9 @@
  */
 package org.apache.xalan.templates;
 
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.TransformerException;
 
@@ -42,6 +45,20 @@ public class FuncFormatNumb extends Function3Args
 {
     static final long serialVersionUID = -8869935264870858636L;
 
+  /**
+   * The symbols used when the stylesheet declares no default
+   * decimal-format.  They are only read.
+   */
+  private static final DecimalFormatSymbols DEFAULT_SYMBOLS;
+
+  static
+  {
+    DEFAULT_SYMBOLS = new DecimalFormatSymbols(Locale.US);
+
+    DEFAULT_SYMBOLS.setInfinity(Constants.ATTRVAL_INFINITY);
+    DEFAULT_SYMBOLS.setNaN(Constants.ATTRVAL_NAN);
+  }
+
   /**
    * Execute the function.  The function must return
    * a valid object.
@@ -57,8 +74,7 @@ public class FuncFormatNumb extends Function3Args
     ElemTemplateElement templElem =
       (ElemTemplateElement) xctxt.getNamespaceContext();
     StylesheetRoot ss = templElem.getStylesheetRoot();
-    java.text.DecimalFormat formatter = null;
-    java.text.DecimalFormatSymbols dfs = null;
+    DecimalFormatSymbols dfs = null;
     double num = getArg0().execute(xctxt).num();
     String patternStr = getArg1().execute(xctxt).str();
 
@@ -83,51 +99,23 @@ public class FuncFormatNumb extends Function3Args
         {
           warn(xctxt, XSLTErrorResources.WG_NO_DECIMALFORMAT_DECLARATION,
                new Object[]{ dfName });  //"not found!!!
-
-          //formatter = new java.text.DecimalFormat(patternStr);
-        }
-        else
-        {
-
-          //formatter = new java.text.DecimalFormat(patternStr, dfs);
-          formatter = new java.text.DecimalFormat();
-
-          formatter.setDecimalFormatSymbols(dfs);
-          formatter.applyLocalizedPattern(patternStr);
         }
       }
 
       //else
-      if (null == formatter)
+      if (null == dfs)
       {
 
         // look for a possible default decimal-format
         dfs = ss.getDecimalFormatComposed(new QName(""));
 
-        if (dfs != null)
-        {
-          formatter = new java.text.DecimalFormat();
-
-          formatter.setDecimalFormatSymbols(dfs);
-          formatter.applyLocalizedPattern(patternStr);
-        }
-        else
-        {
-          dfs = new java.text.DecimalFormatSymbols(java.util.Locale.US);
-
-          dfs.setInfinity(Constants.ATTRVAL_INFINITY);
-          dfs.setNaN(Constants.ATTRVAL_NAN);
-
-          formatter = new java.text.DecimalFormat();
-
-          formatter.setDecimalFormatSymbols(dfs);
-
-          if (null != patternStr)
-            formatter.applyLocalizedPattern(patternStr);
-        }
+        if (null == dfs)
+          dfs = DEFAULT_SYMBOLS;
       }
 
-      return new XString(formatter.format(num));
+      // The pattern is compiled once per stylesheet, rather than applied
+      // to a new DecimalFormat for every call.
+      return new XString(ss.getFormatNumberPattern(patternStr, dfs).format(num));
     }
     catch (Exception iae)
     {
@@ -41,6 +41,7 @@ import org.apache.xalan.res.XSLTErrorResources;
 import org.apache.xalan.transformer.TransformerImpl;
 import org.apache.xml.dtm.DTM;
 import org.apache.xml.dtm.ref.ExpandedNameTable;
+import org.apache.xml.utils.FormatNumberPattern;
 import org.apache.xml.utils.IntStack;
 import org.apache.xml.utils.QName;
 import org.apache.xpath.XPath;
@@ -70,6 +71,24 @@ public class StylesheetRoot extends StylesheetComposed
      */  
     private boolean m_source_location = false;
 
+    /**
+     * The setting of the sort memory budget attribute, in bytes, or 0 to
+     * always sort in memory.
+     */
+    private long m_sortMemoryBudget = 0;
+
+    /**
+     * The setting of the output writer threads attribute, or 0 to write
+     * the files of the Redirect extension synchronously.
+     */
+    private int m_outputWriterThreads = 0;
+
+    /**
+     * The setting of the output sync batch attribute, or 0 to not sync
+     * the files written in the background.
+     */
+    private int m_outputSyncBatch = 0;
+
     /**
      * State of the secure processing feature.
      */
@@ -199,6 +218,121 @@ public class StylesheetRoot extends StylesheetComposed
   {
     return new TransformerImpl(this);
   }
+
+  /**
+   * The default number of idle transformers kept by
+   * {@link #releaseTransformer}.
+   */
+  public static final int DEFAULT_TRANSFORMER_POOL_SIZE = 16;
+
+  /**
+   * Idle transformers for this stylesheet, most recently released last.
+   * Created on first use, since it is not serialized.
+   */
+  private transient ArrayList m_transformerPool;
+
+  /**
+   * The maximum number of idle transformers kept in the pool, or null
+   * for {@link #DEFAULT_TRANSFORMER_POOL_SIZE}.  Like the pool, it is not
+   * serialized, so a deserialized stylesheet has the default pool size.
+   */
+  private transient Integer m_transformerPoolSize = null;
+
+  /**
+   * Get a transformer for this stylesheet, reusing one returned through
+   * {@link #releaseTransformer} if there is one.  This avoids rebuilding
+   * the XPathContext, its stacks and the DTM manager for every
+   * transformation, which dominates the cost of transforming many small
+   * documents.
+   *
+   * @return A transformer in the same state as one from
+   *         {@link #newTransformer}, never null.
+   */
+  public TransformerImpl getPooledTransformer()
+  {
+    ArrayList pool = getTransformerPool();
+
+    synchronized (pool)
+    {
+      int n = pool.size();
+
+      if (n > 0)
+        return (TransformerImpl) pool.remove(n - 1);
+    }
+
+    return new TransformerImpl(this);
+  }
+
+  /**
+   * Return a transformer obtained from {@link #getPooledTransformer} or
+   * {@link #newTransformer} once it is no longer used.  The transformer is
+   * recycled and kept for reuse if the pool is not full.  The caller must
+   * not touch it afterwards, nor any node or node-set it returned, since
+   * its DTM manager is cleared for the next transformation.
+   *
+   * @param transformer A transformer for this stylesheet that is not
+   *                    running a transformation.
+   */
+  public void releaseTransformer(TransformerImpl transformer)
+  {
+    if (null == transformer || transformer.getStylesheet() != this)
+      return;
+
+    transformer.recycle();
+
+    ArrayList pool = getTransformerPool();
+
+    synchronized (pool)
+    {
+      if (pool.size() < getTransformerPoolSize()
+          && !pool.contains(transformer))
+        pool.add(transformer);
+    }
+  }
+
+  /**
+   * Set the maximum number of idle transformers kept for reuse.
+   *
+   * @param size The pool size; 0 disables pooling.
+   */
+  public void setTransformerPoolSize(int size)
+  {
+    size = Math.max(0, size);
+    m_transformerPoolSize = Integer.valueOf(size);
+
+    ArrayList pool = getTransformerPool();
+
+    synchronized (pool)
+    {
+      while (pool.size() > size)
+        pool.remove(pool.size() - 1);
+    }
+  }
+
+  /**
+   * Get the maximum number of idle transformers kept for reuse.
+   *
+   * @return The pool size.
+   */
+  public int getTransformerPoolSize()
+  {
+    Integer size = m_transformerPoolSize;
+
+    return (null == size) ? DEFAULT_TRANSFORMER_POOL_SIZE : size.intValue();
+  }
+
+  /**
+   * Get the pool of idle transformers, creating it if needed.
+   *
+   * @return The pool, never null.
+   */
+  private synchronized ArrayList getTransformerPool()
+  {
+    if (null == m_transformerPool)
+      m_transformerPool = new ArrayList();
+
+    return m_transformerPool;
+  }
   
 
   public Properties getDefaultOutputProps()
@@ -640,6 +774,42 @@ public class StylesheetRoot extends StylesheetComposed
     return (DecimalFormatSymbols) m_decimalFormatSymbols.get(name);
   }
 
+  /**
+   * The compiled format-number() patterns of this stylesheet.
+   * Created on first use, since it is not serialized.
+   */
+  private transient volatile FormatNumberPattern.Cache m_formatNumberPatterns;
+
+  /**
+   * Get the compiled form of a format-number() pattern.  A pattern is
+   * compiled once for each set of decimal format symbols it is used
+   * with, and the compiled pattern can be used by concurrent
+   * transformations.
+   *
+   * @param pattern The localized pattern.
+   * @param dfs The decimal format symbols, such as those returned by
+   * {@link #getDecimalFormatComposed}, which must not be changed.
+   * @return The compiled pattern, never null.
+   */
+  public FormatNumberPattern getFormatNumberPattern(String pattern,
+                                                    DecimalFormatSymbols dfs)
+  {
+    FormatNumberPattern.Cache cache = m_formatNumberPatterns;
+
+    if (null == cache)
+    {
+      synchronized (this)
+      {
+        if (null == m_formatNumberPatterns)
+          m_formatNumberPatterns = new FormatNumberPattern.Cache();
+
+        cache = m_formatNumberPatterns;
+      }
+    }
+
+    return cache.get(pattern, dfs);
+  }
+
   /**
    * A list of all key declarations visible from this stylesheet and all
    * lesser stylesheets.
@@ -1402,4 +1572,49 @@ public class StylesheetRoot extends StylesheetComposed
         m_source_location = b;
     }
 
+    /**
+     * @return The number of bytes the sort keys of an xsl:sort may use
+     * before its nodes are sorted in runs on disk, or 0 for no limit.
+     */
+    public long getSortMemoryBudget() {
+        return m_sortMemoryBudget;
+    }
+
+    /**
+     * @param budget The sort memory budget, in bytes, or 0 for no limit.
+     */
+    public void setSortMemoryBudget(long budget) {
+        m_sortMemoryBudget = budget;
+    }
+
+    /**
+     * @return The number of threads that write the files of the Redirect
+     * extension in the background, or 0 to write them synchronously.
+     */
+    public int getOutputWriterThreads() {
+        return m_outputWriterThreads;
+    }
+
+    /**
+     * @param threads The number of output writer threads, or 0.
+     */
+    public void setOutputWriterThreads(int threads) {
+        m_outputWriterThreads = threads;
+    }
+
+    /**
+     * @return The number of files written in the background that are
+     * synced to the storage device together, or 0 to not sync them.
+     */
+    public int getOutputSyncBatch() {
+        return m_outputSyncBatch;
+    }
+
+    /**
+     * @param batch The output sync batch, or 0.
+     */
+    public void setOutputSyncBatch(int batch) {
+        m_outputSyncBatch = batch;
+    }
+
 }
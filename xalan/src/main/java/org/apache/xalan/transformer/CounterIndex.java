@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xalan.transformer;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.xalan.templates.Constants;
+import org.apache.xalan.templates.ElemNumber;
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.ref.DTMDefaultBase;
+import org.apache.xml.utils.IntVector;
+import org.apache.xpath.XPath;
+import org.apache.xpath.XPathContext;
+
+/**
+ * Index of the nodes counted by one xsl:number element in one document.
+ * The index is filled in lazily, in a single forward pass over the node
+ * identities of the DTM, which are in document order.  Counting then
+ * becomes a binary search instead of a backwards walk over the tree, so
+ * numbering every node of a large document is no longer quadratic.
+ *
+ * <p>The counts are those of {@link CountersTable#countNode} for the
+ * target node: for level="any" the number of counted nodes up to the
+ * target, back to the nearest preceding node with children that matches
+ * the from pattern; otherwise the position of the target among its
+ * counted siblings.</p>
+ * @xsl.usage internal
+ */
+final class CounterIndex
+{
+
+  /** The document being indexed. */
+  final DTMDefaultBase m_dtm;
+
+  /** The expanded type counted when there is no count pattern. */
+  final int m_expType;
+
+  /** The count pattern, or null to count nodes of m_expType. */
+  private final XPath m_countPattern;
+
+  /** The from pattern, or null. */
+  private final XPath m_fromPattern;
+
+  /** True for level="any", false for level="single" or "multiple". */
+  private final boolean m_levelAny;
+
+  /** Identities of the counted nodes scanned so far, in document order. */
+  private final IntVector m_counted = new IntVector();
+
+  /**
+   * Identities of the nodes with children that match the from pattern,
+   * in document order.
+   */
+  private final IntVector m_fromNodes = new IntVector();
+
+  /** The first node identity not yet scanned. */
+  private int m_scanned = 0;
+
+  /**
+   * Position of each counted node among its counted siblings, indexed by
+   * node identity, or 0 if not yet known.
+   */
+  private int[] m_siblingNumbers;
+
+  /**
+   * Construct an index.
+   *
+   * @param dtm The document.
+   * @param numberElem The xsl:number element.
+   * @param expType The expanded type of the nodes to count when the
+   *                element has no count pattern.
+   */
+  CounterIndex(DTMDefaultBase dtm, ElemNumber numberElem, int expType)
+  {
+    m_dtm = dtm;
+    m_expType = expType;
+    m_countPattern = numberElem.getCount();
+    m_fromPattern = numberElem.getFrom();
+    m_levelAny = (Constants.NUMBERLEVEL_ANY == numberElem.getLevel());
+  }
+
+  /**
+   * Count a target node.
+   *
+   * @param xctxt The XPath runtime state.
+   * @param target The target node, found by
+   *               {@link ElemNumber#getTargetNode}.
+   *
+   * @return The count, or 0 if the index cannot answer.
+   *
+   * @throws TransformerException
+   */
+  int countNode(XPathContext xctxt, int target) throws TransformerException
+  {
+    int identity = m_dtm.makeNodeIdentity(target);
+
+    if (identity < 0)
+      return 0;
+
+    return m_levelAny ? countAny(xctxt, identity)
+                      : countSiblings(xctxt, target, identity);
+  }
+
+  /**
+   * Count for level="any".
+   *
+   * @param xctxt The XPath runtime state.
+   * @param identity The identity of the target node.
+   *
+   * @return The count.
+   *
+   * @throws TransformerException
+   */
+  private int countAny(XPathContext xctxt, int identity)
+          throws TransformerException
+  {
+    scanTo(xctxt, identity);
+
+    int count = rank(m_counted, identity);
+
+    if (null != m_fromPattern)
+    {
+      int from = rank(m_fromNodes, identity - 1);
+
+      if (from > 0)
+        count -= rank(m_counted, m_fromNodes.elementAt(from - 1));
+    }
+
+    return count;
+  }
+
+  /**
+   * Count for level="single" and level="multiple".  The siblings of the
+   * target are all numbered the first time one of them is asked for.
+   *
+   * @param xctxt The XPath runtime state.
+   * @param target The target node.
+   * @param identity The identity of the target node.
+   *
+   * @return The count, or 0 if the target is not a counted node.
+   *
+   * @throws TransformerException
+   */
+  private int countSiblings(XPathContext xctxt, int target, int identity)
+          throws TransformerException
+  {
+    ensureSiblingCapacity(identity);
+
+    if (0 == m_siblingNumbers[identity])
+    {
+      int parent = m_dtm.getParent(target);
+
+      if (DTM.NULL == parent)
+        return 0;
+
+      int count = 0;
+
+      for (int child = m_dtm.getFirstChild(parent); DTM.NULL != child;
+           child = m_dtm.getNextSibling(child))
+      {
+        if (isCounted(xctxt, child))
+        {
+          int childIdentity = m_dtm.makeNodeIdentity(child);
+
+          ensureSiblingCapacity(childIdentity);
+          m_siblingNumbers[childIdentity] = ++count;
+        }
+      }
+    }
+
+    return m_siblingNumbers[identity];
+  }
+
+  /**
+   * Make sure the sibling numbers can be stored for a node identity.
+   *
+   * @param identity The node identity.
+   */
+  private void ensureSiblingCapacity(int identity)
+  {
+    if (null != m_siblingNumbers && identity < m_siblingNumbers.length)
+      return;
+
+    int size = (null == m_siblingNumbers) ? 1024 : m_siblingNumbers.length * 2;
+    int[] numbers = new int[Math.max(size, identity + 1)];
+
+    if (null != m_siblingNumbers)
+      System.arraycopy(m_siblingNumbers, 0, numbers, 0,
+                       m_siblingNumbers.length);
+
+    m_siblingNumbers = numbers;
+  }
+
+  /**
+   * Scan forward through the node identities, up to and including the
+   * given one.  Attributes, namespace nodes and the document node are
+   * never counted, as the backwards walk does not visit them.
+   *
+   * @param xctxt The XPath runtime state.
+   * @param identity The last identity to scan.
+   *
+   * @throws TransformerException
+   */
+  private void scanTo(XPathContext xctxt, int identity)
+          throws TransformerException
+  {
+    for (; m_scanned <= identity; m_scanned++)
+    {
+      int node = m_dtm.makeNodeHandle(m_scanned);
+
+      if (DTM.NULL == node)
+        continue;
+
+      switch (m_dtm.getNodeType(node))
+      {
+      case DTM.ATTRIBUTE_NODE :
+      case DTM.NAMESPACE_NODE :
+      case DTM.DOCUMENT_NODE :
+        continue;
+      }
+
+      if (isCounted(xctxt, node))
+        m_counted.addElement(m_scanned);
+
+      if (null != m_fromPattern && DTM.NULL != m_dtm.getFirstChild(node)
+          && m_fromPattern.getMatchScore(xctxt, node)
+             != XPath.MATCH_SCORE_NONE)
+        m_fromNodes.addElement(m_scanned);
+    }
+  }
+
+  /**
+   * Tell if a node is counted.
+   *
+   * @param xctxt The XPath runtime state.
+   * @param node The node.
+   *
+   * @return true if the node matches the count pattern, or has the counted
+   * expanded type if there is none.
+   *
+   * @throws TransformerException
+   */
+  private boolean isCounted(XPathContext xctxt, int node)
+          throws TransformerException
+  {
+    if (null == m_countPattern)
+      return m_dtm.getExpandedTypeID(node) == m_expType;
+
+    return m_countPattern.getMatchScore(xctxt, node)
+           != XPath.MATCH_SCORE_NONE;
+  }
+
+  /**
+   * Get the number of entries of a sorted vector that are less than or
+   * equal to a value.
+   *
+   * @param v The vector, in ascending order.
+   * @param value The value to look for.
+   *
+   * @return The number of entries &lt;= value.
+   */
+  private static int rank(IntVector v, int value)
+  {
+    int low = 0;
+    int high = v.size();
+
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+
+      if (v.elementAt(mid) <= value)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    return low;
+  }
+}
@@ -27,6 +27,8 @@ import javax.xml.transform.TransformerException;
 
 import org.apache.xalan.templates.ElemNumber;
 import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.ref.DTMDefaultBase;
+import org.apache.xml.dtm.ref.sax2dtm.SAX2RTFDTM;
 import org.apache.xpath.NodeSetDTM;
 import org.apache.xpath.XPathContext;
 
@@ -82,6 +84,86 @@ public class CountersTable extends Hashtable
     return counters;
   }
 
+  /**
+   * Count indexes, keyed by ElemNumber objects, each of which has a
+   * list of CounterIndex objects, one per document and counted type.
+   */
+  transient private Hashtable m_counterIndexes;
+
+  /**
+   * Get the count index to use for a target node, creating it if needed.
+   *
+   * @param support The XPath context to use
+   * @param numberElem The given xsl:number element.
+   * @param target The node to count.
+   *
+   * @return The index, or null if the target must be counted by walking
+   * the tree.
+   */
+  CounterIndex getCounterIndex(XPathContext support, ElemNumber numberElem,
+                               int target)
+  {
+
+    if (!numberElem.isCountIndexable())
+      return null;
+
+    DTM dtm = support.getDTM(target);
+
+    // Result tree fragments are rewound and reused during a transform,
+    // so their node identities are not stable.
+    if (!(dtm instanceof DTMDefaultBase) || (dtm instanceof SAX2RTFDTM))
+      return null;
+
+    int expType = DTM.NULL;
+
+    switch (dtm.getNodeType(target))
+    {
+    case DTM.ATTRIBUTE_NODE :
+    case DTM.NAMESPACE_NODE :
+    case DTM.DOCUMENT_NODE :
+      return null;
+    case DTM.ELEMENT_NODE :
+      expType = dtm.getExpandedTypeID(target);
+      break;
+    default :
+      // The default count pattern for other nodes is not quite the same
+      // as matching the expanded type.
+      if (null == numberElem.getCount())
+        return null;
+    }
+
+    if (null != numberElem.getCount())
+      expType = DTM.NULL;
+
+    if (null == m_counterIndexes)
+      m_counterIndexes = new Hashtable();
+
+    Vector indexes = (Vector) m_counterIndexes.get(numberElem);
+
+    if (null == indexes)
+    {
+      indexes = new Vector();
+      m_counterIndexes.put(numberElem, indexes);
+    }
+
+    int n = indexes.size();
+
+    for (int i = 0; i < n; i++)
+    {
+      CounterIndex index = (CounterIndex) indexes.elementAt(i);
+
+      if (index.m_dtm == dtm && index.m_expType == expType)
+        return index;
+    }
+
+    CounterIndex index = new CounterIndex((DTMDefaultBase) dtm, numberElem,
+                                          expType);
+
+    indexes.addElement(index);
+
+    return index;
+  }
+
   /**
    * Place to collect new counters.
    */
@@ -137,6 +219,27 @@ public class CountersTable extends Hashtable
 
     if (DTM.NULL != target)
     {
+      CounterIndex index = getCounterIndex(support, numberElem, target);
+
+      if (null != index)
+      {
+        count = index.countNode(support, target);
+
+        if (count > 0)
+          return count;
+      }
+
+      // The nodes of result tree fragments can't be remembered by the
+      // counters either, their storage being reused for later fragments.
+      if (support.getDTM(target) instanceof SAX2RTFDTM)
+      {
+        for (; DTM.NULL != target;
+                target = numberElem.getPreviousNode(support, target))
+          count++;
+
+        return count;
+      }
+
       for (int i = 0; i < nCounters; i++)
       {
         Counter counter = (Counter) counters.elementAt(i);
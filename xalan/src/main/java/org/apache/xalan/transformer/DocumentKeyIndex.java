@@ -0,0 +1,369 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xalan.transformer;
+
+import java.util.Hashtable;
+import java.util.Vector;
+
+import javax.xml.transform.TransformerException;
+
+import org.apache.xalan.res.XSLMessages;
+import org.apache.xalan.res.XSLTErrorResources;
+import org.apache.xalan.templates.KeyDeclaration;
+import org.apache.xml.dtm.Axis;
+import org.apache.xml.dtm.DTM;
+import org.apache.xml.dtm.DTMAxisTraverser;
+import org.apache.xml.dtm.DTMIterator;
+import org.apache.xml.utils.PrefixResolver;
+import org.apache.xml.utils.QName;
+import org.apache.xml.utils.XMLString;
+import org.apache.xpath.XPath;
+import org.apache.xpath.XPathContext;
+import org.apache.xpath.objects.XNodeSet;
+import org.apache.xpath.objects.XObject;
+
+/**
+ * Index of the values of all the keys of the stylesheet in one document.
+ * The index is built the first time the key() function is called for the
+ * document, in a single pass over the document that matches every node
+ * against every xsl:key declaration, rather than in one pass per key name.
+ * For each key name the nodes are kept in int arrays, in document order,
+ * in an open addressing hash table keyed by value.
+ *
+ * <p>A node has a value for a key if it matches one of the declarations
+ * of the key, and the use expression of that declaration gives the
+ * value.</p>
+ * @xsl.usage internal
+ */
+final class DocumentKeyIndex
+{
+
+  /** The document node. */
+  private final int m_doc;
+
+  /** The xsl:key declarations of the stylesheet. */
+  private final Vector m_keyDeclarations;
+
+  /**
+   * The values of each key, keyed by the QName of the key, or null if the
+   * index has not been built yet.
+   */
+  private Hashtable m_keys = null;
+
+  /**
+   * Construct an index.
+   *
+   * @param doc The document node.
+   * @param keyDeclarations The stylesheet's xsl:key declarations.
+   */
+  DocumentKeyIndex(int doc, Vector keyDeclarations)
+  {
+    m_doc = doc;
+    m_keyDeclarations = keyDeclarations;
+  }
+
+  /**
+   * Get the document node of this index.
+   *
+   * @return The document node.
+   */
+  int getDocKey()
+  {
+    return m_doc;
+  }
+
+  /**
+   * Given a valid element key, return the corresponding node list.
+   *
+   * @param xctxt The XPath runtime state.
+   * @param name The name of the key.
+   * @param ref The value to look for.
+   * @param nscontext The prefix resolver for the execution context.
+   *
+   * @return The nodes of the document that have the value for the key, in
+   * document order.  If there are none, an empty node set is returned.
+   *
+   * @throws TransformerException
+   */
+  XNodeSet getNodeSetDTMByKey(XPathContext xctxt, QName name, XMLString ref,
+                              PrefixResolver nscontext)
+          throws TransformerException
+  {
+    if (null == m_keys)
+      build(xctxt, nscontext);
+
+    Values values = (Values) m_keys.get(name);
+
+    if (null == values)
+      throw new RuntimeException(
+        XSLMessages.createMessage(
+          XSLTErrorResources.ER_NO_XSLKEY_DECLARATION,
+          new Object[] { name.getLocalName() }));
+
+    XNodeSet nodes = values.getNodes(xctxt, ref);
+
+    if (null != nodes)
+    {
+      try
+      {
+        return (XNodeSet) nodes.cloneWithReset();
+      }
+      catch (CloneNotSupportedException e) {}
+    }
+
+    nodes = new XNodeSet(xctxt.getDTMManager())
+    {
+      public void setRoot(int nodeHandle, Object environment)
+      {
+        // Root cannot be set on non-iterated node sets. Ignore it.
+      }
+    };
+
+    nodes.reset();
+
+    return nodes;
+  }
+
+  /**
+   * Build the index of every key.
+   *
+   * @param xctxt The XPath runtime state.
+   * @param nscontext The prefix resolver to evaluate the use expressions
+   *                  with.
+   *
+   * @throws TransformerException
+   */
+  private void build(XPathContext xctxt, PrefixResolver nscontext)
+          throws TransformerException
+  {
+    int nDeclarations = m_keyDeclarations.size();
+    Hashtable keys = new Hashtable();
+    Values[] declValues = new Values[nDeclarations];
+
+    for (int i = 0; i < nDeclarations; i++)
+    {
+      QName name = ((KeyDeclaration) m_keyDeclarations.elementAt(i)).getName();
+      Values values = (Values) keys.get(name);
+
+      if (null == values)
+      {
+        values = new Values();
+        keys.put(name, values);
+      }
+
+      declValues[i] = values;
+    }
+
+    DTM dtm = xctxt.getDTM(m_doc);
+    DTMAxisTraverser traverser = dtm.getAxisTraverser(Axis.ALL);
+
+    for (int node = traverser.first(m_doc); DTM.NULL != node;
+         node = traverser.next(m_doc, node))
+    {
+      for (int i = 0; i < nDeclarations; i++)
+      {
+        KeyDeclaration kd = (KeyDeclaration) m_keyDeclarations.elementAt(i);
+
+        if (kd.getMatch().getMatchScore(xctxt, node)
+            == XPath.MATCH_SCORE_NONE)
+          continue;
+
+        XObject xuse = kd.getUse().execute(xctxt, node, nscontext);
+
+        if (XObject.CLASS_NODESET != xuse.getType())
+        {
+          declValues[i].add(xuse.xstr(), node);
+        }
+        else
+        {
+          DTMIterator iter = ((XNodeSet) xuse).iterRaw();
+          int useNode;
+
+          while (DTM.NULL != (useNode = iter.nextNode()))
+          {
+            declValues[i].add(xctxt.getDTM(useNode).getStringValue(useNode),
+                              node);
+          }
+        }
+      }
+    }
+
+    m_keys = keys;
+  }
+
+  /**
+   * The nodes that have each value of one key, in an open addressing hash
+   * table with linear probing.
+   */
+  private static final class Values
+  {
+
+    /** The initial number of slots, which must be a power of two. */
+    private static final int INITIAL_CAPACITY = 128;
+
+    /** The value in each slot, or null if the slot is free. */
+    private XMLString[] m_refs = new XMLString[INITIAL_CAPACITY];
+
+    /** The nodes that have the value of each slot, in document order. */
+    private int[][] m_nodes = new int[INITIAL_CAPACITY][];
+
+    /** The number of nodes in each slot. */
+    private int[] m_counts = new int[INITIAL_CAPACITY];
+
+    /** The node set made for each slot by the first lookup, or null. */
+    private XNodeSet[] m_nodeSets = new XNodeSet[INITIAL_CAPACITY];
+
+    /** The number of values. */
+    private int m_size = 0;
+
+    /**
+     * Add a node to the nodes that have a value.  Nodes are added in
+     * document order, so a node that has the same value more than once
+     * is the last one added for that value.
+     *
+     * @param ref The value.
+     * @param node The node.
+     */
+    void add(XMLString ref, int node)
+    {
+      int slot = find(ref);
+
+      if (null == m_refs[slot])
+      {
+        if (2 * (m_size + 1) > m_refs.length)
+        {
+          rehash();
+          slot = find(ref);
+        }
+
+        m_refs[slot] = ref;
+        m_nodes[slot] = new int[] { node };
+        m_counts[slot] = 1;
+        m_size++;
+
+        return;
+      }
+
+      int count = m_counts[slot];
+      int[] nodes = m_nodes[slot];
+
+      if (nodes[count - 1] == node)
+        return;
+
+      if (count == nodes.length)
+      {
+        int[] grown = new int[count * 2];
+
+        System.arraycopy(nodes, 0, grown, 0, count);
+        m_nodes[slot] = nodes = grown;
+      }
+
+      nodes[count] = node;
+      m_counts[slot] = count + 1;
+    }
+
+    /**
+     * Get the node set of the nodes that have a value.  The node set is
+     * made the first time the value is looked up, and must be cloned
+     * before it is used.
+     *
+     * @param xctxt The XPath runtime state.
+     * @param ref The value.
+     *
+     * @return The node set, or null if no node has the value.
+     */
+    XNodeSet getNodes(XPathContext xctxt, XMLString ref)
+    {
+      int slot = find(ref);
+
+      if (null == m_refs[slot])
+        return null;
+
+      XNodeSet nodeSet = m_nodeSets[slot];
+
+      if (null == nodeSet)
+      {
+        int[] nodes = m_nodes[slot];
+        int count = m_counts[slot];
+
+        nodeSet = new XNodeSet(nodes[0], xctxt.getDTMManager());
+
+        for (int i = 1; i < count; i++)
+          nodeSet.mutableNodeset().addNode(nodes[i]);
+
+        nodeSet.allowDetachToRelease(false);
+        m_nodeSets[slot] = nodeSet;
+      }
+
+      return nodeSet;
+    }
+
+    /**
+     * Find the slot of a value.
+     *
+     * @param ref The value.
+     *
+     * @return The slot holding the value, or the free slot where it would
+     * be added.
+     */
+    private int find(XMLString ref)
+    {
+      int mask = m_refs.length - 1;
+      int h = ref.hashCode();
+      int slot = (h ^ (h >>> 16)) & mask;
+
+      while (null != m_refs[slot] && !m_refs[slot].equals(ref))
+        slot = (slot + 1) & mask;
+
+      return slot;
+    }
+
+    /**
+     * Double the number of slots.
+     */
+    private void rehash()
+    {
+      XMLString[] refs = m_refs;
+      int[][] nodes = m_nodes;
+      int[] counts = m_counts;
+      XNodeSet[] nodeSets = m_nodeSets;
+      int capacity = refs.length * 2;
+
+      m_refs = new XMLString[capacity];
+      m_nodes = new int[capacity][];
+      m_counts = new int[capacity];
+      m_nodeSets = new XNodeSet[capacity];
+
+      for (int i = 0; i < refs.length; i++)
+      {
+        if (null == refs[i])
+          continue;
+
+        int slot = find(refs[i]);
+
+        m_refs[slot] = refs[i];
+        m_nodes[slot] = nodes[i];
+        m_counts[slot] = counts[i];
+        m_nodeSets[slot] = nodeSets[i];
+      }
+    }
+  }
+}
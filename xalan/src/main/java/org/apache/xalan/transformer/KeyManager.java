@@ -20,7 +20,7 @@
  */
 package org.apache.xalan.transformer;
 
-import java.util.Vector;
+import java.util.Hashtable;
 
 import org.apache.xalan.templates.ElemTemplateElement;
 import org.apache.xml.utils.PrefixResolver;
@@ -36,13 +36,16 @@ public class KeyManager
 {
 
   /**
-   * Table of tables of element keys.
-   * @see org.apache.xalan.transformer.KeyTable
+   * Table of key indexes, one for each document, keyed by the Integer
+   * document node.
+   * @see org.apache.xalan.transformer.DocumentKeyIndex
    */
-  private transient Vector m_key_tables = null;
+  private transient Hashtable m_key_indexes = null;
 
   /**
    * Given a valid element key, return the corresponding node list.
+   * The first call for a document indexes every key of the stylesheet
+   * for that document.
    *
    * @param xctxt The XPath runtime state
    * @param doc The document node
@@ -59,57 +62,26 @@ public class KeyManager
             throws javax.xml.transform.TransformerException
   {
 
-    XNodeSet nl = null;
     ElemTemplateElement template = (ElemTemplateElement) nscontext;  // yuck -sb
 
-    if ((null != template)
-            && null != template.getStylesheetRoot().getKeysComposed())
-    {
-      boolean foundDoc = false;
-
-      if (null == m_key_tables)
-      {
-        m_key_tables = new Vector(4);
-      }
-      else
-      {
-        int nKeyTables = m_key_tables.size();
-
-        for (int i = 0; i < nKeyTables; i++)
-        {
-          KeyTable kt = (KeyTable) m_key_tables.elementAt(i);
+    if ((null == template)
+            || null == template.getStylesheetRoot().getKeysComposed())
+      return null;
 
-          if (kt.getKeyTableName().equals(name) && doc == kt.getDocKey())
-          {
-            nl = kt.getNodeSetDTMByKey(name, ref);
+    if (null == m_key_indexes)
+      m_key_indexes = new Hashtable();
 
-            if (nl != null)
-            {
-              foundDoc = true;
+    Integer docKey = new Integer(doc);
+    DocumentKeyIndex index = (DocumentKeyIndex) m_key_indexes.get(docKey);
 
-              break;
-            }
-          }
-        }
-      }
-
-      if ((null == nl) &&!foundDoc /* && m_needToBuildKeysTable */)
-      {
-        KeyTable kt =
-          new KeyTable(doc, nscontext, name,
-                       template.getStylesheetRoot().getKeysComposed(),
-                       xctxt);
-
-        m_key_tables.addElement(kt);
+    if (null == index)
+    {
+      index = new DocumentKeyIndex(
+        doc, template.getStylesheetRoot().getKeysComposed());
 
-        if (doc == kt.getDocKey())
-        {
-          foundDoc = true;
-          nl = kt.getNodeSetDTMByKey(name, ref);
-        }
-      }
+      m_key_indexes.put(docKey, index);
     }
 
-    return nl;
+    return index.getNodeSetDTMByKey(xctxt, name, ref, nscontext);
   }
 }
@@ -76,6 +76,7 @@ import org.apache.xml.serializer.ToSAXHandler;
 import org.apache.xml.serializer.ToTextStream;
 import org.apache.xml.serializer.ToXMLSAXHandler;
 import org.apache.xml.serializer.SerializationHandler;
+import org.apache.xml.utils.AsyncFileWriter;
 import org.apache.xml.utils.BoolStack;
 import org.apache.xml.utils.DOMBuilder;
 import org.apache.xml.utils.NodeVector;
@@ -257,6 +258,12 @@ public class TransformerImpl extends Transformer
   /** The key manager, which manages xsl:keys. */
   private KeyManager m_keyManager = new KeyManager();
 
+  /**
+   * The writer of the files of the Redirect extension, or null if they
+   * are written synchronously or none has been opened yet.
+   */
+  private AsyncFileWriter m_asyncFileWriter = null;
+
   /**
    * Stack for the purposes of flagging infinite recursion with
    * attribute sets.
@@ -483,6 +490,19 @@ public class TransformerImpl extends Transformer
    * is invoked, if the processor is to be used again.
    */
   public void reset()
+  {
+    reset(false);
+  }
+
+  /**
+   * Reset the state, optionally clearing the DTM manager in place rather
+   * than replacing it.
+   *
+   * @param reuseDTMManager true to keep the DTM manager, which invalidates
+   *                        the nodes of earlier results.
+   * @see XPathContext#reset(boolean)
+   */
+  private void reset(boolean reuseDTMManager)
   {
 
     if (!m_hasBeenReset && m_shouldReset)
@@ -504,7 +524,7 @@ public class TransformerImpl extends Transformer
       // needs to be reset.
       m_countersTable = null;
 
-      m_xcontext.reset();
+      m_xcontext.reset(reuseDTMManager);
       
       m_xcontext.getVarStack().reset();
       resetUserParameters();
@@ -533,6 +553,36 @@ public class TransformerImpl extends Transformer
     //    m_reportInPostExceptionFromThread = false;
   }
 
+  /**
+   * Bring this transformer back to the state of a newly constructed one,
+   * so that {@link StylesheetRoot#releaseTransformer} can hand it out
+   * again.  Parameters, output properties, the URI resolver, the error
+   * listener and trace listeners are dropped.  The XPathContext with its
+   * stacks, the variable stack and the DTM manager are kept and cleared
+   * rather than reallocated.  Nodes, node-sets and DOM proxies obtained
+   * from earlier transformations are no longer valid afterwards, since
+   * their handles would resolve to the documents of the next one.
+   */
+  public void recycle()
+  {
+
+    synchronized (m_reentryGuard)
+    {
+      m_userParams = null;
+      m_hasBeenReset = false;
+      m_shouldReset = true;
+      reset(true);
+
+      m_outputFormat = null;
+      m_inputContentHandler = null;
+      m_errorHandler = new org.apache.xml.utils.DefaultErrorHandler(false);
+      m_traceManager = new TraceManager(this);
+      m_quietConflictWarnings = true;
+      m_xcontext.getSourceTreeManager().setURIResolver(null);
+      m_xcontext.setNamespaceContext(m_stylesheetRoot);
+    }
+  }
+
   /**
    * <code>getProperty</code> returns the current setting of the
    * property described by the <code>property</code> argument.
@@ -1363,6 +1413,8 @@ public class TransformerImpl extends Transformer
         }
         // m_stylesheetRoot.getStartRule().execute(this);
 
+        finishAsyncFileWriter();
+
         // System.out.println("Done with applyTemplateToNode - "+Thread.currentThread().getName());
         if (null != m_serializationHandler)
         {
@@ -1424,6 +1476,16 @@ public class TransformerImpl extends Transformer
       }
       finally
       {
+        if (null != m_asyncFileWriter)
+        {
+          // The transformation failed; just stop the writer threads.
+          try
+          {
+            finishAsyncFileWriter();
+          }
+          catch (TransformerException te) {}
+        }
+
         this.reset();
       }
     }
@@ -2956,6 +3018,54 @@ public class TransformerImpl extends Transformer
     return m_keyManager;
   }
 
+  /**
+   * Get the object that writes the files of the Redirect extension in the
+   * background, if the stylesheet was built with output writer threads.
+   * The files are all written by the end of the transformation.
+   *
+   * @return The file writer, or null if files should be written
+   * synchronously.
+   */
+  public AsyncFileWriter getAsyncFileWriter()
+  {
+    if (null == m_asyncFileWriter)
+    {
+      StylesheetRoot stylesheet = getStylesheet();
+
+      if (stylesheet.getOutputWriterThreads() > 0)
+        m_asyncFileWriter =
+          new AsyncFileWriter(stylesheet.getOutputWriterThreads(),
+                              stylesheet.getOutputSyncBatch());
+    }
+
+    return m_asyncFileWriter;
+  }
+
+  /**
+   * Wait until the files handed to the file writer are written, and stop
+   * its threads.
+   *
+   * @throws TransformerException if a file could not be written.
+   */
+  private void finishAsyncFileWriter() throws TransformerException
+  {
+    AsyncFileWriter writer = m_asyncFileWriter;
+
+    if (null != writer)
+    {
+      m_asyncFileWriter = null;
+
+      try
+      {
+        writer.finish();
+      }
+      catch (java.io.IOException ioe)
+      {
+        throw new TransformerException(ioe);
+      }
+    }
+  }
+
   /**
    * Check to see if this is a recursive attribute definition.
    *
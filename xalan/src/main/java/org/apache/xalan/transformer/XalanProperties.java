@@ -32,4 +32,13 @@ public class XalanProperties
 {
   public final static String SOURCE_LOCATION
     = "http://xml.apache.org/xalan/properties/source-location";
+
+  public final static String SORT_MEMORY_BUDGET
+    = "http://xml.apache.org/xalan/properties/sort-memory-budget";
+
+  public final static String OUTPUT_WRITER_THREADS
+    = "http://xml.apache.org/xalan/properties/output-writer-threads";
+
+  public final static String OUTPUT_SYNC_BATCH
+    = "http://xml.apache.org/xalan/properties/output-sync-batch";
 }
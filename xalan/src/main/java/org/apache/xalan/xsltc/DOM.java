@@ -49,6 +49,12 @@ public interface DOM {
     public final static int SIMPLE_RTF   = 0;
     public final static int ADAPTIVE_RTF = 1;
     public final static int TREE_RTF     = 2;
+
+    // Constants used by XSLTCDTMManager.getDTM to indicate the parts of
+    // a document that are built. A translet asks only for those it uses.
+    public final static int NAMESPACE_NODES       = 1;
+    public final static int UNPARSED_ENTITIES     = 2;
+    public final static int ALL_DOCUMENT_FEATURES = 3;
     
     /** returns singleton iterator containg the document root */
     public DTMAxisIterator getIterator();
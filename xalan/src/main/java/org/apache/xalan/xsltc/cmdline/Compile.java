@@ -64,7 +64,7 @@ public final class Compile {
 	    boolean inputIsURL = false;
 	    boolean useStdIn = false;
 	    boolean classNameSet = false;
-	    final GetOpt getopt = new GetOpt(args, "o:d:j:p:uxhsinv");
+	    final GetOpt getopt = new GetOpt(args, "o:d:j:p:c:uxhsintv");
 	    if (args.length < 1) printUsage();
 
 	    final XSLTC xsltc = new XSLTC();
@@ -89,6 +89,10 @@ public final class Compile {
 		case 'j':  
 		    xsltc.setJarFileName(getopt.getOptionArg());
 		    break;
+		case 'c':
+		    xsltc.setExtensionClassLoader(
+			XSLTC.createExtensionClassLoader(getopt.getOptionArg()));
+		    break;
 		case 'x':
 		    xsltc.setDebug(true);
 		    break;
@@ -98,6 +102,9 @@ public final class Compile {
 		case 'n':
 		    xsltc.setTemplateInlining(true);	// used to be 'false'
 		    break;
+		case 't':
+		    xsltc.setTemplateProfiling(true);
+		    break;
 		case 'v':
 		    // fall through to case h
 		case 'h':
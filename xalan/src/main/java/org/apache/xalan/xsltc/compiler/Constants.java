@@ -342,6 +342,22 @@ public interface Constants extends InstructionConstants {
 	= "(" + NODE_SIG + ")" + STRING_SIG;
     public static final String CHARACTERSW_SIG     
 	= "("  + STRING_SIG + TRANSLET_OUTPUT_SIG + ")V";
+    public static final String CHARACTERSD_SIG     
+	= "(D" + TRANSLET_OUTPUT_SIG + ")V";
+    public static final String ENTER_TEMPLATE
+	= "enterTemplate";
+    public static final String EXIT_TEMPLATE
+	= "exitTemplate";
+    public static final String PROFILE_TEMPLATE_SIG
+	= "(I)V";
+    public static final String GET_RESULT_TREE_MARK
+	= "getResultTreeMark";
+    public static final String GET_RESULT_TREE_MARK_SIG
+	= "()I";
+    public static final String RELEASE_RESULT_TREES
+	= "releaseResultTrees";
+    public static final String RELEASE_RESULT_TREES_SIG
+	= "(I)V";
     public static final String CHARACTERS_SIG     
 	= "(" + NODE_SIG + TRANSLET_OUTPUT_SIG + ")V";
     public static final String GET_CHILDREN_SIG
@@ -387,6 +403,10 @@ public interface Constants extends InstructionConstants {
         = "_hasIdCall";
     public static final String HASIDCALL_INDEX_SIG
         = "Z";
+    public static final String DOCUMENT_FEATURES_INDEX
+        = "_documentFeatures";
+    public static final String DOCUMENT_FEATURES_INDEX_SIG
+        = "I";
     public static final String TRANSLET_VERSION_INDEX
         = "transletVersion";
     public static final String TRANSLET_VERSION_INDEX_SIG
@@ -414,6 +434,10 @@ public interface Constants extends InstructionConstants {
 	= "_dom";
     public static final String STATIC_NAMES_ARRAY_FIELD
         = "_sNamesArray";
+    public static final String STATIC_TEMPLATE_NAMES_FIELD
+        = "_sTemplateNames";
+    public static final String TEMPLATE_NAMES_INDEX
+	= "templateNames";
     public static final String STATIC_URIS_ARRAY_FIELD
         = "_sUrisArray";
     public static final String STATIC_TYPES_ARRAY_FIELD
@@ -34,6 +34,7 @@ import org.apache.bcel.generic.ISTORE;
 import org.apache.bcel.generic.InstructionHandle;
 import org.apache.bcel.generic.InstructionList;
 import org.apache.bcel.generic.LocalVariableGen;
+import org.apache.xalan.xsltc.DOM;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
 import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
@@ -72,6 +73,8 @@ final class Copy extends Instruction {
 	    _useSets.typeCheck(stable);
 	}
 	typeCheckContents(stable);
+	// Copying an element copies its namespace nodes
+	getXSLTC().setDocumentFeatures(DOM.NAMESPACE_NODES);
 	return Type.Void;
     }
 	
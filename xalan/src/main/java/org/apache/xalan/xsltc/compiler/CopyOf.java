@@ -26,6 +26,7 @@ import org.apache.bcel.generic.INVOKEINTERFACE;
 import org.apache.bcel.generic.INVOKESTATIC;
 import org.apache.bcel.generic.INVOKEVIRTUAL;
 import org.apache.bcel.generic.InstructionList;
+import org.apache.xalan.xsltc.DOM;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
 import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
@@ -66,7 +67,8 @@ final class CopyOf extends Instruction {
 	    tselect instanceof NodeSetType ||
 	    tselect instanceof ReferenceType ||
 	    tselect instanceof ResultTreeType) {
-	    // falls through 
+	    // Copying an element copies its namespace nodes
+	    getXSLTC().setDocumentFeatures(DOM.NAMESPACE_NODES);
 	}
 	else {
 	    _select = new CastExpr(_select, Type.String);
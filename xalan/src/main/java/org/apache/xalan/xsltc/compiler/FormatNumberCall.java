@@ -24,7 +24,6 @@ package org.apache.xalan.xsltc.compiler;
 import java.util.Vector;
 
 import org.apache.bcel.generic.ConstantPoolGen;
-import org.apache.bcel.generic.INVOKESTATIC;
 import org.apache.bcel.generic.INVOKEVIRTUAL;
 import org.apache.bcel.generic.InstructionList;
 import org.apache.bcel.generic.PUSH;
@@ -85,20 +84,17 @@ final class FormatNumberCall extends FunctionCall {
 	final ConstantPoolGen cpg = classGen.getConstantPool();
 	final InstructionList il = methodGen.getInstructionList();
 
-	_value.translate(classGen, methodGen);
-	_format.translate(classGen, methodGen);
-
-	final int fn3arg = cpg.addMethodref(BASIS_LIBRARY_CLASS,
+	final int format = cpg.addMethodref(TRANSLET_CLASS,
 					    "formatNumber",
 					    "(DLjava/lang/String;"+
-					    "Ljava/text/DecimalFormat;)"+
+					    "Ljava/lang/String;)"+
 					    "Ljava/lang/String;");
-	final int get = cpg.addMethodref(TRANSLET_CLASS,
-					 "getDecimalFormat",
-					 "(Ljava/lang/String;)"+
-					 "Ljava/text/DecimalFormat;");
-	
+
+	// The translet compiles each pattern once for its decimal format
 	il.append(classGen.loadTranslet());
+	_value.translate(classGen, methodGen);
+	_format.translate(classGen, methodGen);
+
 	if (_name == null) {
 	    il.append(new PUSH(cpg, EMPTYSTRING));
 	}
@@ -108,7 +104,6 @@ final class FormatNumberCall extends FunctionCall {
 	else {
 	    _name.translate(classGen, methodGen);
 	}
-	il.append(new INVOKEVIRTUAL(get));
-	il.append(new INVOKESTATIC(fn3arg));
+	il.append(new INVOKEVIRTUAL(format));
     }
 }
@@ -60,10 +60,6 @@ final class FunctionAvailableCall extends FunctionCall {
 	    LiteralExpr arg = (LiteralExpr) _arg;
             _namespaceOfFunct = arg.getNamespace();
             _nameOfFunct = arg.getValue();
-
-            if (!isInternalNamespace()) {
-              _isFunctionAvailable = hasMethods();
-            }
         }
     }
 
@@ -129,8 +125,7 @@ final class FunctionAvailableCall extends FunctionCall {
 	  methodName = replaceDash(methodName);
 
 	try {
-            final Class clazz = ObjectFactory.findProviderClass(
-                className, ObjectFactory.findClassLoader(), true);
+            final Class clazz = getXSLTC().loadExtensionClass(className);
 
 	    if (clazz == null) {
 	    	return false;
@@ -168,6 +163,11 @@ final class FunctionAvailableCall extends FunctionCall {
             _isFunctionAvailable = 
 		parser.functionSupported(Util.getLocalName(_nameOfFunct));
         }
+        else {
+            // Look for the class with the extension class loader of the
+            // compiler, which is only known once the parser has been set
+            _isFunctionAvailable = hasMethods();
+        }
  	return _isFunctionAvailable;
     }
     
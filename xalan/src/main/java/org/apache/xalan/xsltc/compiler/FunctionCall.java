@@ -40,6 +40,7 @@ import org.apache.bcel.generic.InvokeInstruction;
 import org.apache.bcel.generic.LocalVariableGen;
 import org.apache.bcel.generic.NEW;
 import org.apache.bcel.generic.PUSH;
+import org.apache.xalan.xsltc.DOM;
 import org.apache.xalan.xsltc.compiler.util.BooleanType;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
 import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
@@ -353,8 +354,7 @@ class FunctionCall extends Expression {
 		else {
 		    if (_className != null && _className.length() > 0) {
 		    	try {
-                            _clazz = ObjectFactory.findProviderClass(
-                                _className, ObjectFactory.findClassLoader(), true);
+                            _clazz = getXSLTC().loadExtensionClass(_className);
 		            _namespace_format = NAMESPACE_FORMAT_CLASS;
 		    	}
 		    	catch (ClassNotFoundException e) {
@@ -504,6 +504,9 @@ class FunctionCall extends Expression {
     public Type typeCheckExternal(SymbolTable stable) throws TypeCheckError {
 	int nArgs = _arguments.size();
 	final String name = _fname.getLocalPart();
+
+	// Java code may look at any part of the nodes it is passed
+	getXSLTC().setDocumentFeatures(DOM.ALL_DOCUMENT_FEATURES);
     
  	// check if function is a contructor 'new'
 	if (_fname.getLocalPart().equals("new")) {
@@ -882,8 +885,7 @@ class FunctionCall extends Expression {
 	    final int nArgs = _arguments.size();
 	    try {
 	      if (_clazz == null) {
-                _clazz = ObjectFactory.findProviderClass(
-                  _className, ObjectFactory.findClassLoader(), true);
+                _clazz = getXSLTC().loadExtensionClass(_className);
 
 		if (_clazz == null) {
 		  final ErrorMsg msg =
@@ -929,8 +931,7 @@ class FunctionCall extends Expression {
         final int nArgs = _arguments.size();
         try {
           if (_clazz == null) {
-            _clazz = ObjectFactory.findProviderClass(
-              _className, ObjectFactory.findClassLoader(), true);
+            _clazz = getXSLTC().loadExtensionClass(_className);
 
             if (_clazz == null) {
               final ErrorMsg msg = new ErrorMsg(ErrorMsg.CLASS_NOT_FOUND_ERR, _className);
@@ -21,6 +21,8 @@
 
 package org.apache.xalan.xsltc.compiler;
 
+import java.util.Vector;
+
 import org.apache.bcel.generic.BranchHandle;
 import org.apache.bcel.generic.ConstantPoolGen;
 import org.apache.bcel.generic.GOTO;
@@ -214,24 +216,22 @@ final class Key extends TopLevelElement {
      * and add one (or more) entries in this key's index.
      */
     public void translate(ClassGenerator classGen, MethodGenerator methodGen) {
+	final Vector keys = new Vector(1);
+	keys.addElement(this);
+	translateKeys(keys, classGen, methodGen);
+    }
+
+    /**
+     * Gather the nodes that match the "match" attribute of any of the
+     * given keys and add entries in the keys' indexes. The DOM is walked
+     * once, and every node is tested against all the keys, instead of
+     * walking the DOM once for each key.
+     */
+    public static void translateKeys(Vector keys, ClassGenerator classGen,
+				     MethodGenerator methodGen) {
 
 	final ConstantPoolGen cpg = classGen.getConstantPool();
 	final InstructionList il = methodGen.getInstructionList();
-	final int current = methodGen.getLocalIndex("current");
-
-	// AbstractTranslet.buildKeyIndex(name,node_id,value) => void
-	final int key = cpg.addMethodref(TRANSLET_CLASS,
-					 "buildKeyIndex",
-					 "("+STRING_SIG+"I"+OBJECT_SIG+")V");
-					 
-	// AbstractTranslet.SetKeyIndexDom(name, Dom) => void
-	final int keyDom = cpg.addMethodref(TRANSLET_CLASS,
-					 "setKeyIndexDom",
-					 "("+STRING_SIG+DOM_INTF_SIG+")V");
-					 
-	final int getNodeIdent = cpg.addInterfaceMethodref(DOM_INTF,
-							   "getNodeIdent",
-							   "(I)"+NODE_SIG);					 				 
 
 	// DOM.getAxisIterator(root) => NodeIterator
 	final int git = cpg.addInterfaceMethodref(DOM_INTF,
@@ -255,6 +255,44 @@ final class Key extends TopLevelElement {
 	final BranchHandle nextNode = il.append(new GOTO(null));
 	final InstructionHandle loop = il.append(NOP);
 
+	// Index the current node for every key it matches
+	final int n = keys.size();
+	for (int i = 0; i < n; i++) {
+	    ((Key) keys.elementAt(i)).translateNode(classGen, methodGen);
+	}
+
+	// Get the next node from the iterator and do loop again...
+	nextNode.setTarget(il.append(methodGen.loadIterator()));
+	il.append(methodGen.nextNode());
+	il.append(DUP);
+	il.append(methodGen.storeCurrentNode());
+	il.append(new IFGT(loop));
+
+	// Restore current node and current iterator from the stack
+	il.append(methodGen.storeIterator());
+	il.append(methodGen.storeCurrentNode());
+    }
+
+    /**
+     * Add entries in this key's index for the current node, if it
+     * matches the pattern in "match".
+     */
+    private void translateNode(ClassGenerator classGen,
+			       MethodGenerator methodGen) {
+
+	final ConstantPoolGen cpg = classGen.getConstantPool();
+	final InstructionList il = methodGen.getInstructionList();
+
+	// AbstractTranslet.buildKeyIndex(name,node_id,value) => void
+	final int key = cpg.addMethodref(TRANSLET_CLASS,
+					 "buildKeyIndex",
+					 "("+STRING_SIG+"I"+OBJECT_SIG+")V");
+					 
+	// AbstractTranslet.SetKeyIndexDom(name, Dom) => void
+	final int keyDom = cpg.addMethodref(TRANSLET_CLASS,
+					 "setKeyIndexDom",
+					 "("+STRING_SIG+DOM_INTF_SIG+")V");
+
 	// Check if the current node matches the pattern in "match"
 	il.append(methodGen.loadCurrentNode());
 	_match.translate(classGen, methodGen);
@@ -279,21 +317,7 @@ final class Key extends TopLevelElement {
 	    il.append(methodGen.loadDOM());
 	    il.append(new INVOKEVIRTUAL(keyDom));
 	}
-	
-	// Get the next node from the iterator and do loop again...
-	final InstructionHandle skip = il.append(NOP);
-	
-	il.append(methodGen.loadIterator());
-	il.append(methodGen.nextNode());
-	il.append(DUP);
-	il.append(methodGen.storeCurrentNode());
-	il.append(new IFGT(loop));
 
-	// Restore current node and current iterator from the stack
-	il.append(methodGen.storeIterator());
-	il.append(methodGen.storeCurrentNode());
-	
-	nextNode.setTarget(skip);
-	skipNode.setTarget(skip);
+	skipNode.setTarget(il.append(NOP));
     }
 }
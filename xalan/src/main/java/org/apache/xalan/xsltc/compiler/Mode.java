@@ -39,6 +39,8 @@ import org.apache.bcel.generic.ISTORE;
 import org.apache.bcel.generic.InstructionHandle;
 import org.apache.bcel.generic.InstructionList;
 import org.apache.bcel.generic.LocalVariableGen;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.ReturnInstruction;
 import org.apache.bcel.generic.SWITCH;
 import org.apache.bcel.generic.TargetLostException;
 import org.apache.bcel.util.InstructionFinder;
@@ -164,6 +166,24 @@ final class Mode implements Constants {
      */
     private int _currentIndex;
 
+    /**
+     * The number of bits of a name type, less DTM.NTYPES, that select the
+     * same group method when the pattern tests of each name are compiled
+     * into a method of their own.
+     */
+    private static final int DISPATCH_GROUP_BITS = 8;
+
+    /**
+     * The class and method in which getTemplateInstructionHandle() compiles
+     * the calls of templates that are not compiled yet, and where the calls
+     * continue. Only used when the pattern tests of each name are compiled
+     * into a method of their own, so that each method only holds the calls
+     * it makes.
+     */
+    private ClassGenerator _callClassGen = null;
+    private MethodGenerator _callMethodGen = null;
+    private InstructionHandle _callNext = null;
+
     /**
      * Creates a new Mode.
      *
@@ -548,8 +568,12 @@ for (int i = 0; i < _templates.size(); i++) {
 				     types, names, methodName,
 				     getClassName(), il, cpg);	    
 
+	final LocalVariableGen mark = addResultTreeMark(methodGen, template);
 	il.append(template.compile(classGen, methodGen));
 	il.append(RETURN);
+
+	releaseResultTrees(classGen, il, mark);
+	profileMethod(classGen, methodGen, template.getProfileName());
 	
 	classGen.addMethod(methodGen);
     }
@@ -564,22 +588,57 @@ for (int i = 0; i < _templates.size(); i++) {
             compileNamedTemplate(template, classGen);
         }
 
+	// Compile the calls when they are first needed
+	if (isCompactDispatch()) {
+	    _callClassGen = classGen;
+	    _callMethodGen = methodGen;
+	    _callNext = next;
+	    return;
+	}
+
 	templates = _neededTemplates.keys();
 	while (templates.hasMoreElements()) {
 	    final Template template = (Template)templates.nextElement();
-	    if (template.hasContents()) {
-		// !!! TODO templates both named and matched
-		InstructionList til = template.compile(classGen, methodGen);
-		til.append(new GOTO_W(next));
-		_templateILs.put(template, til);
-		_templateIHs.put(template, til.getStart());
-	    }
-	    else {
-		// empty template
-		_templateIHs.put(template, next);
-	    }
+	    // !!! TODO templates both named and matched
+	    compileTemplateCall(classGen, methodGen, template, next);
+	}
+    }
+
+    /**
+     * Compile the code of a template, or the call of its method, and the
+     * jump to where it continues.
+     */
+    private InstructionHandle compileTemplateCall(ClassGenerator classGen,
+						  MethodGenerator methodGen,
+						  Template template,
+						  InstructionHandle next) {
+	if (template.hasContents()) {
+	    final LocalVariableGen mark = addResultTreeMark(methodGen, template);
+	    InstructionList til = template.compile(classGen, methodGen);
+	    releaseResultTrees(classGen, til, mark);
+	    profileTemplate(classGen, til, template);
+	    til.append(new GOTO_W(next));
+	    _templateILs.put(template, til);
+	    _templateIHs.put(template, til.getStart());
+	    return til.getStart();
+	}
+	else {
+	    // empty template
+	    _templateIHs.put(template, next);
+	    return next;
 	}
     }
+
+    /**
+     * Returns true if the pattern tests of each element and attribute name
+     * are compiled into a method of their own. The code of an inlined
+     * template is only compiled once, so all templates must be compiled
+     * into methods for their calls to be split across methods.
+     */
+    private boolean isCompactDispatch() {
+	final XSLTC xsltc = _stylesheet.getXSLTC();
+	return xsltc.getCompactDispatch() && !xsltc.getTemplateInlining();
+    }
 	
     private void appendTemplateCode(InstructionList body) {
 	final Enumeration templates = _neededTemplates.keys();
@@ -825,6 +884,15 @@ for (int i = 0; i < _templates.size(); i++) {
 	// Compile all templates - regardless of pattern type
 	compileTemplates(classGen, methodGen, ihLoop);
 
+	// Compile the tests of element and attribute names into methods of
+	// their own, called through a method for each group of names
+	final boolean compact = isCompactDispatch() && names.size() > 0;
+	String[] groupMethods = null;
+	if (compact) {
+	    groupMethods = compileTypeMethods(classGen, types.length,
+					      isNamespace, isAttribute);
+	}
+
 	// Handle template with explicit "*" pattern
 	final TestSeq elemTest = _testSeq[DTM.ELEMENT_NODE];
 	InstructionHandle ihElem = ihRecurse;
@@ -1015,7 +1083,36 @@ for (int i = 0; i < _templates.size(); i++) {
 	body.append(new INVOKEINTERFACE(getType, 2));
 
 	// Append switch() statement - main dispatch loop in applyTemplates()
-	InstructionHandle disp = body.append(new SWITCH(types, targets, ihLoop));
+	InstructionHandle disp;
+	if (compact) {
+	    // Switch on the node types here and on the groups of names in
+	    // the code that follows
+	    final LocalVariableGen type =
+		methodGen.addLocalVariable2("type",
+					    org.apache.bcel.generic.Type.INT,
+					    null);
+	    body.append(DUP);
+	    type.setStart(body.append(new ISTORE(type.getIndex())));
+
+	    final int[] nodeTypes = new int[DTM.NTYPES];
+	    final InstructionHandle[] nodeTargets =
+		new InstructionHandle[DTM.NTYPES];
+	    System.arraycopy(types, 0, nodeTypes, 0, DTM.NTYPES);
+	    System.arraycopy(targets, 0, nodeTargets, 0, DTM.NTYPES);
+
+	    final InstructionList ilGroups =
+		compileGroupDispatch(classGen, methodGen, groupMethods,
+				     type.getIndex(), ihLoop,
+				     elemNamespaceHandle, attrNamespaceHandle);
+	    type.setEnd(ilGroups.getEnd());
+
+	    disp = body.append(new SWITCH(nodeTypes, nodeTargets,
+					  ilGroups.getStart()));
+	    body.append(ilGroups);
+	}
+	else {
+	    disp = body.append(new SWITCH(types, targets, ihLoop));
+	}
 
 	// Append all the "case:" statements
 	appendTestSequences(body);
@@ -1039,8 +1136,14 @@ for (int i = 0; i < _templates.size(); i++) {
 
 	peepHoleOptimization(methodGen);
 
+	profileMethod(classGen, methodGen, "apply-templates" + getProfileMode());
+
         classGen.addMethod(methodGen);
 
+	_callClassGen = null;
+	_callMethodGen = null;
+	_callNext = null;
+
 	// Compile method(s) for <xsl:apply-imports/> for this mode
 	if (_importLevels != null) {
 	    Enumeration levels = _importLevels.keys();
@@ -1052,6 +1155,233 @@ for (int i = 0; i < _templates.size(); i++) {
 	}
     }
 
+    /**
+     * Compile the pattern tests of each element and attribute name that
+     * has some into a method of its own, and a method for each group of
+     * names that calls them. The methods return 0 when a template was
+     * applied, and 1 or 2 when applyTemplates() is to go on with the
+     * "ns:*" or "ns:@*" tests and the built-in template of elements or
+     * attributes. This keeps applyTemplates() small however many names
+     * the stylesheet matches, and each method small enough to be compiled
+     * by the JIT compiler.
+     *
+     * @return The names of the group methods, the first for the names
+     * with types from DTM.NTYPES.
+     */
+    private String[] compileTypeMethods(ClassGenerator classGen, int n,
+					boolean[] isNamespace,
+					boolean[] isAttribute) {
+	final ConstantPoolGen cpg = classGen.getConstantPool();
+	final String typeMethodSig = "(" + DOM_INTF_SIG + NODE_ITERATOR_SIG
+	    + TRANSLET_OUTPUT_SIG + "I)I";
+
+	final org.apache.bcel.generic.Type[] argTypes =
+	    new org.apache.bcel.generic.Type[5];
+	argTypes[0] = Util.getJCRefType(DOM_INTF_SIG);
+	argTypes[1] = Util.getJCRefType(NODE_ITERATOR_SIG);
+	argTypes[2] = Util.getJCRefType(TRANSLET_OUTPUT_SIG);
+	argTypes[3] = org.apache.bcel.generic.Type.INT;
+	argTypes[4] = org.apache.bcel.generic.Type.INT;
+
+	final String[] argNames = new String[5];
+	argNames[0] = DOCUMENT_PNAME;
+	argNames[1] = ITERATOR_PNAME;
+	argNames[2] = TRANSLET_OUTPUT_PNAME;
+	argNames[3] = "current";
+	argNames[4] = "type";
+
+	// The template calls of applyTemplates() are compiled there
+	final Hashtable templateIHs = _templateIHs;
+	final Hashtable templateILs = _templateILs;
+	final MethodGenerator callMethodGen = _callMethodGen;
+	final InstructionHandle callNext = _callNext;
+
+	final int groupSize = 1 << DISPATCH_GROUP_BITS;
+	final String[] groupMethods =
+	    new String[(n - DTM.NTYPES + groupSize - 1) >> DISPATCH_GROUP_BITS];
+
+	for (int g = 0; g < groupMethods.length; g++) {
+	    final int first = DTM.NTYPES + (g << DISPATCH_GROUP_BITS);
+	    final int last = Math.min(first + groupSize, n);
+	    final String methodName = functionName() + "$group$" + g;
+
+	    final InstructionList il = new InstructionList();
+	    final MethodGenerator methodGen =
+		new MethodGenerator(ACC_PUBLIC | ACC_FINAL,
+				    org.apache.bcel.generic.Type.INT,
+				    argTypes, argNames, methodName,
+				    getClassName(), il, cpg);
+	    methodGen.addException("org.apache.xalan.xsltc.TransletException");
+
+	    final InstructionList ilReturn = new InstructionList();
+	    final InstructionHandle ihNone = ilReturn.append(ICONST_0);
+	    ilReturn.append(IRETURN);
+	    final InstructionHandle ihElem = ilReturn.append(ICONST_1);
+	    ilReturn.append(IRETURN);
+	    final InstructionHandle ihAttr = ilReturn.append(ICONST_2);
+	    ilReturn.append(IRETURN);
+
+	    final int[] types = new int[last - first];
+	    final InstructionHandle[] targets =
+		new InstructionHandle[types.length];
+	    final InstructionList ilCalls = new InstructionList();
+	    for (int i = first; i < last; i++) {
+		types[i - first] = i;
+		final TestSeq testSeq =
+		    (i < _testSeq.length) ? _testSeq[i] : null;
+
+		// "ns:*" and "ns:@*" tests stay in applyTemplates()
+		if (testSeq == null || isNamespace[i]) {
+		    targets[i - first] = isAttribute[i] ? ihAttr : ihElem;
+		    continue;
+		}
+
+		final String typeMethod = compileTypeMethod(classGen, i,
+							    testSeq,
+							    isAttribute[i]);
+		_testSeq[i] = null;
+
+		final int index = cpg.addMethodref(getClassName(), typeMethod,
+						   typeMethodSig);
+		targets[i - first] = ilCalls.append(classGen.loadTranslet());
+		ilCalls.append(methodGen.loadDOM());
+		ilCalls.append(methodGen.loadIterator());
+		ilCalls.append(methodGen.loadHandler());
+		ilCalls.append(methodGen.loadCurrentNode());
+		ilCalls.append(new INVOKEVIRTUAL(index));
+		ilCalls.append(IRETURN);
+	    }
+
+	    il.append(new ILOAD(methodGen.getLocalIndex("type")));
+	    il.append(new SWITCH(types, targets, ihNone));
+	    il.append(ilCalls);
+	    il.append(ilReturn);
+
+	    classGen.addMethod(methodGen);
+	    groupMethods[g] = methodName;
+	}
+
+	_templateIHs = templateIHs;
+	_templateILs = templateILs;
+	_callMethodGen = callMethodGen;
+	_callNext = callNext;
+	return groupMethods;
+    }
+
+    /**
+     * Compile the pattern tests of an element or attribute name, and the
+     * calls of the templates they match, into a method of its own.
+     *
+     * @return The name of the method.
+     */
+    private String compileTypeMethod(ClassGenerator classGen, int type,
+				     TestSeq testSeq, boolean isAttribute) {
+	final org.apache.bcel.generic.Type[] argTypes =
+	    new org.apache.bcel.generic.Type[4];
+	argTypes[0] = Util.getJCRefType(DOM_INTF_SIG);
+	argTypes[1] = Util.getJCRefType(NODE_ITERATOR_SIG);
+	argTypes[2] = Util.getJCRefType(TRANSLET_OUTPUT_SIG);
+	argTypes[3] = org.apache.bcel.generic.Type.INT;
+
+	final String[] argNames = new String[4];
+	argNames[0] = DOCUMENT_PNAME;
+	argNames[1] = ITERATOR_PNAME;
+	argNames[2] = TRANSLET_OUTPUT_PNAME;
+	argNames[3] = "current";
+
+	final String methodName = functionName() + '$' + type;
+	final InstructionList il = new InstructionList();
+	final MethodGenerator methodGen =
+	    new MethodGenerator(ACC_PUBLIC | ACC_FINAL,
+				org.apache.bcel.generic.Type.INT,
+				argTypes, argNames, methodName,
+				getClassName(), il,
+				classGen.getConstantPool());
+	methodGen.addException("org.apache.xalan.xsltc.TransletException");
+
+	// Return 0 after a template, 1 or 2 when all the tests failed
+	final InstructionList ilReturn = new InstructionList();
+	final InstructionHandle handled = ilReturn.append(ICONST_0);
+	ilReturn.append(IRETURN);
+	final InstructionHandle failed =
+	    ilReturn.append(isAttribute ? ICONST_2 : ICONST_1);
+	ilReturn.append(IRETURN);
+
+	_templateIHs = new Hashtable();
+	_templateILs = new Hashtable();
+	_callMethodGen = methodGen;
+	_callNext = handled;
+
+	final InstructionHandle start =
+	    testSeq.compile(classGen, methodGen, failed);
+	final InstructionList tests = testSeq.getInstructionList();
+	if (tests != null) {
+	    il.append(tests);
+	}
+	else {
+	    // A single template without further tests
+	    il.append(new GOTO_W(start));
+	}
+	appendTemplateCode(il);
+	il.append(ilReturn);
+
+	peepHoleOptimization(methodGen);
+	classGen.addMethod(methodGen);
+	return methodName;
+    }
+
+    /**
+     * Compile the code of applyTemplates() that calls the group method of
+     * a name type and goes on as it returns.
+     */
+    private InstructionList compileGroupDispatch(ClassGenerator classGen,
+						 MethodGenerator methodGen,
+						 String[] groupMethods,
+						 int typeIndex,
+						 InstructionHandle next,
+						 InstructionHandle elemNamespaceHandle,
+						 InstructionHandle attrNamespaceHandle) {
+	final ConstantPoolGen cpg = classGen.getConstantPool();
+	final String groupMethodSig = "(" + DOM_INTF_SIG + NODE_ITERATOR_SIG
+	    + TRANSLET_OUTPUT_SIG + "II)I";
+
+	final InstructionList ilResult = new InstructionList();
+	final InstructionHandle ihResult = ilResult.append(
+	    new SWITCH(new int[] { 1, 2 },
+		       new InstructionHandle[] { elemNamespaceHandle,
+						 attrNamespaceHandle },
+		       next));
+
+	final int[] groups = new int[groupMethods.length];
+	final InstructionHandle[] targets =
+	    new InstructionHandle[groupMethods.length];
+	final InstructionList ilCalls = new InstructionList();
+	for (int g = 0; g < groupMethods.length; g++) {
+	    final int index = cpg.addMethodref(getClassName(), groupMethods[g],
+					       groupMethodSig);
+	    groups[g] = g;
+	    targets[g] = ilCalls.append(classGen.loadTranslet());
+	    ilCalls.append(methodGen.loadDOM());
+	    ilCalls.append(methodGen.loadIterator());
+	    ilCalls.append(methodGen.loadHandler());
+	    ilCalls.append(new ILOAD(_currentIndex));
+	    ilCalls.append(new ILOAD(typeIndex));
+	    ilCalls.append(new INVOKEVIRTUAL(index));
+	    ilCalls.append(new GOTO_W(ihResult));
+	}
+
+	final InstructionList il = new InstructionList();
+	il.append(new ILOAD(typeIndex));
+	il.append(new PUSH(cpg, DTM.NTYPES));
+	il.append(ISUB);
+	il.append(new PUSH(cpg, DISPATCH_GROUP_BITS));
+	il.append(ISHR);
+	il.append(new SWITCH(groups, targets, next));
+	il.append(ilCalls);
+	il.append(ilResult);
+	return il;
+    }
+
     private void compileTemplateCalls(ClassGenerator classGen,
 				      MethodGenerator methodGen,
 				      InstructionHandle next, int min, int max){
@@ -1060,16 +1390,7 @@ for (int i = 0; i < _templates.size(); i++) {
 	    final Template template = (Template)templates.nextElement();
 	    final int prec = template.getImportPrecedence();
 	    if ((prec >= min) && (prec < max)) {
-		if (template.hasContents()) {
-		    InstructionList til = template.compile(classGen, methodGen);
-		    til.append(new GOTO_W(next));
-		    _templateILs.put(template, til);
-		    _templateIHs.put(template, til.getStart());
-		}
-		else {
-		    // empty template
-		    _templateIHs.put(template, next);
-		}
+		compileTemplateCall(classGen, methodGen, template, next);
 	    }
 	}
     }
@@ -1393,12 +1714,158 @@ for (int i = 0; i < _templates.size(); i++) {
 
 	peepHoleOptimization(methodGen);
 
+	profileMethod(classGen, methodGen, "apply-imports" + getProfileMode()
+		      + " (precedence " + min + " to " + (max - 1) + ")");
+
         classGen.addMethod(methodGen);
 
         // Restore original (complete) set of templates for this transformation
 	_templates = oldTemplates;
     }
 
+    /**
+     * Return the mode attribute of the apply-templates and apply-imports
+     * methods of this mode in the template profile.
+     */
+    private String getProfileMode() {
+	return (_name == null) ? "" : " mode=\"" + _name + "\"";
+    }
+
+    /**
+     * Return the code that tells the translet that a profiled template is
+     * entered or left.
+     */
+    private static InstructionList compileProfileCall(ClassGenerator classGen,
+						      String method,
+						      int index) {
+	final ConstantPoolGen cpg = classGen.getConstantPool();
+	final InstructionList il = new InstructionList();
+	il.append(classGen.loadTranslet());
+	il.append(new PUSH(cpg, index));
+	il.append(new INVOKEVIRTUAL(cpg.addMethodref(TRANSLET_CLASS, method,
+						     PROFILE_TEMPLATE_SIG)));
+	return il;
+    }
+
+    /**
+     * Count the calls of a template compiled into applyTemplates() and time
+     * them, if template profiling is on. Templates with a name are compiled
+     * into methods of their own, and profiled there.
+     */
+    private void profileTemplate(ClassGenerator classGen, InstructionList til,
+				 Template template) {
+	final XSLTC xsltc = classGen.getParser().getXSLTC();
+	if (!xsltc.getTemplateProfiling() || template.isNamed()) return;
+
+	final int index =
+	    xsltc.registerProfiledTemplate(template.getProfileName());
+	til.insert(compileProfileCall(classGen, ENTER_TEMPLATE, index));
+	til.append(compileProfileCall(classGen, EXIT_TEMPLATE, index));
+    }
+
+    /**
+     * Count the calls of a method and time them, if template profiling is
+     * on.
+     */
+    private void profileMethod(ClassGenerator classGen,
+			       MethodGenerator methodGen, String name) {
+	final XSLTC xsltc = classGen.getParser().getXSLTC();
+	if (!xsltc.getTemplateProfiling()) return;
+
+	final int index = xsltc.registerProfiledTemplate(name);
+	final InstructionList il = methodGen.getInstructionList();
+
+	// Branches to the start of the method, if any, do not enter the
+	// template again
+	il.insert(compileProfileCall(classGen, ENTER_TEMPLATE, index));
+
+	// Leave the template before each return, and make the branches to
+	// the return go to the call that leaves it
+	InstructionHandle ih = il.getStart();
+	while (ih != null) {
+	    final InstructionHandle next = ih.getNext();
+	    if (ih.getInstruction() instanceof ReturnInstruction) {
+		final InstructionHandle exit = il.insert(ih,
+		    compileProfileCall(classGen, EXIT_TEMPLATE, index));
+		il.redirectBranches(ih, exit);
+	    }
+	    ih = next;
+	}
+    }
+
+    /**
+     * Return the local variable that holds the result tree fragment mark
+     * of a template that stores fragments in variables or parameters, or
+     * null. It is allocated before the template is compiled, so that the
+     * variables of the template do not share its slot.
+     */
+    private LocalVariableGen addResultTreeMark(MethodGenerator methodGen,
+					       Template template) {
+	if (!template.createsResultTree()) return null;
+	return methodGen.addLocalVariable("rtf_mark",
+					  org.apache.bcel.generic.Type.INT,
+					  null, null);
+    }
+
+    /**
+     * Release the result tree fragments a template stores in variables and
+     * parameters when the template is left, so that the next fragments
+     * reuse their DTM ids. A fragment can only be referenced from the
+     * template that created it and the templates it calls.
+     */
+    private void releaseResultTrees(ClassGenerator classGen,
+				    InstructionList til,
+				    LocalVariableGen mark) {
+	if (mark == null) return;
+
+	final ConstantPoolGen cpg = classGen.getConstantPool();
+	final InstructionList il = new InstructionList();
+	il.append(classGen.loadTranslet());
+	il.append(new INVOKEVIRTUAL(cpg.addMethodref(TRANSLET_CLASS,
+						     GET_RESULT_TREE_MARK,
+						     GET_RESULT_TREE_MARK_SIG)));
+	mark.setStart(il.append(new ISTORE(mark.getIndex())));
+	til.insert(il);
+
+	// Release the fragments before each return of a template compiled
+	// into a method, or at the end of a template compiled into
+	// applyTemplates()
+	boolean returns = false;
+	InstructionHandle ih = til.getStart();
+	while (ih != null) {
+	    final InstructionHandle next = ih.getNext();
+	    if (ih.getInstruction() instanceof ReturnInstruction) {
+		final InstructionHandle exit =
+		    til.insert(ih, compileReleaseCall(classGen, mark));
+		til.redirectBranches(ih, exit);
+		mark.setEnd(exit.getNext());
+		returns = true;
+	    }
+	    ih = next;
+	}
+	if (!returns) {
+	    final InstructionHandle exit =
+		til.append(compileReleaseCall(classGen, mark));
+	    mark.setEnd(exit.getNext());
+	}
+    }
+
+    /**
+     * Return the code that releases the result tree fragments created since
+     * the mark stored in a local variable was taken.
+     */
+    private static InstructionList compileReleaseCall(ClassGenerator classGen,
+						      LocalVariableGen mark) {
+	final ConstantPoolGen cpg = classGen.getConstantPool();
+	final InstructionList il = new InstructionList();
+	il.append(classGen.loadTranslet());
+	il.append(new ILOAD(mark.getIndex()));
+	il.append(new INVOKEVIRTUAL(cpg.addMethodref(TRANSLET_CLASS,
+						     RELEASE_RESULT_TREES,
+						     RELEASE_RESULT_TREES_SIG)));
+	return il;
+    }
+
     /**
       * Peephole optimization.
       */
@@ -1424,6 +1891,7 @@ for (int i = 0; i < _templates.size(); i++) {
         
 	// ILOAD_N, ILOAD_N, SWAP, ISTORE_N => ILOAD_N
 	pattern = "ILOAD ILOAD SWAP ISTORE";
+	find.reread();
 	for (Iterator iter = find.search(pattern); iter.hasNext();) {
             InstructionHandle[] match = (InstructionHandle[]) iter.next();
             try {              
@@ -1450,6 +1918,7 @@ for (int i = 0; i < _templates.size(); i++) {
 
         // LoadInstruction_N, LoadInstruction_M, SWAP => LoadInstruction_M, LoadInstruction_N
 	pattern = "LoadInstruction LoadInstruction SWAP";
+	find.reread();
 	for (Iterator iter = find.search(pattern); iter.hasNext();) {
             InstructionHandle[] match = (InstructionHandle[])iter.next();
             try {
@@ -1469,6 +1938,7 @@ for (int i = 0; i < _templates.size(); i++) {
                 
         // ALOAD_N ALOAD_N => ALOAD_N DUP
 	pattern = "ALOAD ALOAD";
+	find.reread();
         for (Iterator iter = find.search(pattern); iter.hasNext();) {
             InstructionHandle[] match = (InstructionHandle[])iter.next();
             try {
@@ -1491,7 +1961,13 @@ for (int i = 0; i < _templates.size(); i++) {
     }
 
     public InstructionHandle getTemplateInstructionHandle(Template template) {
-	return (InstructionHandle)_templateIHs.get(template);
+	final InstructionHandle ih =
+	    (InstructionHandle)_templateIHs.get(template);
+	if (ih == null && _callMethodGen != null) {
+	    return compileTemplateCall(_callClassGen, _callMethodGen,
+				       template, _callNext);
+	}
+	return ih;
     }
 
     /**
@@ -455,6 +455,24 @@ final class Number extends Instruction implements Closure {
 		    
 	    nodeCounterGen.addMethod(matchGen);
 	}
+
+	/*
+	 * Patterns that refer to variables cannot share the translet's
+	 * index of counted nodes, so override isIndexable()
+	 */
+	if (closureLen > 0) {
+	    il = new InstructionList();
+	    il.append(ICONST_0);
+	    il.append(IRETURN);
+
+	    final MethodGenerator indexableGen =
+		new MethodGenerator(ACC_PUBLIC | ACC_FINAL,
+				    org.apache.bcel.generic.Type.BOOLEAN,
+				    new org.apache.bcel.generic.Type[] {},
+				    new String[] {},
+				    "isIndexable", _className, il, cpg);
+	    nodeCounterGen.addMethod(indexableGen);
+	}
 	
 	getXSLTC().dumpClass(nodeCounterGen.getJavaClass());
 
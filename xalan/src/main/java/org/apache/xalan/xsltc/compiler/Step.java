@@ -193,6 +193,12 @@ final class Step extends RelativeLocationPath {
 	// combinations of steps and patterns than can be optimised
 	_hadPredicates = hasPredicates();
 
+	// The namespace nodes of the input documents are only built if
+	// some step of the stylesheet selects them
+	if (_axis == Axis.NAMESPACE) {
+	    getXSLTC().setDocumentFeatures(DOM.NAMESPACE_NODES);
+	}
+
 	// Special case for '.'
  	//   in the case where '.' has a context such as book/. 
 	//   or .[false()] we can not optimize the nodeset to a single node. 
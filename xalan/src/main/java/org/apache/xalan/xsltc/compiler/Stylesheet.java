@@ -49,6 +49,7 @@ import org.apache.bcel.generic.PUTFIELD;
 import org.apache.bcel.generic.PUTSTATIC;
 import org.apache.bcel.generic.TargetLostException;
 import org.apache.bcel.util.InstructionFinder;
+import org.apache.xalan.xsltc.DOM;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
 import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
@@ -192,6 +193,11 @@ public final class Stylesheet extends SyntaxTreeNode {
      * Flag indicating if id() is called.
      */
     private boolean _hasIdCall = false;
+
+    /**
+     * The parts of the input documents the stylesheet uses.
+     */
+    private int _documentFeatures = DOM.ALL_DOCUMENT_FEATURES;
     
     /**
      * Set to true to enable template inlining optimization.
@@ -265,6 +271,10 @@ public final class Stylesheet extends SyntaxTreeNode {
         _hasIdCall = flag;
     }
 
+    public void setDocumentFeatures(int features) {
+        _documentFeatures = features;
+    }
+
     public void setOutputProperty(String key, String value) {
 	if (_outputProperties == null) {
 	    _outputProperties = new Properties();
@@ -1003,6 +1013,31 @@ public final class Stylesheet extends SyntaxTreeNode {
             }
         }
 
+        // Put the names of the profiled templates into the translet
+        final Vector templateNames = getXSLTC().getProfiledTemplates();
+        if (templateNames.size() != 0) {
+            addStaticField(classGen, "[" + STRING_SIG,
+                           STATIC_TEMPLATE_NAMES_FIELD);
+
+            staticConst.markChunkStart();
+            il.append(new PUSH(cpg, templateNames.size()));
+            il.append(new ANEWARRAY(cpg.addClass(STRING)));
+            int templateNamesRef =
+                        cpg.addFieldref(_className,
+                                        STATIC_TEMPLATE_NAMES_FIELD,
+                                        "[" + STRING_SIG);
+            il.append(new PUTSTATIC(templateNamesRef));
+            staticConst.markChunkEnd();
+            for (int i = 0; i < templateNames.size(); i++) {
+                staticConst.markChunkStart();
+                il.append(new GETSTATIC(templateNamesRef));
+                il.append(new PUSH(cpg, i));
+                il.append(new PUSH(cpg, (String) templateNames.get(i)));
+                il.append(AASTORE);
+                staticConst.markChunkEnd();
+            }
+        }
+
         // Grab all the literal text in the stylesheet and put it in a char[]
         final int charDataCount = getXSLTC().getCharacterDataCount();
         final int toCharArray = cpg.addMethodref(STRING, "toCharArray", "()[C");
@@ -1089,6 +1124,18 @@ public final class Stylesheet extends SyntaxTreeNode {
 	                                       TRANSLET_VERSION_INDEX_SIG)));
         constructor.markChunkEnd();
 	
+	if (getXSLTC().getProfiledTemplates().size() != 0) {
+            constructor.markChunkStart();
+	    il.append(classGen.loadTranslet());
+	    il.append(new GETSTATIC(cpg.addFieldref(_className,
+	                                            STATIC_TEMPLATE_NAMES_FIELD,
+	                                            "[" + STRING_SIG)));
+	    il.append(new PUTFIELD(cpg.addFieldref(TRANSLET_CLASS,
+	                                           TEMPLATE_NAMES_INDEX,
+	                                           "[" + STRING_SIG)));
+            constructor.markChunkEnd();
+	}
+
 	if (_hasIdCall) {
             constructor.markChunkStart();
 	    il.append(classGen.loadTranslet());
@@ -1098,6 +1145,16 @@ public final class Stylesheet extends SyntaxTreeNode {
 					           HASIDCALL_INDEX_SIG)));
             constructor.markChunkEnd();
 	}
+
+	if (_documentFeatures != DOM.ALL_DOCUMENT_FEATURES) {
+            constructor.markChunkStart();
+	    il.append(classGen.loadTranslet());
+	    il.append(new PUSH(cpg, _documentFeatures));
+	    il.append(new PUTFIELD(cpg.addFieldref(TRANSLET_CLASS,
+					           DOCUMENT_FEATURES_INDEX,
+					           DOCUMENT_FEATURES_INDEX_SIG)));
+            constructor.markChunkEnd();
+	}
 	
         // Compile in code to set the output configuration from <xsl:output>
 	if (output != null) {
@@ -1320,16 +1377,22 @@ public final class Stylesheet extends SyntaxTreeNode {
 
 	buildKeys.addException("org.apache.xalan.xsltc.TransletException");
 	
+	final Vector keys = new Vector();
 	final Enumeration elements = elements();
 	while (elements.hasMoreElements()) {
 	    // xsl:key
 	    final Object element = elements.nextElement();
 	    if (element instanceof Key) {
 		final Key key = (Key)element;
-		key.translate(classGen, buildKeys);
+		keys.addElement(key);
 		_keys.put(key.getName(),key);
 	    }
 	}
+
+	// Index all the keys in a single pass over the DOM
+	if (keys.size() > 0) {
+	    Key.translateKeys(keys, classGen, buildKeys);
+	}
 	
 	il.append(RETURN);
 	
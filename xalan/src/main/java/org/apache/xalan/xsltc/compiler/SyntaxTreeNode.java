@@ -615,6 +615,20 @@ public abstract class SyntaxTreeNode implements Constants {
             return false;
     }
 
+    /**
+     * Returns true if this node or one of its descendants stores a result
+     * tree fragment in a variable or parameter.
+     */
+    protected boolean createsResultTree() {
+	final int n = elementCount();
+	for (int i = 0; i < n; i++) {
+	    if (((SyntaxTreeNode)elementAt(i)).createsResultTree()) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
     /**
      * Utility method used by parameters and variables to store result trees
      * @param classGen BCEL Java class generator
@@ -121,6 +121,33 @@ public final class Template extends TopLevelElement {
 	return _mode;
     }
 
+    /**
+     * Return the name under which this template is counted by the
+     * template profile, e.g. 'template match="para" mode="toc" (doc.xsl:12)'.
+     */
+    public String getProfileName() {
+	final StringBuffer buffer = new StringBuffer("template");
+	final String[] attributes = { "name", "match", "mode" };
+	for (int i = 0; i < attributes.length; i++) {
+	    final String value = getAttribute(attributes[i]);
+	    if (value.length() > 0) {
+		buffer.append(' ').append(attributes[i]).append("=\"")
+		      .append(value).append('"');
+	    }
+	}
+
+	String systemId = getStylesheet().getSystemId();
+	if (systemId != null) {
+	    systemId = systemId.substring(systemId.lastIndexOf('/') + 1);
+	    buffer.append(" (").append(systemId).append(':')
+		  .append(getLineNumber()).append(')');
+	}
+	else {
+	    buffer.append(" (line ").append(getLineNumber()).append(')');
+	}
+	return buffer.toString();
+    }
+
     /**
      * Compare this template to another. First checks priority, then position.
      */
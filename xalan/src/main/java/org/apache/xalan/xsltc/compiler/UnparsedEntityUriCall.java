@@ -26,6 +26,7 @@ import java.util.Vector;
 import org.apache.bcel.generic.ConstantPoolGen;
 import org.apache.bcel.generic.INVOKEINTERFACE;
 import org.apache.bcel.generic.InstructionList;
+import org.apache.xalan.xsltc.DOM;
 import org.apache.xalan.xsltc.compiler.util.ClassGenerator;
 import org.apache.xalan.xsltc.compiler.util.MethodGenerator;
 import org.apache.xalan.xsltc.compiler.util.StringType;
@@ -46,6 +47,7 @@ final class UnparsedEntityUriCall extends FunctionCall {
     }
 
     public Type typeCheck(SymbolTable stable) throws TypeCheckError {
+        getXSLTC().setDocumentFeatures(DOM.UNPARSED_ENTITIES);
         final Type entity = _entity.typeCheck(stable);
         if (entity instanceof StringType == false) {
             _entity = new CastExpr(_entity, Type.String);
@@ -42,6 +42,7 @@ final class ValueOf extends Instruction {
     private Expression _select;
     private boolean _escaping = true;
     private boolean _isString = false;
+    private boolean _isReal = false;
 
     public void display(int indent) {
         indent(indent);
@@ -78,6 +79,8 @@ final class ValueOf extends Instruction {
             ***/
             if (type.identicalTo(Type.NodeSet)) {
                 _select = new CastExpr(_select, Type.Node);
+            } else if (type.identicalTo(Type.Real)) {
+                _isReal = true;
             } else {
                 _isString = true;
                 if (!type.identicalTo(Type.String)) {
@@ -107,7 +110,18 @@ final class ValueOf extends Instruction {
         // Otherwise, the value is a node, and the
         // dom.characters(int node, TransletOutputHandler) method can dispatch
         // the string value of the node to the output handler more efficiently.
-        if (_isString) {
+        // A number is written by translet.characters(double,
+        // TransletOutputHandler) without being converted to a String.
+        if (_isReal) {
+            final int characters = cpg.addMethodref(TRANSLET_CLASS,
+                                                    CHARACTERSW,
+                                                    CHARACTERSD_SIG);
+
+            il.append(classGen.loadTranslet());
+            _select.translate(classGen, methodGen);
+            il.append(methodGen.loadHandler());
+            il.append(new INVOKEVIRTUAL(characters));
+        } else if (_isString) {
             final int characters = cpg.addMethodref(TRANSLET_CLASS,
                                                     CHARACTERSW,
                                                     CHARACTERSW_SIG);
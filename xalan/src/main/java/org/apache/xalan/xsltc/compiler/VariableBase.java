@@ -229,6 +229,14 @@ class VariableBase extends TopLevelElement {
 	parseChildren(parser);
     }
 
+    /**
+     * Returns true if the value of the variable is a result tree fragment,
+     * or if its body stores one.
+     */
+    protected boolean createsResultTree() {
+	return (_select == null && hasContents()) || super.createsResultTree();
+    }
+
     /**
      * Compile the value of the variable, which is either in an expression in
      * a 'select' attribute, or in the variable elements body
@@ -150,6 +150,14 @@ final class WithParam extends Instruction {
 	return Type.Void;
     }
 
+    /**
+     * Returns true if the value of the parameter is a result tree fragment,
+     * or if its body stores one.
+     */
+    protected boolean createsResultTree() {
+	return (_select == null && hasContents()) || super.createsResultTree();
+    }
+
     /**
      * Compile the value of the parameter, which is either in an expression in
      * a 'select' attribute, or in the with-param element's body
@@ -27,13 +27,16 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.StringTokenizer;
 import java.util.Vector;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
@@ -113,9 +116,16 @@ public final class XSLTC {
 
     private Vector  _classes;
     private Vector  _bcelClasses;
+
+    /**
+     * The buffer the generated classes are written to. It is kept for the
+     * next class, so that it only grows for the largest one.
+     */
+    private ByteArrayOutputStream _classBuffer = null;
     private boolean _callsNodeset = false;
     private boolean _multiDocument = false;
     private boolean _hasIdCall = false;
+    private int _documentFeatures = 0;
 
     private Vector _stylesheetNSAncestorPointers;
     private Vector _prefixURIPairs;
@@ -129,11 +139,35 @@ public final class XSLTC {
      */
     private boolean _templateInlining = false;
 
+    /**
+     * Set to true if the translet is to count the calls of its templates
+     * and time them.
+     */
+    private boolean _templateProfiling = false;
+
+    /**
+     * The names of the profiled templates, in the order of their indices.
+     */
+    private Vector _profiledTemplates;
+
+    /**
+     * Set to true if applyTemplates() is to test the patterns of the
+     * element and attribute names used in the stylesheet in small methods
+     * of their own, reached through a switch on groups of name types.
+     */
+    private boolean _compactDispatch = false;
+
     /**
      * State of the secure processing feature.
      */
     private boolean _isSecureProcessing = false;
 
+    /**
+     * The class loader of the classes of Java extension functions, or null
+     * to use the class loader of the compiler.
+     */
+    private ClassLoader _extensionClassLoader = null;
+
     /**
      * XSLTC compiler constructor
      */
@@ -155,6 +189,57 @@ public final class XSLTC {
         return _isSecureProcessing;
     }
 
+    /**
+     * Set the class loader used to resolve the classes of Java extension
+     * functions at compile time. The compiled translet links its calls
+     * to these classes directly, so it must be loaded by a class loader
+     * that can find them too.
+     */
+    public void setExtensionClassLoader(ClassLoader loader) {
+        _extensionClassLoader = loader;
+    }
+
+    /**
+     * Return the class loader of the classes of Java extension functions,
+     * or null if they are loaded by the class loader of the compiler.
+     */
+    public ClassLoader getExtensionClassLoader() {
+        return _extensionClassLoader;
+    }
+
+    /**
+     * Load the class of a Java extension function.
+     */
+    public Class loadExtensionClass(String className)
+        throws ClassNotFoundException {
+        final ClassLoader loader = (_extensionClassLoader != null)
+            ? _extensionClassLoader : ObjectFactory.findClassLoader();
+        return ObjectFactory.findProviderClass(className, loader, true);
+    }
+
+    /**
+     * Create a class loader for the classes of Java extension functions
+     * from a list of directories and jar files separated by the path
+     * separator. Its parent is the class loader of the compiler.
+     */
+    public static ClassLoader createExtensionClassLoader(String classpath) {
+        final Vector urls = new Vector();
+        final StringTokenizer entries =
+            new StringTokenizer(classpath, File.pathSeparator);
+        while (entries.hasMoreTokens()) {
+            try {
+                urls.addElement(new File(entries.nextToken()).toURI().toURL());
+            }
+            catch (MalformedURLException e) {
+                // Ignore entries that cannot be turned into URLs
+            }
+        }
+
+        final URL[] array = new URL[urls.size()];
+        urls.copyInto(array);
+        return new URLClassLoader(array, ObjectFactory.findClassLoader());
+    }
+
     /**
      * Only for user by the internal TrAX implementation.
      */
@@ -196,6 +281,7 @@ public final class XSLTC {
 	_namespaces     = new Hashtable();
 	_namespaces.put("",new Integer(_nextNSType));
 	_namesIndex     = new Vector(128);
+	_profiledTemplates = new Vector();
 	_namespaceIndex = new Vector(32);
 	_namespacePrefixes = new Hashtable();
         _stylesheet     = null;
@@ -208,6 +294,7 @@ public final class XSLTC {
 	_attributeSetSerial = 0;
 	_multiDocument      = false;
 	_hasIdCall          = false;
+	_documentFeatures   = 0;
         _stylesheetNSAncestorPointers = null;
         _prefixURIPairs     = null;
         _prefixURIPairsIdx  = null;
@@ -244,6 +331,57 @@ public final class XSLTC {
         return _templateInlining;
     }
 
+    /**
+     * Set a flag indicating if the translet counts the calls of its
+     * templates, apply-templates and apply-imports methods, and the time
+     * spent in them. The counts are read from the TemplateProfile of the
+     * Templates object or of the translet.
+     */
+    public void setTemplateProfiling(boolean templateProfiling) {
+	_templateProfiling = templateProfiling;
+    }
+
+    /**
+     * Return the state of the template profiling feature.
+     */
+    public boolean getTemplateProfiling() {
+        return _templateProfiling;
+    }
+
+    /**
+     * Registers a profiled template and returns its index in the template
+     * profile of the translet.
+     */
+    public int registerProfiledTemplate(String name) {
+	_profiledTemplates.addElement(name);
+	return _profiledTemplates.size() - 1;
+    }
+
+    /**
+     * Returns the names of the profiled templates.
+     */
+    public Vector getProfiledTemplates() {
+	return _profiledTemplates;
+    }
+
+    /**
+     * Set to true to compile the pattern tests of each element and
+     * attribute name in a method of its own instead of in applyTemplates(),
+     * which keeps the methods of stylesheets with many templates small
+     * enough for the JIT compiler. Only applies when templates are not
+     * inlined.
+     */
+    public void setCompactDispatch(boolean compactDispatch) {
+	_compactDispatch = compactDispatch;
+    }
+
+    /**
+     * Return the state of the compact dispatch feature.
+     */
+    public boolean getCompactDispatch() {
+        return _compactDispatch;
+    }
+
     /**
      * Set the parameters to use to locate the correct <?xml-stylesheet ...?>
      * processing instruction in the case where the input document to the
@@ -365,6 +503,7 @@ public final class XSLTC {
 		_stylesheet.setCallsNodeset(_callsNodeset);
 		_stylesheet.setMultiDocument(_multiDocument);
 		_stylesheet.setHasIdCall(_hasIdCall);
+		_stylesheet.setDocumentFeatures(_documentFeatures);
 
 		// Class synchronization is needed for BCEL
 		synchronized (getClass()) {
@@ -427,7 +566,7 @@ public final class XSLTC {
      */
     public byte[][] getBytecodes() {
 	final int count = _classes.size();
-	final byte[][] result = new byte[count][1];
+	final byte[][] result = new byte[count][];
 	for (int i = 0; i < count; i++)
 	    result[i] = (byte[])_classes.elementAt(i);
 	return result;
@@ -538,6 +677,19 @@ public final class XSLTC {
     	return _hasIdCall;
     }
 
+    /**
+     * Record that the stylesheet uses some parts of the input documents
+     * that are otherwise not built: their namespace nodes, or their
+     * unparsed entities (see the DOM feature constants).
+     */
+    public void setDocumentFeatures(int features) {
+	_documentFeatures |= features;
+    }
+
+    public int getDocumentFeatures() {
+	return _documentFeatures;
+    }
+
     /**
      * Set the class name for the generated translet. This class name is
      * overridden if multiple stylesheets are compiled in one go using the
@@ -852,7 +1004,7 @@ public final class XSLTC {
     	    case BYTEARRAY_AND_FILE_OUTPUT:
     	    case BYTEARRAY_AND_JAR_OUTPUT:
     	    case CLASSLOADER_OUTPUT:
-    		ByteArrayOutputStream out = new ByteArrayOutputStream(2048);
+    		final ByteArrayOutputStream out = getClassBuffer();
     		clazz.dump(out);
     		_classes.addElement(out.toByteArray());
     
@@ -860,7 +1012,9 @@ public final class XSLTC {
     		  // check that the, class to be serialized to filesystem, is of the valid format.
     		  // check with the native JVM class loader
     		  byte[] classByteArray = clazz.getBytes();
-    		  ByteArrayClassLoader classLoader = new ByteArrayClassLoader(classByteArray, ObjectFactory.findClassLoader());
+    		  ByteArrayClassLoader classLoader = new ByteArrayClassLoader(classByteArray,
+    		      (_extensionClassLoader != null) ? _extensionClassLoader
+    		      : ObjectFactory.findClassLoader());
     		  Class clz = classLoader.findClass(clazz.getClassName());
     		  
     		  clazz.dump(new BufferedOutputStream(
@@ -877,6 +1031,19 @@ public final class XSLTC {
     	}
     }
     
+    /**
+     * Return the empty buffer to write a generated class to.
+     */
+    private ByteArrayOutputStream getClassBuffer() {
+	if (_classBuffer == null) {
+	    _classBuffer = new ByteArrayOutputStream(8192);
+	}
+	else {
+	    _classBuffer.reset();
+	}
+	return _classBuffer;
+    }
+
     public class ByteArrayClassLoader extends ClassLoader {
 
         byte[] ba;
@@ -930,7 +1097,7 @@ public final class XSLTC {
 	    final JavaClass clazz = (JavaClass)classes.nextElement();
 	    final String className = clazz.getClassName().replace('.','/');
 	    jos.putNextEntry(new JarEntry(className+".class"));
-	    final ByteArrayOutputStream out = new ByteArrayOutputStream(2048);
+	    final ByteArrayOutputStream out = getClassBuffer();
 	    clazz.dump(out); // dump() closes it's output stream
 	    out.writeTo(jos);
 	}
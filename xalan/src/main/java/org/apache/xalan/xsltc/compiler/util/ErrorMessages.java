@@ -679,7 +679,8 @@ public class ErrorMessages extends ListResourceBundle {
         "SYNOPSIS\n"+
         "   java org.apache.xalan.xsltc.cmdline.Compile [-o <output>]\n"+
         "      [-d <directory>] [-j <jarfile>] [-p <package>]\n"+
-        "      [-n] [-x] [-u] [-v] [-h] { <stylesheet> | -i }\n\n"+
+        "      [-c <classpath>] [-n] [-t] [-x] [-u] [-v] [-h]\n"+
+        "      { <stylesheet> | -i }\n\n"+
         "OPTIONS\n"+
         "   -o <output>    assigns the name <output> to the generated\n"+
         "                  translet.  By default the translet name is\n"+
@@ -690,8 +691,12 @@ public class ErrorMessages extends ListResourceBundle {
         "                  name specified as <jarfile>\n"+
         "   -p <package>   specifies a package name prefix for all generated\n"+
         "                  translet classes.\n"+
+        "   -c <classpath> loads the classes of Java extension functions\n"+
+        "                  from the directories and jar files in <classpath>\n"+
         "   -n             enables template inlining (default behavior better\n"+
         "                  on average).\n"+
+        "   -t             makes the translet count the calls of its\n"+
+        "                  templates and time them\n"+
         "   -x             turns on additional debugging message output\n"+
         "   -u             interprets <stylesheet> arguments as URLs\n"+
         "   -i             forces compiler to read stylesheet from stdin\n"+
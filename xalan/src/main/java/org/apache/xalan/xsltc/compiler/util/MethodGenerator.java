@@ -107,17 +107,19 @@ public class MethodGenerator extends MethodGen
     private final Instruction _aloadDom;
     private final Instruction _astoreDom;
     
-    private final Instruction _startElement;
-    private final Instruction _endElement;
-    private final Instruction _startDocument;
-    private final Instruction _endDocument;
-    private final Instruction _attribute;
-    private final Instruction _uniqueAttribute;
-    private final Instruction _namespace;
-
-    private final Instruction _setStartNode;
-    private final Instruction _reset;
-    private final Instruction _nextNode;
+    // The calls of the output handler and iterator methods, created when
+    // first used so that classes only refer to the methods they call
+    private Instruction _startElement;
+    private Instruction _endElement;
+    private Instruction _startDocument;
+    private Instruction _endDocument;
+    private Instruction _attribute;
+    private Instruction _uniqueAttribute;
+    private Instruction _namespace;
+
+    private Instruction _setStartNode;
+    private Instruction _reset;
+    private Instruction _nextNode;
 
     private SlotAllocator _slotAllocator;
     private boolean _allocatorInit = false;
@@ -145,68 +147,6 @@ public class MethodGenerator extends MethodGen
 	_aloadDom       = new ALOAD(DOM_INDEX);
 	_astoreDom      = new ASTORE(DOM_INDEX);
 	
-	final int startElement =
-	    cpg.addInterfaceMethodref(TRANSLET_OUTPUT_INTERFACE,
-				      "startElement",
-				      START_ELEMENT_SIG);
-	_startElement = new INVOKEINTERFACE(startElement, 2);
-	
-	final int endElement =
-	    cpg.addInterfaceMethodref(TRANSLET_OUTPUT_INTERFACE,
-				      "endElement",
-				      END_ELEMENT_SIG);
-	_endElement = new INVOKEINTERFACE(endElement, 2);
-
-	final int attribute =
-	    cpg.addInterfaceMethodref(TRANSLET_OUTPUT_INTERFACE,
-				      "addAttribute", 
-				      "("
-				      + STRING_SIG
-				      + STRING_SIG
-				      + ")V");
-	_attribute = new INVOKEINTERFACE(attribute, 3);
-
-	final int uniqueAttribute =
-	    cpg.addInterfaceMethodref(TRANSLET_OUTPUT_INTERFACE,
-				      "addUniqueAttribute", 
-				      "("
-				      + STRING_SIG
-				      + STRING_SIG
-				      + "I)V");
-	_uniqueAttribute = new INVOKEINTERFACE(uniqueAttribute, 4);
-
-	final int namespace =
-	    cpg.addInterfaceMethodref(TRANSLET_OUTPUT_INTERFACE,
-				      "namespaceAfterStartElement", 
-				      "("
-				      + STRING_SIG
-				      + STRING_SIG
-				      + ")V");
-	_namespace = new INVOKEINTERFACE(namespace, 3);
-	
-	int index = cpg.addInterfaceMethodref(TRANSLET_OUTPUT_INTERFACE,
-					      "startDocument",
-					      "()V");
-	_startDocument = new INVOKEINTERFACE(index, 1);
-	
-	index = cpg.addInterfaceMethodref(TRANSLET_OUTPUT_INTERFACE,
-					  "endDocument",
-					  "()V");
-	_endDocument = new INVOKEINTERFACE(index, 1);
-	
-	
-	index = cpg.addInterfaceMethodref(NODE_ITERATOR,
-					  SET_START_NODE,
-					  SET_START_NODE_SIG);
-	_setStartNode = new INVOKEINTERFACE(index, 2);
-
-	index = cpg.addInterfaceMethodref(NODE_ITERATOR,
-					  "reset", "()"+NODE_ITERATOR_SIG);
-	_reset = new INVOKEINTERFACE(index, 1);
-	
-	index = cpg.addInterfaceMethodref(NODE_ITERATOR, NEXT, NEXT_SIG);
-	_nextNode = new INVOKEINTERFACE(index, 1);
-	
 	_slotAllocator = new SlotAllocator();
 	_slotAllocator.initialize(getLocalVariableRegistry().getLocals(false));
 	_allocatorInit = true;
@@ -610,45 +550,101 @@ public class MethodGenerator extends MethodGen
     }
     
     public final Instruction setStartNode() {
+	if (_setStartNode == null) {
+	    final int index =
+		getConstantPool().addInterfaceMethodref(NODE_ITERATOR,
+							SET_START_NODE,
+							SET_START_NODE_SIG);
+	    _setStartNode = new INVOKEINTERFACE(index, 2);
+	}
 	return _setStartNode;
     }
 
     public final Instruction reset() {
+	if (_reset == null) {
+	    final int index =
+		getConstantPool().addInterfaceMethodref(NODE_ITERATOR, "reset",
+							"()"
+							+ NODE_ITERATOR_SIG);
+	    _reset = new INVOKEINTERFACE(index, 1);
+	}
 	return _reset;
     }
     
     public final Instruction nextNode() {
+	if (_nextNode == null) {
+	    final int index =
+		getConstantPool().addInterfaceMethodref(NODE_ITERATOR, NEXT,
+							NEXT_SIG);
+	    _nextNode = new INVOKEINTERFACE(index, 1);
+	}
 	return _nextNode;
     }
 
     public final Instruction startElement() {
+	if (_startElement == null) {
+	    _startElement = handlerCall("startElement", START_ELEMENT_SIG, 2);
+	}
 	return _startElement;
     }
 
     public final Instruction endElement() {
+	if (_endElement == null) {
+	    _endElement = handlerCall("endElement", END_ELEMENT_SIG, 2);
+	}
 	return _endElement;
     }
 
     public final Instruction startDocument() {
+	if (_startDocument == null) {
+	    _startDocument = handlerCall("startDocument", "()V", 1);
+	}
 	return _startDocument;
     }
 
     public final Instruction endDocument() {
+	if (_endDocument == null) {
+	    _endDocument = handlerCall("endDocument", "()V", 1);
+	}
 	return _endDocument;
     }
 
     public final Instruction attribute() {
+	if (_attribute == null) {
+	    _attribute = handlerCall("addAttribute",
+				     "(" + STRING_SIG + STRING_SIG + ")V", 3);
+	}
 	return _attribute;
     }
 
     public final Instruction uniqueAttribute() {
+	if (_uniqueAttribute == null) {
+	    _uniqueAttribute = handlerCall("addUniqueAttribute",
+					   "(" + STRING_SIG + STRING_SIG
+					   + "I)V", 4);
+	}
     	return _uniqueAttribute;
     }
 
     public final Instruction namespace() {
+	if (_namespace == null) {
+	    _namespace = handlerCall("namespaceAfterStartElement",
+				     "(" + STRING_SIG + STRING_SIG + ")V", 3);
+	}
 	return _namespace;
     }
 
+    /**
+     * Return a call of a method of the output handler.
+     */
+    private Instruction handlerCall(String name, String signature,
+				    int nargs) {
+	final int index =
+	    getConstantPool().addInterfaceMethodref(TRANSLET_OUTPUT_INTERFACE,
+						    name, signature);
+	return new INVOKEINTERFACE(index, nargs);
+    }
+
     public Instruction loadCurrentNode() {
 	if (_iloadCurrent == null) {
 	    int idx = getLocalIndex("current");
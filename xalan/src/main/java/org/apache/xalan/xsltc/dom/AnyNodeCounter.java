@@ -52,6 +52,12 @@ public abstract class AnyNodeCounter extends NodeCounter {
             else return formatNumbers((int)_value);
 	}
 	else {
+	    final NodeCounterIndex index = getIndex();
+	    if (index != null
+		&& (result = index.countAny(this, _node)) >= 0) {
+		return formatNumbers(result);
+	    }
+
 	    int next = _node; 
             final int root = _document.getDocument();
 	    result = 0;
@@ -98,6 +104,12 @@ public abstract class AnyNodeCounter extends NodeCounter {
                     else result = (int) _value;
 	    }
 	    else {
+		final NodeCounterIndex index = getIndex();
+		if (index != null
+		    && (result = index.countAny(this, _node)) >= 0) {
+		    return formatNumbers(result);
+		}
+
 		int next = _node;
 		result = 0;
 		final int ntype = _document.getExpandedTypeID(_node);
@@ -28,6 +28,8 @@ import java.net.URLConnection;
 import java.net.URLDecoder;
 import java.util.Date;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -39,6 +41,7 @@ import org.apache.xalan.xsltc.DOM;
 import org.apache.xalan.xsltc.DOMCache;
 import org.apache.xalan.xsltc.DOMEnhancedForDTM;
 import org.apache.xalan.xsltc.Translet;
+import org.apache.xalan.xsltc.TransletException;
 import org.apache.xalan.xsltc.runtime.AbstractTranslet;
 import org.apache.xalan.xsltc.runtime.BasisLibrary;
 import org.apache.xalan.xsltc.runtime.Constants;
@@ -79,6 +82,10 @@ public final class DocumentCache implements DOMCache {
 
 	// DOM and DTD handler references
 	private DOMEnhancedForDTM _dom = null;
+
+	// Key indexes of the DOM, keyed by the class of the translet
+	// that built them
+	private final Map _keyIndexes = new WeakHashMap();
 	
 	/**
 	 * Constructor - load document and initialise statistics
@@ -139,6 +146,16 @@ public final class DocumentCache implements DOMCache {
 	
 	public void setLastChecked(long t) { _lastChecked = t; }
 
+	public synchronized
+	    org.apache.xalan.xsltc.runtime.Hashtable getKeyIndexes(Class c) {
+	    return (org.apache.xalan.xsltc.runtime.Hashtable)_keyIndexes.get(c);
+	}
+
+	public synchronized void setKeyIndexes(Class c,
+		org.apache.xalan.xsltc.runtime.Hashtable indexes) {
+	    _keyIndexes.put(c, indexes);
+	}
+
 	public long getEstimatedSize() {
 	    if (_dom != null)
 		return(_dom.getSize() << 5); // ???
@@ -310,6 +327,38 @@ public final class DocumentCache implements DOMCache {
 	return(doc.getDocument());
     }
 
+    /**
+     * Builds the key indexes of a document returned by retrieveDocument(),
+     * or reuses the indexes built for it by an earlier transformation.
+     * Indexes are kept with the cached document for each translet class,
+     * as the compiled translet stands for its xsl:key declarations.
+     */
+    public void buildKeys(DOM document, DOM adapter, AbstractTranslet translet)
+	throws TransletException {
+	final int root = document.getDocument();
+	final CachedDocument doc =
+	    lookupDocument(document.getDocumentURI(root));
+
+	// The document may have been replaced since it was retrieved
+	if (doc == null || doc.getDocument() != document) {
+	    translet.buildKeys(adapter, null, null, root);
+	    return;
+	}
+
+	final Class transletClass = translet.getClass();
+	final org.apache.xalan.xsltc.runtime.Hashtable indexes =
+	    doc.getKeyIndexes(transletClass);
+
+	if (indexes != null) {
+	    translet.setDocumentKeyIndexes(root, indexes, adapter);
+	}
+	else {
+	    translet.buildKeys(adapter, null, null, root);
+	    doc.setKeyIndexes(transletClass,
+			      translet.getDocumentKeyIndexes(root));
+	}
+    }
+
     /**
      * Outputs the cache statistics
      */
@@ -110,6 +110,27 @@ public class KeyIndex extends DTMAxisIteratorBase {
         }
     }
 
+    /**
+     * Returns the mapping between values and nodesets for the document
+     * whose root is <tt>rootNode</tt>, or null if no node of the document
+     * has been added. The mapping must not be modified.
+     */
+    public Hashtable getDocumentIndex(int rootNode) {
+        return (Hashtable) _rootToIndexMap.get(new Integer(rootNode));
+    }
+
+    /**
+     * Sets the mapping between values and nodesets for the document whose
+     * root is <tt>rootNode</tt>, instead of adding its nodes one by one.
+     * The mapping may be shared with other indexes, so nodes added later
+     * for the same document go in a new mapping.
+     */
+    public void setDocumentIndex(int rootNode, Hashtable index) {
+        _rootToIndexMap.put(new Integer(rootNode), index);
+        _index = index;
+        _currentDocumentNode = DTM.NULL;
+    }
+
     /**
      * Merge the current value's nodeset set by lookupKey() with _nodes.
      * @deprecated
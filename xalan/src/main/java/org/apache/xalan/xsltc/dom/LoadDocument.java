@@ -201,7 +201,9 @@ public final class LoadDocument {
             DOMEnhancedForDTM enhancedDOM =
                     (DOMEnhancedForDTM) dtmManager.getDTM(new StreamSource(uri),
                                             false, null, true, false,
-                                            translet.hasIdCall(), cacheDOM);
+                                            false, 0, translet.hasIdCall(),
+                                            cacheDOM,
+                                            translet.getDocumentFeatures());
             newdom = enhancedDOM;
 
             // Cache the stylesheet DOM in the Templates object
@@ -220,8 +222,13 @@ public final class LoadDocument {
         final DOMAdapter domAdapter = translet.makeDOMAdapter(newdom);
         multiplexer.addDOMAdapter(domAdapter);
 
-        // Create index for any key elements
-        translet.buildKeys(domAdapter, null, null, newdom.getDocument());
+        // Create index for any key elements, or reuse the index kept
+        // with a cached document
+        if (cache instanceof DocumentCache) {
+            ((DocumentCache)cache).buildKeys(newdom, domAdapter, translet);
+        } else {
+            translet.buildKeys(domAdapter, null, null, newdom.getDocument());
+        }
 
         // Return a singleton iterator containing the root node
         return new SingletonIterator(newdom.getDocument(), true);
@@ -74,10 +74,18 @@ public abstract class MultipleNodeCounter extends NodeCounter {
 	}
 
 	// Increment array of counters according to semantics
+	final NodeCounterIndex index = getIndex();
 	for (int j = 0, i = nAncestors - 1; i >= 0 ; i--, j++) {
 	    final int counter = counters[j];
 	    final int ancestor = ancestors.at(i);
 
+	    final int position;
+	    if (index != null
+		&& (position = index.countSiblings(this, ancestor)) > 0) {
+		counters[j] = position;
+		continue;
+	    }
+
 	    if (matchesCount(ancestor)) {
 		_precSiblings.setStartNode(ancestor);
 		while ((next = _precSiblings.next()) != END) {
@@ -25,6 +25,7 @@ import java.util.Vector;
 
 import org.apache.xalan.xsltc.DOM;
 import org.apache.xalan.xsltc.Translet;
+import org.apache.xalan.xsltc.runtime.AbstractTranslet;
 import org.apache.xml.dtm.DTM;
 import org.apache.xml.dtm.DTMAxisIterator;
 import org.apache.xml.dtm.Axis;
@@ -212,6 +213,28 @@ public abstract class NodeCounter {
     return false;
     }
 
+    /**
+     * Returns true if the count and from patterns only depend on the
+     * node being matched, so the nodes they match can be indexed once
+     * per document. Counters whose patterns refer to variables override
+     * this to return false.
+     */
+    public boolean isIndexable() {
+	return true;
+    }
+
+    /**
+     * Returns the index kept by the translet for this counter, or null
+     * if the counter cannot be indexed.
+     */
+    protected NodeCounterIndex getIndex() {
+	if (isIndexable() && _translet instanceof AbstractTranslet) {
+	    return ((AbstractTranslet) _translet).getCounterIndex(getClass(),
+	        _nodeType, _document);
+	}
+	return null;
+    }
+
     /**
      * Format a single value according to the format parameters.
      */
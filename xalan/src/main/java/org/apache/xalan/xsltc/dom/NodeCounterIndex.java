@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+package org.apache.xalan.xsltc.dom;
+
+import java.util.Hashtable;
+
+import org.apache.xalan.xsltc.DOM;
+import org.apache.xalan.xsltc.util.IntegerArray;
+import org.apache.xml.dtm.DTMAxisIterator;
+
+/**
+ * Index of the nodes matched by the count and from patterns of one
+ * <tt>xsl:number</tt> in one DOM. It is kept by the translet and filled
+ * in lazily, so every node is matched against the patterns at most once
+ * per transformation instead of once per numbered node.
+ */
+public final class NodeCounterIndex {
+    private final DOM _document;
+    private final int _root;
+
+    /**
+     * Nodes matching the count pattern in [_root, _scanned), in
+     * ascending order.
+     */
+    private final IntegerArray _counted = new IntegerArray();
+
+    /**
+     * Nodes matching the from pattern in [_root, _scanned), in
+     * ascending order.
+     */
+    private final IntegerArray _from = new IntegerArray();
+
+    /**
+     * The first node not yet scanned for level="any".
+     */
+    private int _scanned;
+
+    /**
+     * Maps a node matching the count pattern to its position among the
+     * matching children of its parent, for the parents in _parents.
+     */
+    private Hashtable _positions = null;
+    private Hashtable _parents = null;
+
+    /**
+     * True if some of the parents in _parents are not in the tree of
+     * _root, but in a result tree fragment for instance.
+     */
+    private boolean _otherParents = false;
+
+    public NodeCounterIndex(DOM document) {
+	_document = document;
+	_root = document.getDocument();
+	_scanned = _root;
+    }
+
+    public DOM getDocument() {
+	return _document;
+    }
+
+    /**
+     * Returns the number of nodes counted by <tt>counter</tt> for
+     * level="any": those matching the count pattern between the last
+     * node matching the from pattern and <tt>node</tt>, both in the range
+     * from the root of the DOM up to <tt>node</tt>. Returns -1 if
+     * <tt>node</tt> belongs to another document.
+     */
+    public int countAny(NodeCounter counter, int node) {
+	int root = node, parent;
+	while ((parent = _document.getParent(root)) != NodeCounter.END) {
+	    root = parent;
+	}
+	if (root != _root) {
+	    return -1;
+	}
+
+	for (; _scanned <= node; _scanned++) {
+	    if (counter.matchesFrom(_scanned)) {
+		_from.add(_scanned);
+	    }
+	    else if (counter.matchesCount(_scanned)) {
+		_counted.add(_scanned);
+	    }
+	}
+
+	int result = rank(_counted, node);
+	final int from = rank(_from, node);
+	if (from > 0) {
+	    result -= rank(_counted, _from.at(from - 1));
+	}
+	return result;
+    }
+
+    /**
+     * Returns the position of <tt>node</tt> among those of its siblings
+     * that match the count pattern of <tt>counter</tt>, or -1 if the
+     * node is not one of them. All the children of a parent are
+     * numbered the first time one of them is asked for.
+     */
+    public int countSiblings(NodeCounter counter, int node) {
+	if (_positions == null) {
+	    _positions = new Hashtable();
+	    _parents = new Hashtable();
+	}
+
+	Integer position = (Integer) _positions.get(new Integer(node));
+	if (position == null) {
+	    final int parent = _document.getParent(node);
+	    if (parent == NodeCounter.END) {
+		return -1;
+	    }
+
+	    final Integer key = new Integer(parent);
+	    if (_parents.put(key, key) != null) {
+		return -1;	// already numbered, node is not counted
+	    }
+	    if (!_otherParents) {
+		int root = parent, ancestor;
+		while ((ancestor = _document.getParent(root)) != NodeCounter.END) {
+		    root = ancestor;
+		}
+		_otherParents = (root != _root);
+	    }
+
+	    final DTMAxisIterator children = _document.getChildren(parent);
+	    int child, count = 0;
+	    while ((child = children.next()) != NodeCounter.END) {
+		if (counter.matchesCount(child)) {
+		    _positions.put(new Integer(child), new Integer(++count));
+		}
+	    }
+
+	    position = (Integer) _positions.get(new Integer(node));
+	    if (position == null) {
+		return -1;
+	    }
+	}
+	return position.intValue();
+    }
+
+    /**
+     * Forgets the positions of the children of parents that are not in
+     * the tree of the document, after result tree fragments have been
+     * released and their node handles may be reused.
+     */
+    public void releaseFragments() {
+	if (_otherParents) {
+	    _positions = null;
+	    _parents = null;
+	    _otherParents = false;
+	}
+    }
+
+    /**
+     * Returns the number of elements of an ascending array that are less
+     * than or equal to <tt>value</tt>.
+     */
+    private static int rank(IntegerArray array, int value) {
+	int low = 0;
+	int high = array.cardinality();
+	while (low < high) {
+	    final int mid = (low + high) >>> 1;
+	    if (array.at(mid) <= value) {
+		low = mid + 1;
+	    }
+	    else {
+		high = mid;
+	    }
+	}
+	return low;
+    }
+}
@@ -23,12 +23,14 @@ package org.apache.xalan.xsltc.dom;
 
 import java.text.CollationKey;
 import java.text.Collator;
+import java.text.RuleBasedCollator;
 import java.util.Locale;
 
 import org.apache.xalan.xsltc.CollatorFactory;
 import org.apache.xalan.xsltc.DOM;
 import org.apache.xalan.xsltc.TransletException;
 import org.apache.xalan.xsltc.runtime.AbstractTranslet;
+import org.apache.xml.utils.SortKeyTable;
 import org.apache.xml.utils.StringComparable;
 
 /**
@@ -225,6 +227,100 @@ public abstract class NodeSortRecord {
 	return(_node - other._node);
     }
 
+    /**
+     * Extracts every sort key of a range of nodes into a table, using this
+     * record's settings and collators. The keys compare exactly as
+     * compareTo() compares records, and ties are broken by document order,
+     * so sorting the table gives the same order as sorting records.
+     * Row i of the table holds the keys of nodes[from + i].
+     */
+    public final SortKeyTable extractKeys(int[] nodes, int from, int count) {
+        final AbstractTranslet translet = _settings.getTranslet();
+        final String[] caseOrder = _settings.getCaseOrders();
+        final int[] sortOrder = _settings.getSortOrders();
+        final int[] compareTypes = _settings.getTypes();
+        final int levels = sortOrder.length;
+        final SortKeyTable table = new SortKeyTable(count, levels);
+
+        for (int level = 0; level < levels; level++) {
+            final int type;
+            if (compareTypes[level] == COMPARE_NUMERIC) {
+                type = SortKeyTable.TYPE_NUMBER;
+            }
+            else if ((caseOrder[level] == null
+                      || caseOrder[level].length() == 0)
+                     && _collators[level] instanceof RuleBasedCollator) {
+                type = SortKeyTable.TYPE_BYTES;
+            }
+            else {
+                type = SortKeyTable.TYPE_OBJECT;
+            }
+            table.setLevel(level, type,
+                           sortOrder[level] == COMPARE_DESCENDING);
+            if (type == SortKeyTable.TYPE_BYTES) {
+                table.setCollator(level,
+                                  (RuleBasedCollator) _collators[level]);
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            final int node = nodes[from + i];
+            table.setTie(i, node);
+
+            for (int level = 0; level < levels; level++) {
+                final String str = extractValueFromDOM(_dom, node, level,
+                                                       translet, from + i);
+                switch (table.getType(level)) {
+                case SortKeyTable.TYPE_NUMBER:
+                    double num;
+                    try {
+                        num = Double.parseDouble(str);
+                    }
+                    // Treat number as NaN if it cannot be parsed as a double
+                    catch (NumberFormatException e) {
+                        num = Double.NEGATIVE_INFINITY;
+                    }
+                    table.setKey(level, i, SortKeyTable.numberKey(num));
+                    break;
+                case SortKeyTable.TYPE_BYTES:
+                    table.setCollationKey(level, i, str);
+                    break;
+                default:
+                    table.setKey(level, i, makeKey(level, str));
+                }
+            }
+        }
+
+        table.finishCollationKeys();
+        return table;
+    }
+
+    /**
+     * Makes the key of a string for a level that is not compared by
+     * collation key bytes, as extractKeys() does.
+     */
+    public final Comparable makeKey(int level, String value) {
+        return StringComparable.getComparator(value,
+                                              _settings.getLocales()[level],
+                                              _collators[level],
+                                              _settings.getCaseOrders()[level]);
+    }
+
+    /**
+     * Returns the string a key made by makeKey() was made from.
+     */
+    public final String getKeyString(int level, Comparable key) {
+        return (key instanceof CollationKey)
+            ? ((CollationKey) key).getSourceString() : key.toString();
+    }
+
+    /**
+     * Returns the number of sort keys of each node.
+     */
+    public final int getLevels() {
+        return _settings.getSortOrders().length;
+    }
+
     /**
      * Returns the array of Collators used for text comparisons in this object.
      * May be overridden by inheriting classes
@@ -793,6 +793,19 @@ public final class SAXImpl extends SAX2DTM2
         return _hasDOMSource;	
     }
 
+    /**
+     * Set the parts of the document that are built, a combination of the
+     * DOM.NAMESPACE_NODES and DOM.UNPARSED_ENTITIES flags. A document
+     * built without its namespace nodes has an empty namespace axis, and
+     * copies of its elements declare their own namespaces only. This
+     * must be called before the document is parsed.
+     */
+    public void setDocumentFeatures(int features)
+    {
+        m_buildNamespaceNodes = (features & DOM.NAMESPACE_NODES) != 0;
+        m_keepUnparsedEntities = (features & DOM.UNPARSED_ENTITIES) != 0;
+    }
+
     /*---------------------------------------------------------------------------*/
     /* DOMBuilder methods begin                                                  */
     /*---------------------------------------------------------------------------*/
@@ -1808,6 +1821,7 @@ public final class SAXImpl extends SAX2DTM2
     	        SimpleResultTreeImpl rtf = new SimpleResultTreeImpl(_dtmManager,
     	                                   dtmPos << DTMManager.IDENT_DTM_NODE_BITS);
     	        _dtmManager.addDTM(rtf, dtmPos, 0);
+    	        _dtmManager.addResultTree(rtf);
     	        return rtf;
     	    }
             else {
@@ -1821,18 +1835,24 @@ public final class SAXImpl extends SAX2DTM2
     	                               dtmPos << DTMManager.IDENT_DTM_NODE_BITS,
     	                               m_wsfilter, initSize, m_buildIdIndex);
     	        _dtmManager.addDTM(rtf, dtmPos, 0);
+    	        _dtmManager.addResultTree(rtf);
     	        return rtf;
     	
     	    }
     	    else {
-            	return new AdaptiveResultTreeImpl(_dtmManager, 0,
+    	        // Its nested DOM, if it needs one, gets a DTM id
+            	AdaptiveResultTreeImpl rtf = new AdaptiveResultTreeImpl(_dtmManager, 0,
     	                               m_wsfilter, initSize, m_buildIdIndex);
+    	        _dtmManager.addResultTree(rtf);
+    	        return rtf;
             }    	
     	}
     	else {
-    	    return (DOM) _dtmManager.getDTM(null, true, m_wsfilter,
-                                            true, false, false,
-                                            initSize, m_buildIdIndex);
+    	    DOM rtf = (DOM) _dtmManager.getDTM(null, true, m_wsfilter,
+                                               true, false, false,
+                                               initSize, m_buildIdIndex);
+    	    _dtmManager.addResultTree(rtf);
+    	    return rtf;
         }
     }
 
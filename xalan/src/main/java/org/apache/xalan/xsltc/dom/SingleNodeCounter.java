@@ -74,6 +74,13 @@ public abstract class SingleNodeCounter extends NodeCounter {
 	    }
 
 	    if (next != END) {
+		final NodeCounterIndex index = getIndex();
+		if (index != null
+		    && (result = index.countSiblings(this, next)) > 0) {
+		    return formatNumbers(result);
+		}
+
+		result = 0;
 		_countSiblings.setStartNode(next);
 		do {
 		    if (matchesCount(next)) result++;
@@ -24,6 +24,8 @@ package org.apache.xalan.xsltc.dom;
 import org.apache.xalan.xsltc.runtime.BasisLibrary;
 import org.apache.xml.dtm.DTMAxisIterator;
 import org.apache.xml.dtm.ref.DTMAxisIteratorBase;
+import org.apache.xml.utils.ExternalSort;
+import org.apache.xml.utils.SortKeyTable;
 
 /**
  * @author Jacek Ambroziak
@@ -36,7 +38,7 @@ public final class SortingIterator extends DTMAxisIteratorBase {
     private DTMAxisIterator _source;
     private NodeSortRecordFactory _factory;
 
-    private NodeSortRecord[] _data;
+    private int[] _data;		// the sorted nodes
     private int _free = 0;
     private int _current;	// index in _nodes of the next node to try
 
@@ -47,21 +49,57 @@ public final class SortingIterator extends DTMAxisIteratorBase {
     }
 
     public int next() {
-	return _current < _free ? _data[_current++].getNode() : END;
+	return _current < _free ? _data[_current++] : END;
     }
 	
     public DTMAxisIterator setStartNode(int node) {
 	try {
 	    _source.setStartNode(_startNode = node);
-	    _data = new NodeSortRecord[INIT_DATA_SIZE];
+	    _data = new int[INIT_DATA_SIZE];
 	    _free = 0;
 
 	    // gather all nodes from the source iterator
 	    while ((node = _source.next()) != END) {
-		addRecord(_factory.makeNodeSortRecord(node,_free));
+		addNode(node);
+	    }
+
+	    // extract all the sort keys at once and sort the nodes on them,
+	    // in runs on disk if they may not fit in the translet's budget
+	    if (_free > 0) {
+		final NodeSortRecord record =
+		    _factory.makeNodeSortRecord(_data[0], 0);
+		final long budget =
+		    record._settings.getTranslet().getSortMemoryBudget();
+
+		if (budget > 0) {
+		    ExternalSort.sort(_data, _free, record.getLevels(), budget,
+			new ExternalSort.KeyExtractor() {
+			    public SortKeyTable extractKeys(int[] nodes,
+							    int from,
+							    int count) {
+				return record.extractKeys(nodes, from, count);
+			    }
+			    public String getKeyString(int level,
+						       Comparable key) {
+				return record.getKeyString(level, key);
+			    }
+			    public Comparable makeKey(int level,
+						      String value) {
+				return record.makeKey(level, value);
+			    }
+			});
+		}
+		else {
+		    final SortKeyTable keys =
+			record.extractKeys(_data, 0, _free);
+		    final int[] order = keys.sort();
+		    final int[] sorted = new int[_free];
+		    for (int i = 0; i < _free; i++) {
+			sorted[i] = _data[order[i]];
+		    }
+		    _data = sorted;
+		}
 	    }
-	    // now sort the records
-	    quicksort(0, _free - 1);
 
 	    _current = 0;
 	    return this;
@@ -112,38 +150,12 @@ public final class SortingIterator extends DTMAxisIteratorBase {
 	}
     }
 
-    private void addRecord(NodeSortRecord record) {
+    private void addNode(int node) {
 	if (_free == _data.length) {
-	    NodeSortRecord[] newArray = new NodeSortRecord[_data.length * 2];
+	    int[] newArray = new int[_data.length * 2];
 	    System.arraycopy(_data, 0, newArray, 0, _free);
 	    _data = newArray;
 	}
-	_data[_free++] = record;
-    }
-
-    private void quicksort(int p, int r) {
-	while (p < r) {
-	    final int q = partition(p, r);
-	    quicksort(p, q);
-	    p = q + 1;
-	}
-    }
-    
-    private int partition(int p, int r) {
-	final NodeSortRecord x = _data[(p + r) >>> 1];
-	int i = p - 1;
-	int j = r + 1;
-	while (true) {
-	    while (x.compareTo(_data[--j]) < 0);
-	    while (x.compareTo(_data[++i]) > 0);
-	    if (i < j) {
-		final NodeSortRecord t = _data[i];
-		_data[i] = _data[j];
-		_data[j] = t;
-	    }
-	    else {
-		return(j);
-	    }
-	}
+	_data[_free++] = node;
     }
 }
@@ -33,6 +33,7 @@ import org.apache.xml.dtm.ref.DTMManagerDefault;
 import org.apache.xml.res.XMLErrorResources;
 import org.apache.xml.res.XMLMessages;
 import org.apache.xml.utils.SystemIDResolver;
+import org.apache.xalan.xsltc.DOM;
 import org.apache.xalan.xsltc.trax.DOM2SAX;
 
 import org.xml.sax.InputSource;
@@ -59,6 +60,14 @@ public class XSLTCDTMManager extends DTMManagerDefault
     /** Set this to true if you want basic diagnostics */
     private static final boolean DEBUG = false;
 
+    /**
+     * The result tree fragments that have a DTM id, or that may get a DTM
+     * with one, in the order they were created. Those created by a
+     * template are released when it is left.
+     */
+    private DOM[] _resultTrees = null;
+    private int _resultTreeCount = 0;
+
     /**
      * Constructor DTMManagerDefault
      *
@@ -265,6 +274,29 @@ public class XSLTCDTMManager extends DTMManagerDefault
 		    DTMWSFilter whiteSpaceFilter, boolean incremental,
 		    boolean doIndexing, boolean hasUserReader, int size,
 		    boolean buildIdIndex, boolean newNameTable)
+  {
+    return getDTM(source, unique, whiteSpaceFilter, incremental,
+                  doIndexing, hasUserReader, size, buildIdIndex,
+                  newNameTable, DOM.ALL_DOCUMENT_FEATURES);
+  }
+
+  /**
+     * Get an instance of a DTM, loaded with the content from the
+     * specified source, leaving out the parts of the document the caller
+     * does not use. The other parameters are those of
+     * {@link #getDTM(Source, boolean, DTMWSFilter, boolean, boolean, boolean, int, boolean, boolean)}.
+     *
+     * @param documentFeatures The parts of the document that are built, a
+     *                         combination of the DOM.NAMESPACE_NODES and
+     *                         DOM.UNPARSED_ENTITIES flags.
+     *
+     * @return a non-null DTM reference.
+     */
+  public DTM getDTM(Source source, boolean unique,
+		    DTMWSFilter whiteSpaceFilter, boolean incremental,
+		    boolean doIndexing, boolean hasUserReader, int size,
+		    boolean buildIdIndex, boolean newNameTable,
+		    int documentFeatures)
   {
         if(DEBUG && null != source) {
             System.out.println("Starting "+
@@ -295,6 +327,7 @@ public class XSLTCDTMManager extends DTMManagerDefault
             }
       
             dtm.setDocumentURI(source.getSystemId());
+            dtm.setDocumentFeatures(documentFeatures);
 
             addDTM(dtm, dtmPos, 0);
       
@@ -359,6 +392,8 @@ public class XSLTCDTMManager extends DTMManagerDefault
 			    null, doIndexing, size, buildIdIndex, newNameTable);
                 }
 
+                dtm.setDocumentFeatures(documentFeatures);
+
                 // Go ahead and add the DTM to the lookup table.  This needs to be
                 // done before any parsing occurs. Note offset 0, since we've just
                 // created a new DTM.
@@ -413,4 +448,62 @@ public class XSLTCDTMManager extends DTMManagerDefault
             }
         }
     }
+
+    /**
+     * Return a mark for the result tree fragments created so far, to pass
+     * to releaseResultTrees().
+     */
+    public int getResultTreeMark()
+    {
+        return _resultTreeCount;
+    }
+
+    /**
+     * Keep a result tree fragment that has a DTM id, or that may get a DTM
+     * with one, until it is released.
+     */
+    void addResultTree(DOM rtf)
+    {
+        if (_resultTrees == null) {
+            _resultTrees = new DOM[32];
+        }
+        else if (_resultTreeCount == _resultTrees.length) {
+            final DOM[] resultTrees = new DOM[2 * _resultTreeCount];
+            System.arraycopy(_resultTrees, 0, resultTrees, 0,
+                             _resultTreeCount);
+            _resultTrees = resultTrees;
+        }
+        _resultTrees[_resultTreeCount++] = rtf;
+    }
+
+    /**
+     * Release the result tree fragments created since a mark was taken,
+     * so that their DTM ids are free for the fragments created next. The
+     * node handles of the fragments are invalid afterwards.
+     *
+     * @param mark A mark returned by getResultTreeMark().
+     * @return true if a DTM id was released.
+     */
+    public boolean releaseResultTrees(int mark)
+    {
+        boolean released = false;
+        while (_resultTreeCount > mark) {
+            final DOM rtf = _resultTrees[--_resultTreeCount];
+            _resultTrees[_resultTreeCount] = null;
+
+            if (rtf instanceof AdaptiveResultTreeImpl) {
+                final DOM nested = ((AdaptiveResultTreeImpl) rtf).getNestedDOM();
+                if (nested != null) {
+                    release((DTM) nested, true);
+                    released = true;
+                }
+            }
+            // Fragments that were not added to this manager have the id 0
+            if ((rtf.getDocument() >>> IDENT_DTM_NODE_BITS) != 0) {
+                release((DTM) rtf, true);
+                released = true;
+            }
+        }
+        return released;
+    }
 }
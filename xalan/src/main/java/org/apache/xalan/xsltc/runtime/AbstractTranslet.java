@@ -23,6 +23,9 @@ package org.apache.xalan.xsltc.runtime;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
@@ -43,9 +46,16 @@ import org.apache.xalan.xsltc.Translet;
 import org.apache.xalan.xsltc.TransletException;
 import org.apache.xalan.xsltc.dom.DOMAdapter;
 import org.apache.xalan.xsltc.dom.KeyIndex;
+import org.apache.xalan.xsltc.dom.NodeCounterIndex;
+import org.apache.xalan.xsltc.dom.XSLTCDTMManager;
 import org.apache.xalan.xsltc.runtime.output.TransletOutputHandlerFactory;
 import org.apache.xml.dtm.DTMAxisIterator;
+import org.apache.xml.dtm.DTMManager;
+import org.apache.xml.dtm.ref.DTMDefaultBase;
 import org.apache.xml.serializer.SerializationHandler;
+import org.apache.xml.utils.AsyncFileWriter;
+import org.apache.xml.utils.DoubleToDecimal;
+import org.apache.xml.utils.FormatNumberPattern;
 
 /**
  * @author Jacek Ambroziak
@@ -86,6 +96,10 @@ public abstract class AbstractTranslet implements Translet {
     protected String[] urisArray;
     protected int[]    typesArray;
     protected String[] namespaceArray;
+
+    // The names of the profiled templates of a translet compiled with
+    // template profiling, or null
+    protected String[] templateNames = null;
     
     // The Templates object that is used to create this Translet instance
     protected Templates _templates = null;
@@ -93,6 +107,10 @@ public abstract class AbstractTranslet implements Translet {
     // Boolean flag to indicate whether this translet has id functions.
     protected boolean _hasIdCall = false;
 
+    // The parts of the input documents this translet uses, a combination
+    // of the DOM.NAMESPACE_NODES and DOM.UNPARSED_ENTITIES flags.
+    protected int _documentFeatures = DOM.ALL_DOCUMENT_FEATURES;
+
     // TODO - these should only be instanciated when needed
     protected StringValueHandler stringValueHandler = new StringValueHandler();
 
@@ -260,6 +278,15 @@ public abstract class AbstractTranslet implements Translet {
     // Contains decimal number formatting symbols used by FormatNumberCall
     public Hashtable _formatSymbols = null;
 
+    // The symbols of each decimal format, and the format-number()
+    // patterns compiled with them, which the translets created by the
+    // same Templates share
+    private Hashtable _decimalFormatSymbols = null;
+    private FormatNumberPattern.Cache _formatPatterns = null;
+
+    // The buffer numbers are written into by characters(double, handler)
+    private char[] _numberChars = new char[32];
+
     /**
      * Adds a DecimalFormat object to the _formatSymbols hashtable.
      * The entry is created with the input DecimalFormatSymbols.
@@ -277,6 +304,9 @@ public abstract class AbstractTranslet implements Translet {
 	    df.setDecimalFormatSymbols(symbols);
 	}
 	_formatSymbols.put(name, df);
+
+	if (_decimalFormatSymbols == null) _decimalFormatSymbols = new Hashtable();
+	_decimalFormatSymbols.put(name, df.getDecimalFormatSymbols());
     }
 
     /**
@@ -295,6 +325,52 @@ public abstract class AbstractTranslet implements Translet {
 	return(null);
     }
 
+    /**
+     * Sets the cache of compiled format-number() patterns, which may be
+     * shared with other translets whose decimal format symbols are those
+     * of this one.
+     */
+    public void setFormatPatterns(FormatNumberPattern.Cache patterns) {
+	_formatPatterns = patterns;
+    }
+
+    /**
+     * Formats a number for format-number(), with the named decimal format
+     * or the default one.  Each pattern is compiled once, rather than
+     * applied to the DecimalFormat for every call.
+     */
+    public final String formatNumber(double number, String pattern,
+				     String name) {
+	if (_decimalFormatSymbols == null) {
+	    return BasisLibrary.formatNumber(number, pattern, null);
+	}
+
+	// The name cannot be null - use empty string instead
+	if (name == null) name = EMPTYSTRING;
+
+	DecimalFormatSymbols symbols =
+	    (DecimalFormatSymbols)_decimalFormatSymbols.get(name);
+	if (symbols == null) {
+	    symbols = (DecimalFormatSymbols)_decimalFormatSymbols.get(EMPTYSTRING);
+	    if (symbols == null) {
+		return BasisLibrary.formatNumber(number, pattern, null);
+	    }
+	}
+
+	if (_formatPatterns == null) {
+	    _formatPatterns = new FormatNumberPattern.Cache();
+	}
+
+	try {
+	    return _formatPatterns.get(pattern, symbols).format(number);
+	}
+	catch (IllegalArgumentException e) {
+	    BasisLibrary.runTimeError(BasisLibrary.FORMAT_NUMBER_ERR,
+				      Double.toString(number), pattern);
+	    return(EMPTYSTRING);
+	}
+    }
+
     /**
      * Give the translet an opportunity to perform a prepass on the document
      * to extract any information that it can store in an optimized form.
@@ -407,6 +483,23 @@ public abstract class AbstractTranslet implements Translet {
         }
     }
 
+    /**
+     * Perform the same post-initialization as postInitialization(), for
+     * a translet of the same class as one that has already been
+     * post-initialized. The names arrays that translet split from the
+     * namesArray of an old version are shared rather than split again,
+     * and so are its decimal format symbols, which format-number()
+     * patterns are compiled with.
+     */
+    public final void postInitialization(AbstractTranslet translet) {
+        if (transletVersion < VER_SPLIT_NAMES_ARRAY) {
+            namesArray = translet.namesArray;
+            urisArray  = translet.urisArray;
+            typesArray = translet.typesArray;
+        }
+        _decimalFormatSymbols = translet._decimalFormatSymbols;
+    }
+
     /************************************************************************
      * Index(es) for <xsl:key> / key() / id()
      ************************************************************************/
@@ -502,6 +595,51 @@ public abstract class AbstractTranslet implements Translet {
 			  	
     }
     
+    /**
+     * Returns the indexes built by buildKeys() for the document whose root
+     * is <tt>root</tt>, keyed by key name. Each index maps the values of
+     * a key to the nodes of the document, and must not be modified. The
+     * id() index is not included.
+     */
+    public Hashtable getDocumentKeyIndexes(int root) {
+	final Hashtable indexes = new Hashtable();
+	if (_keyIndexes != null) {
+	    final Enumeration names = _keyIndexes.keys();
+	    while (names.hasMoreElements()) {
+		final String name = (String) names.nextElement();
+		if (name.equals(ID_INDEX_NAME)) continue;
+
+		final Hashtable index =
+		    ((KeyIndex) _keyIndexes.get(name)).getDocumentIndex(root);
+		if (index != null) {
+		    indexes.put(name, index);
+		}
+	    }
+	}
+	return indexes;
+    }
+
+    /**
+     * Uses indexes returned by getDocumentKeyIndexes() for a document,
+     * instead of calling buildKeys(). The document and its node handles
+     * must be the same as when the indexes were built.
+     */
+    public void setDocumentKeyIndexes(int root, Hashtable indexes,
+				      DOM document) {
+	if (_keyIndexes == null) _keyIndexes = new Hashtable();
+
+	final Enumeration names = indexes.keys();
+	while (names.hasMoreElements()) {
+	    final String name = (String) names.nextElement();
+	    KeyIndex index = (KeyIndex)_keyIndexes.get(name);
+	    if (index == null) {
+		_keyIndexes.put(name, index = new KeyIndex(_indexSize));
+	    }
+	    index.setDocumentIndex(root, (Hashtable) indexes.get(name));
+	    index.setDom(document);
+	}
+    }
+
     /**
      * This method builds key indexes - it is overridden in the compiled
      * translet in cases where the <xsl:key> element is used
@@ -511,6 +649,63 @@ public abstract class AbstractTranslet implements Translet {
 			  	
     }
 
+    /************************************************************************
+     * Index(es) for <xsl:number>
+     ************************************************************************/
+
+    // Container for the indexes of the nodes counted by xsl:number elements
+    private Hashtable _counterIndexes = null;
+
+    /**
+     * Returns the index shared by all counters of the given class that
+     * count nodes of the given type in the given DOM. Counters of the
+     * same class use the same patterns, and default counters match the
+     * type of the start node.
+     */
+    public NodeCounterIndex getCounterIndex(Class counterClass, int nodeType,
+					    DOM document) {
+	if (_counterIndexes == null) _counterIndexes = new Hashtable();
+
+	final String name = counterClass.getName() + ':' + nodeType;
+	NodeCounterIndex index = (NodeCounterIndex)_counterIndexes.get(name);
+	if (index == null || index.getDocument() != document) {
+	    _counterIndexes.put(name, index = new NodeCounterIndex(document));
+	}
+	return index;
+    }
+
+    /************************************************************************
+     * Result tree fragments
+     ************************************************************************/
+
+    // The DTM manager of the current transformation, which keeps the
+    // result tree fragments created by the templates being executed
+    private XSLTCDTMManager _dtmManager = null;
+
+    /**
+     * Called by compiled code when a template that stores result tree
+     * fragments in variables or parameters is entered. Returns the mark
+     * to pass to releaseResultTrees() when the template is left.
+     */
+    public final int getResultTreeMark() {
+	return (_dtmManager != null) ? _dtmManager.getResultTreeMark() : 0;
+    }
+
+    /**
+     * Called by compiled code when a template that stores result tree
+     * fragments is left, to release the fragments it created.
+     */
+    public final void releaseResultTrees(int mark) {
+	if (_dtmManager != null && _dtmManager.releaseResultTrees(mark)
+	    && _counterIndexes != null) {
+	    // The DTM ids of the fragments will be reused
+	    final Enumeration indexes = _counterIndexes.elements();
+	    while (indexes.hasMoreElements()) {
+		((NodeCounterIndex) indexes.nextElement()).releaseFragments();
+	    }
+	}
+    }
+
     /************************************************************************
      * DOM cache handling
      ************************************************************************/
@@ -554,12 +749,33 @@ public abstract class AbstractTranslet implements Translet {
 
 	    factory.setEncoding(_encoding);
 	    factory.setOutputMethod(_method);
-	    factory.setWriter(new FileWriter(filename, append));
+	    final Writer writer;
+	    if (_outputWriterThreads > 0) {
+		// The file is written in the background, in chunks; it is
+		// complete once closed by closeOutputHandler()
+		if (_asyncFileWriter == null) {
+		    _asyncFileWriter = new AsyncFileWriter(_outputWriterThreads,
+							   _outputSyncBatch);
+		}
+		writer = new OutputStreamWriter(
+		    _asyncFileWriter.open(new File(filename), append));
+	    }
+	    else {
+		writer = new FileWriter(filename, append);
+	    }
+	    factory.setWriter(writer);
 	    factory.setOutputType(TransletOutputHandlerFactory.STREAM);
 
 	    final SerializationHandler handler 
 		= factory.getSerializationHandler();
 
+	    if (_asyncFileWriter != null) {
+		if (_outputWriters == null) {
+		    _outputWriters = new Hashtable();
+		}
+		_outputWriters.put(handler, writer);
+	    }
+
 	    transferOutputSettings(handler);
 	    handler.startDocument();
 	    return handler;
@@ -579,12 +795,63 @@ public abstract class AbstractTranslet implements Translet {
 	try {
 	    handler.endDocument();
 	    handler.close();
+	    if (_outputWriters != null) {
+		final Writer writer = (Writer) _outputWriters.remove(handler);
+		if (writer != null) {
+		    writer.close();
+		}
+	    }
 	}
 	catch (Exception e) {
 	    // what can you do?
 	}
     }
 
+    // Threads that write the output files in the background, or 0
+    private int _outputWriterThreads = 0;
+
+    // Files written in the background that are synced together, or 0
+    private int _outputSyncBatch = 0;
+
+    // Writes the output files in the background during a transformation
+    private AsyncFileWriter _asyncFileWriter = null;
+
+    // Writers of the open output handlers, by handler
+    private Hashtable _outputWriters = null;
+
+    /**
+     * Write the files of xsltc:output on a number of background threads.
+     * What is serialized is handed to a thread in chunks.  All the files
+     * are written by the end of the transformation.
+     *
+     * @param threads The number of writer threads, or 0 to write the
+     *                files synchronously.
+     * @param syncBatch The number of files each thread syncs to the
+     *                  storage device together, or 0 to not sync them.
+     */
+    public void setOutputWriterThreads(int threads, int syncBatch) {
+	_outputWriterThreads = threads;
+	_outputSyncBatch = syncBatch;
+    }
+
+    /**
+     * Wait until the output files closed during the transformation have
+     * been written, and stop the threads that write them.
+     */
+    private void finishOutputFiles() throws TransletException {
+	final AsyncFileWriter writer = _asyncFileWriter;
+	if (writer != null) {
+	    _asyncFileWriter = null;
+	    _outputWriters = null;
+	    try {
+		writer.finish();
+	    }
+	    catch (IOException e) {
+		throw new TransletException(e);
+	    }
+	}
+    }
+
     /************************************************************************
      * Native API transformation methods - _NOT_ JAXP/TrAX
      ************************************************************************/
@@ -601,13 +868,94 @@ public abstract class AbstractTranslet implements Translet {
      */
     public final void transform(DOM document, SerializationHandler handler) 
 	throws TransletException {
+        if (document instanceof DTMDefaultBase) {
+            final DTMManager manager =
+                ((DTMDefaultBase) document).getManager();
+            if (manager instanceof XSLTCDTMManager) {
+                _dtmManager = (XSLTCDTMManager) manager;
+            }
+        }
         try {
             transform(document, document.getIterator(), handler);
+            finishOutputFiles();
         } finally {
+            _dtmManager = null;
             _keyIndexes = null;
+            _counterIndexes = null;
+            if (_templateProfile != null) {
+                _templateProfile.clearStack();
+                if (_templateProfileTotals != null) {
+                    _templateProfileTotals.add(_templateProfile);
+                }
+            }
+            if (_asyncFileWriter != null) {
+                // The transformation failed; just stop the writer threads
+                try {
+                    finishOutputFiles();
+                }
+                catch (TransletException e) {
+                    // Report the original error
+                }
+            }
         }
     }
 	
+    /************************************************************************
+     * Template profiling
+     ************************************************************************/
+
+    // The calls of the templates counted by this translet, and the profile
+    // they are added to after each transformation
+    private TemplateProfile _templateProfile = null;
+    private TemplateProfile _templateProfileTotals = null;
+
+    /**
+     * Called by code compiled with template profiling when a template is
+     * entered.
+     */
+    public final void enterTemplate(int index) {
+        if (_templateProfile == null) {
+            _templateProfile = new TemplateProfile(templateNames);
+        }
+        _templateProfile.enter(index);
+    }
+
+    /**
+     * Called by code compiled with template profiling when a template is
+     * left.
+     */
+    public final void exitTemplate(int index) {
+        _templateProfile.exit(index);
+    }
+
+    /**
+     * Return a new, empty profile for the templates of this translet, or
+     * null if the translet was not compiled with template profiling.
+     */
+    public final TemplateProfile newTemplateProfile() {
+        return (templateNames != null) ? new TemplateProfile(templateNames)
+                                       : null;
+    }
+
+    /**
+     * Set the profile the counts of this translet are added to after each
+     * transformation.
+     */
+    public final void setTemplateProfile(TemplateProfile profile) {
+        _templateProfileTotals = profile;
+    }
+
+    /**
+     * Return the profile the counts of this translet are added to, or the
+     * counts of this translet if there is none. Returns null if the
+     * translet was not compiled with template profiling, or has not called
+     * a template yet.
+     */
+    public final TemplateProfile getTemplateProfile() {
+        return (_templateProfileTotals != null) ? _templateProfileTotals
+                                                : _templateProfile;
+    }
+
     /**
      * Used by some compiled code as a shortcut for passing strings to the
      * output handler
@@ -625,6 +973,25 @@ public abstract class AbstractTranslet implements Translet {
         }   
     }
 
+    /**
+     * Used by compiled code to pass the string value of a number to the
+     * output handler without creating a String
+     */
+    public final void characters(final double value,
+				 SerializationHandler handler)
+	throws TransletException {
+	int length = DoubleToDecimal.toChars(value, _numberChars, 0);
+	if (length < 0) {
+	    _numberChars = new char[DoubleToDecimal.MAX_CHARS];
+	    length = DoubleToDecimal.toChars(value, _numberChars, 0);
+	}
+	try {
+	    handler.characters(_numberChars, 0, length);
+	} catch (Exception e) {
+	    throw new TransletException(e);
+	}
+    }
+
     /**
      * Add's a name of an element whose text contents should be output as CDATA
      */
@@ -728,6 +1095,10 @@ public abstract class AbstractTranslet implements Translet {
     public boolean hasIdCall() {
     	return _hasIdCall;
     }
+
+    public int getDocumentFeatures() {
+	return _documentFeatures;
+    }
     
     public Templates getTemplates() {
     	return _templates;
@@ -736,6 +1107,22 @@ public abstract class AbstractTranslet implements Translet {
     public void setTemplates(Templates templates) {
     	_templates = templates;
     }    
+
+    /************************************************************************
+     * Memory budget for <xsl:sort>
+     ************************************************************************/
+
+    // Bytes the sort keys of a node-set may use before it is sorted in
+    // runs on disk, or 0 to always sort in memory
+    private long _sortMemoryBudget = 0;
+
+    public long getSortMemoryBudget() {
+	return _sortMemoryBudget;
+    }
+
+    public void setSortMemoryBudget(long budget) {
+	_sortMemoryBudget = budget;
+    }
     
     /************************************************************************
      * DOMImplementation caching for basis library
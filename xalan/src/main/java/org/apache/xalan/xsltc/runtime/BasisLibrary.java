@@ -22,6 +22,7 @@
 package org.apache.xalan.xsltc.runtime;
 
 import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.text.FieldPosition;
 import java.text.MessageFormat;
 import java.text.NumberFormat;
@@ -45,6 +46,8 @@ import org.apache.xml.dtm.DTMManager;
 import org.apache.xml.dtm.ref.DTMDefaultBase;
 import org.apache.xml.dtm.ref.DTMNodeProxy;
 import org.apache.xml.serializer.SerializationHandler;
+import org.apache.xml.utils.DoubleToDecimal;
+import org.apache.xml.utils.FormatNumberPattern;
 import org.apache.xml.utils.XML11Char;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
@@ -874,8 +877,6 @@ public final class BasisLibrary {
     }
 
     private static final int DOUBLE_FRACTION_DIGITS = 340;
-    private static final double lowerBounds = 0.001;
-    private static final double upperBounds = 10000000;
     private static DecimalFormat defaultFormatter;
     private static String defaultPattern = "";
 
@@ -891,27 +892,20 @@ public final class BasisLibrary {
         defaultFormatter.setGroupingUsed(false);
     }
 
+    // format-number() patterns used without a decimal format are compiled
+    // with the symbols of the default formatter, which is shared by all
+    // threads and so is never given another pattern
+    private static final DecimalFormatSymbols defaultSymbols =
+	defaultFormatter.getDecimalFormatSymbols();
+    private static final FormatNumberPattern.Cache defaultPatterns =
+	new FormatNumberPattern.Cache();
+
     /**
      * Utility function: used in RealType to convert a real to a string.
      * Removes the decimal if null.
      */
     public static String realToString(double d) {
-	final double m = Math.abs(d);
-	if ((m >= lowerBounds) && (m < upperBounds)) {
-	    final String result = Double.toString(d);
-	    final int length = result.length();
-	    // Remove leading zeros.
-	    if ((result.charAt(length-2) == '.') &&
-		(result.charAt(length-1) == '0'))
-		return result.substring(0, length-2);
-	    else
-		return result;
-	}
-	else {
-	    if (Double.isNaN(d) || Double.isInfinite(d))
-		return(Double.toString(d));
-	    return formatNumber(d, defaultPattern, defaultFormatter);
-	}
+	return DoubleToDecimal.toString(d);
     }
 
     /**
@@ -924,10 +918,9 @@ public final class BasisLibrary {
     /**
      * Utility function: used to format/adjust  a double to a string. The 
      * DecimalFormat object comes from the 'formatSymbols' hashtable in 
-     * AbstractTranslet.
+     * AbstractTranslet. Translets now call AbstractTranslet.formatNumber(),
+     * this is kept for translets compiled before.
      */
-    private static FieldPosition _fieldPosition = new FieldPosition(0);
-
     public static String formatNumber(double number, String pattern,
 				      DecimalFormat formatter) {
         // bugzilla fix 12813 
@@ -936,10 +929,19 @@ public final class BasisLibrary {
 	}
 	try {
 	    StringBuffer result = new StringBuffer();
-	    if (pattern != defaultPattern) {
-		formatter.applyLocalizedPattern(pattern);
+	    if (pattern == defaultPattern) {
+		formatter.format(number, result, new FieldPosition(0));
+	    }
+	    else if (formatter == defaultFormatter) {
+		return defaultPatterns.get(pattern, defaultSymbols)
+				      .format(number);
+	    }
+	    else {
+		synchronized (formatter) {
+		    formatter.applyLocalizedPattern(pattern);
+		    formatter.format(number, result, new FieldPosition(0));
+		}
 	    }
-            formatter.format(number, result, _fieldPosition);
 	    return result.toString();
 	}
 	catch (IllegalArgumentException e) {
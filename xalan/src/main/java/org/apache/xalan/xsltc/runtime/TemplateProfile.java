@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+package org.apache.xalan.xsltc.runtime;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The number of calls of the templates of a translet compiled with
+ * template profiling, and the time spent in them. The apply-templates
+ * and apply-imports methods are counted as templates too, their self
+ * time being that of the built-in templates and of finding the template
+ * to apply.
+ *
+ * <p>Each translet counts its own calls, without synchronization, and
+ * adds its counts to the profile of its Templates object after each
+ * transformation. That profile is registered as an MXBean named
+ * org.apache.xalan.xsltc:type=TemplateProfile.</p>
+ */
+public final class TemplateProfile implements TemplateProfileMXBean {
+
+    // The domain and type of the names of the profile MXBeans
+    private static final String OBJECT_NAME_PREFIX =
+	"org.apache.xalan.xsltc:type=TemplateProfile,name=";
+
+    // Makes the names of profiles of translets with the same name unique
+    private static int _serial = 0;
+
+    private final String[] _names;
+    private final long[] _calls;
+    private final long[] _selfTimes;
+    private final long[] _totalTimes;
+
+    // The templates being executed, innermost last, when they were
+    // entered, and the time spent so far in the templates they called
+    private int[] _stack = new int[32];
+    private long[] _startTimes = new long[32];
+    private long[] _childTimes = new long[32];
+    private int _depth = 0;
+
+    // The number of times each template is on the stack, so the total
+    // time of a recursive template is only counted by its outer call
+    private final int[] _active;
+
+    private ObjectName _objectName = null;
+
+    /**
+     * Create an empty profile.
+     *
+     * @param names The names of the profiled templates, in the order of
+     * their indices in the translet.
+     */
+    public TemplateProfile(String[] names) {
+	_names = names;
+	_calls = new long[names.length];
+	_selfTimes = new long[names.length];
+	_totalTimes = new long[names.length];
+	_active = new int[names.length];
+    }
+
+    /**
+     * Called by compiled code when a template is entered.
+     */
+    public void enter(int index) {
+	if (_depth == _stack.length) {
+	    final int length = 2 * _depth;
+	    final int[] stack = new int[length];
+	    final long[] startTimes = new long[length];
+	    final long[] childTimes = new long[length];
+	    System.arraycopy(_stack, 0, stack, 0, _depth);
+	    System.arraycopy(_startTimes, 0, startTimes, 0, _depth);
+	    System.arraycopy(_childTimes, 0, childTimes, 0, _depth);
+	    _stack = stack;
+	    _startTimes = startTimes;
+	    _childTimes = childTimes;
+	}
+	_stack[_depth] = index;
+	_childTimes[_depth] = 0;
+	_active[index]++;
+	_startTimes[_depth++] = System.nanoTime();
+    }
+
+    /**
+     * Called by compiled code when a template is left. Templates that
+     * were entered after it and never left, because of an exception, are
+     * left too.
+     */
+    public void exit(int index) {
+	final long now = System.nanoTime();
+	while (_depth > 0) {
+	    final int top = _stack[--_depth];
+	    final long time = now - _startTimes[_depth];
+	    _calls[top]++;
+	    _selfTimes[top] += time - _childTimes[_depth];
+	    if (--_active[top] == 0) {
+		_totalTimes[top] += time;
+	    }
+	    if (_depth > 0) {
+		_childTimes[_depth - 1] += time;
+	    }
+	    if (top == index) break;
+	}
+    }
+
+    /**
+     * Forget the templates being executed, after a transformation has
+     * ended, possibly with an exception.
+     */
+    void clearStack() {
+	while (_depth > 0) {
+	    _active[_stack[--_depth]] = 0;
+	}
+    }
+
+    /**
+     * Add the counts and times of another profile of the same translet
+     * to this one, and set them to zero in the other profile.
+     */
+    public synchronized void add(TemplateProfile profile) {
+	final int n = Math.min(_names.length, profile._names.length);
+	for (int i = 0; i < n; i++) {
+	    _calls[i] += profile._calls[i];
+	    _selfTimes[i] += profile._selfTimes[i];
+	    _totalTimes[i] += profile._totalTimes[i];
+	    profile._calls[i] = 0;
+	    profile._selfTimes[i] = 0;
+	    profile._totalTimes[i] = 0;
+	}
+    }
+
+    /**
+     * Set all the counts and times to zero.
+     */
+    public synchronized void reset() {
+	for (int i = 0; i < _names.length; i++) {
+	    _calls[i] = 0;
+	    _selfTimes[i] = 0;
+	    _totalTimes[i] = 0;
+	}
+    }
+
+    /**
+     * Return the number of profiled templates.
+     */
+    public int getTemplateCount() {
+	return _names.length;
+    }
+
+    /**
+     * Return the calls and times of each profiled template.
+     */
+    public synchronized Entry[] getEntries() {
+	final Entry[] entries = new Entry[_names.length];
+	for (int i = 0; i < entries.length; i++) {
+	    entries[i] = new Entry(_names[i], _calls[i], _selfTimes[i],
+				   _totalTimes[i]);
+	}
+	return entries;
+    }
+
+    /**
+     * Return the profile as a table, the templates with the most self
+     * time first and the templates never called left out.
+     */
+    public String getReport() {
+	final Entry[] entries = getEntries();
+
+	// Few templates are hot; an insertion sort will do
+	for (int i = 1; i < entries.length; i++) {
+	    final Entry entry = entries[i];
+	    int j = i;
+	    while (j > 0 && entries[j - 1]._selfTime < entry._selfTime) {
+		entries[j] = entries[j - 1];
+		j--;
+	    }
+	    entries[j] = entry;
+	}
+
+	final StringBuffer buffer = new StringBuffer();
+	buffer.append("       calls    self (ms)   total (ms)  template\n");
+	for (int i = 0; i < entries.length; i++) {
+	    final Entry entry = entries[i];
+	    if (entry._calls == 0) continue;
+	    pad(buffer, Long.toString(entry._calls), 12);
+	    pad(buffer, toMillis(entry._selfTime), 13);
+	    pad(buffer, toMillis(entry._totalTime), 13);
+	    buffer.append("  ").append(entry._name).append('\n');
+	}
+	return buffer.toString();
+    }
+
+    public String toString() {
+	return getReport();
+    }
+
+    /**
+     * Register this profile with the platform MBean server.
+     *
+     * @param name The name of the translet, part of the MXBean name.
+     * @return The name of the MXBean.
+     */
+    public synchronized ObjectName register(String name)
+	throws JMException {
+	if (_objectName == null) {
+	    final int serial;
+	    synchronized (TemplateProfile.class) {
+		serial = _serial++;
+	    }
+	    final ObjectName objectName =
+		new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name)
+			       + ",id=" + serial);
+	    ManagementFactory.getPlatformMBeanServer()
+		.registerMBean(this, objectName);
+	    _objectName = objectName;
+	}
+	return _objectName;
+    }
+
+    /**
+     * Remove this profile from the platform MBean server, if it was
+     * registered.
+     */
+    public synchronized void unregister() {
+	if (_objectName != null) {
+	    try {
+		final MBeanServer server =
+		    ManagementFactory.getPlatformMBeanServer();
+		server.unregisterMBean(_objectName);
+	    }
+	    catch (JMException e) {
+		// Already unregistered
+	    }
+	    _objectName = null;
+	}
+    }
+
+    private static String toMillis(long nanos) {
+	final long micros = nanos / 1000;
+	final StringBuffer buffer = new StringBuffer();
+	buffer.append(micros / 1000).append('.');
+	final long fraction = micros % 1000;
+	if (fraction < 100) buffer.append('0');
+	if (fraction < 10) buffer.append('0');
+	return buffer.append(fraction).toString();
+    }
+
+    private static void pad(StringBuffer buffer, String s, int width) {
+	for (int i = s.length(); i < width; i++) {
+	    buffer.append(' ');
+	}
+	buffer.append(s);
+    }
+
+    /**
+     * The calls and times of one template.
+     */
+    public static final class Entry {
+
+	private final String _name;
+	private final long _calls;
+	private final long _selfTime;
+	private final long _totalTime;
+
+	@ConstructorProperties({"name", "calls", "selfTime", "totalTime"})
+	public Entry(String name, long calls, long selfTime, long totalTime) {
+	    _name = name;
+	    _calls = calls;
+	    _selfTime = selfTime;
+	    _totalTime = totalTime;
+	}
+
+	/**
+	 * Return the description of the template, with the attributes of
+	 * its xsl:template element and where it is in the stylesheet.
+	 */
+	public String getName() {
+	    return _name;
+	}
+
+	/**
+	 * Return the number of times the template was called.
+	 */
+	public long getCalls() {
+	    return _calls;
+	}
+
+	/**
+	 * Return the time spent in the template, less the time spent in the
+	 * profiled templates it called, in nanoseconds.
+	 */
+	public long getSelfTime() {
+	    return _selfTime;
+	}
+
+	/**
+	 * Return the time spent in the template and in the templates it
+	 * called, in nanoseconds.
+	 */
+	public long getTotalTime() {
+	    return _totalTime;
+	}
+    }
+}
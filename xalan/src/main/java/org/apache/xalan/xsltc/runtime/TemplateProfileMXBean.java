@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+package org.apache.xalan.xsltc.runtime;
+
+/**
+ * The management interface of a TemplateProfile. JMX clients see the
+ * entries as a table with one row per template.
+ */
+public interface TemplateProfileMXBean {
+
+    /**
+     * Return the number of calls, self time and total time of each
+     * profiled template, in nanoseconds.
+     */
+    public TemplateProfile.Entry[] getEntries();
+
+    /**
+     * Return the profile as text, the templates with the most self time
+     * first.
+     */
+    public String getReport();
+
+    /**
+     * Set all the counts and times to zero.
+     */
+    public void reset();
+}
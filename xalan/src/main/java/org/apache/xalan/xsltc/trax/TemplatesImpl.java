@@ -25,6 +25,9 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.Properties;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
@@ -40,6 +43,8 @@ import org.apache.xalan.xsltc.Translet;
 import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.runtime.AbstractTranslet;
 import org.apache.xalan.xsltc.runtime.Hashtable;
+import org.apache.xalan.xsltc.runtime.TemplateProfile;
+import org.apache.xml.utils.FormatNumberPattern;
 
 /**
  * @author Morten Jorgensen
@@ -99,7 +104,7 @@ public final class TemplatesImpl implements Templates, Serializable {
      * This URIResolver is passed to all Transformers.
      * Declaring it transient to fix bug 22438 
      */
-    private transient URIResolver _uriResolver = null;
+    private transient volatile URIResolver _uriResolver = null;
 
     /**
      * Cache the DTM for the stylesheet in a thread local variable,
@@ -116,6 +121,12 @@ public final class TemplatesImpl implements Templates, Serializable {
      */
     private transient TransformerFactoryImpl _tfactory = null;
 
+    /**
+     * Creates the translets of the Transformers, once the translet class
+     * has been defined. newTransformer() reads it without locking.
+     */
+    private transient volatile TransletFactory _transletFactory = null;
+
     static final class TransletClassLoader extends ClassLoader {
 	TransletClassLoader(ClassLoader parent) {
 	    super(parent);
@@ -209,7 +220,7 @@ public final class TemplatesImpl implements Templates, Serializable {
      /**
      * Store URIResolver needed for Transformers.
      */
-    public synchronized void setURIResolver(URIResolver resolver) {
+    public void setURIResolver(URIResolver resolver) {
 	_uriResolver = resolver;
     }
 
@@ -283,7 +294,10 @@ public final class TemplatesImpl implements Templates, Serializable {
         TransletClassLoader loader = (TransletClassLoader)
             AccessController.doPrivileged(new PrivilegedAction() {
                 public Object run() {
-                    return new TransletClassLoader(ObjectFactory.findClassLoader());
+                    final ClassLoader parent = (_tfactory != null)
+                        ? _tfactory.getExtensionClassLoader() : null;
+                    return new TransletClassLoader((parent != null) ? parent
+                        : ObjectFactory.findClassLoader());
                 }
             });
 
@@ -324,36 +338,34 @@ public final class TemplatesImpl implements Templates, Serializable {
     }
 
     /**
-     * This method generates an instance of the translet class that is
-     * wrapped inside this Template. The translet instance will later
-     * be wrapped inside a Transformer object.
+     * Return the factory of the translets of this template, defining the
+     * translet class and creating the factory the first time.
      */
-    private Translet getTransletInstance()
+    private TransletFactory getTransletFactory()
 	throws TransformerConfigurationException {
-	try {
-	    if (_name == null) return null;
-
-	    if (_class == null) defineTransletClasses();
-
-	    // The translet needs to keep a reference to all its auxiliary 
-	    // class to prevent the GC from collecting them
-	    AbstractTranslet translet = (AbstractTranslet) _class[_transletIndex].newInstance();
-            translet.postInitialization();
-	    translet.setTemplates(this);
-	    if (_auxClasses != null) {
-	        translet.setAuxiliaryClasses(_auxClasses);
+	TransletFactory factory = _transletFactory;
+	if (factory == null) {
+	    synchronized (this) {
+		factory = _transletFactory;
+		if (factory == null) {
+		    if (_class == null) defineTransletClasses();
+		    factory = new TransletFactory(_class[_transletIndex]);
+		    _transletFactory = factory;
+		}
 	    }
-	    
-	    return translet;
-	}
-	catch (InstantiationException e) {
-	    ErrorMsg err = new ErrorMsg(ErrorMsg.TRANSLET_OBJECT_ERR, _name);
-	    throw new TransformerConfigurationException(err.toString());
-	}
-	catch (IllegalAccessException e) {
-	    ErrorMsg err = new ErrorMsg(ErrorMsg.TRANSLET_OBJECT_ERR, _name);
-	    throw new TransformerConfigurationException(err.toString());
 	}
+	return factory;
+    }
+
+    /**
+     * Return the calls of the templates of the Transformers created from
+     * this object, and the time spent in them, if the stylesheet was
+     * compiled with template profiling. Returns null otherwise, or if no
+     * Transformer has been created yet.
+     */
+    public TemplateProfile getTemplateProfile() {
+	final TransletFactory factory = _transletFactory;
+	return (factory != null) ? factory._templateProfile : null;
     }
 
     /**
@@ -361,13 +373,20 @@ public final class TemplatesImpl implements Templates, Serializable {
      *
      * @throws TransformerConfigurationException
      */
-    public synchronized Transformer newTransformer()
+    public Transformer newTransformer()
 	throws TransformerConfigurationException 
     {
 	TransformerImpl transformer;
 
-	transformer = new TransformerImpl(getTransletInstance(), _outputProperties,
-	    _indentNumber, _tfactory);
+	if (_name == null) {
+	    transformer = new TransformerImpl(null, _outputProperties,
+		_indentNumber, _tfactory);
+	}
+	else {
+	    final TransletFactory factory = getTransletFactory();
+	    transformer = new TransformerImpl(factory.newTranslet(),
+		factory._outputPropertyLayers, _indentNumber, _tfactory);
+	}
 	
 	if (_uriResolver != null) {
 	    transformer.setURIResolver(_uriResolver);
@@ -385,7 +404,7 @@ public final class TemplatesImpl implements Templates, Serializable {
      * we might as well just instanciate a Transformer and use its
      * implementation of this method.
      */
-    public synchronized Properties getOutputProperties() { 
+    public Properties getOutputProperties() { 
 	try {
 	    return newTransformer().getOutputProperties();
 	}
@@ -407,4 +426,106 @@ public final class TemplatesImpl implements Templates, Serializable {
     public void setStylesheetDOM(DOM sdom) {
     	_sdom.set(sdom);
     }
+
+    /**
+     * Everything the translets and Transformers created from this
+     * template share, set up once when the first one is created: a
+     * method handle on the constructor of the translet class, the
+     * auxiliary classes, the template profile, the output properties and
+     * the compiled format-number() patterns.
+     * The factory is immutable, so any number of threads can create
+     * translets with it at the same time.
+     */
+    private final class TransletFactory {
+
+	private final MethodHandle _constructor;
+	private final AbstractTranslet _prototype;
+
+	/**
+	 * The calls of the templates of all the translets created from this
+	 * object, if they were compiled with template profiling.
+	 */
+	private final TemplateProfile _templateProfile;
+	private final String[][] _outputPropertyLayers;
+
+	/**
+	 * The format-number() patterns of all the translets, compiled with
+	 * the decimal format symbols they share with the prototype.
+	 */
+	private final FormatNumberPattern.Cache _formatPatterns =
+	    new FormatNumberPattern.Cache();
+
+	TransletFactory(Class transletClass)
+	    throws TransformerConfigurationException {
+	    try {
+		_constructor = MethodHandles.publicLookup()
+		    .findConstructor(transletClass,
+				     MethodType.methodType(void.class))
+		    .asType(MethodType.methodType(AbstractTranslet.class));
+	    }
+	    catch (NoSuchMethodException e) {
+		ErrorMsg err = new ErrorMsg(ErrorMsg.TRANSLET_OBJECT_ERR, _name);
+		throw new TransformerConfigurationException(err.toString());
+	    }
+	    catch (IllegalAccessException e) {
+		ErrorMsg err = new ErrorMsg(ErrorMsg.TRANSLET_OBJECT_ERR, _name);
+		throw new TransformerConfigurationException(err.toString());
+	    }
+
+	    // The translet the others share the converted names arrays,
+	    // template profile and output properties of
+	    _prototype = construct();
+	    _prototype.postInitialization();
+
+	    _templateProfile = _prototype.newTemplateProfile();
+	    if (_templateProfile != null) {
+		try {
+		    _templateProfile.register(_name);
+		}
+		catch (Exception e) {
+		    // The profile is still available from
+		    // getTemplateProfile()
+		}
+	    }
+
+	    _outputPropertyLayers = TransformerImpl.createOutputPropertyLayers(
+		_outputProperties, _prototype);
+	}
+
+	/**
+	 * Return a new instance of the translet class, ready to be wrapped
+	 * inside a Transformer object.
+	 */
+	AbstractTranslet newTranslet()
+	    throws TransformerConfigurationException {
+	    final AbstractTranslet translet = construct();
+	    translet.postInitialization(_prototype);
+	    translet.setTemplates(TemplatesImpl.this);
+	    // The translet needs to keep a reference to all its auxiliary 
+	    // class to prevent the GC from collecting them
+	    if (_auxClasses != null) {
+		translet.setAuxiliaryClasses(_auxClasses);
+	    }
+	    translet.setTemplateProfile(_templateProfile);
+	    translet.setFormatPatterns(_formatPatterns);
+	    return translet;
+	}
+
+	private AbstractTranslet construct()
+	    throws TransformerConfigurationException {
+	    try {
+		return (AbstractTranslet) _constructor.invokeExact();
+	    }
+	    catch (RuntimeException e) {
+		throw e;
+	    }
+	    catch (Error e) {
+		throw e;
+	    }
+	    catch (Throwable e) {
+		ErrorMsg err = new ErrorMsg(ErrorMsg.TRANSLET_OBJECT_ERR, _name);
+		throw new TransformerConfigurationException(err.toString());
+	    }
+	}
+    }
 }
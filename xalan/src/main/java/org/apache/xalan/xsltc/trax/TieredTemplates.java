@@ -0,0 +1,334 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+package org.apache.xalan.xsltc.trax;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Properties;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
+import org.xml.sax.InputSource;
+
+/**
+ * The Templates objects of the TieredTransformerFactoryImpl. A stylesheet
+ * is first run by the interpretive processor, which builds it quickly.
+ * Once its Templates has been asked for a given number of transformers,
+ * or has been in use for a given time, the stylesheet is compiled by
+ * XSLTC on a background thread, and the transformers asked for after
+ * the translet is loaded are XSLTC transformers. Should XSLTC fail to
+ * compile the stylesheet, it goes on being interpreted.
+ *
+ * <p>The stylesheet source is kept for the compilation. Streams and
+ * readers are read into memory when the Templates is created; a DOM
+ * stylesheet must not be changed until the stylesheet is compiled.</p>
+ */
+public final class TieredTemplates implements Templates {
+
+    // Compilation states
+    private static final int INTERPRETED = 0;
+    private static final int COMPILING = 1;
+    private static final int COMPILED = 2;
+    private static final int FAILED = 3;
+
+    private final TieredTransformerFactoryImpl _factory;
+    private final Templates _interpreted;
+    private Source _source;
+
+    private final int _compileThreshold;
+    private final long _compileDelay;
+    private final long _created = System.currentTimeMillis();
+
+    // The translet, published to the threads asking for transformers
+    private volatile Templates _compiled = null;
+
+    private int _uses = 0;
+    private int _state = INTERPRETED;
+
+    /**
+     * Create a Templates that interprets the stylesheet until it gets hot.
+     *
+     * @param factory The factory that compiles the stylesheet.
+     * @param interpreted The Templates of the interpretive processor.
+     * @param source A copy of the stylesheet source that can be read again.
+     * @param compileThreshold The number of transformers after which the
+     * stylesheet is compiled.
+     * @param compileDelay The time in milliseconds after which the
+     * stylesheet is compiled if it is still in use, or -1.
+     */
+    TieredTemplates(TieredTransformerFactoryImpl factory,
+		    Templates interpreted, Source source,
+		    int compileThreshold, long compileDelay) {
+	_factory = factory;
+	_interpreted = interpreted;
+	_source = source;
+	_compileThreshold = compileThreshold;
+	_compileDelay = compileDelay;
+    }
+
+    /**
+     * Return a transformer from the translet if the stylesheet has been
+     * compiled, and from the interpretive processor otherwise.
+     */
+    public Transformer newTransformer()
+	throws TransformerConfigurationException {
+	return use().newTransformer();
+    }
+
+    /**
+     * Return the output properties of the stylesheet.
+     */
+    public Properties getOutputProperties() {
+	return getTemplates().getOutputProperties();
+    }
+
+    /**
+     * Return the Templates new transformers currently come from, the
+     * translet once the stylesheet has been compiled.
+     */
+    public Templates getTemplates() {
+	final Templates compiled = _compiled;
+	return compiled != null ? compiled : _interpreted;
+    }
+
+    /**
+     * Return true once the stylesheet has been compiled by XSLTC.
+     */
+    public boolean isCompiled() {
+	return _compiled != null;
+    }
+
+    /**
+     * Compile the stylesheet now, on the calling thread, unless it has
+     * already been compiled or is being compiled.
+     *
+     * @return True if the stylesheet has been compiled by this call.
+     * @throws TransformerConfigurationException If XSLTC could not compile
+     * the stylesheet, which goes on being interpreted.
+     */
+    public boolean compile() throws TransformerConfigurationException {
+	synchronized (this) {
+	    if (_state != INTERPRETED) return false;
+	    _state = COMPILING;
+	}
+	doCompile();
+	return true;
+    }
+
+    /**
+     * Count the use of the Templates and return the Templates a new
+     * transformer should come from, starting the compilation of the
+     * stylesheet if it has got hot.
+     */
+    Templates use() {
+	final Templates compiled = _compiled;
+	if (compiled != null) return compiled;
+
+	boolean start = false;
+	synchronized (this) {
+	    if (_state == INTERPRETED
+		&& (++_uses >= _compileThreshold
+		    || _compileDelay >= 0
+		       && System.currentTimeMillis() - _created >= _compileDelay)) {
+		_state = COMPILING;
+		start = true;
+	    }
+	}
+	if (start) {
+	    final Thread thread = new Thread("XSLTC tiered compiler") {
+		public void run() {
+		    try {
+			doCompile();
+		    }
+		    catch (TransformerConfigurationException e) {
+			// Reported to the error listener of the factory
+		    }
+		}
+	    };
+	    thread.setDaemon(true);
+	    thread.start();
+	}
+	return _interpreted;
+    }
+
+    private void doCompile() throws TransformerConfigurationException {
+	final Source source;
+	synchronized (this) {
+	    source = _source;
+	}
+	Templates compiled = null;
+	try {
+	    compiled = _factory.compile(source);
+	}
+	finally {
+	    synchronized (this) {
+		_state = compiled != null ? COMPILED : FAILED;
+		_source = null;
+	    }
+	    _compiled = compiled;
+	}
+	if (compiled == null) {
+	    final ErrorMsg err = new ErrorMsg(ErrorMsg.JAXP_COMPILE_ERR);
+	    throw new TransformerConfigurationException(err.toString());
+	}
+    }
+
+    /**
+     * Return a copy of a stylesheet source that can be read more than
+     * once, reading its stream or reader into memory, or null if the
+     * source is of a kind that cannot be read again.
+     */
+    static Source copySource(Source source) throws IOException {
+	final String systemId = source.getSystemId();
+
+	if (source instanceof StreamSource) {
+	    final StreamSource stream = (StreamSource) source;
+	    final StreamSource copy;
+	    if (stream.getInputStream() != null) {
+		copy = new BufferedStreamSource(
+		    readBytes(stream.getInputStream()), null);
+	    }
+	    else if (stream.getReader() != null) {
+		copy = new BufferedStreamSource(
+		    null, readChars(stream.getReader()));
+	    }
+	    else if (systemId != null) {
+		copy = new StreamSource();
+	    }
+	    else {
+		return null;
+	    }
+	    copy.setSystemId(systemId);
+	    copy.setPublicId(stream.getPublicId());
+	    return copy;
+	}
+	else if (source instanceof SAXSource) {
+	    final SAXSource sax = (SAXSource) source;
+	    final InputSource input = sax.getInputSource();
+	    if (input == null) {
+		return null;
+	    }
+	    final InputSource copy;
+	    if (input.getByteStream() != null) {
+		copy = new BufferedInputSource(
+		    readBytes(input.getByteStream()), null);
+		copy.setEncoding(input.getEncoding());
+	    }
+	    else if (input.getCharacterStream() != null) {
+		copy = new BufferedInputSource(
+		    null, readChars(input.getCharacterStream()));
+	    }
+	    else if (input.getSystemId() != null) {
+		copy = new InputSource();
+		copy.setEncoding(input.getEncoding());
+	    }
+	    else {
+		return null;
+	    }
+	    copy.setSystemId(input.getSystemId());
+	    copy.setPublicId(input.getPublicId());
+	    return new SAXSource(sax.getXMLReader(), copy);
+	}
+	else if (source instanceof DOMSource) {
+	    final DOMSource dom = (DOMSource) source;
+	    return dom.getNode() != null
+		? new DOMSource(dom.getNode(), systemId) : null;
+	}
+	return null;
+    }
+
+    private static byte[] readBytes(InputStream in) throws IOException {
+	final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	final byte[] buffer = new byte[8192];
+	int n;
+	while ((n = in.read(buffer)) >= 0) {
+	    out.write(buffer, 0, n);
+	}
+	return out.toByteArray();
+    }
+
+    private static char[] readChars(Reader in) throws IOException {
+	final CharArrayWriter out = new CharArrayWriter();
+	final char[] buffer = new char[8192];
+	int n;
+	while ((n = in.read(buffer)) >= 0) {
+	    out.write(buffer, 0, n);
+	}
+	return out.toCharArray();
+    }
+
+    /**
+     * A stream source that returns a new stream over the same bytes or
+     * characters each time it is read.
+     */
+    private static final class BufferedStreamSource extends StreamSource {
+	private final byte[] _bytes;
+	private final char[] _chars;
+
+	BufferedStreamSource(byte[] bytes, char[] chars) {
+	    _bytes = bytes;
+	    _chars = chars;
+	}
+
+	public InputStream getInputStream() {
+	    return _bytes != null ? new ByteArrayInputStream(_bytes) : null;
+	}
+
+	public Reader getReader() {
+	    return _chars != null ? new CharArrayReader(_chars) : null;
+	}
+    }
+
+    /**
+     * An input source that returns a new stream over the same bytes or
+     * characters each time it is read.
+     */
+    private static final class BufferedInputSource extends InputSource {
+	private final byte[] _bytes;
+	private final char[] _chars;
+
+	BufferedInputSource(byte[] bytes, char[] chars) {
+	    _bytes = bytes;
+	    _chars = chars;
+	}
+
+	public InputStream getByteStream() {
+	    return _bytes != null ? new ByteArrayInputStream(_bytes) : null;
+	}
+
+	public Reader getCharacterStream() {
+	    return _chars != null ? new CharArrayReader(_chars) : null;
+	}
+    }
+}
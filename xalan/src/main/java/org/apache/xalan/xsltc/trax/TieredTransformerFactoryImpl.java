@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+package org.apache.xalan.xsltc.trax;
+
+import java.io.IOException;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TemplatesHandler;
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
+import org.xml.sax.XMLFilter;
+
+/**
+ * Implementation of a transformer factory whose Templates objects run a
+ * stylesheet on the interpretive processor first, and on a translet
+ * compiled by XSLTC once the stylesheet is hot: after its Templates has
+ * been asked for tiered-compile-threshold transformers, or when it is
+ * used tiered-compile-delay milliseconds after it was created. The
+ * compilation is done on a background thread, so the first
+ * transformations do not wait for XSLTC, and the transformers created
+ * after it has finished come from the translet.
+ *
+ * <p>Transformers created directly from a stylesheet source are one-off
+ * and always interpreted. Templates handlers, and stylesheet sources
+ * that cannot be read twice, are compiled by XSLTC at once. The
+ * attributes of both factories can be set on this one.</p>
+ *
+ * @see TieredTemplates
+ */
+public class TieredTransformerFactoryImpl extends SAXTransformerFactory
+{
+    // Public constants for attributes supported by this factory.
+    public final static String COMPILE_THRESHOLD = "tiered-compile-threshold";
+    public final static String COMPILE_DELAY = "tiered-compile-delay";
+
+    private final TransformerFactoryImpl _xsltcFactory =
+	new TransformerFactoryImpl();
+    private final org.apache.xalan.processor.TransformerFactoryImpl
+	_xalanFactory = new org.apache.xalan.processor.TransformerFactoryImpl();
+
+    private ErrorListener _errorListener = null;
+    private URIResolver _uriResolver = null;
+
+    /**
+     * The number of transformers a Templates is asked for before its
+     * stylesheet is compiled.
+     */
+    private int _compileThreshold = 100;
+
+    /**
+     * The time in milliseconds after which a Templates still in use has
+     * its stylesheet compiled, or -1 if only the threshold counts.
+     */
+    private long _compileDelay = 60000;
+
+    public TieredTransformerFactoryImpl() { }
+
+    public void setErrorListener(ErrorListener listener)
+	throws IllegalArgumentException
+    {
+	if (listener == null) {
+	    ErrorMsg err = new ErrorMsg(ErrorMsg.ERROR_LISTENER_NULL_ERR,
+					"TransformerFactory");
+	    throw new IllegalArgumentException(err.toString());
+	}
+	_errorListener = listener;
+	_xalanFactory.setErrorListener(listener);
+	synchronized (_xsltcFactory) {
+	    _xsltcFactory.setErrorListener(listener);
+	}
+    }
+
+    public ErrorListener getErrorListener() {
+	return _errorListener;
+    }
+
+    public URIResolver getURIResolver() {
+	return _uriResolver;
+    }
+
+    public void setURIResolver(URIResolver resolver) {
+	_uriResolver = resolver;
+	_xalanFactory.setURIResolver(resolver);
+	synchronized (_xsltcFactory) {
+	    _xsltcFactory.setURIResolver(resolver);
+	}
+    }
+
+    /**
+     * Return an attribute of this factory, of the XSLTC factory or of
+     * the interpretive processor factory, in this order.
+     */
+    public Object getAttribute(String name)
+	throws IllegalArgumentException
+    {
+	if (name.equals(COMPILE_THRESHOLD)) {
+	    return new Integer(_compileThreshold);
+	}
+	else if (name.equals(COMPILE_DELAY)) {
+	    return new Long(_compileDelay);
+	}
+	try {
+	    synchronized (_xsltcFactory) {
+		return _xsltcFactory.getAttribute(name);
+	    }
+	}
+	catch (IllegalArgumentException e) {
+	    return _xalanFactory.getAttribute(name);
+	}
+    }
+
+    /**
+     * Set an attribute of this factory, or the attribute of that name of
+     * the XSLTC factory or else of the interpretive processor factory.
+     */
+    public void setAttribute(String name, Object value)
+	throws IllegalArgumentException
+    {
+	if (name.equals(COMPILE_THRESHOLD) || name.equals(COMPILE_DELAY)) {
+	    long l = Long.MIN_VALUE;
+	    if (value instanceof String) {
+		try {
+		    l = Long.parseLong(((String) value).trim());
+		}
+		catch (NumberFormatException e) {
+		    // Falls through
+		}
+	    }
+	    else if (value instanceof Number) {
+		l = ((Number) value).longValue();
+	    }
+	    if (name.equals(COMPILE_THRESHOLD)
+		&& l >= 0 && l <= Integer.MAX_VALUE) {
+		_compileThreshold = (int) l;
+		return;
+	    }
+	    else if (name.equals(COMPILE_DELAY) && l >= -1) {
+		_compileDelay = l;
+		return;
+	    }
+	    final ErrorMsg err
+		= new ErrorMsg(ErrorMsg.JAXP_INVALID_ATTR_ERR, name);
+	    throw new IllegalArgumentException(err.toString());
+	}
+	try {
+	    synchronized (_xsltcFactory) {
+		_xsltcFactory.setAttribute(name, value);
+	    }
+	}
+	catch (IllegalArgumentException e) {
+	    _xalanFactory.setAttribute(name, value);
+	}
+    }
+
+    /**
+     * Set a feature of both factories. Only the features both support,
+     * such as secure processing, can be set.
+     */
+    public void setFeature(String name, boolean value)
+	throws TransformerConfigurationException
+    {
+	synchronized (_xsltcFactory) {
+	    _xsltcFactory.setFeature(name, value);
+	}
+	_xalanFactory.setFeature(name, value);
+    }
+
+    public boolean getFeature(String name) {
+	synchronized (_xsltcFactory) {
+	    return _xsltcFactory.getFeature(name)
+		&& _xalanFactory.getFeature(name);
+	}
+    }
+
+    public Source getAssociatedStylesheet(Source source, String media,
+					  String title, String charset)
+	throws TransformerConfigurationException
+    {
+	return _xalanFactory.getAssociatedStylesheet(source, media,
+						     title, charset);
+    }
+
+    /**
+     * Create a Transformer object that copies the input document to the
+     * result. Uses the org.apache.xalan.processor.TransformerFactory.
+     */
+    public Transformer newTransformer()
+	throws TransformerConfigurationException
+    {
+	return _xalanFactory.newTransformer();
+    }
+
+    /**
+     * Create a Transformer object for a stylesheet that is used once.
+     * Uses the org.apache.xalan.processor.TransformerFactory.
+     */
+    public Transformer newTransformer(Source source)
+	throws TransformerConfigurationException
+    {
+	return _xalanFactory.newTransformer(source);
+    }
+
+    /**
+     * Create a TieredTemplates object for the stylesheet, which is
+     * interpreted until it is hot. A stylesheet source that cannot be
+     * read twice is compiled by XSLTC at once instead.
+     */
+    public Templates newTemplates(Source source)
+	throws TransformerConfigurationException
+    {
+	final Source copy;
+	try {
+	    copy = TieredTemplates.copySource(source);
+	}
+	catch (IOException e) {
+	    throw new TransformerConfigurationException(e);
+	}
+	if (copy == null) {
+	    return compile(source);
+	}
+	final Templates interpreted = _xalanFactory.newTemplates(copy);
+	if (interpreted == null) return null;
+	return new TieredTemplates(this, interpreted, copy,
+				   _compileThreshold, _compileDelay);
+    }
+
+    /**
+     * Compile a stylesheet with the XSLTC factory. Compilations are done
+     * one at a time, the XSLTC factory not being thread-safe.
+     */
+    Templates compile(Source source)
+	throws TransformerConfigurationException
+    {
+	synchronized (_xsltcFactory) {
+	    return _xsltcFactory.newTemplates(source);
+	}
+    }
+
+    /**
+     * Get a TemplatesHandler object that can process SAX ContentHandler
+     * events into a Templates object. Uses the
+     * org.apache.xalan.xsltc.trax.TransformerFactory.
+     */
+    public TemplatesHandler newTemplatesHandler()
+	throws TransformerConfigurationException
+    {
+	synchronized (_xsltcFactory) {
+	    return _xsltcFactory.newTemplatesHandler();
+	}
+    }
+
+    /**
+     * Get a TransformerHandler object that can process SAX ContentHandler
+     * events based on a copy transformer.
+     * Uses org.apache.xalan.processor.TransformerFactory.
+     */
+    public TransformerHandler newTransformerHandler()
+	throws TransformerConfigurationException
+    {
+	return _xalanFactory.newTransformerHandler();
+    }
+
+    /**
+     * Get a TransformerHandler object for a stylesheet that is used once.
+     * Uses org.apache.xalan.processor.TransformerFactory.
+     */
+    public TransformerHandler newTransformerHandler(Source src)
+	throws TransformerConfigurationException
+    {
+	return _xalanFactory.newTransformerHandler(src);
+    }
+
+    /**
+     * Get a TransformerHandler object from the factory of the Templates
+     * new transformers currently come from.
+     */
+    public TransformerHandler newTransformerHandler(Templates templates)
+	throws TransformerConfigurationException
+    {
+	if (templates instanceof TieredTemplates) {
+	    templates = ((TieredTemplates) templates).use();
+	}
+	if (templates instanceof TemplatesImpl) {
+	    synchronized (_xsltcFactory) {
+		return _xsltcFactory.newTransformerHandler(templates);
+	    }
+	}
+	return _xalanFactory.newTransformerHandler(templates);
+    }
+
+    /**
+     * Create an XMLFilter that uses the given source as the
+     * transformation instructions.
+     */
+    public XMLFilter newXMLFilter(Source src)
+	throws TransformerConfigurationException
+    {
+	final Templates templates = newTemplates(src);
+	if (templates == null) return null;
+	return newXMLFilter(templates);
+    }
+
+    /**
+     * Create an XMLFilter from the factory of the Templates new
+     * transformers currently come from.
+     */
+    public XMLFilter newXMLFilter(Templates templates)
+	throws TransformerConfigurationException
+    {
+	if (templates instanceof TieredTemplates) {
+	    templates = ((TieredTemplates) templates).use();
+	}
+	if (templates instanceof TemplatesImpl) {
+	    synchronized (_xsltcFactory) {
+		return _xsltcFactory.newXMLFilter(templates);
+	    }
+	}
+	return _xalanFactory.newXMLFilter(templates);
+    }
+}
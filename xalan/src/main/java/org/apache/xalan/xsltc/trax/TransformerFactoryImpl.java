@@ -89,6 +89,12 @@ public class TransformerFactoryImpl
     public final static String DEBUG = "debug";
     public final static String ENABLE_INLINING = "enable-inlining";
     public final static String INDENT_NUMBER = "indent-number";
+    public final static String SORT_MEMORY_BUDGET = "sort-memory-budget";
+    public final static String EXTENSION_CLASSPATH = "extension-classpath";
+    public final static String OUTPUT_WRITER_THREADS = "output-writer-threads";
+    public final static String OUTPUT_SYNC_BATCH = "output-sync-batch";
+    public final static String PROFILE_TEMPLATES = "profile-templates";
+    public final static String COMPACT_DISPATCH = "compact-dispatch";
         
     /**
      * This error listener is used only for this factory and is not passed to
@@ -163,6 +169,18 @@ public class TransformerFactoryImpl
      * Set to <code>true</code> when templates are inlined.
      */
     private boolean _enableInlining = false;
+
+    /**
+     * Set to <code>true</code> when translets count the calls of their
+     * templates and time them.
+     */
+    private boolean _profileTemplates = false;
+
+    /**
+     * Set to <code>true</code> when translets test the patterns of each
+     * element and attribute name in a method of its own.
+     */
+    private boolean _compactDispatch = false;
     
     /**
      * Set to <code>true</code> when we want to generate 
@@ -189,6 +207,37 @@ public class TransformerFactoryImpl
      */
     private int _indentNumber = -1;
 
+    /**
+     * Number of bytes the sort keys of a node-set may use before it is
+     * sorted in runs on disk, or 0 to always sort in memory.
+     */
+    private long _sortMemoryBudget = 0;
+
+    /**
+     * Number of threads that write the files of xsltc:output in the
+     * background, or 0 to write them synchronously.
+     */
+    private int _outputWriterThreads = 0;
+
+    /**
+     * Number of files written in the background that are synced to the
+     * storage device together, or 0 to not sync them.
+     */
+    private int _outputSyncBatch = 0;
+
+    /**
+     * The directories and jar files, separated by the path separator, that
+     * the classes of Java extension functions are loaded from, or null to
+     * load them from the class loader of XSLTC.
+     */
+    private String _extensionClasspath = null;
+
+    /**
+     * The class loader made from <code>_extensionClasspath</code>, or null
+     * if it has not been made yet.
+     */
+    private ClassLoader _extensionClassLoader = null;
+
     /**
      * The provider of the XSLTC DTM Manager service.  This is fixed for any
      * instance of this class.  In order to change service providers, a new
@@ -266,6 +315,24 @@ public class TransformerFactoryImpl
 	    else
 	      return Boolean.FALSE;
 	}
+	else if (name.equals(PROFILE_TEMPLATES)) {
+	    return _profileTemplates ? Boolean.TRUE : Boolean.FALSE;
+	}
+	else if (name.equals(COMPACT_DISPATCH)) {
+	    return _compactDispatch ? Boolean.TRUE : Boolean.FALSE;
+	}
+	else if (name.equals(SORT_MEMORY_BUDGET)) {
+	    return new Long(_sortMemoryBudget);
+	}
+	else if (name.equals(EXTENSION_CLASSPATH)) {
+	    return _extensionClasspath;
+	}
+	else if (name.equals(OUTPUT_WRITER_THREADS)) {
+	    return new Integer(_outputWriterThreads);
+	}
+	else if (name.equals(OUTPUT_SYNC_BATCH)) {
+	    return new Integer(_outputSyncBatch);
+	}
 
 	// Throw an exception for all other attributes
 	ErrorMsg err = new ErrorMsg(ErrorMsg.JAXP_INVALID_ATTR_ERR, name);
@@ -351,6 +418,26 @@ public class TransformerFactoryImpl
 		return;
 	    }
 	}
+	else if (name.equals(PROFILE_TEMPLATES)) {
+	    if (value instanceof Boolean) {
+		_profileTemplates = ((Boolean) value).booleanValue();
+		return;
+	    }
+	    else if (value instanceof String) {
+		_profileTemplates = ((String) value).equalsIgnoreCase("true");
+		return;
+	    }
+	}
+	else if (name.equals(COMPACT_DISPATCH)) {
+	    if (value instanceof Boolean) {
+		_compactDispatch = ((Boolean) value).booleanValue();
+		return;
+	    }
+	    else if (value instanceof String) {
+		_compactDispatch = ((String) value).equalsIgnoreCase("true");
+		return;
+	    }
+	}
 	else if (name.equals(INDENT_NUMBER)) {
 	    if (value instanceof String) {
 		try {
@@ -366,6 +453,48 @@ public class TransformerFactoryImpl
 		return;
 	    }
 	}
+	else if (name.equals(EXTENSION_CLASSPATH) && value instanceof String) {
+	    _extensionClasspath = (String) value;
+	    _extensionClassLoader = null;
+	    return;
+	}
+	else if (name.equals(SORT_MEMORY_BUDGET)) {
+	    if (value instanceof String) {
+		try {
+		    _sortMemoryBudget = Long.parseLong(((String) value).trim());
+		    return;
+		}
+		catch (NumberFormatException e) {
+		    // Falls through
+		}
+	    }
+	    else if (value instanceof Number) {
+		_sortMemoryBudget = ((Number) value).longValue();
+		return;
+	    }
+	}
+	else if (name.equals(OUTPUT_WRITER_THREADS)
+		 || name.equals(OUTPUT_SYNC_BATCH)) {
+	    int i = -1;
+	    if (value instanceof String) {
+		try {
+		    i = Integer.parseInt(((String) value).trim());
+		}
+		catch (NumberFormatException e) {
+		    // Falls through
+		}
+	    }
+	    else if (value instanceof Number) {
+		i = ((Number) value).intValue();
+	    }
+	    if (i >= 0) {
+		if (name.equals(OUTPUT_WRITER_THREADS))
+		    _outputWriterThreads = i;
+		else
+		    _outputSyncBatch = i;
+		return;
+	    }
+	}
 
 	// Throw an exception for all other attributes
 	final ErrorMsg err 
@@ -745,7 +874,10 @@ public class TransformerFactoryImpl
 		xsltc.setTemplateInlining(true);
 	else
 		xsltc.setTemplateInlining(false);
+	if (_profileTemplates) xsltc.setTemplateProfiling(true);
+	if (_compactDispatch) xsltc.setCompactDispatch(true);
 	if (_isSecureProcessing) xsltc.setSecureProcessing(true);
+	xsltc.setExtensionClassLoader(getExtensionClassLoader());
 	xsltc.init();
 
 	// Set a document loader (for xsl:include/import) if defined
@@ -1410,4 +1542,38 @@ public class TransformerFactoryImpl
     protected Class getDTMManagerClass() {
         return m_DTMManagerClass;
     }
+
+    /**
+     * Returns the value of the sort-memory-budget attribute.
+     */
+    protected long getSortMemoryBudget() {
+        return _sortMemoryBudget;
+    }
+
+    /**
+     * Returns the value of the output-writer-threads attribute.
+     */
+    protected int getOutputWriterThreads() {
+        return _outputWriterThreads;
+    }
+
+    /**
+     * Returns the value of the output-sync-batch attribute.
+     */
+    protected int getOutputSyncBatch() {
+        return _outputSyncBatch;
+    }
+
+    /**
+     * Returns the class loader of the classes of Java extension functions,
+     * or null if the extension-classpath attribute is not set.  Translets
+     * compiled by this factory are loaded by a child of this class loader.
+     */
+    protected synchronized ClassLoader getExtensionClassLoader() {
+        if (_extensionClassLoader == null && _extensionClasspath != null) {
+            _extensionClassLoader =
+                XSLTC.createExtensionClassLoader(_extensionClasspath);
+        }
+        return _extensionClassLoader;
+    }
 }
\ No newline at end of file
@@ -27,6 +27,7 @@ import javax.xml.transform.TransformerException;
 import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.dom.DOMResult;
 
+import org.apache.xalan.xsltc.DOM;
 import org.apache.xalan.xsltc.StripFilter;
 import org.apache.xalan.xsltc.compiler.util.ErrorMsg;
 import org.apache.xalan.xsltc.dom.DOMWSFilter;
@@ -183,6 +184,9 @@ public class TransformerHandlerImpl implements TransformerHandler, DeclHandler {
 
         if (!_isIdentity) {
             boolean hasIdCall = (_translet != null) ? _translet.hasIdCall() : false;
+            int documentFeatures = (_translet != null)
+                                   ? _translet.getDocumentFeatures()
+                                   : DOM.ALL_DOCUMENT_FEATURES;
             XSLTCDTMManager dtmManager = null;
             
             // Create an internal DOM (not W3C) and get SAX2 input handler
@@ -204,7 +208,8 @@ public class TransformerHandlerImpl implements TransformerHandler, DeclHandler {
           
             // Construct the DTM using the SAX events that come through
             _dom = (SAXImpl)dtmManager.getDTM(null, false, wsFilter, true,
-                                              false, hasIdCall);         
+                                              false, false, 0, hasIdCall,
+                                              false, documentFeatures);
 
             _handler = _dom.getBuilder();
             _lexHandler = (LexicalHandler) _handler;
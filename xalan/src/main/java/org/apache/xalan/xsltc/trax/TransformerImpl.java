@@ -227,13 +227,32 @@ public final class TransformerImpl extends Transformer
 
     protected TransformerImpl(Translet translet, Properties outputProperties,
 	int indentNumber, TransformerFactoryImpl tfactory) 
+    {
+	this(translet,
+	     createOutputPropertyLayers(outputProperties,
+					(AbstractTranslet) translet),
+	     indentNumber, tfactory);
+    }
+
+    /**
+     * Create a transformer whose output properties are built from the
+     * names and values returned by createOutputPropertyLayers(), which
+     * TemplatesImpl computes once for all its transformers.
+     */
+    TransformerImpl(Translet translet, String[][] outputPropertyLayers,
+	int indentNumber, TransformerFactoryImpl tfactory) 
     {
 	_translet = (AbstractTranslet) translet;
-	_properties = createOutputProperties(outputProperties);
+	_properties = createOutputProperties(outputPropertyLayers);
 	_propertiesClone = (Properties) _properties.clone();
 	_indentNumber = indentNumber;
 	_tfactory = tfactory;
 	//_isIncremental = tfactory._incremental;
+	if (_translet != null && tfactory != null) {
+	    _translet.setSortMemoryBudget(tfactory.getSortMemoryBudget());
+	    _translet.setOutputWriterThreads(tfactory.getOutputWriterThreads(),
+					     tfactory.getOutputSyncBatch());
+	}
     }
 
     /**
@@ -451,6 +470,9 @@ public final class TransformerImpl extends Transformer
             
                  boolean hasIdCall = (_translet != null) ? _translet.hasIdCall()
                                                          : false;
+                 int documentFeatures = (_translet != null)
+                                        ? _translet.getDocumentFeatures()
+                                        : DOM.ALL_DOCUMENT_FEATURES;
 
                  if (_dtmManager == null) {
                      _dtmManager =
@@ -458,7 +480,8 @@ public final class TransformerImpl extends Transformer
                                                    .newInstance();
                  }
                  dom = (DOM)_dtmManager.getDTM(source, false, wsfilter, true,
-                                              false, false, 0, hasIdCall);
+                                              false, false, 0, hasIdCall,
+                                              false, documentFeatures);
             } else if (_dom != null) {
                  dom = _dom;
                  _dom = null;  // use only once, so reset to 'null'
@@ -974,7 +997,27 @@ public final class TransformerImpl extends Transformer
      * The latter contains properties defined in the stylesheet or by
      * the user using this API.
      */
-    private Properties createOutputProperties(Properties outputProperties) {
+    private static Properties createOutputProperties(String[][] layers) {
+	final Properties defaults = new Properties();
+	for (int i = 0; i < layers[0].length; i += 2) {
+	    defaults.setProperty(layers[0][i], layers[0][i + 1]);
+	}
+	final Properties base = new Properties(defaults);
+	for (int i = 0; i < layers[1].length; i += 2) {
+	    base.setProperty(layers[1][i], layers[1][i + 1]);
+	}
+	return base;
+    }
+
+    /**
+     * Return the default layer and the base layer of the output
+     * properties of a translet, each as an array of names and values.
+     * The default properties of the output methods are shared by all
+     * threads, so looking them up for every transformer would make the
+     * threads creating transformers wait for each other.
+     */
+    static String[][] createOutputPropertyLayers(Properties outputProperties,
+						 AbstractTranslet translet) {
 	final Properties defaults = new Properties();
 	setDefaults(defaults, "xml");
 
@@ -988,9 +1031,9 @@ public final class TransformerImpl extends Transformer
 	    }
 	}
 	else {
-	    base.setProperty(OutputKeys.ENCODING, _translet._encoding);
-	    if (_translet._method != null)
-	        base.setProperty(OutputKeys.METHOD, _translet._method);
+	    base.setProperty(OutputKeys.ENCODING, translet._encoding);
+	    if (translet._method != null)
+	        base.setProperty(OutputKeys.METHOD, translet._method);
 	}
 
 	// Update defaults based on output method
@@ -1004,7 +1047,23 @@ public final class TransformerImpl extends Transformer
 	    }
 	}
 
-	return base; 
+	return new String[][] { toArray(defaults), toArray(base) };
+    }
+
+    /**
+     * Return the names and values of the properties of one layer,
+     * leaving out those of its defaults.
+     */
+    private static String[] toArray(Properties properties) {
+	final String[] array = new String[2 * properties.size()];
+	final Enumeration names = properties.keys();
+	int i = 0;
+	while (names.hasMoreElements()) {
+	    final String name = (String) names.nextElement();
+	    array[i++] = name;
+	    array[i++] = properties.getProperty(name);
+	}
+	return array;
     }
 
 	/**
@@ -1013,7 +1072,7 @@ public final class TransformerImpl extends Transformer
 	 * @param props a java.util.Property object on which the properties are set.
 	 * @param method The output method type, one of "xml", "text", "html" ...
 	 */
-	private void setDefaults(Properties props, String method)
+	private static void setDefaults(Properties props, String method)
 	{
 		final Properties method_props =
 			OutputPropertiesFactory.getDefaultMethodProperties(method);
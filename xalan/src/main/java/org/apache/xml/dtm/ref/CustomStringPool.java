@@ -69,6 +69,14 @@ public class CustomStringPool extends DTMStringPool {
                         m_stringToInt.clear();
         }
 
+        public void setSize(int size)
+        {
+                for (int i=m_intToString.size()-1; i>=size; --i)
+                        m_stringToInt.remove(m_intToString.elementAt(i));
+                if (size<m_intToString.size())
+                        m_intToString.setSize(size);
+        }
+
         /** @return string whose value is uniquely identified by this integer index.
          * @throws java.lang.ArrayIndexOutOfBoundsException
          *  if index doesn't map to a string.
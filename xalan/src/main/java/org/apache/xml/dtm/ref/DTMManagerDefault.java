@@ -206,6 +206,21 @@ public class DTMManagerDefault extends DTMManager
    */
   public DTMManagerDefault(){}
 
+  /**
+   * Forget all DTMs this manager knows about, so that it can serve a new
+   * transformation.  This is cheaper than obtaining a new manager through
+   * {@link DTMManager#newInstance}, and keeps the incremental and source
+   * location settings.  Handles into the old DTMs are invalid afterwards,
+   * and since DTM IDs are handed out again from the start, they may
+   * resolve to the new DTMs: only reset a manager nothing else refers to.
+   */
+  synchronized public void reset()
+  {
+    java.util.Arrays.fill(m_dtms, null);
+    java.util.Arrays.fill(m_dtm_offsets, 0);
+    m_expandedNameTable = new ExpandedNameTable();
+  }
+
 
   /**
    * Get an instance of a DTM, loaded with the content from the
@@ -37,6 +37,16 @@ extends DTMStringPool
       super.removeAllElements();
     }
 
+  public synchronized int size()
+    {
+      return super.size();
+    }
+
+  public synchronized void setSize(int size)
+    {
+      super.setSize(size);
+    }
+
   /** @return string whose value is uniquely identified by this integer index.
    * @throws java.lang.ArrayIndexOutOfBoundsException
    *  if index doesn't map to a string.
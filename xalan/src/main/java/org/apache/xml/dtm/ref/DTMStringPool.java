@@ -86,6 +86,25 @@ public class DTMStringPool
       m_stringToInt.clear();
     }
 
+  /** @return the number of strings in the pool. */
+  public int size()
+    {
+      return m_intToString.size();
+    }
+
+  /** Discard the strings added after the pool held the given number of
+   * strings. Their indexes are assigned again to new strings.
+   *
+   * @param size the number of strings to keep.
+   * */
+  public void setSize(int size)
+    {
+      for(int i=m_intToString.size()-1;i>=size;--i)
+        m_stringToInt.remove(m_intToString.elementAt(i));
+      if(size<m_intToString.size())
+        m_intToString.setSize(size);
+    }
+
   /** @return string whose value is uniquely identified by this integer index.
    * @throws java.lang.ArrayIndexOutOfBoundsException
    *  if index doesn't map to a string.
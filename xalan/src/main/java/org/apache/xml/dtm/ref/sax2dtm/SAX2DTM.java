@@ -163,6 +163,12 @@ public class SAX2DTM extends DTMDefaultBaseIterators
    */
   private Vector m_entities = null;
 
+  /**
+   * True if the unparsed entities declared in the document are kept,
+   * for getUnparsedEntityURI().
+   */
+  protected boolean m_keepUnparsedEntities = true;
+
   /** m_entities public ID offset. */
   private static final int ENTITY_FIELD_PUBLICID = 0;
 
@@ -1628,6 +1634,9 @@ public class SAX2DTM extends DTMDefaultBaseIterators
             throws SAXException
   {
 
+    if (!m_keepUnparsedEntities)
+      return;
+
     if (null == m_entities)
     {
       m_entities = new Vector();
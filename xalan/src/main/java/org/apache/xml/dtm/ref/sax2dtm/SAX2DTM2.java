@@ -1833,6 +1833,10 @@ public class SAX2DTM2 extends SAX2DTM
   // True if we want to build the ID index table.
   protected boolean m_buildIdIndex = true;
 
+  // True if we want to add the namespace nodes to the tree. Without
+  // them, the namespace axis of every element is empty.
+  protected boolean m_buildNamespaceNodes = true;
+
   // Constant for empty String
   private static final String EMPTY_STR = "";
 
@@ -1879,9 +1883,10 @@ public class SAX2DTM2 extends SAX2DTM
     m_buildIdIndex = buildIdIndex;
 
     // Some documents do not have attribute nodes. That is why
-    // we set the initial size of this Vector to be small and set
-    // the increment to a bigger number.
-    m_values = new Vector(32, 512);
+    // we set the initial size of this Vector to be small. It doubles
+    // as it grows, since a fixed increment would copy it over and
+    // over on documents with many attributes.
+    m_values = new Vector(32);
 
     m_maxNodeIndex = 1 << DTMManager.IDENT_DTM_NODE_BITS;
 
@@ -2102,34 +2107,37 @@ public class SAX2DTM2 extends SAX2DTM
     int nDecls = m_prefixMappings.size();
     String prefix;
 
-    if(!m_pastFirstElement)
-    {
-      // SPECIAL CASE: Implied declaration at root element
-      prefix="xml";
-      String declURL = "http://www.w3.org/XML/1998/namespace";
-      exName = m_expandedNameTable.getExpandedTypeID(null, prefix, DTM.NAMESPACE_NODE);
-      m_values.addElement(declURL);
-      int val = m_valueIndex++;
-      addNode(DTM.NAMESPACE_NODE, exName, elemNode,
-                     DTM.NULL, val, false);
-      m_pastFirstElement=true;
-    }
-
-    for (int i = startDecls; i < nDecls; i += 2)
+    if (m_buildNamespaceNodes)
     {
-      prefix = (String) m_prefixMappings.elementAt(i);
+      if(!m_pastFirstElement)
+      {
+        // SPECIAL CASE: Implied declaration at root element
+        prefix="xml";
+        String declURL = "http://www.w3.org/XML/1998/namespace";
+        exName = m_expandedNameTable.getExpandedTypeID(null, prefix, DTM.NAMESPACE_NODE);
+        m_values.addElement(declURL);
+        int val = m_valueIndex++;
+        addNode(DTM.NAMESPACE_NODE, exName, elemNode,
+                       DTM.NULL, val, false);
+        m_pastFirstElement=true;
+      }
+
+      for (int i = startDecls; i < nDecls; i += 2)
+      {
+        prefix = (String) m_prefixMappings.elementAt(i);
 
-      if (prefix == null)
-        continue;
+        if (prefix == null)
+          continue;
 
-      String declURL = (String) m_prefixMappings.elementAt(i + 1);
+        String declURL = (String) m_prefixMappings.elementAt(i + 1);
 
-      exName = m_expandedNameTable.getExpandedTypeID(null, prefix, DTM.NAMESPACE_NODE);
+        exName = m_expandedNameTable.getExpandedTypeID(null, prefix, DTM.NAMESPACE_NODE);
 
-      m_values.addElement(declURL);
-      int val = m_valueIndex++;
+        m_values.addElement(declURL);
+        int val = m_valueIndex++;
 
-      addNode(DTM.NAMESPACE_NODE, exName, elemNode, DTM.NULL, val, false);
+        addNode(DTM.NAMESPACE_NODE, exName, elemNode, DTM.NULL, val, false);
+      }
     }
 
     int n = attributes.getLength();
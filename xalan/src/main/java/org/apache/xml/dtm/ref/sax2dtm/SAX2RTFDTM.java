@@ -75,6 +75,8 @@ public class SAX2RTFDTM extends SAX2DTM
   IntStack mark_char_size=new IntStack();
   /** Tail-pruning mark: Number of dataOrQName slots in use */
   IntStack mark_doq_size=new IntStack();
+  /** Tail-pruning mark: Number of pooled values and prefixes in use */
+  IntStack mark_values_size=new IntStack();
   /** Tail-pruning mark: Number of namespace declaration sets in use
    * %REVIEW% I don't think number of NS sets is ever different from number
    * of NS elements. We can probabably reduce these to a single stack and save
@@ -117,6 +119,33 @@ public class SAX2RTFDTM extends SAX2DTM
    * Tail-pruning mark:  default initial number of dataOrQName slots in use
    */
   int m_emptyDataQNCount;
+
+  /**
+   * Tail-pruning mark:  initial number of pooled values and prefixes
+   */
+  int m_emptyValuesCount;
+
+  /**
+   * Largest number of nodes this DTM has held at once. Tail-pruning
+   * truncates the node arrays without freeing them, so this tells how
+   * much node storage the DTM keeps.
+   */
+  private int m_maxNodeCount;
+
+  /**
+   * Largest number of data items this DTM has held at once.
+   */
+  private int m_maxDataCount;
+
+  /**
+   * Largest number of characters this DTM has held at once.
+   */
+  private int m_maxCharsCount;
+
+  /**
+   * Largest number of values and prefixes this DTM has pooled at once.
+   */
+  private int m_maxValuesCount;
   
   public SAX2RTFDTM(DTMManager mgr, Source source, int dtmIdentity,
                  DTMWSFilter whiteSpaceFilter,
@@ -146,6 +175,7 @@ public class SAX2RTFDTM extends SAX2DTM
     m_emptyDataCount = m_data.size();
     m_emptyCharsCount = m_chars.size();
     m_emptyDataQNCount = m_dataOrQName.size();
+    m_emptyValuesCount = m_valuesOrPrefixes.size();
   }
   
   /**
@@ -294,6 +324,7 @@ public class SAX2RTFDTM extends SAX2DTM
     mark_data_size.push(m_data.size());
     mark_char_size.push(m_chars.size());
     mark_doq_size.push(m_dataOrQName.size());
+    mark_values_size.push(m_valuesOrPrefixes.size());
   }
  
   /** "Tail-pruning" support for RTFs.
@@ -323,6 +354,8 @@ public class SAX2RTFDTM extends SAX2DTM
    * */
   public boolean popRewindMark()
   {
+    recordStorageSize();
+
     boolean top=mark_size.empty();
    
     m_size=top ? m_emptyNodeCount : mark_size.pop();
@@ -349,10 +382,83 @@ public class SAX2RTFDTM extends SAX2DTM
     m_chars.setLength(top ? m_emptyCharsCount : mark_char_size.pop());
     m_dataOrQName.setSize(top ? m_emptyDataQNCount : mark_doq_size.pop());
 
+    // Values and prefixes are pooled, so those added after the mark are
+    // used only by the nodes just discarded
+    m_valuesOrPrefixes.setSize(top ? m_emptyValuesCount
+                                   : mark_values_size.pop());
+
     // Return true iff DTM now empty
     return m_size==0;
   }
  
+  /** Discard all the trees in this DTM, and the marks pushed for them, so
+   * that its storage can be reused for the fragments of another
+   * transformation. The DTM must then be registered again with its manager
+   * through migrateTo(), which see.
+   *
+   * This is _not_ intended to be called while a document is still being
+   * constructed.
+   * */
+  public void clear()
+  {
+    mark_size.removeAllElements();
+    mark_data_size.removeAllElements();
+    mark_char_size.removeAllElements();
+    mark_doq_size.removeAllElements();
+    mark_values_size.removeAllElements();
+    mark_nsdeclset_size.removeAllElements();
+    mark_nsdeclelem_size.removeAllElements();
+    popRewindMark();
+
+    m_idAttributes.clear();
+
+    // Overflow DTM IDs are added again as the DTM grows
+    m_dtmIdent.setSize(1);
+  }
+
+  /**
+   * Migrate this DTM to a new DTMManager. An empty RTF DTM also takes the
+   * expanded name table of the new manager, so that its nodes share
+   * expanded type IDs with the other DTMs of that manager.
+   * @param manager the DTMManager
+   */
+  public void migrateTo(DTMManager manager)
+  {
+    super.migrateTo(manager);
+    if (m_size == 0 && m_mgrDefault != null)
+      m_expandedNameTable = m_mgrDefault.getExpandedNameTable(this);
+  }
+
+  /** Get an estimate of the memory this DTM keeps for nodes, data,
+   * characters and pooled values, which tail-pruning does not release.
+   *
+   * @return the estimated number of bytes retained by this DTM.
+   * */
+  public long getRetainedBytes()
+  {
+    recordStorageSize();
+
+    // An int each for the expanded type, first child, next sibling,
+    // previous sibling, parent and data or QName of a node, and the
+    // vector and hash table slots of a pooled value
+    return 24L * m_maxNodeCount + 4L * m_maxDataCount + 2L * m_maxCharsCount
+           + 8L * m_maxValuesCount;
+  }
+
+  /** Record the current storage sizes, if they are the largest so far.
+   * */
+  private void recordStorageSize()
+  {
+    if (m_size > m_maxNodeCount)
+      m_maxNodeCount = m_size;
+    if (m_data.size() > m_maxDataCount)
+      m_maxDataCount = m_data.size();
+    if (m_chars.size() > m_maxCharsCount)
+      m_maxCharsCount = m_chars.size();
+    if (m_valuesOrPrefixes.size() > m_maxValuesCount)
+      m_maxValuesCount = m_valuesOrPrefixes.size();
+  }
+
   /** @return true if a DTM tree is currently under construction.
    * */
   public boolean isTreeIncomplete()
@@ -0,0 +1,534 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes output files on a pool of background threads.  The stream
+ * returned by {@link #open} collects what is written to it in chunks, and
+ * hands each full chunk, and the last one when it is closed, to a writer
+ * thread, so the thread that produces the files does not wait on the file
+ * system.
+ *
+ * <p>All the chunks of one file go to the same writer, in order, so a
+ * file that is written more than once, or appended to, ends up as it
+ * would have if it had been written synchronously.  Each writer has a
+ * bounded queue, and handing it a chunk waits while the queue is full,
+ * which bounds the memory held by pending output to QUEUE_SIZE chunks
+ * per writer, however large the files are.</p>
+ *
+ * <p>A writer keeps a file open from its first chunk to its last.  If
+ * files are synced to the storage device, it then keeps the files it
+ * finished open until it has a batch of them, or runs out of work, and
+ * syncs and closes the batch together.</p>
+ *
+ * <p>A file that cannot be written does not stop the others.  The first
+ * error is thrown by {@link #finish}, which is called at the end of the
+ * transformation.  Streams that are still open then are closed, so what
+ * was written to them is not lost, but finish() reports them as an
+ * error, since their content may be incomplete.</p>
+ * @xsl.usage internal
+ */
+public final class AsyncFileWriter
+{
+
+  /** The number of chunks each writer may hold before writing waits. */
+  private static final int QUEUE_SIZE = 64;
+
+  /** The size of a chunk. */
+  private static final int CHUNK_SIZE = 65536;
+
+  /** The element that tells a writer to stop. */
+  private static final Object END = new Object();
+
+  /** The value of a file that could not be opened, in Writer.m_files. */
+  private static final Object FAILED = new Object();
+
+  /** The writers. */
+  private final Writer[] m_writers;
+
+  /** The number of files synced together, or 0 to not sync files. */
+  private final int m_syncBatch;
+
+  /** The streams that are open, keyed and valued by themselves. */
+  private final Hashtable m_streams = new Hashtable();
+
+  /** The first error of a writer, or null. */
+  private IOException m_error = null;
+
+  /**
+   * Construct a file writer, and start its threads.
+   *
+   * @param threads The number of writer threads, at least 1.
+   * @param syncBatch The number of files each writer syncs to the storage
+   *                  device together, or 0 to leave that to the system.
+   */
+  public AsyncFileWriter(int threads, int syncBatch)
+  {
+    m_syncBatch = Math.max(0, syncBatch);
+    m_writers = new Writer[Math.max(1, threads)];
+
+    for (int i = 0; i < m_writers.length; i++)
+    {
+      m_writers[i] = new Writer();
+      m_writers[i].start();
+    }
+  }
+
+  /**
+   * Open a file for writing.
+   *
+   * @param file The file.
+   * @param append true to append to the file if it exists.
+   *
+   * @return The stream to write the content of the file to.  The file is
+   * complete once the stream is closed.
+   */
+  public OutputStream open(File file, boolean append)
+  {
+    Stream stream = new Stream(file, append);
+
+    m_streams.put(stream, stream);
+
+    return stream;
+  }
+
+  /**
+   * Close the streams that are still open, wait for all the files to be
+   * written, and stop the writers.
+   *
+   * @throws IOException if a file could not be written, or was not
+   * closed.
+   */
+  public void finish() throws IOException
+  {
+    boolean interrupted = false;
+
+    // Closing a stream removes it from m_streams.
+    while (!m_streams.isEmpty())
+    {
+      Stream stream = (Stream) m_streams.elements().nextElement();
+
+      setError(new IOException("The output file " + stream.m_path
+                               + " was not closed"));
+
+      try
+      {
+        stream.close();
+      }
+      catch (InterruptedIOException iioe)
+      {
+        interrupted = true;
+      }
+    }
+
+    for (int i = 0; i < m_writers.length; i++)
+    {
+      while (true)
+      {
+        try
+        {
+          m_writers[i].m_queue.put(END);
+          break;
+        }
+        catch (InterruptedException ie)
+        {
+          interrupted = true;
+        }
+      }
+    }
+
+    for (int i = 0; i < m_writers.length; i++)
+    {
+      while (m_writers[i].isAlive())
+      {
+        try
+        {
+          m_writers[i].join();
+        }
+        catch (InterruptedException ie)
+        {
+          interrupted = true;
+        }
+      }
+    }
+
+    if (interrupted)
+      Thread.currentThread().interrupt();
+
+    checkError();
+  }
+
+  /**
+   * Throw the first error of the writers, if any.
+   *
+   * @throws IOException
+   */
+  private synchronized void checkError() throws IOException
+  {
+    if (null != m_error)
+      throw m_error;
+  }
+
+  /**
+   * Record an error of a writer, unless one is recorded already.
+   *
+   * @param ioe The error.
+   */
+  private synchronized void setError(IOException ioe)
+  {
+    if (null == m_error)
+      m_error = ioe;
+  }
+
+  /**
+   * Hand a chunk to the writer of its file.
+   *
+   * @param chunk The chunk.
+   *
+   * @throws IOException if the thread is interrupted while waiting for
+   * room in the queue of the writer.
+   */
+  private void submit(Chunk chunk) throws IOException
+  {
+    int hash = chunk.m_stream.m_path.hashCode() & 0x7FFFFFFF;
+    Writer writer = m_writers[hash % m_writers.length];
+
+    try
+    {
+      writer.m_queue.put(chunk);
+    }
+    catch (InterruptedException ie)
+    {
+      Thread.currentThread().interrupt();
+
+      throw new InterruptedIOException();
+    }
+  }
+
+  /**
+   * A part of the content of a file.
+   */
+  private static final class Chunk
+  {
+
+    /** The stream the chunk was written to. */
+    final Stream m_stream;
+
+    /** The bytes. */
+    final byte[] m_bytes;
+
+    /** The number of bytes used. */
+    final int m_length;
+
+    /** true if this is the last chunk of the file. */
+    final boolean m_last;
+
+    /**
+     * Construct a chunk.
+     *
+     * @param stream The stream the chunk was written to.
+     * @param bytes The bytes.
+     * @param length The number of bytes used.
+     * @param last true if this is the last chunk of the file.
+     */
+    Chunk(Stream stream, byte[] bytes, int length, boolean last)
+    {
+      m_stream = stream;
+      m_bytes = bytes;
+      m_length = length;
+      m_last = last;
+    }
+  }
+
+  /**
+   * The stream the content of one file is written to.
+   */
+  private final class Stream extends OutputStream
+  {
+
+    /** The absolute path of the file. */
+    final String m_path;
+
+    /** true to append to the file. */
+    final boolean m_append;
+
+    /** The chunk being filled, or null once the stream is closed. */
+    private byte[] m_bytes = new byte[CHUNK_SIZE];
+
+    /** The number of bytes in the chunk being filled. */
+    private int m_count = 0;
+
+    /**
+     * Construct a stream.
+     *
+     * @param file The file.
+     * @param append true to append to the file.
+     */
+    Stream(File file, boolean append)
+    {
+      m_path = file.getAbsolutePath();
+      m_append = append;
+    }
+
+    /**
+     * Write a byte.
+     *
+     * @param b The byte.
+     *
+     * @throws IOException
+     */
+    public void write(int b) throws IOException
+    {
+      if (m_count == m_bytes.length)
+        submitChunk(false);
+
+      m_bytes[m_count++] = (byte) b;
+    }
+
+    /**
+     * Write bytes.
+     *
+     * @param b The bytes.
+     * @param off The offset of the first byte.
+     * @param len The number of bytes.
+     *
+     * @throws IOException
+     */
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+      while (len > 0)
+      {
+        if (m_count == m_bytes.length)
+          submitChunk(false);
+
+        int n = Math.min(len, m_bytes.length - m_count);
+
+        System.arraycopy(b, off, m_bytes, m_count, n);
+        m_count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    /**
+     * Hand the last chunk to the writer.  Closing a stream more than once
+     * has no effect.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+      if (null == m_bytes)
+        return;
+
+      m_streams.remove(this);
+      submitChunk(true);
+    }
+
+    /**
+     * Hand the chunk being filled to the writer.
+     *
+     * @param last true if this is the last chunk of the file.
+     *
+     * @throws IOException
+     */
+    private void submitChunk(boolean last) throws IOException
+    {
+      Chunk chunk = new Chunk(this, m_bytes, m_count, last);
+
+      m_bytes = last ? null : new byte[CHUNK_SIZE];
+      m_count = 0;
+      submit(chunk);
+    }
+  }
+
+  /**
+   * A thread that writes the chunks of its queue to their files.
+   */
+  private final class Writer extends Thread
+  {
+
+    /** The chunks waiting to be written. */
+    final BlockingQueue m_queue = new ArrayBlockingQueue(QUEUE_SIZE);
+
+    /**
+     * The files that have not had their last chunk yet, keyed by stream,
+     * or FAILED if they could not be written.
+     */
+    private final Hashtable m_files = new Hashtable();
+
+    /** The files written but not yet synced. */
+    private final Vector m_unsynced = new Vector();
+
+    /**
+     * Construct a writer.
+     */
+    Writer()
+    {
+      super("Xalan file writer");
+
+      setDaemon(true);
+    }
+
+    /**
+     * Write chunks until told to stop.
+     */
+    public void run()
+    {
+      while (true)
+      {
+        Object next;
+
+        try
+        {
+          // Sync the pending batch when there is nothing else to do.
+          next = m_unsynced.isEmpty() ? m_queue.take() : m_queue.poll();
+        }
+        catch (InterruptedException ie)
+        {
+          continue;
+        }
+
+        if (null == next)
+        {
+          sync();
+
+          continue;
+        }
+
+        if (END == next)
+          break;
+
+        write((Chunk) next);
+      }
+
+      sync();
+    }
+
+    /**
+     * Write a chunk to its file.
+     *
+     * @param chunk The chunk.
+     */
+    private void write(Chunk chunk)
+    {
+      Object file = m_files.get(chunk.m_stream);
+
+      if (FAILED == file)
+      {
+        if (chunk.m_last)
+          m_files.remove(chunk.m_stream);
+
+        return;
+      }
+
+      FileOutputStream out = (FileOutputStream) file;
+
+      try
+      {
+        if (null == out)
+        {
+          out = new FileOutputStream(chunk.m_stream.m_path,
+                                     chunk.m_stream.m_append);
+
+          if (!chunk.m_last)
+            m_files.put(chunk.m_stream, out);
+        }
+
+        out.write(chunk.m_bytes, 0, chunk.m_length);
+
+        if (chunk.m_last)
+        {
+          m_files.remove(chunk.m_stream);
+
+          if (m_syncBatch > 0)
+          {
+            m_unsynced.addElement(out);
+
+            if (m_unsynced.size() >= m_syncBatch)
+              sync();
+          }
+          else
+          {
+            out.close();
+          }
+        }
+      }
+      catch (IOException ioe)
+      {
+        setError(ioe);
+
+        if (chunk.m_last)
+          m_files.remove(chunk.m_stream);
+        else
+          m_files.put(chunk.m_stream, FAILED);
+
+        if (null != out)
+        {
+          try
+          {
+            out.close();
+          }
+          catch (IOException ignored) {}
+        }
+      }
+    }
+
+    /**
+     * Sync and close the files written since the last sync.
+     */
+    private void sync()
+    {
+      for (int i = 0; i < m_unsynced.size(); i++)
+      {
+        FileOutputStream out = (FileOutputStream) m_unsynced.elementAt(i);
+
+        try
+        {
+          out.getFD().sync();
+          out.close();
+        }
+        catch (IOException ioe)
+        {
+          setError(ioe);
+
+          try
+          {
+            out.close();
+          }
+          catch (IOException ignored) {}
+        }
+      }
+
+      m_unsynced.removeAllElements();
+    }
+  }
+}
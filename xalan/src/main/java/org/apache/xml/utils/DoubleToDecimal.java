@@ -0,0 +1,472 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.utils;
+
+import java.math.BigInteger;
+
+/**
+ * Converts doubles to strings as the XPath string() function does: the
+ * shortest decimal that reads back as the same double, written without
+ * an exponent, without a trailing ".0", and with "0" for negative zero.
+ *
+ * <p>The shortest decimal is found with Raffaello Giulietti's Schubfach
+ * algorithm ("The Schubfach way to render doubles", 2020), which needs a
+ * few multiplications by a table of powers of ten rather than the big
+ * number arithmetic of Double.toString().  The characters are written
+ * straight into a caller's buffer, so numbers can be sent to a
+ * serializer or appended to a FastStringBuffer without creating any
+ * String.</p>
+ *
+ * <p>As with Double.toString() in recent JDKs, the digits are the closest
+ * to the double of the shortest that read back as it, except that two
+ * digits are always considered, so a few of the smallest subnormal
+ * numbers come out as, for example, 0.0...099 rather than 0.0...01.</p>
+ * @xsl.usage internal
+ */
+public final class DoubleToDecimal
+{
+
+  /**
+   * The largest number of characters written for a double, for
+   * -4.9E-324.
+   */
+  public static final int MAX_CHARS = 328;
+
+  /** The precision of doubles, in bits. */
+  private static final int P = 53;
+
+  /** The exponent of the smallest double. */
+  private static final int Q_MIN = -1074;
+
+  /** The significand of the smallest normal double with exponent Q_MIN. */
+  private static final long C_MIN = 1L << (P - 1);
+
+  /** The mask of the biased exponent. */
+  private static final int BQ_MASK = 0x7FF;
+
+  /** The mask of the fraction bits. */
+  private static final long T_MASK = (1L << (P - 1)) - 1;
+
+  /** Subnormal significands below this are scaled by 10 first. */
+  private static final long C_TINY = 3;
+
+  /** The range of the powers of ten in the table. */
+  private static final int K_MIN = -324;
+  private static final int K_MAX = 292;
+
+  /** The low 63 bits of a long. */
+  private static final long MASK_63 = 0x7FFFFFFFFFFFFFFFL;
+
+  /**
+   * For each k in [K_MIN, K_MAX], the high 63 and low 63 bits of
+   * g = floor(10^-k 2^-r) + 1, with r = flog2pow10(-k) - 125.
+   */
+  private static final long[] G = new long[2 * (K_MAX - K_MIN + 1)];
+
+  /** The powers of ten that fit in a long. */
+  private static final long[] POW10 = new long[19];
+
+  static
+  {
+    POW10[0] = 1;
+
+    for (int i = 1; i < POW10.length; i++)
+      POW10[i] = 10 * POW10[i - 1];
+
+    for (int k = K_MIN; k <= K_MAX; k++)
+    {
+      int r = flog2pow10(-k) - 125;
+      BigInteger g;
+
+      if (k <= 0)
+      {
+        BigInteger p = BigInteger.TEN.pow(-k);
+
+        g = (r >= 0) ? p.shiftRight(r) : p.shiftLeft(-r);
+      }
+      else
+      {
+        g = BigInteger.ONE.shiftLeft(-r).divide(BigInteger.TEN.pow(k));
+      }
+
+      g = g.add(BigInteger.ONE);
+
+      int i = 2 * (k - K_MIN);
+
+      G[i] = g.shiftRight(63).longValue();
+      G[i + 1] = g.longValue() & MASK_63;
+    }
+  }
+
+  /**
+   * Not instantiated.
+   */
+  private DoubleToDecimal()
+  {
+  }
+
+  /**
+   * Convert a double to a string as XPath string() does.
+   *
+   * @param v The double.
+   *
+   * @return The string.
+   */
+  public static String toString(double v)
+  {
+    char[] buf = new char[24];
+    int n = toChars(v, buf, 0);
+
+    if (n < 0)
+    {
+      buf = new char[-n];
+      n = toChars(v, buf, 0);
+    }
+
+    return new String(buf, 0, n);
+  }
+
+  /**
+   * Append a double to a FastStringBuffer as XPath string() does.
+   *
+   * @param v The double.
+   * @param fsb The buffer.
+   */
+  public static void appendTo(double v, FastStringBuffer fsb)
+  {
+    char[] buf = new char[24];
+    int n = toChars(v, buf, 0);
+
+    if (n < 0)
+    {
+      buf = new char[-n];
+      n = toChars(v, buf, 0);
+    }
+
+    fsb.append(buf, 0, n);
+  }
+
+  /**
+   * Write a double into a character buffer as XPath string() does.
+   *
+   * @param v The double.
+   * @param buf The buffer.
+   * @param off Where to write in the buffer.
+   *
+   * @return The number of characters written or, if there is not enough
+   * room between off and the end of the buffer, minus the number of
+   * characters needed, in which case nothing is written.  No more than
+   * MAX_CHARS are ever needed.
+   */
+  public static int toChars(double v, char[] buf, int off)
+  {
+    long bits = Double.doubleToRawLongBits(v);
+    long t = bits & T_MASK;
+    int bq = (int) (bits >>> (P - 1)) & BQ_MASK;
+
+    if (bq == BQ_MASK)
+      return copy((t != 0) ? "NaN" : (bits > 0) ? "Infinity" : "-Infinity",
+                  buf, off);
+
+    long f;
+    int e;
+
+    if (bq != 0)
+    {
+      // A normal value: v = c 2^q
+      int mq = -Q_MIN + 1 - bq;
+      long c = C_MIN | t;
+      long fi = c >> mq;
+
+      if (0 < mq && mq < P && (fi << mq) == c)
+      {
+        // An integer below 2^53, which is its own shortest decimal.
+        f = fi;
+        e = 0;
+      }
+      else
+      {
+        f = toDecimal(-mq, c, 0);
+        e = exponent(-mq, c);
+      }
+    }
+    else if (t != 0)
+    {
+      // A subnormal value.
+      if (t < C_TINY)
+      {
+        f = toDecimal(Q_MIN, 10 * t, -1);
+        e = exponent(Q_MIN, 10 * t) - 1;
+      }
+      else
+      {
+        f = toDecimal(Q_MIN, t, 0);
+        e = exponent(Q_MIN, t);
+      }
+    }
+    else
+    {
+      // Positive or negative zero.
+      return copy("0", buf, off);
+    }
+
+    while (f % 10 == 0)
+    {
+      f /= 10;
+      e++;
+    }
+
+    int n = 1;
+
+    while (n < POW10.length && f >= POW10[n])
+      n++;
+
+    // v = f 10^e, and f has n digits.
+    int pointPos = n + e;
+    int len = (bits < 0) ? 1 : 0;
+
+    if (e >= 0)
+      len += n + e;
+    else if (pointPos > 0)
+      len += n + 1;
+    else
+      len += 2 - pointPos + n;
+
+    if (off + len > buf.length)
+      return -len;
+
+    int p = off;
+
+    if (bits < 0)
+      buf[p++] = '-';
+
+    if (e >= 0)
+    {
+      writeDigits(f, n, buf, p);
+      p += n;
+
+      for (int i = 0; i < e; i++)
+        buf[p++] = '0';
+    }
+    else if (pointPos > 0)
+    {
+      int i = p + n + 1;
+
+      for (int j = e; j < 0; j++)
+      {
+        buf[--i] = (char) ('0' + (int) (f % 10));
+        f /= 10;
+      }
+
+      buf[--i] = '.';
+      writeDigits(f, pointPos, buf, p);
+    }
+    else
+    {
+      buf[p++] = '0';
+      buf[p++] = '.';
+
+      for (int i = pointPos; i < 0; i++)
+        buf[p++] = '0';
+
+      writeDigits(f, n, buf, p);
+    }
+
+    return len;
+  }
+
+  /**
+   * Copy a constant string into a buffer.
+   *
+   * @param s The string.
+   * @param buf The buffer.
+   * @param off Where to write.
+   *
+   * @return As for toChars.
+   */
+  private static int copy(String s, char[] buf, int off)
+  {
+    int len = s.length();
+
+    if (off + len > buf.length)
+      return -len;
+
+    s.getChars(0, len, buf, off);
+
+    return len;
+  }
+
+  /**
+   * Write the n decimal digits of f.
+   *
+   * @param f A number with n digits.
+   * @param n The number of digits.
+   * @param buf The buffer.
+   * @param off Where to write the first digit.
+   */
+  private static void writeDigits(long f, int n, char[] buf, int off)
+  {
+    for (int i = off + n - 1; i >= off; i--)
+    {
+      buf[i] = (char) ('0' + (int) (f % 10));
+      f /= 10;
+    }
+  }
+
+  /**
+   * The decimal exponent of the significand returned by toDecimal.
+   *
+   * @param q The binary exponent.
+   * @param c The binary significand.
+   *
+   * @return k
+   */
+  private static int exponent(int q, long c)
+  {
+    return (c != C_MIN || q == Q_MIN) ? flog10pow2(q)
+                                       : flog10threeQuartersPow2(q);
+  }
+
+  /**
+   * Find the shortest decimal significand s, with v close to s 10^k,
+   * that rounds to v = c 2^q, choosing the closest one to v if there are
+   * several.
+   *
+   * @param q The binary exponent.
+   * @param c The binary significand.
+   * @param dk -1 if c was scaled by 10, else 0.
+   *
+   * @return The decimal significand, whose exponent is exponent(q, c) + dk.
+   */
+  private static long toDecimal(int q, long c, int dk)
+  {
+    int out = (int) c & 0x1;
+    long cb = c << 2;
+    long cbr = cb + 2;
+    long cbl;
+    int k;
+
+    // The rounding interval of v is narrower below powers of two.
+    if (c != C_MIN || q == Q_MIN)
+    {
+      cbl = cb - 2;
+      k = flog10pow2(q);
+    }
+    else
+    {
+      cbl = cb - 1;
+      k = flog10threeQuartersPow2(q);
+    }
+
+    int h = q + flog2pow10(-k) + 2;
+    int i = 2 * (k - K_MIN);
+    long g1 = G[i];
+    long g0 = G[i + 1];
+
+    long vb = rop(g1, g0, cb << h);
+    long vbl = rop(g1, g0, cbl << h);
+    long vbr = rop(g1, g0, cbr << h);
+
+    long s = vb >> 2;
+
+    if (s >= 100)
+    {
+      // Try one digit less first: sp10 = 10 floor(s / 10).
+      long sp10 = 10 * multiplyHigh(s, 115292150460684698L << 4);
+      long tp10 = sp10 + 10;
+      boolean upin = vbl + out <= sp10 << 2;
+      boolean wpin = (tp10 << 2) + out <= vbr;
+
+      if (upin != wpin)
+        return upin ? sp10 : tp10;
+    }
+
+    long t = s + 1;
+    boolean uin = vbl + out <= s << 2;
+    boolean win = (t << 2) + out <= vbr;
+
+    if (uin != win)
+      return uin ? s : t;
+
+    long cmp = vb - ((s + t) << 1);
+
+    return (cmp < 0 || (cmp == 0 && (s & 0x1) == 0)) ? s : t;
+  }
+
+  /**
+   * Round to odd the product of g = g1 2^63 + g0 and cp, divided by
+   * 2^127.
+   */
+  private static long rop(long g1, long g0, long cp)
+  {
+    long x1 = multiplyHigh(g0, cp);
+    long y0 = g1 * cp;
+    long y1 = multiplyHigh(g1, cp);
+    long z = (y0 >>> 1) + x1;
+    long vbp = y1 + (z >>> 63);
+
+    return vbp | (((z & MASK_63) + MASK_63) >>> 63);
+  }
+
+  /**
+   * The high 64 bits of the 128 bit product of two longs, as
+   * Math.multiplyHigh computes it in later JDKs.
+   */
+  private static long multiplyHigh(long x, long y)
+  {
+    long x1 = x >> 32;
+    long x2 = x & 0xFFFFFFFFL;
+    long y1 = y >> 32;
+    long y2 = y & 0xFFFFFFFFL;
+    long z2 = x2 * y2;
+    long t = x1 * y2 + (z2 >>> 32);
+    long z1 = t & 0xFFFFFFFFL;
+    long z0 = t >> 32;
+
+    z1 += x2 * y1;
+
+    return x1 * y1 + z0 + (z1 >> 32);
+  }
+
+  /**
+   * floor(e log10(2)), for |e| <= 5456721.
+   */
+  private static int flog10pow2(int e)
+  {
+    return (int) (e * 661971961083L >> 41);
+  }
+
+  /**
+   * floor(e log10(3/4 2)), for |e| <= 5456721.
+   */
+  private static int flog10threeQuartersPow2(int e)
+  {
+    return (int) (e * 661971961083L + -274743187321L >> 41);
+  }
+
+  /**
+   * floor(e log2(10)), for |e| <= 1838394.
+   */
+  private static int flog2pow10(int e)
+  {
+    return (int) (e * 913124641741L >> 38);
+  }
+}
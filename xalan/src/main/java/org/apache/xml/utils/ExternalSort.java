@@ -0,0 +1,484 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+import javax.xml.transform.TransformerException;
+
+/**
+ * Sorts nodes on keys that may not fit in memory all at once.  The keys
+ * are extracted a run of nodes at a time, each run holding about as many
+ * keys as fit in a memory budget.  Every run is sorted with
+ * {@link SortKeyTable} and written to a temporary file, and the runs are
+ * then merged into the final order.  Only the node handles themselves,
+ * and one row of keys per run, are in memory during the merge.
+ *
+ * <p>Comparable keys, which are used for strings with a case order, are
+ * written to a run as the strings they were made from, and made again
+ * by the {@link KeyExtractor} as the runs are merged.</p>
+ * @xsl.usage internal
+ */
+public final class ExternalSort
+{
+
+  /**
+   * Extracts the sort keys of a range of nodes.
+   */
+  public interface KeyExtractor
+  {
+
+    /**
+     * Extract the sort keys of some nodes.
+     *
+     * @param nodes The nodes being sorted.
+     * @param from The index of the first node of the range.
+     * @param count The number of nodes in the range.
+     *
+     * @return A table whose row i holds the keys of nodes[from + i].
+     *
+     * @throws TransformerException
+     */
+    SortKeyTable extractKeys(int[] nodes, int from, int count)
+            throws TransformerException;
+
+    /**
+     * Get the string a Comparable key was made from.
+     *
+     * @param level The level of the key.
+     * @param key A key of a table returned by extractKeys().
+     *
+     * @return The string.
+     */
+    String getKeyString(int level, Comparable key);
+
+    /**
+     * Make a Comparable key again from its string.
+     *
+     * @param level The level of the key.
+     * @param value A string returned by getKeyString().
+     *
+     * @return A key that compares as the original key.
+     */
+    Comparable makeKey(int level, String value);
+  }
+
+  /** The fewest nodes in a run, however small the budget. */
+  private static final int MIN_RUN_SIZE = 1024;
+
+  /** The most runs merged at once, to bound the number of open files. */
+  private static final int MAX_RUNS = 512;
+
+  /** The estimated memory used by one sort key of one node. */
+  private static final int ESTIMATED_KEY_SIZE = 48;
+
+  /** Size of the buffer of each run file. */
+  private static final int BUFFER_SIZE = 8192;
+
+  private ExternalSort()
+  {
+  }
+
+  /**
+   * Sort nodes, in place.
+   *
+   * @param nodes The nodes to sort.
+   * @param count The number of nodes.
+   * @param levels The number of sort keys of each node.
+   * @param memoryBudget The number of bytes the keys of a run may use.
+   * @param extractor The object that extracts the keys.
+   *
+   * @throws TransformerException if the keys cannot be extracted or the
+   * runs cannot be written to disk.
+   */
+  public static void sort(int[] nodes, int count, int levels,
+                          long memoryBudget, KeyExtractor extractor)
+          throws TransformerException
+  {
+    long rowSize = 16 + (long) ESTIMATED_KEY_SIZE * levels;
+    int runSize = runSize(count, memoryBudget / rowSize);
+    Vector runs = new Vector();
+
+    try
+    {
+      for (int from = 0; from < count; )
+      {
+        int n = Math.min(runSize, count - from);
+        SortKeyTable table = extractor.extractKeys(nodes, from, n);
+
+        if (n == count)
+        {
+          sortInMemory(nodes, table);
+
+          return;
+        }
+
+        runs.addElement(writeRun(nodes, from, table, extractor));
+
+        // Size the next run on the memory actually used by this one.
+        long used = Math.max(1, table.getMemoryEstimate());
+
+        runSize = runSize(count, (long) ((double) n * memoryBudget / used));
+        from += n;
+      }
+
+      merge(nodes, runs, levels, extractor);
+    }
+    catch (IOException ioe)
+    {
+      throw new TransformerException(ioe);
+    }
+    finally
+    {
+      for (int i = 0; i < runs.size(); i++)
+        ((Run) runs.elementAt(i)).delete();
+    }
+  }
+
+  /**
+   * Get the size of a run.
+   *
+   * @param count The number of nodes to sort.
+   * @param fit The number of nodes whose keys fit in the budget.
+   *
+   * @return The number of nodes in a run.
+   */
+  private static int runSize(int count, long fit)
+  {
+    long min = Math.max(MIN_RUN_SIZE, (count + MAX_RUNS - 1) / MAX_RUNS);
+
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(min, fit));
+  }
+
+  /**
+   * Sort all the nodes with a table of all their keys.
+   *
+   * @param nodes The nodes.
+   * @param table The table.
+   */
+  private static void sortInMemory(int[] nodes, SortKeyTable table)
+  {
+    int n = table.size();
+    int[] order = table.sort();
+    int[] sorted = new int[n];
+
+    for (int i = 0; i < n; i++)
+      sorted[i] = nodes[order[i]];
+
+    System.arraycopy(sorted, 0, nodes, 0, n);
+  }
+
+  /**
+   * Sort a run and write it to a temporary file.  Each record holds the
+   * node, its tie breaking value and its keys.
+   *
+   * @param nodes The nodes.
+   * @param from The index of the first node of the run.
+   * @param table The keys of the nodes of the run.
+   * @param extractor The object that extracted the keys.
+   *
+   * @return The run.
+   *
+   * @throws IOException
+   */
+  private static Run writeRun(int[] nodes, int from, SortKeyTable table,
+                              KeyExtractor extractor)
+          throws IOException
+  {
+    int[] order = table.sort();
+    int levels = table.getLevels();
+    boolean ties = table.hasTies();
+    Run run = new Run(File.createTempFile("xalan-sort", ".run"), table);
+    DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(run.m_file),
+                               BUFFER_SIZE));
+
+    try
+    {
+      for (int i = 0; i < order.length; i++)
+      {
+        int row = order[i];
+
+        out.writeInt(nodes[from + row]);
+
+        // Without tie breaking values, rows keep the order of the nodes.
+        out.writeInt(ties ? table.getTie(row) : from + row);
+
+        for (int level = 0; level < levels; level++)
+        {
+          switch (table.getType(level))
+          {
+          case SortKeyTable.TYPE_NUMBER :
+            out.writeLong(table.getNumberKey(level, row));
+            break;
+          case SortKeyTable.TYPE_BYTES :
+          {
+            byte[] key = table.getBytesKey(level, row);
+
+            out.writeInt(key.length);
+            out.write(key);
+            break;
+          }
+          default :
+          {
+            String key = extractor.getKeyString(level,
+                                                table.getObjectKey(level, row));
+
+            out.writeInt(key.length());
+            out.writeChars(key);
+          }
+          }
+        }
+      }
+    }
+    catch (IOException ioe)
+    {
+      try
+      {
+        out.close();
+      }
+      catch (IOException ignored) {}
+
+      run.delete();
+
+      throw ioe;
+    }
+
+    out.close();
+
+    return run;
+  }
+
+  /**
+   * Merge the runs into the nodes array.
+   *
+   * @param nodes The array to merge into.
+   * @param runs The sorted runs.
+   * @param levels The number of sort keys of each node.
+   * @param extractor The object that extracted the keys.
+   *
+   * @throws IOException
+   */
+  private static void merge(int[] nodes, Vector runs, int levels,
+                            KeyExtractor extractor)
+          throws IOException
+  {
+    int k = runs.size();
+
+    // Row r of the table holds the current record of run r.
+    SortKeyTable heads = new SortKeyTable(k, levels);
+    Run first = (Run) runs.elementAt(0);
+
+    for (int level = 0; level < levels; level++)
+      heads.setLevel(level, first.m_types[level], first.m_descending[level]);
+
+    int[] heap = new int[k];
+    int heapSize = 0;
+
+    for (int r = 0; r < k; r++)
+    {
+      Run run = (Run) runs.elementAt(r);
+
+      run.open();
+
+      if (run.next(heads, r, extractor))
+        heap[heapSize++] = r;
+    }
+
+    for (int i = heapSize / 2 - 1; i >= 0; i--)
+      siftDown(heads, heap, heapSize, i);
+
+    for (int i = 0; heapSize > 0; i++)
+    {
+      int r = heap[0];
+      Run run = (Run) runs.elementAt(r);
+
+      nodes[i] = run.m_node;
+
+      if (!run.next(heads, r, extractor))
+        heap[0] = heap[--heapSize];
+
+      siftDown(heads, heap, heapSize, 0);
+    }
+  }
+
+  /**
+   * Restore the heap property below a position of the heap.
+   *
+   * @param heads The current records of the runs.
+   * @param heap The heap of run numbers.
+   * @param size The size of the heap.
+   * @param i The position.
+   */
+  private static void siftDown(SortKeyTable heads, int[] heap, int size,
+                               int i)
+  {
+    int r = heap[i];
+
+    for (int child = 2 * i + 1; child < size; child = 2 * i + 1)
+    {
+      if (child + 1 < size
+          && heads.compare(heap[child + 1], heap[child]) < 0)
+        child++;
+
+      if (heads.compare(r, heap[child]) <= 0)
+        break;
+
+      heap[i] = heap[child];
+      i = child;
+    }
+
+    heap[i] = r;
+  }
+
+  /**
+   * A sorted run in a temporary file.
+   */
+  private static final class Run
+  {
+
+    /** The file. */
+    final File m_file;
+
+    /** The number of records not yet read. */
+    int m_remaining;
+
+    /** The key type of each level. */
+    final int[] m_types;
+
+    /** The direction of each level. */
+    final boolean[] m_descending;
+
+    /** The node of the last record read. */
+    int m_node;
+
+    /** The stream the run is read from, or null if not open. */
+    private DataInputStream m_in;
+
+    /**
+     * Construct a run.
+     *
+     * @param file The file.
+     * @param table The keys of the nodes of the run.
+     */
+    Run(File file, SortKeyTable table)
+    {
+      int levels = table.getLevels();
+
+      m_file = file;
+      m_remaining = table.size();
+      m_types = new int[levels];
+      m_descending = new boolean[levels];
+
+      for (int level = 0; level < levels; level++)
+      {
+        m_types[level] = table.getType(level);
+        m_descending[level] = table.isDescending(level);
+      }
+    }
+
+    /**
+     * Open the file for reading.
+     *
+     * @throws IOException
+     */
+    void open() throws IOException
+    {
+      m_in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(m_file), BUFFER_SIZE));
+    }
+
+    /**
+     * Read the next record into a row of a table.
+     *
+     * @param heads The table.
+     * @param row The row.
+     * @param extractor The object that makes Comparable keys.
+     *
+     * @return false if the run is exhausted.
+     *
+     * @throws IOException
+     */
+    boolean next(SortKeyTable heads, int row, KeyExtractor extractor)
+            throws IOException
+    {
+      if (0 == m_remaining)
+        return false;
+
+      m_remaining--;
+      m_node = m_in.readInt();
+      heads.setTie(row, m_in.readInt());
+
+      for (int level = 0; level < m_types.length; level++)
+      {
+        switch (m_types[level])
+        {
+        case SortKeyTable.TYPE_NUMBER :
+          heads.setKey(level, row, m_in.readLong());
+          break;
+        case SortKeyTable.TYPE_BYTES :
+        {
+          byte[] key = new byte[m_in.readInt()];
+
+          m_in.readFully(key);
+          heads.setKey(level, row, key);
+          break;
+        }
+        default :
+        {
+          char[] key = new char[m_in.readInt()];
+
+          for (int i = 0; i < key.length; i++)
+            key[i] = m_in.readChar();
+
+          heads.setKey(level, row, extractor.makeKey(level, new String(key)));
+        }
+        }
+      }
+
+      return true;
+    }
+
+    /**
+     * Close and delete the file.
+     */
+    void delete()
+    {
+      try
+      {
+        if (null != m_in)
+          m_in.close();
+      }
+      catch (IOException ioe) {}
+
+      m_in = null;
+      m_file.delete();
+    }
+  }
+}
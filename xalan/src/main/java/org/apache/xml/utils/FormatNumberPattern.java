@@ -0,0 +1,831 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.utils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A format-number() pattern, compiled once for a set of decimal format
+ * symbols.  It formats numbers exactly as a java.text.DecimalFormat to
+ * which the localized pattern had been applied, but it keeps no state
+ * between calls, so one compiled pattern can be shared by any number of
+ * threads, and it does not go through DecimalFormat to format a number.
+ * The digits are laid out in buffers kept by each thread, so only the
+ * resulting String is created for most numbers.
+ *
+ * <p>Patterns with an exponent or a currency sign, and patterns that
+ * DecimalFormat rejects, are left to a DecimalFormat, which is cloned
+ * for each call.</p>
+ * @xsl.usage internal
+ */
+public final class FormatNumberPattern
+{
+
+  /** The largest number of fraction digits DecimalFormat shows for a double. */
+  private static final int DOUBLE_FRACTION_DIGITS = 340;
+
+  /** The largest number of integer digits DecimalFormat shows for a double. */
+  private static final int DOUBLE_INTEGER_DIGITS = 309;
+
+  /** The currency sign, which is not supported by the compiled form. */
+  private static final char CURRENCY_SIGN = '\u00A4';
+
+  /** The quote of pattern affixes. */
+  private static final char QUOTE = '\'';
+
+  /**
+   * Numbers from Double.MIN_NORMAL up to this get their digits from
+   * DoubleToDecimal, whose shortest digits are the same as those of
+   * Double.toString() in that range.  Double.toString() writes the exact
+   * digits of larger integers.
+   */
+  private static final double SHORTEST_DIGITS_LIMIT = 9007199254740992.0;
+
+  /** The powers of five that fit in a long. */
+  private static final long[] POW5 = new long[28];
+
+  static
+  {
+    POW5[0] = 1;
+
+    for (int i = 1; i < POW5.length; i++)
+      POW5[i] = 5 * POW5[i - 1];
+  }
+
+  /** The Buffers of each thread. */
+  private static final ThreadLocal s_buffers = new ThreadLocal();
+
+  /** The prefix of positive numbers. */
+  private String m_posPrefix;
+
+  /** The suffix of positive numbers. */
+  private String m_posSuffix;
+
+  /** The prefix of negative numbers. */
+  private String m_negPrefix;
+
+  /** The suffix of negative numbers. */
+  private String m_negSuffix;
+
+  /** 100 for percent, 1000 for per mille, or 1. */
+  private int m_multiplier = 1;
+
+  /** The minimum number of integer digits. */
+  private int m_minInt;
+
+  /** The minimum number of fraction digits. */
+  private int m_minFrac;
+
+  /** The maximum number of fraction digits. */
+  private int m_maxFrac;
+
+  /** The number of digits in a group, or 0 if digits are not grouped. */
+  private int m_groupingSize;
+
+  /** true to show the decimal separator of integers. */
+  private boolean m_decimalAlwaysShown;
+
+  /** The symbols used to write numbers. */
+  private char m_zero;
+  private char m_grouping;
+  private char m_decimal;
+  private String m_nan;
+  private String m_infinity;
+
+  /** The formatter of patterns that are not compiled, or null. */
+  private DecimalFormat m_fallback = null;
+
+  /** Why the pattern is malformed, or null. */
+  private IllegalArgumentException m_error = null;
+
+  /**
+   * Use {@link #compile}.
+   */
+  private FormatNumberPattern()
+  {
+  }
+
+  /**
+   * Compile a localized format-number() pattern.  A malformed pattern
+   * does not fail here, but every call to {@link #format}.
+   *
+   * @param pattern The pattern, written with the symbols.
+   * @param symbols The decimal format symbols, which must not be changed
+   *                afterwards.
+   *
+   * @return The compiled pattern.
+   */
+  public static FormatNumberPattern compile(String pattern,
+                                            DecimalFormatSymbols symbols)
+  {
+    FormatNumberPattern compiled = new FormatNumberPattern();
+
+    if (!compiled.parse(pattern, symbols))
+    {
+      try
+      {
+        DecimalFormat formatter = new DecimalFormat();
+
+        formatter.setDecimalFormatSymbols(symbols);
+        formatter.applyLocalizedPattern(pattern);
+
+        compiled.m_fallback = formatter;
+      }
+      catch (IllegalArgumentException iae)
+      {
+        compiled.m_error = iae;
+      }
+    }
+
+    return compiled;
+  }
+
+  /**
+   * Format a number.
+   *
+   * @param number The number.
+   *
+   * @return The formatted number.
+   *
+   * @throws IllegalArgumentException if the pattern is malformed.
+   */
+  public String format(double number)
+  {
+    if (null != m_error)
+      throw new IllegalArgumentException(m_error.getMessage());
+
+    if (null != m_fallback)
+      return ((DecimalFormat) m_fallback.clone()).format(number);
+
+    if (Double.isNaN(number))
+      return m_nan;
+
+    boolean negative = (number < 0.0) || (number == 0.0 && 1 / number < 0.0);
+
+    if (m_multiplier != 1)
+      number *= m_multiplier;
+
+    String prefix = negative ? m_negPrefix : m_posPrefix;
+    String suffix = negative ? m_negSuffix : m_posSuffix;
+
+    if (Double.isInfinite(number))
+      return prefix + m_infinity + suffix;
+
+    if (negative)
+      number = -number;
+
+    Buffers buffers = (Buffers) s_buffers.get();
+
+    if (null == buffers)
+    {
+      buffers = new Buffers();
+      s_buffers.set(buffers);
+    }
+
+    // The significant digits of the number, as Double.toString() finds
+    // them, and the position of the decimal point: the number is
+    // 0.digits * 10^decimalAt.
+    char[] text = buffers.m_text;
+    int length;
+
+    if (number == 0.0
+        || (number >= Double.MIN_NORMAL && number < SHORTEST_DIGITS_LIMIT))
+      length = DoubleToDecimal.toChars(number, text, 0);
+    else
+    {
+      String str = Double.toString(number);
+
+      length = str.length();
+      str.getChars(0, length, text, 0);
+    }
+
+    int exponent = 0;
+
+    for (int i = 0; i < length; i++)
+    {
+      if (text[i] == 'E')
+      {
+        boolean negativeExponent = text[i + 1] == '-';
+
+        for (int j = negativeExponent ? i + 2 : i + 1; j < length; j++)
+          exponent = 10 * exponent + (text[j] - '0');
+
+        if (negativeExponent)
+          exponent = -exponent;
+
+        length = i;
+      }
+    }
+
+    char[] digits = buffers.m_digits;
+    int count = 0;
+    int decimalAt = exponent;
+    boolean point = false;
+
+    for (int i = 0; i < length; i++)
+    {
+      char c = text[i];
+
+      if (c == '.')
+        point = true;
+      else if (c != '0' || count > 0)
+      {
+        digits[count++] = c;
+
+        if (!point)
+          decimalAt++;
+      }
+      else if (point)
+        decimalAt--;
+    }
+
+    while (count > 0 && digits[count - 1] == '0')
+      count--;
+
+    // Round half even to the maximum number of fraction digits.
+    int keep = decimalAt + m_maxFrac;
+
+    if (count > keep)
+    {
+      boolean up;
+
+      if (keep < 0)
+        up = false;
+      else if (digits[keep] != '5')
+        up = digits[keep] > '5';
+      else if (count > keep + 1)
+        up = true;
+      else if (keep == 0 && decimalAt <= -3)
+      {
+        // Double.toString() writes numbers below 10^-3 with an exponent.
+        // DecimalFormat rounds 5.0E-4 to three fraction digits before it
+        // drops the trailing zero of "5.0", and so rounds it down.
+        up = false;
+      }
+      else
+      {
+        // The digits end in a tie, but they are only the shortest
+        // decimal that reads back as the number: round the exact value.
+        int cmp = compareExact(number, digits, count, decimalAt);
+
+        up = cmp > 0
+             || (cmp == 0 && keep > 0 && ((digits[keep - 1] - '0') & 1) != 0);
+      }
+
+      count = Math.max(keep, 0);
+
+      if (up)
+      {
+        int i = count - 1;
+
+        while (i >= 0 && digits[i] == '9')
+          i--;
+
+        if (i < 0)
+        {
+          digits[0] = '1';
+          count = 1;
+          decimalAt++;
+        }
+        else
+        {
+          digits[i]++;
+          count = i + 1;
+        }
+      }
+
+      while (count > 0 && digits[count - 1] == '0')
+        count--;
+    }
+
+    if (count == 0)
+      decimalAt = 0;
+
+    // Lay the digits out as DecimalFormat does.
+    int intCount = Math.max(m_minInt, decimalAt);
+    int fracCount = Math.max(m_minFrac, count + Math.max(0, -decimalAt));
+    int size = prefix.length() + suffix.length() + intCount
+               + (m_groupingSize > 0 ? intCount / m_groupingSize : 0)
+               + 2 + fracCount;
+
+    if (buffers.m_chars.length < size)
+      buffers.m_chars = new char[size];
+
+    char[] buf = buffers.m_chars;
+    int pos = 0;
+    int digitIndex = 0;
+
+    prefix.getChars(0, prefix.length(), buf, pos);
+    pos += prefix.length();
+
+    int intStart = pos;
+
+    for (int i = intCount - 1; i >= 0; i--)
+    {
+      if (i < decimalAt && digitIndex < count)
+        buf[pos++] = (char) (m_zero + (digits[digitIndex++] - '0'));
+      else
+        buf[pos++] = m_zero;
+
+      if (m_groupingSize > 0 && i > 0 && (i % m_groupingSize) == 0)
+        buf[pos++] = m_grouping;
+    }
+
+    boolean fractionPresent = (m_minFrac > 0) || (digitIndex < count);
+
+    if (!fractionPresent && pos == intStart)
+      buf[pos++] = m_zero;
+
+    if (m_decimalAlwaysShown || fractionPresent)
+      buf[pos++] = m_decimal;
+
+    for (int i = 0; i < m_maxFrac; i++)
+    {
+      if (i >= m_minFrac && digitIndex >= count)
+        break;
+
+      if (-1 - i > decimalAt - 1 || digitIndex >= count)
+        buf[pos++] = m_zero;
+      else
+        buf[pos++] = (char) (m_zero + (digits[digitIndex++] - '0'));
+    }
+
+    suffix.getChars(0, suffix.length(), buf, pos);
+    pos += suffix.length();
+
+    return new String(buf, 0, pos);
+  }
+
+  /**
+   * Compare a positive number with a decimal exactly.
+   *
+   * @param number The number.
+   * @param digits The significant digits of the decimal.
+   * @param count The number of digits.
+   * @param decimalAt The position of the decimal point in the digits,
+   *                  which must be less than count.
+   *
+   * @return A negative number, zero, or a positive number as the number
+   * is less than, equal to, or greater than the decimal.
+   */
+  private static int compareExact(double number, char[] digits, int count,
+                                  int decimalAt)
+  {
+    // The decimal is q 10^-p, and a normal number is m 2^e.
+    int p = count - decimalAt;
+
+    if (count <= 18 && p < POW5.length && number >= Double.MIN_NORMAL)
+    {
+      long q = 0;
+
+      for (int i = 0; i < count; i++)
+        q = 10 * q + (digits[i] - '0');
+
+      long bits = Double.doubleToLongBits(number);
+      long m = (bits & 0xFFFFFFFFFFFFFL) | (1L << 52);
+      int e = (int) (bits >>> 52) - 1075;
+      int zeros = Long.numberOfTrailingZeros(m);
+
+      m >>= zeros;
+      e += zeros;
+
+      // Compare m 5^p 2^(e + p) with q, unless m 5^p overflows.
+      if (m <= Long.MAX_VALUE / POW5[p])
+      {
+        long n = m * POW5[p];
+        int shift = e + p;
+
+        if (shift >= 0)
+        {
+          if (shift >= 63 || n > (Long.MAX_VALUE >> shift))
+            return 1;
+
+          n <<= shift;
+        }
+        else
+        {
+          if (-shift >= 63 || q > (Long.MAX_VALUE >> -shift))
+            return -1;
+
+          q <<= -shift;
+        }
+
+        return (n < q) ? -1 : (n > q) ? 1 : 0;
+      }
+    }
+
+    return new BigDecimal(number).compareTo(
+      new BigDecimal(new BigInteger(new String(digits, 0, count)), p));
+  }
+
+  /**
+   * Parse a localized pattern the way DecimalFormat.applyLocalizedPattern
+   * does.
+   *
+   * @param pattern The pattern.
+   * @param symbols The symbols.
+   *
+   * @return false if the pattern must be left to a DecimalFormat, because
+   * it uses features that are not compiled, or may be malformed.
+   */
+  private boolean parse(String pattern, DecimalFormatSymbols symbols)
+  {
+    char zeroDigit = symbols.getZeroDigit();
+    char digit = symbols.getDigit();
+    char groupingSeparator = symbols.getGroupingSeparator();
+    char decimalSeparator = symbols.getDecimalSeparator();
+    char percent = symbols.getPercent();
+    char perMill = symbols.getPerMill();
+    char minus = symbols.getMinusSign();
+    char separator = symbols.getPatternSeparator();
+    String exponent = symbols.getExponentSeparator();
+    int length = pattern.length();
+
+    if (length == 0)
+      return false;
+
+    String[] affixes = new String[4];
+    int start = 0;
+
+    // The positive subpattern, then the negative one, if any.
+    for (int part = 0; part < 2 && start >= 0; part++)
+    {
+      StringBuffer prefix = new StringBuffer();
+      StringBuffer suffix = new StringBuffer();
+      StringBuffer affix = prefix;
+      int phase = 0;
+      boolean inQuote = false;
+      int multiplier = 1;
+      int digitLeftCount = 0;
+      int zeroDigitCount = 0;
+      int digitRightCount = 0;
+      int groupingCount = -1;
+      int decimalPos = -1;
+      int pos = start;
+
+      start = -1;
+
+      for (; pos < length; pos++)
+      {
+        char ch = pattern.charAt(pos);
+
+        if (phase == 1)
+        {
+          if (ch == digit)
+          {
+            if (zeroDigitCount > 0)
+              digitRightCount++;
+            else
+              digitLeftCount++;
+
+            if (groupingCount >= 0 && decimalPos < 0)
+              groupingCount++;
+          }
+          else if (ch == zeroDigit)
+          {
+            if (digitRightCount > 0)
+              return false;
+
+            zeroDigitCount++;
+
+            if (groupingCount >= 0 && decimalPos < 0)
+              groupingCount++;
+          }
+          else if (ch == groupingSeparator)
+          {
+            groupingCount = 0;
+          }
+          else if (ch == decimalSeparator)
+          {
+            if (decimalPos >= 0)
+              return false;
+
+            decimalPos = digitLeftCount + zeroDigitCount + digitRightCount;
+          }
+          else if (pattern.regionMatches(pos, exponent, 0, exponent.length()))
+          {
+            return false;
+          }
+          else
+          {
+            phase = 2;
+            affix = suffix;
+            pos--;
+          }
+
+          continue;
+        }
+
+        if (inQuote)
+        {
+          if (ch == QUOTE)
+          {
+            if (pos + 1 < length && pattern.charAt(pos + 1) == QUOTE)
+            {
+              pos++;
+              affix.append("''");
+            }
+            else
+              inQuote = false;
+
+            continue;
+          }
+        }
+        else if (ch == digit || ch == zeroDigit
+                 || ch == groupingSeparator || ch == decimalSeparator)
+        {
+          if (phase == 2)
+            return false;
+
+          phase = 1;
+          pos--;
+
+          continue;
+        }
+        else if (ch == CURRENCY_SIGN)
+        {
+          return false;
+        }
+        else if (ch == QUOTE)
+        {
+          if (pos + 1 < length && pattern.charAt(pos + 1) == QUOTE)
+          {
+            pos++;
+            affix.append("''");
+          }
+          else
+            inQuote = true;
+
+          continue;
+        }
+        else if (ch == separator)
+        {
+          if (phase == 0 || part == 1)
+            return false;
+
+          start = pos + 1;
+
+          break;
+        }
+        else if (ch == percent)
+        {
+          if (multiplier != 1)
+            return false;
+
+          multiplier = 100;
+          affix.append("'%");
+
+          continue;
+        }
+        else if (ch == perMill)
+        {
+          if (multiplier != 1)
+            return false;
+
+          multiplier = 1000;
+          affix.append("'\u2030");
+
+          continue;
+        }
+        else if (ch == minus)
+        {
+          affix.append("'-");
+
+          continue;
+        }
+
+        if (ch == QUOTE)
+          affix.append("''");
+        else
+          affix.append(ch);
+      }
+
+      if (phase == 0 || inQuote)
+        return false;
+
+      // Handle patterns with no '0' pattern character, "##.###" is
+      // "#0.###".
+      if (zeroDigitCount == 0 && digitLeftCount > 0 && decimalPos >= 0)
+      {
+        int n = decimalPos;
+
+        if (n == 0)
+          n++;
+
+        digitRightCount = digitLeftCount - n;
+        digitLeftCount = n - 1;
+        zeroDigitCount = 1;
+      }
+
+      int digitTotalCount = digitLeftCount + zeroDigitCount + digitRightCount;
+
+      if ((decimalPos < 0 && digitRightCount > 0)
+          || (decimalPos >= 0 && (decimalPos < digitLeftCount
+                                  || decimalPos > digitLeftCount + zeroDigitCount))
+          || groupingCount == 0 || digitTotalCount == 0
+          || groupingCount > Byte.MAX_VALUE)
+        return false;
+
+      affixes[2 * part] = prefix.toString();
+      affixes[2 * part + 1] = suffix.toString();
+
+      if (part == 0)
+      {
+        int effectiveDecimalPos = decimalPos >= 0 ? decimalPos : digitTotalCount;
+
+        m_minInt = effectiveDecimalPos - digitLeftCount;
+        m_maxFrac = decimalPos >= 0 ? (digitTotalCount - decimalPos) : 0;
+        m_minFrac = decimalPos >= 0
+                    ? (digitLeftCount + zeroDigitCount - decimalPos) : 0;
+        m_groupingSize = groupingCount > 0 ? groupingCount : 0;
+        m_multiplier = multiplier;
+        m_decimalAlwaysShown = decimalPos == 0 || decimalPos == digitTotalCount;
+      }
+    }
+
+    if (m_minInt > DOUBLE_INTEGER_DIGITS || m_maxFrac > DOUBLE_FRACTION_DIGITS)
+      return false;
+
+    // Without a negative subpattern, or with one that is the same as the
+    // positive one, negative numbers get a minus sign before the prefix.
+    if (null == affixes[2]
+        || (affixes[2].equals(affixes[0]) && affixes[3].equals(affixes[1])))
+    {
+      affixes[2] = "'-" + affixes[0];
+      affixes[3] = affixes[1];
+    }
+
+    m_posPrefix = expandAffix(affixes[0], symbols);
+    m_posSuffix = expandAffix(affixes[1], symbols);
+    m_negPrefix = expandAffix(affixes[2], symbols);
+    m_negSuffix = expandAffix(affixes[3], symbols);
+    m_zero = zeroDigit;
+    m_grouping = groupingSeparator;
+    m_decimal = decimalSeparator;
+    m_nan = symbols.getNaN();
+    m_infinity = symbols.getInfinity();
+
+    return true;
+  }
+
+  /**
+   * Replace the quoted special characters of a parsed affix with the
+   * symbols.
+   *
+   * @param affix The affix.
+   * @param symbols The symbols.
+   *
+   * @return The text of the affix.
+   */
+  private static String expandAffix(String affix, DecimalFormatSymbols symbols)
+  {
+    StringBuffer buffer = new StringBuffer(affix.length());
+
+    for (int i = 0; i < affix.length(); i++)
+    {
+      char c = affix.charAt(i);
+
+      if (c == QUOTE)
+      {
+        c = affix.charAt(++i);
+
+        if (c == '%')
+          c = symbols.getPercent();
+        else if (c == '\u2030')
+          c = symbols.getPerMill();
+        else if (c == '-')
+          c = symbols.getMinusSign();
+      }
+
+      buffer.append(c);
+    }
+
+    return buffer.toString();
+  }
+
+  /**
+   * The compiled patterns of a stylesheet, by pattern and decimal
+   * format symbols.  It is safe to use from several threads at once.
+   * Patterns are usually literals in the stylesheet, but they can be
+   * computed, so the cache starts over once it holds MAX_SIZE patterns.
+   */
+  public static final class Cache
+  {
+
+    /** The number of patterns kept. */
+    private static final int MAX_SIZE = 1024;
+
+    /** The patterns, by Key. */
+    private final ConcurrentHashMap m_patterns = new ConcurrentHashMap();
+
+    /**
+     * Get the compiled form of a pattern, compiling it if needed.
+     *
+     * @param pattern The pattern.
+     * @param symbols The symbols, which are compared by identity.
+     *
+     * @return The compiled pattern.
+     */
+    public FormatNumberPattern get(String pattern, DecimalFormatSymbols symbols)
+    {
+      Key key = new Key(pattern, symbols);
+      FormatNumberPattern compiled = (FormatNumberPattern) m_patterns.get(key);
+
+      if (null == compiled)
+      {
+        compiled = compile(pattern, symbols);
+
+        if (m_patterns.size() >= MAX_SIZE)
+          m_patterns.clear();
+
+        m_patterns.put(key, compiled);
+      }
+
+      return compiled;
+    }
+  }
+
+  /**
+   * The buffers a thread formats numbers in.
+   */
+  private static final class Buffers
+  {
+
+    /** The characters of the number to format, without a sign. */
+    final char[] m_text = new char[DoubleToDecimal.MAX_CHARS];
+
+    /** The significant digits of the number. */
+    final char[] m_digits = new char[DoubleToDecimal.MAX_CHARS];
+
+    /** The formatted number, grown as needed. */
+    char[] m_chars = new char[64];
+  }
+
+  /**
+   * A pattern and the symbols it is compiled with.
+   */
+  private static final class Key
+  {
+
+    /** The pattern. */
+    private final String m_pattern;
+
+    /** The symbols. */
+    private final DecimalFormatSymbols m_symbols;
+
+    /**
+     * @param pattern The pattern.
+     * @param symbols The symbols.
+     */
+    Key(String pattern, DecimalFormatSymbols symbols)
+    {
+      m_pattern = pattern;
+      m_symbols = symbols;
+    }
+
+    /**
+     * @return The hash code of the pattern and the identity of the symbols.
+     */
+    public int hashCode()
+    {
+      return m_pattern.hashCode() * 31 + System.identityHashCode(m_symbols);
+    }
+
+    /**
+     * @param o Another key.
+     *
+     * @return true if the pattern is equal and the symbols are the same.
+     */
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Key))
+        return false;
+
+      Key other = (Key) o;
+
+      return other.m_symbols == m_symbols && other.m_pattern.equals(m_pattern);
+    }
+  }
+}
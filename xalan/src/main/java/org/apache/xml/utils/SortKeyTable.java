@@ -0,0 +1,816 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xml.utils;
+
+import java.text.Collator;
+import java.text.RuleBasedCollator;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A table of sort keys, stored by column, used by both the interpretive
+ * processor and XSLTC to implement xsl:sort.  The keys of every row are
+ * extracted once, up front, into primitive arrays: numbers are encoded
+ * as longs and strings as collation key bytes, so comparing two rows
+ * neither allocates nor goes back to the tree.  Sorting produces a
+ * permutation of the row numbers with a stable merge sort.
+ *
+ * <p>Keys that cannot be reduced to a primitive, such as strings
+ * compared with a case order, are kept as Comparable objects.</p>
+ *
+ * <p>String values are collated a chunk of rows at a time, so only the
+ * strings of the chunks not yet collated are held.  Tables with at least
+ * {@link #getParallelThreshold} rows collate each chunk on the common
+ * fork/join pool while the caller extracts the values of the next one,
+ * and sort on the pool as well.  The tasks only read the table and the
+ * strings handed to it, and collate with their own clone of the
+ * Collator, so the tree and the XPath or translet state are still only
+ * used by the calling thread.</p>
+ * @xsl.usage internal
+ */
+public final class SortKeyTable
+{
+
+  /** Key type for numbers encoded with {@link #numberKey}. */
+  public static final int TYPE_NUMBER = 0;
+
+  /** Key type for collation key bytes. */
+  public static final int TYPE_BYTES = 1;
+
+  /** Key type for Comparable objects. */
+  public static final int TYPE_OBJECT = 2;
+
+  /** Runs shorter than this are sorted by insertion. */
+  private static final int INSERTION_SORT_THRESHOLD = 7;
+
+  /**
+   * The system property that sets the number of rows from which a table
+   * is collated and sorted in parallel.  A negative value disables
+   * parallel sorting.
+   */
+  public static final String PARALLEL_THRESHOLD_PROPERTY =
+    "org.apache.xml.utils.SortKeyTable.parallelThreshold";
+
+  /** The default value of the parallel threshold. */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 65536;
+
+  /**
+   * Ranges shorter than this are not split any further between tasks.
+   * It is also the number of rows whose string values are collated
+   * together.
+   */
+  private static final int PARALLEL_GRAIN = 8192;
+
+  /** The parallel threshold, or -1 if parallel sorting is disabled. */
+  private static final int s_parallelThreshold = readParallelThreshold();
+
+  /** Number of rows in the table. */
+  private final int m_size;
+
+  /** Key type of each level. */
+  private final int[] m_types;
+
+  /** Sort direction of each level. */
+  private final boolean[] m_descending;
+
+  /** Number keys, indexed by level then row, for TYPE_NUMBER levels. */
+  private final long[][] m_numbers;
+
+  /** Collation key bytes, indexed by level then row. */
+  private final byte[][][] m_bytes;
+
+  /** Comparable keys, indexed by level then row. */
+  private final Object[][] m_objects;
+
+  /**
+   * Values compared in ascending order when all the keys of two rows are
+   * equal, or null to keep such rows in their original order.
+   */
+  private int[] m_ties;
+
+  /** Collator of each TYPE_BYTES level. */
+  private final RuleBasedCollator[] m_collators;
+
+  /**
+   * String values of the current chunk of each TYPE_BYTES level, not yet
+   * collated.
+   */
+  private final String[][] m_chunks;
+
+  /** Collation tasks running on the pool, oldest first. */
+  private Vector m_collateTasks;
+
+  /**
+   * Construct a table.
+   *
+   * @param size The number of rows.
+   * @param levels The number of sort keys of each row.
+   */
+  public SortKeyTable(int size, int levels)
+  {
+    m_size = size;
+    m_types = new int[levels];
+    m_descending = new boolean[levels];
+    m_numbers = new long[levels][];
+    m_bytes = new byte[levels][][];
+    m_objects = new Object[levels][];
+    m_collators = new RuleBasedCollator[levels];
+    m_chunks = new String[levels][];
+  }
+
+  /**
+   * Get the number of rows.
+   *
+   * @return The number of rows.
+   */
+  public int size()
+  {
+    return m_size;
+  }
+
+  /**
+   * Get the number of sort keys of each row.
+   *
+   * @return The number of levels.
+   */
+  public int getLevels()
+  {
+    return m_types.length;
+  }
+
+  /**
+   * Declare the type and direction of a sort key.  This must be called
+   * for each level before any key of that level is set.
+   *
+   * @param level The level of the key, 0 for the primary key.
+   * @param type One of TYPE_NUMBER, TYPE_BYTES or TYPE_OBJECT.
+   * @param descending true to sort this key in descending order.
+   */
+  public void setLevel(int level, int type, boolean descending)
+  {
+    m_types[level] = type;
+    m_descending[level] = descending;
+
+    switch (type)
+    {
+    case TYPE_NUMBER :
+      m_numbers[level] = new long[m_size];
+      break;
+    case TYPE_BYTES :
+      m_bytes[level] = new byte[m_size][];
+      break;
+    default :
+      m_objects[level] = new Object[m_size];
+    }
+  }
+
+  /**
+   * Get the type of a sort key.
+   *
+   * @param level The level of the key.
+   *
+   * @return One of TYPE_NUMBER, TYPE_BYTES or TYPE_OBJECT.
+   */
+  public int getType(int level)
+  {
+    return m_types[level];
+  }
+
+  /**
+   * Tell if a sort key is in descending order.
+   *
+   * @param level The level of the key.
+   *
+   * @return true for descending order.
+   */
+  public boolean isDescending(int level)
+  {
+    return m_descending[level];
+  }
+
+  /**
+   * Set a number key.
+   *
+   * @param level The level of the key.
+   * @param row The row.
+   * @param key The key, usually from {@link #numberKey}.
+   */
+  public void setKey(int level, int row, long key)
+  {
+    m_numbers[level][row] = key;
+  }
+
+  /**
+   * Set a collation key.
+   *
+   * @param level The level of the key.
+   * @param row The row.
+   * @param key The bytes of a CollationKey from a RuleBasedCollator,
+   *            which compare as unsigned bytes in the same order as the
+   *            keys themselves.
+   */
+  public void setKey(int level, int row, byte[] key)
+  {
+    m_bytes[level][row] = key;
+  }
+
+  /**
+   * Set a Comparable key.
+   *
+   * @param level The level of the key.
+   * @param row The row.
+   * @param key The key, never null.
+   */
+  public void setKey(int level, int row, Comparable key)
+  {
+    m_objects[level][row] = key;
+  }
+
+  /**
+   * Get a number key.
+   *
+   * @param level The level of the key.
+   * @param row The row.
+   *
+   * @return The key.
+   */
+  public long getNumberKey(int level, int row)
+  {
+    return m_numbers[level][row];
+  }
+
+  /**
+   * Get a collation key.
+   *
+   * @param level The level of the key.
+   * @param row The row.
+   *
+   * @return The key bytes.
+   */
+  public byte[] getBytesKey(int level, int row)
+  {
+    return m_bytes[level][row];
+  }
+
+  /**
+   * Get a Comparable key.
+   *
+   * @param level The level of the key.
+   * @param row The row.
+   *
+   * @return The key.
+   */
+  public Comparable getObjectKey(int level, int row)
+  {
+    return (Comparable) m_objects[level][row];
+  }
+
+  /**
+   * Set the value used to order a row after all its keys compare equal
+   * to those of another row.  If this is never called, such rows keep
+   * their original order.
+   *
+   * @param row The row.
+   * @param value The value, compared in ascending order.
+   */
+  public void setTie(int row, int value)
+  {
+    if (null == m_ties)
+      m_ties = new int[m_size];
+
+    m_ties[row] = value;
+  }
+
+  /**
+   * Get the tie breaking value of a row.
+   *
+   * @param row The row.
+   *
+   * @return The value, or the row itself if no values were set.
+   */
+  public int getTie(int row)
+  {
+    return (null == m_ties) ? row : m_ties[row];
+  }
+
+  /**
+   * Tell if tie breaking values were set.
+   *
+   * @return true if {@link #setTie} was called.
+   */
+  public boolean hasTies()
+  {
+    return null != m_ties;
+  }
+
+  /**
+   * Estimate the memory used by the table and by sorting it.
+   *
+   * @return An estimate, in bytes.
+   */
+  public long getMemoryEstimate()
+  {
+    // The order and scratch arrays of the sort, and the ties.
+    long size = 12L * m_size;
+
+    for (int level = 0; level < m_types.length; level++)
+    {
+      switch (m_types[level])
+      {
+      case TYPE_NUMBER :
+        size += 8L * m_size;
+        break;
+      case TYPE_BYTES :
+      {
+        byte[][] keys = m_bytes[level];
+
+        for (int row = 0; row < m_size; row++)
+          size += 24 + ((null == keys[row]) ? 0 : keys[row].length);
+        break;
+      }
+      default :
+        // A key object that refers to a string.
+        size += 96L * m_size;
+      }
+    }
+
+    return size;
+  }
+
+  /**
+   * Encode a number as a long whose signed order is that of
+   * {@link Double#compare}: NaN sorts after positive infinity and -0.0
+   * before 0.0.
+   *
+   * @param d The number.
+   *
+   * @return The key.
+   */
+  public static long numberKey(double d)
+  {
+    long bits = Double.doubleToLongBits(d);
+
+    return bits ^ ((bits >> 63) & 0x7fffffffffffffffL);
+  }
+
+  /**
+   * Set the collator of a TYPE_BYTES level whose keys are set with
+   * {@link #setCollationKey}.
+   *
+   * @param level The level.
+   * @param collator The collator, which is cloned rather than used
+   *                 directly when the keys are computed in parallel.
+   */
+  public void setCollator(int level, RuleBasedCollator collator)
+  {
+    m_collators[level] = collator;
+  }
+
+  /**
+   * Set the string value a collation key is computed from.  The values
+   * of a level must be set in row order, and
+   * {@link #finishCollationKeys} called once all of them are.
+   *
+   * @param level A TYPE_BYTES level with a collator.
+   * @param row The row.
+   * @param value The string value of the row.
+   */
+  public void setCollationKey(int level, int row, String value)
+  {
+    int index = row % PARALLEL_GRAIN;
+
+    if (null == m_chunks[level])
+      m_chunks[level] = new String[Math.min(PARALLEL_GRAIN, m_size - row)];
+
+    m_chunks[level][index] = value;
+
+    if (index == m_chunks[level].length - 1)
+      collateChunk(level, row - index);
+  }
+
+  /**
+   * Wait for the collation keys of all the rows to be computed.
+   */
+  public void finishCollationKeys()
+  {
+    if (null == m_collateTasks)
+      return;
+
+    while (!m_collateTasks.isEmpty())
+      joinOldestTask();
+  }
+
+  /**
+   * Wait for the oldest running collation task to finish.
+   */
+  private void joinOldestTask()
+  {
+    ForkJoinTask task = (ForkJoinTask) m_collateTasks.elementAt(0);
+
+    m_collateTasks.removeElementAt(0);
+    task.join();
+  }
+
+  /**
+   * Collate the current chunk of a level, on the pool if the table is
+   * collated in parallel.  Only a few chunks are left running at a time,
+   * so the strings waiting to be collated stay bounded if the caller
+   * extracts them faster than they are collated.
+   *
+   * @param level The level.
+   * @param from The first row of the chunk.
+   */
+  private void collateChunk(int level, int from)
+  {
+    String[] values = m_chunks[level];
+
+    m_chunks[level] = null;
+
+    if (!isParallel())
+    {
+      collate(m_bytes[level], values, m_collators[level], from);
+
+      return;
+    }
+
+    if (null == m_collateTasks)
+      m_collateTasks = new Vector();
+
+    int maxTasks = 2 * ForkJoinPool.commonPool().getParallelism();
+
+    while (m_collateTasks.size() >= maxTasks)
+      joinOldestTask();
+
+    m_collateTasks.addElement(ForkJoinPool.commonPool().submit(
+      new CollateTask(m_bytes[level], values, m_collators[level], from)));
+  }
+
+  /**
+   * Compute the collation keys of a chunk of rows.
+   *
+   * @param keys The column to fill in.
+   * @param values The string values of the chunk.
+   * @param collator The collator.
+   * @param from The row of the first value.
+   */
+  private static void collate(byte[][] keys, String[] values,
+                              Collator collator, int from)
+  {
+    for (int i = 0; i < values.length; i++)
+      keys[from + i] = collator.getCollationKey(values[i]).toByteArray();
+  }
+
+  /**
+   * Get the number of rows from which tables are sorted in parallel.
+   *
+   * @return The threshold, or -1 if parallel sorting is disabled.
+   */
+  public static int getParallelThreshold()
+  {
+    return s_parallelThreshold;
+  }
+
+  /**
+   * Tell if this table is collated and sorted in parallel.
+   *
+   * @return true if the table is big enough and there is more than one
+   * processor.
+   */
+  private boolean isParallel()
+  {
+    return s_parallelThreshold >= 0 && m_size >= s_parallelThreshold
+           && m_size > PARALLEL_GRAIN
+           && Runtime.getRuntime().availableProcessors() > 1;
+  }
+
+  /**
+   * Read the parallel threshold system property.
+   *
+   * @return The threshold, or -1 if parallel sorting is disabled.
+   */
+  private static int readParallelThreshold()
+  {
+    try
+    {
+      String value =
+        SecuritySupport.getSystemProperty(PARALLEL_THRESHOLD_PROPERTY);
+
+      if (null != value)
+        return Math.max(-1, Integer.parseInt(value.trim()));
+    }
+    catch (NumberFormatException nfe) {}
+    catch (SecurityException se) {}
+
+    return DEFAULT_PARALLEL_THRESHOLD;
+  }
+
+  /**
+   * Sort the rows.
+   *
+   * @return The row numbers, in sorted order.
+   */
+  public int[] sort()
+  {
+    int[] order = new int[m_size];
+
+    for (int i = 0; i < m_size; i++)
+      order[i] = i;
+
+    sort(order, 0, m_size);
+
+    return order;
+  }
+
+  /**
+   * Sort a range of an array of row numbers in place.
+   *
+   * @param order The row numbers.
+   * @param from The first index to sort.
+   * @param to The index after the last one to sort.
+   */
+  public void sort(int[] order, int from, int to)
+  {
+    int[] scratch = new int[to];
+
+    System.arraycopy(order, from, scratch, from, to - from);
+
+    if (isParallel())
+      ForkJoinPool.commonPool().invoke(
+        new SortTask(scratch, order, from, to));
+    else
+      mergeSort(scratch, order, from, to);
+  }
+
+  /**
+   * Sort dest[low, high) using src, which holds the same row numbers in
+   * that range, as scratch space.
+   *
+   * @param src The scratch array.
+   * @param dest The array to sort.
+   * @param low The first index to sort.
+   * @param high The index after the last one to sort.
+   */
+  private void mergeSort(int[] src, int[] dest, int low, int high)
+  {
+    int length = high - low;
+
+    if (length < INSERTION_SORT_THRESHOLD)
+    {
+      for (int i = low + 1; i < high; i++)
+      {
+        int row = dest[i];
+        int j = i;
+
+        for (; j > low && compare(dest[j - 1], row) > 0; j--)
+          dest[j] = dest[j - 1];
+
+        dest[j] = row;
+      }
+
+      return;
+    }
+
+    int mid = (low + high) >>> 1;
+
+    mergeSort(dest, src, low, mid);
+    mergeSort(dest, src, mid, high);
+
+    // Already in order, as happens for input in document order.
+    if (compare(src[mid - 1], src[mid]) <= 0)
+    {
+      System.arraycopy(src, low, dest, low, length);
+
+      return;
+    }
+
+    merge(src, dest, low, mid, high);
+  }
+
+  /**
+   * Merge the sorted ranges src[low, mid) and src[mid, high) into
+   * dest[low, high).
+   *
+   * @param src The sorted ranges.
+   * @param dest The array to merge into.
+   * @param low The start of the first range.
+   * @param mid The start of the second range.
+   * @param high The end of the second range.
+   */
+  private void merge(int[] src, int[] dest, int low, int mid, int high)
+  {
+    for (int i = low, p = low, q = mid; i < high; i++)
+    {
+      if (q >= high || (p < mid && compare(src[p], src[q]) <= 0))
+        dest[i] = src[p++];
+      else
+        dest[i] = src[q++];
+    }
+  }
+
+  /**
+   * Compare two rows on all their keys, then on their tie breaking
+   * values.
+   *
+   * @param row1 The first row.
+   * @param row2 The second row.
+   *
+   * @return A negative number, zero, or a positive number as the first
+   * row sorts before, with, or after the second.
+   */
+  public int compare(int row1, int row2)
+  {
+    int levels = m_types.length;
+
+    for (int level = 0; level < levels; level++)
+    {
+      int result;
+
+      switch (m_types[level])
+      {
+      case TYPE_NUMBER :
+      {
+        long[] keys = m_numbers[level];
+        long k1 = keys[row1];
+        long k2 = keys[row2];
+
+        result = (k1 < k2) ? -1 : (k1 > k2) ? 1 : 0;
+        break;
+      }
+      case TYPE_BYTES :
+        result = compareBytes(m_bytes[level][row1], m_bytes[level][row2]);
+        break;
+      default :
+        result = ((Comparable) m_objects[level][row1])
+                   .compareTo(m_objects[level][row2]);
+      }
+
+      if (0 != result)
+        return m_descending[level] ? -result : result;
+    }
+
+    if (null != m_ties)
+    {
+      int t1 = m_ties[row1];
+      int t2 = m_ties[row2];
+
+      return (t1 < t2) ? -1 : (t1 > t2) ? 1 : 0;
+    }
+
+    return 0;
+  }
+
+  /**
+   * Compare two arrays as unsigned bytes, a prefix sorting first.
+   *
+   * @param b1 The first array.
+   * @param b2 The second array.
+   *
+   * @return A negative number, zero, or a positive number.
+   */
+  public static int compareBytes(byte[] b1, byte[] b2)
+  {
+    int n = Math.min(b1.length, b2.length);
+
+    for (int i = 0; i < n; i++)
+    {
+      int diff = (b1[i] & 0xff) - (b2[i] & 0xff);
+
+      if (0 != diff)
+        return diff;
+    }
+
+    return b1.length - b2.length;
+  }
+
+  /**
+   * Sorts a range of the table, splitting it between tasks like
+   * {@link #mergeSort} splits it between recursive calls.
+   */
+  private final class SortTask extends RecursiveAction
+  {
+    static final long serialVersionUID = 2297561187498524127L;
+
+    /** The scratch array. */
+    private final int[] m_src;
+
+    /** The array to sort. */
+    private final int[] m_dest;
+
+    /** The first index to sort. */
+    private final int m_low;
+
+    /** The index after the last one to sort. */
+    private final int m_high;
+
+    /**
+     * Construct a task.
+     *
+     * @param src The scratch array.
+     * @param dest The array to sort.
+     * @param low The first index to sort.
+     * @param high The index after the last one to sort.
+     */
+    SortTask(int[] src, int[] dest, int low, int high)
+    {
+      m_src = src;
+      m_dest = dest;
+      m_low = low;
+      m_high = high;
+    }
+
+    /**
+     * Sort the range.
+     */
+    protected void compute()
+    {
+      if (m_high - m_low <= PARALLEL_GRAIN)
+      {
+        mergeSort(m_src, m_dest, m_low, m_high);
+
+        return;
+      }
+
+      int mid = (m_low + m_high) >>> 1;
+
+      invokeAll(new SortTask(m_dest, m_src, m_low, mid),
+                new SortTask(m_dest, m_src, mid, m_high));
+
+      if (compare(m_src[mid - 1], m_src[mid]) <= 0)
+        System.arraycopy(m_src, m_low, m_dest, m_low, m_high - m_low);
+      else
+        merge(m_src, m_dest, m_low, mid, m_high);
+    }
+  }
+
+  /**
+   * Computes the collation keys of a chunk of rows with its own clone of
+   * the collator, which is not safe for concurrent use.
+   */
+  private static final class CollateTask extends RecursiveAction
+  {
+    static final long serialVersionUID = -3405218806254813736L;
+
+    /** The column to fill in. */
+    private final byte[][] m_keys;
+
+    /** The string values of the chunk. */
+    private final String[] m_values;
+
+    /** The collator shared by all tasks, cloned before use. */
+    private final Collator m_collator;
+
+    /** The row of the first value. */
+    private final int m_from;
+
+    /**
+     * Construct a task.
+     *
+     * @param keys The column to fill in.
+     * @param values The string values of the chunk.
+     * @param collator The collator, which is not used by this task.
+     * @param from The row of the first value.
+     */
+    CollateTask(byte[][] keys, String[] values, Collator collator, int from)
+    {
+      m_keys = keys;
+      m_values = values;
+      m_collator = collator;
+      m_from = from;
+    }
+
+    /**
+     * Compute the keys.
+     */
+    protected void compute()
+    {
+      Collator collator;
+
+      synchronized (m_collator)
+      {
+        collator = (Collator) m_collator.clone();
+      }
+
+      collate(m_keys, m_values, collator, m_from);
+    }
+  }
+}
@@ -167,8 +167,12 @@ public class VariableStack implements Cloneable
     // (As long as the caller doesn't screw up link/unlink.)
     _links[_linksTop++] = 0;
 
-    // Get a clean _stackFrames array and discard the old one.
-    _stackFrames = new XObject[varArraySize]; 
+    // Clear the _stackFrames array if it is the right size, otherwise get
+    // a clean one and discard the old one.
+    if (_stackFrames != null && _stackFrames.length == varArraySize)
+      java.util.Arrays.fill(_stackFrames, null);
+    else
+      _stackFrames = new XObject[varArraySize];
   }
 
   /**
@@ -21,6 +21,7 @@
 package org.apache.xpath;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.SourceLocator;
@@ -30,6 +31,7 @@ import org.apache.xalan.res.XSLMessages;
 import org.apache.xml.dtm.DTM;
 import org.apache.xml.utils.PrefixResolver;
 import org.apache.xml.utils.SAXSourceLocator;
+import org.apache.xpath.compiler.BytecodeCompiler;
 import org.apache.xpath.compiler.Compiler;
 import org.apache.xpath.compiler.FunctionTable;
 import org.apache.xpath.compiler.XPathParser;
@@ -46,15 +48,26 @@ public class XPath implements Serializable, ExpressionOwner
 {
   static final long serialVersionUID = 3976493477939110553L;
 
-  /** The top of the expression tree. 
+  /** The top of the expression tree. Volatile, since it is replaced by
+   *  compiled code while other threads may be evaluating it.
    *  @serial */
-  private Expression m_mainExp;
+  private volatile Expression m_mainExp;
   
   /**
    * The function table for xpath built-in functions
    */
   private transient FunctionTable m_funcTable = null;
 
+  /**
+   * Number of evaluations so far, or -1 once the expression has been
+   * handed to the {@link BytecodeCompiler}.
+   */
+  private transient volatile int m_evalCount = 0;
+
+  /** Updates m_evalCount atomically. */
+  private static final AtomicIntegerFieldUpdater s_evalCountUpdater =
+    AtomicIntegerFieldUpdater.newUpdater(XPath.class, "m_evalCount");
+
   /**
    * initial the function table
    */
@@ -101,6 +114,31 @@ public class XPath implements Serializable, ExpressionOwner
     m_mainExp = exp;
   }
 
+  /**
+   * Count an evaluation, and replace the expression with compiled code once
+   * the {@link BytecodeCompiler#THRESHOLD_PROPERTY} threshold is reached.
+   * Only the thread that moves the count from the threshold to -1 compiles;
+   * an increment lost to a racing thread just delays compilation.
+   */
+  private void countEvaluation()
+  {
+    int threshold = BytecodeCompiler.getThreshold();
+    int count = m_evalCount;
+
+    if (threshold < 0 || count < 0)
+      return;
+
+    if (count < threshold)
+      s_evalCountUpdater.compareAndSet(this, count, count + 1);
+    else if (s_evalCountUpdater.compareAndSet(this, count, -1))
+    {
+      Expression expr = BytecodeCompiler.compile(m_mainExp);
+
+      if (expr != m_mainExp)
+        setExpression(expr);
+    }
+  }
+
   /**
    * Get the SourceLocator on the expression object.
    *
@@ -328,6 +366,8 @@ public class XPath implements Serializable, ExpressionOwner
 
     xctxt.pushNamespaceContext(namespaceContext);
 
+    countEvaluation();
+
     xctxt.pushCurrentNodeAndExpression(contextNode, contextNode);
 
     XObject xobj = null;
@@ -405,6 +445,8 @@ public class XPath implements Serializable, ExpressionOwner
 
     xctxt.pushNamespaceContext(namespaceContext);
 
+    countEvaluation();
+
     xctxt.pushCurrentNodeAndExpression(contextNode, contextNode);
 
     try
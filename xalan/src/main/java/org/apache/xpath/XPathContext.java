@@ -39,6 +39,7 @@ import org.apache.xml.dtm.DTMFilter;
 import org.apache.xml.dtm.DTMIterator;
 import org.apache.xml.dtm.DTMManager;
 import org.apache.xml.dtm.DTMWSFilter;
+import org.apache.xml.dtm.ref.DTMManagerDefault;
 import org.apache.xml.dtm.ref.sax2dtm.SAX2RTFDTM;
 import org.apache.xml.utils.IntStack;
 import org.apache.xml.utils.NodeVector;
@@ -82,6 +83,23 @@ public class XPathContext extends DTMManager // implements ExpressionContext
    * required since we're never going to pop these.
    */
   private SAX2RTFDTM m_global_rtfdtm=null;
+
+  /**
+   * RTF DTMs of earlier transformations, emptied by reset() so that their
+   * storage is reused rather than grown again by the next transformation.
+   * They are registered again with the DTM manager when they are needed,
+   * since handles to the previous DTMs may still be released after the
+   * manager has been reset.
+   */
+  private Vector m_reusable_rtfdtms=null;
+
+  /**
+   * The largest storage, in bytes, that an RTF DTM may retain to be kept
+   * for reuse when this context is reset. Larger ones are released, so that
+   * a pooled transformer does not pin the storage of an unusually large
+   * fragment.
+   */
+  private static final long RTFDTM_RETAIN_LIMIT = 4L * 1024 * 1024;
   
   /**
    * HashMap of cached the DTMXRTreeFrag objects, which are identified by DTM IDs.
@@ -358,22 +376,47 @@ public class XPathContext extends DTMManager // implements ExpressionContext
    * Reset for new run.
    */
   public void reset()
+  {
+    reset(false);
+  }
+
+  /**
+   * Reset for new run, optionally clearing the DTM manager in place
+   * rather than replacing it.  Handles, node-sets and DOM proxies from
+   * the previous run still refer to the manager, and once it is cleared
+   * they resolve to the documents of the next run, so the manager may
+   * only be reused when nothing from the previous run is kept, as for a
+   * transformer returned to a pool.
+   *
+   * @param reuseDTMManager true to clear a DTMManagerDefault in place,
+   *                        false to get a new DTM manager.
+   */
+  public void reset(boolean reuseDTMManager)
   {
     releaseDTMXRTreeFrags();
+    // RTF DTMs can only be reused with the default manager
+    boolean keepRTFDTMs = m_dtmManager instanceof DTMManagerDefault;
+
   	// These couldn't be disposed of earlier (see comments in release()); zap them now.
   	if(m_rtfdtm_stack!=null)
   		 for (java.util.Enumeration e = m_rtfdtm_stack.elements() ; e.hasMoreElements() ;) 
-  		 	m_dtmManager.release((DTM)e.nextElement(), true);
+  		 	releaseRTFDTM((SAX2RTFDTM)e.nextElement(), keepRTFDTMs);
 
     m_rtfdtm_stack=null; // drop our references too
     m_which_rtfdtm=-1;
+    m_last_pushed_rtfdtm.removeAllElements();
     
     if(m_global_rtfdtm!=null)
-  		 	m_dtmManager.release(m_global_rtfdtm,true);
+  		 	releaseRTFDTM(m_global_rtfdtm, keepRTFDTMs);
     m_global_rtfdtm=null;
     
   	
-    m_dtmManager = DTMManager.newInstance(
+    // Keep the default manager and its tables rather than looking up
+    // and building a new one, if the caller allows it.
+    if (reuseDTMManager && m_dtmManager instanceof DTMManagerDefault)
+      ((DTMManagerDefault) m_dtmManager).reset();
+    else
+      m_dtmManager = DTMManager.newInstance(
                    org.apache.xpath.objects.XMLStringFactoryImpl.getFactory());
                    
     m_saxLocations.removeAllElements();   
@@ -1197,7 +1240,7 @@ public class XPathContext extends DTMManager // implements ExpressionContext
 	// the latter will ever arise, but I'd rather be just a bit paranoid..
 	if( m_global_rtfdtm==null || m_global_rtfdtm.isTreeIncomplete() )
 	{
-  		m_global_rtfdtm=(SAX2RTFDTM)m_dtmManager.getDTM(null,true,null,false,false);
+  		m_global_rtfdtm=newRTFDTM();
 	}
     return m_global_rtfdtm;
   }
@@ -1231,7 +1274,7 @@ public class XPathContext extends DTMManager // implements ExpressionContext
 	if(m_rtfdtm_stack==null)
 	{
 		m_rtfdtm_stack=new Vector();
-  		rtfdtm=(SAX2RTFDTM)m_dtmManager.getDTM(null,true,null,false,false);
+  		rtfdtm=newRTFDTM();
     m_rtfdtm_stack.addElement(rtfdtm);
 		++m_which_rtfdtm;
 	}
@@ -1255,7 +1298,7 @@ public class XPathContext extends DTMManager // implements ExpressionContext
 				rtfdtm=(SAX2RTFDTM)m_rtfdtm_stack.elementAt(m_which_rtfdtm);
 	  		else
 	  		{
-		  		rtfdtm=(SAX2RTFDTM)m_dtmManager.getDTM(null,true,null,false,false);
+		  		rtfdtm=newRTFDTM();
           m_rtfdtm_stack.addElement(rtfdtm); 	
 	  		}
  	 	}
@@ -1264,6 +1307,71 @@ public class XPathContext extends DTMManager // implements ExpressionContext
     return rtfdtm;
   }
   
+  /**
+   * Get an empty DTM to build Result Tree Fragments in, reusing one
+   * kept by reset() if there is one.
+   *
+   * @return a new or emptied RTF DTM, registered with the DTM manager.
+   */
+  private SAX2RTFDTM newRTFDTM()
+  {
+    if(m_reusable_rtfdtms!=null && !m_reusable_rtfdtms.isEmpty())
+    {
+      SAX2RTFDTM rtfdtm=(SAX2RTFDTM)m_reusable_rtfdtms.remove(
+                                      m_reusable_rtfdtms.size()-1);
+      rtfdtm.migrateTo(m_dtmManager);
+      return rtfdtm;
+    }
+
+    return (SAX2RTFDTM)m_dtmManager.getDTM(null,true,null,false,false);
+  }
+
+  /**
+   * Release an RTF DTM at the end of a transformation. It is emptied and
+   * kept for reuse if it is complete and does not retain too much storage.
+   *
+   * @param rtfdtm an RTF DTM of this context.
+   * @param keep true if the DTM may be kept for reuse.
+   */
+  private void releaseRTFDTM(SAX2RTFDTM rtfdtm, boolean keep)
+  {
+    m_dtmManager.release(rtfdtm, true);
+
+    if(keep && !rtfdtm.isTreeIncomplete()
+       && rtfdtm.getRetainedBytes() <= RTFDTM_RETAIN_LIMIT)
+    {
+      rtfdtm.clear();
+      if(m_reusable_rtfdtms==null)
+        m_reusable_rtfdtms=new Vector();
+      m_reusable_rtfdtms.addElement(rtfdtm);
+    }
+  }
+
+  /**
+   * Get an estimate of the memory held by the DTMs this context builds
+   * Result Tree Fragments in. Their storage is not released as fragments
+   * are discarded, but reused for later ones, including those of the next
+   * transformation once this context has been reset.
+   *
+   * @return the estimated number of bytes retained for Result Tree
+   * Fragments.
+   */
+  public long getRTFRetainedBytes()
+  {
+    long bytes=0;
+
+    if(m_rtfdtm_stack!=null)
+      for (java.util.Enumeration e = m_rtfdtm_stack.elements() ; e.hasMoreElements() ;)
+        bytes+=((SAX2RTFDTM)e.nextElement()).getRetainedBytes();
+    if(m_global_rtfdtm!=null)
+      bytes+=m_global_rtfdtm.getRetainedBytes();
+    if(m_reusable_rtfdtms!=null)
+      for (java.util.Enumeration e = m_reusable_rtfdtms.elements() ; e.hasMoreElements() ;)
+        bytes+=((SAX2RTFDTM)e.nextElement()).getRetainedBytes();
+
+    return bytes;
+  }
+  
   /** Push the RTFDTM's context mark, to allows discarding RTFs added after this
    * point. (If it doesn't exist we don't push, since we might still be able to 
    * get away with not creating it. That requires that excessive pops be harmless.)
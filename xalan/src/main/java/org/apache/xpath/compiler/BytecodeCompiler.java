@@ -0,0 +1,703 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath.compiler;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Vector;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.ALOAD;
+import org.apache.bcel.generic.ASTORE;
+import org.apache.bcel.generic.BranchHandle;
+import org.apache.bcel.generic.BranchInstruction;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.GETFIELD;
+import org.apache.bcel.generic.GOTO;
+import org.apache.bcel.generic.IFEQ;
+import org.apache.bcel.generic.IFGE;
+import org.apache.bcel.generic.IFGT;
+import org.apache.bcel.generic.IFLE;
+import org.apache.bcel.generic.IFLT;
+import org.apache.bcel.generic.IFNE;
+import org.apache.bcel.generic.IF_ICMPEQ;
+import org.apache.bcel.generic.IF_ICMPNE;
+import org.apache.bcel.generic.INVOKESPECIAL;
+import org.apache.bcel.generic.INVOKESTATIC;
+import org.apache.bcel.generic.INVOKEVIRTUAL;
+import org.apache.bcel.generic.InstructionConstants;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.Type;
+import org.apache.xpath.Expression;
+import org.apache.xpath.functions.FuncBoolean;
+import org.apache.xpath.functions.FuncCeiling;
+import org.apache.xpath.functions.FuncFalse;
+import org.apache.xpath.functions.FuncFloor;
+import org.apache.xpath.functions.FuncNot;
+import org.apache.xpath.functions.FuncNumber;
+import org.apache.xpath.functions.FuncRound;
+import org.apache.xpath.functions.FuncTrue;
+import org.apache.xpath.functions.FunctionOneArg;
+import org.apache.xpath.objects.XBoolean;
+import org.apache.xpath.objects.XBooleanStatic;
+import org.apache.xpath.objects.XNumber;
+import org.apache.xpath.objects.XObject;
+import org.apache.xpath.operations.And;
+import org.apache.xpath.operations.Bool;
+import org.apache.xpath.operations.Div;
+import org.apache.xpath.operations.Equals;
+import org.apache.xpath.operations.Gt;
+import org.apache.xpath.operations.Gte;
+import org.apache.xpath.operations.Lt;
+import org.apache.xpath.operations.Lte;
+import org.apache.xpath.operations.Minus;
+import org.apache.xpath.operations.Mod;
+import org.apache.xpath.operations.Mult;
+import org.apache.xpath.operations.Neg;
+import org.apache.xpath.operations.NotEquals;
+import org.apache.xpath.operations.Operation;
+import org.apache.xpath.operations.Or;
+import org.apache.xpath.operations.Plus;
+import org.apache.xpath.operations.UnaryOperation;
+
+/**
+ * Optional backend that compiles the operator skeleton of an
+ * {@link Expression} tree into a generated {@link CompiledExpression}
+ * subclass.  Arithmetic, comparisons, <code>and</code>/<code>or</code> and
+ * the number and boolean core functions become straight-line JVM code over
+ * primitive doubles and booleans, so evaluating them needs neither virtual
+ * calls per tree node nor intermediate XNumber/XBoolean objects.  Location
+ * paths, variables and other functions stay interpretive and are called
+ * from the generated code.
+ *
+ * <p>The backend is off by default.  Setting the system property
+ * {@link #THRESHOLD_PROPERTY} to a number <var>n</var> &gt;= 0 makes each
+ * {@link org.apache.xpath.XPath} switch to compiled code after it has been
+ * evaluated <var>n</var> times, which covers the XPathAPI, CachedXPathAPI
+ * and JAXP entry points.  {@link #compile} may also be called directly.</p>
+ *
+ * <p>Each generated class is defined in its own class loader, so it is
+ * unloaded along with the expression.</p>
+ * @xsl.usage advanced
+ */
+public final class BytecodeCompiler
+{
+
+  /**
+   * System property holding the number of evaluations after which an
+   * XPath is compiled to bytecode.  Unset or negative disables the backend.
+   */
+  public static final String THRESHOLD_PROPERTY =
+    "org.apache.xpath.compiler.BytecodeCompiler.threshold";
+
+  /** The evaluation threshold, or -1 if the backend is disabled. */
+  private static final int s_threshold = readThreshold();
+
+  /** Sequence number for generated class names. */
+  private static int s_classCount = 0;
+
+  /** Package of the generated classes. */
+  private static final String GENERATED_PREFIX =
+    "org.apache.xpath.compiler.generated.Expr";
+
+  /** Static type of a subexpression: leaves a double on the stack. */
+  private static final int TYPE_NUMBER = 0;
+
+  /** Static type of a subexpression: leaves a boolean on the stack. */
+  private static final int TYPE_BOOLEAN = 1;
+
+  /** Static type of a subexpression: leaves an XObject on the stack. */
+  private static final int TYPE_OBJECT = 2;
+
+  /** Local variable slot of the XPathContext argument. */
+  private static final int XCTXT_SLOT = 1;
+
+  /** Local variable slot of the cached m_operands array. */
+  private static final int OPERANDS_SLOT = 2;
+
+  private static final String EXPRESSION_CLASS =
+    "org.apache.xpath.Expression";
+  private static final String COMPILED_CLASS =
+    "org.apache.xpath.compiler.CompiledExpression";
+  private static final String XPATHCONTEXT_SIG =
+    "Lorg/apache/xpath/XPathContext;";
+  private static final String XOBJECT_SIG =
+    "Lorg/apache/xpath/objects/XObject;";
+  private static final String EXPRESSION_SIG =
+    "Lorg/apache/xpath/Expression;";
+  private static final String COMPARE_SIG =
+    "(" + XOBJECT_SIG + XOBJECT_SIG + ")Z";
+
+  /** The generated class. */
+  private final ClassGen m_classGen;
+
+  /** Its constant pool. */
+  private final ConstantPoolGen m_cpg;
+
+  /** The code of the method being generated. */
+  private InstructionList m_il;
+
+  /** Interpretive leaves and constants, shared by all generated methods. */
+  private final Vector m_operands = new Vector();
+
+  /**
+   * Construct a compiler for one expression.
+   *
+   * @param className The name of the class to generate.
+   */
+  private BytecodeCompiler(String className)
+  {
+    m_classGen = new ClassGen(className, COMPILED_CLASS, "<generated>",
+                              Constants.ACC_PUBLIC | Constants.ACC_FINAL
+                              | Constants.ACC_SUPER, null);
+    m_cpg = m_classGen.getConstantPool();
+  }
+
+  /**
+   * Get the number of evaluations after which an XPath is compiled.
+   *
+   * @return The threshold, or -1 if the bytecode backend is disabled.
+   */
+  public static int getThreshold()
+  {
+    return s_threshold;
+  }
+
+  /**
+   * Compile an expression tree to bytecode.
+   *
+   * @param expr The expression, which must be fully built; visitors must not
+   *             rewrite it afterwards.
+   *
+   * @return A {@link CompiledExpression}, or <code>expr</code> itself if
+   *         there is nothing worth compiling or code generation failed.
+   */
+  public static Expression compile(Expression expr)
+  {
+    if (expr instanceof CompiledExpression || expr instanceof XObject
+        || TYPE_OBJECT == typeOf(expr))
+      return expr;
+
+    try
+    {
+      BytecodeCompiler compiler = new BytecodeCompiler(nextClassName());
+
+      return compiler.generate(expr);
+    }
+    catch (Exception e)
+    {
+      return expr;
+    }
+    catch (LinkageError le)
+    {
+      return expr;
+    }
+  }
+
+  /**
+   * Read the threshold system property.
+   *
+   * @return The threshold, or -1 if unset or invalid.
+   */
+  private static int readThreshold()
+  {
+    try
+    {
+      String value = SecuritySupport.getSystemProperty(THRESHOLD_PROPERTY);
+
+      if (null != value)
+        return Math.max(-1, Integer.parseInt(value.trim()));
+    }
+    catch (NumberFormatException nfe) {}
+    catch (SecurityException se) {}
+
+    return -1;
+  }
+
+  /**
+   * Get a unique name for a generated class.
+   *
+   * @return The fully qualified class name.
+   */
+  private static synchronized String nextClassName()
+  {
+    return GENERATED_PREFIX + (s_classCount++);
+  }
+
+  /**
+   * Generate, load and instantiate the class for an expression.
+   *
+   * @param expr The root of the expression tree.
+   *
+   * @return The compiled expression.
+   *
+   * @throws Exception if the class cannot be loaded or instantiated.
+   */
+  private Expression generate(Expression expr) throws Exception
+  {
+    generateMethod("execute", Type.getType(XOBJECT_SIG), expr, TYPE_OBJECT);
+    generateMethod("num", Type.DOUBLE, expr, TYPE_NUMBER);
+    generateMethod("bool", Type.BOOLEAN, expr, TYPE_BOOLEAN);
+    generateConstructor();
+
+    final byte[] bytes = m_classGen.getJavaClass().getBytes();
+    ExpressionClassLoader loader = (ExpressionClassLoader)
+      AccessController.doPrivileged(new PrivilegedAction() {
+        public Object run() {
+          return new ExpressionClassLoader(
+            CompiledExpression.class.getClassLoader());
+        }
+      });
+    Class cls = loader.defineClass(bytes);
+    Expression[] operands = new Expression[m_operands.size()];
+
+    m_operands.copyInto(operands);
+
+    return (Expression) cls.getConstructor(
+      new Class[]{ Expression.class, Expression[].class })
+      .newInstance(new Object[]{ expr, operands });
+  }
+
+  /**
+   * Generate the constructor, which just passes its arguments up.
+   */
+  private void generateConstructor()
+  {
+    InstructionList il = new InstructionList();
+    MethodGen mg = new MethodGen(Constants.ACC_PUBLIC, Type.VOID,
+      new Type[]{ Type.getType(EXPRESSION_SIG),
+                  Type.getType("[" + EXPRESSION_SIG) },
+      new String[]{ "source", "operands" }, "<init>",
+      m_classGen.getClassName(), il, m_cpg);
+
+    il.append(InstructionConstants.ALOAD_0);
+    il.append(new ALOAD(1));
+    il.append(new ALOAD(2));
+    il.append(new INVOKESPECIAL(m_cpg.addMethodref(COMPILED_CLASS, "<init>",
+      "(" + EXPRESSION_SIG + "[" + EXPRESSION_SIG + ")V")));
+    il.append(InstructionConstants.RETURN);
+
+    mg.setMaxStack();
+    mg.setMaxLocals();
+    m_classGen.addMethod(mg.getMethod());
+    il.dispose();
+  }
+
+  /**
+   * Generate one of the evaluation methods.
+   *
+   * @param name The method name.
+   * @param returnType The JVM return type.
+   * @param expr The root of the expression tree.
+   * @param type The TYPE_XXX the method returns.
+   */
+  private void generateMethod(String name, Type returnType, Expression expr,
+                              int type)
+  {
+    m_il = new InstructionList();
+
+    MethodGen mg = new MethodGen(Constants.ACC_PUBLIC | Constants.ACC_FINAL,
+      returnType, new Type[]{ Type.getType(XPATHCONTEXT_SIG) },
+      new String[]{ "xctxt" }, name, m_classGen.getClassName(), m_il, m_cpg);
+
+    mg.addException("javax.xml.transform.TransformerException");
+
+    m_il.append(InstructionConstants.ALOAD_0);
+    m_il.append(new GETFIELD(m_cpg.addFieldref(COMPILED_CLASS, "m_operands",
+                                               "[" + EXPRESSION_SIG)));
+    m_il.append(new ASTORE(OPERANDS_SLOT));
+
+    switch (type)
+    {
+    case TYPE_NUMBER :
+      compileNumber(expr);
+      m_il.append(InstructionConstants.DRETURN);
+      break;
+    case TYPE_BOOLEAN :
+      compileBoolean(expr);
+      m_il.append(InstructionConstants.IRETURN);
+      break;
+    default :
+      compileObject(expr);
+      m_il.append(InstructionConstants.ARETURN);
+      break;
+    }
+
+    mg.setMaxStack();
+    mg.setMaxLocals();
+    m_classGen.addMethod(mg.getMethod());
+    m_il.dispose();
+    m_il = null;
+  }
+
+  /**
+   * Work out the natural result type of a subexpression.
+   *
+   * @param expr The subexpression.
+   *
+   * @return TYPE_NUMBER, TYPE_BOOLEAN, or TYPE_OBJECT if it stays
+   *         interpretive.
+   */
+  private static int typeOf(Expression expr)
+  {
+    // Exact class checks: a subclass may have changed the semantics.
+    Class cls = expr.getClass();
+
+    if (cls == XNumber.class || cls == Plus.class || cls == Minus.class
+        || cls == Mult.class || cls == Div.class || cls == Mod.class
+        || cls == Neg.class || cls == org.apache.xpath.operations.Number.class
+        || cls == FuncFloor.class || cls == FuncCeiling.class
+        || cls == FuncRound.class
+        || (cls == FuncNumber.class && null != ((FuncNumber) expr).getArg0()))
+      return TYPE_NUMBER;
+
+    if (cls == XBoolean.class || cls == XBooleanStatic.class
+        || cls == And.class || cls == Or.class || cls == Bool.class
+        || cls == Equals.class || cls == NotEquals.class
+        || cls == Lt.class || cls == Lte.class
+        || cls == Gt.class || cls == Gte.class
+        || cls == FuncNot.class || cls == FuncBoolean.class
+        || cls == FuncTrue.class || cls == FuncFalse.class)
+      return TYPE_BOOLEAN;
+
+    return TYPE_OBJECT;
+  }
+
+  /**
+   * Emit code that leaves the number value of a subexpression on the stack.
+   *
+   * @param expr The subexpression.
+   */
+  private void compileNumber(Expression expr)
+  {
+    Class cls = expr.getClass();
+
+    if (TYPE_BOOLEAN == typeOf(expr))
+    {
+      compileBoolean(expr);
+      m_il.append(InstructionConstants.I2D);
+    }
+    else if (TYPE_OBJECT == typeOf(expr))
+    {
+      loadOperand(expr);
+      m_il.append(new ALOAD(XCTXT_SLOT));
+      m_il.append(new INVOKEVIRTUAL(m_cpg.addMethodref(EXPRESSION_CLASS,
+        "num", "(" + XPATHCONTEXT_SIG + ")D")));
+    }
+    else if (cls == XNumber.class)
+    {
+      m_il.append(new PUSH(m_cpg, ((XNumber) expr).num()));
+    }
+    else if (expr instanceof Operation)
+    {
+      Operation op = (Operation) expr;
+
+      compileNumber(op.getLeftOperand());
+      compileNumber(op.getRightOperand());
+
+      if (cls == Plus.class)
+        m_il.append(InstructionConstants.DADD);
+      else if (cls == Minus.class)
+        m_il.append(InstructionConstants.DSUB);
+      else if (cls == Mult.class)
+        m_il.append(InstructionConstants.DMUL);
+      else if (cls == Div.class)
+        m_il.append(InstructionConstants.DDIV);
+      else
+        m_il.append(InstructionConstants.DREM);
+    }
+    else if (expr instanceof UnaryOperation)
+    {
+      compileNumber(((UnaryOperation) expr).getOperand());
+
+      if (cls == Neg.class)
+        m_il.append(InstructionConstants.DNEG);
+    }
+    else
+    {
+      // number(), floor(), ceiling() or round() with an argument.
+      compileNumber(((FunctionOneArg) expr).getArg0());
+
+      if (cls == FuncFloor.class)
+        m_il.append(new INVOKESTATIC(m_cpg.addMethodref("java.lang.Math",
+                                                        "floor", "(D)D")));
+      else if (cls == FuncCeiling.class)
+        m_il.append(new INVOKESTATIC(m_cpg.addMethodref("java.lang.Math",
+                                                        "ceil", "(D)D")));
+      else if (cls == FuncRound.class)
+        m_il.append(new INVOKESTATIC(m_cpg.addMethodref(COMPILED_CLASS,
+                                                        "round", "(D)D")));
+    }
+  }
+
+  /**
+   * Emit code that leaves the boolean value of a subexpression on the stack.
+   *
+   * @param expr The subexpression.
+   */
+  private void compileBoolean(Expression expr)
+  {
+    Class cls = expr.getClass();
+
+    if (TYPE_NUMBER == typeOf(expr))
+    {
+      compileNumber(expr);
+      m_il.append(new INVOKESTATIC(m_cpg.addMethodref(COMPILED_CLASS,
+                                                      "bool", "(D)Z")));
+    }
+    else if (TYPE_OBJECT == typeOf(expr))
+    {
+      loadOperand(expr);
+      m_il.append(new ALOAD(XCTXT_SLOT));
+      m_il.append(new INVOKEVIRTUAL(m_cpg.addMethodref(EXPRESSION_CLASS,
+        "bool", "(" + XPATHCONTEXT_SIG + ")Z")));
+    }
+    else if (cls == XBoolean.class || cls == XBooleanStatic.class)
+    {
+      m_il.append(new PUSH(m_cpg, ((XBoolean) expr).bool()));
+    }
+    else if (cls == FuncTrue.class || cls == FuncFalse.class)
+    {
+      m_il.append(new PUSH(m_cpg, cls == FuncTrue.class));
+    }
+    else if (cls == And.class || cls == Or.class)
+    {
+      Operation op = (Operation) expr;
+      boolean isAnd = (cls == And.class);
+
+      compileBoolean(op.getLeftOperand());
+
+      BranchHandle shortCircuit =
+        m_il.append(isAnd ? (BranchInstruction) new IFEQ(null)
+                          : (BranchInstruction) new IFNE(null));
+
+      compileBoolean(op.getRightOperand());
+
+      BranchHandle toEnd = m_il.append(new GOTO(null));
+
+      shortCircuit.setTarget(m_il.append(new PUSH(m_cpg, !isAnd)));
+      toEnd.setTarget(m_il.append(InstructionConstants.NOP));
+    }
+    else if (cls == Bool.class)
+    {
+      compileBoolean(((UnaryOperation) expr).getOperand());
+    }
+    else if (cls == FuncNot.class || cls == FuncBoolean.class)
+    {
+      compileBoolean(((FunctionOneArg) expr).getArg0());
+
+      if (cls == FuncNot.class)
+      {
+        m_il.append(InstructionConstants.ICONST_1);
+        m_il.append(InstructionConstants.IXOR);
+      }
+    }
+    else
+      compileComparison((Operation) expr);
+  }
+
+  /**
+   * Emit code that leaves the value of a subexpression on the stack as an
+   * XObject.
+   *
+   * @param expr The subexpression.
+   */
+  private void compileObject(Expression expr)
+  {
+    switch (typeOf(expr))
+    {
+    case TYPE_NUMBER :
+      compileNumber(expr);
+      m_il.append(new INVOKESTATIC(m_cpg.addMethodref(COMPILED_CLASS,
+        "box", "(D)" + XOBJECT_SIG)));
+      break;
+    case TYPE_BOOLEAN :
+      compileBoolean(expr);
+      m_il.append(new INVOKESTATIC(m_cpg.addMethodref(COMPILED_CLASS,
+        "box", "(Z)" + XOBJECT_SIG)));
+      break;
+    default :
+      // Same protocol as Operation.execute: destructive fetch, the
+      // comparison helpers detach afterwards.
+      loadOperand(expr);
+      m_il.append(new ALOAD(XCTXT_SLOT));
+      m_il.append(InstructionConstants.ICONST_1);
+      m_il.append(new INVOKEVIRTUAL(m_cpg.addMethodref(EXPRESSION_CLASS,
+        "execute", "(" + XPATHCONTEXT_SIG + "Z)" + XOBJECT_SIG)));
+      break;
+    }
+  }
+
+  /**
+   * Emit code for one of the six comparison operators.  Operands of known
+   * number or boolean type are compared as primitives; anything involving
+   * a node-set, string or other interpretive value goes through the XObject
+   * comparison methods to keep the XPath 1.0 rules.
+   *
+   * @param op The comparison.
+   */
+  private void compileComparison(Operation op)
+  {
+    Class cls = op.getClass();
+    Expression left = op.getLeftOperand();
+    Expression right = op.getRightOperand();
+    int leftType = typeOf(left);
+    int rightType = typeOf(right);
+    boolean equality = (cls == Equals.class || cls == NotEquals.class);
+
+    if (TYPE_OBJECT == leftType || TYPE_OBJECT == rightType)
+    {
+      String helper;
+
+      if (cls == Equals.class)
+        helper = "equals";
+      else if (cls == NotEquals.class)
+        helper = "notEquals";
+      else if (cls == Lt.class)
+        helper = "lessThan";
+      else if (cls == Lte.class)
+        helper = "lessThanOrEqual";
+      else if (cls == Gt.class)
+        helper = "greaterThan";
+      else
+        helper = "greaterThanOrEqual";
+
+      compileObject(left);
+      compileObject(right);
+      m_il.append(new INVOKESTATIC(m_cpg.addMethodref(COMPILED_CLASS,
+                                                      helper, COMPARE_SIG)));
+      return;
+    }
+
+    BranchHandle toFalse;
+
+    if (equality && (TYPE_BOOLEAN == leftType || TYPE_BOOLEAN == rightType))
+    {
+      // If either side is a boolean, both are compared as booleans.
+      compileBoolean(left);
+      compileBoolean(right);
+      toFalse = m_il.append((cls == Equals.class)
+                            ? (BranchInstruction) new IF_ICMPNE(null)
+                            : (BranchInstruction) new IF_ICMPEQ(null));
+    }
+    else
+    {
+      compileNumber(left);
+      compileNumber(right);
+
+      // NaN must make every comparison but != false, so pick the
+      // compare instruction that yields the failing result for NaN.
+      if (cls == Lt.class || cls == Lte.class)
+        m_il.append(InstructionConstants.DCMPG);
+      else
+        m_il.append(InstructionConstants.DCMPL);
+
+      BranchInstruction branch;
+
+      if (cls == Equals.class)
+        branch = new IFNE(null);
+      else if (cls == NotEquals.class)
+        branch = new IFEQ(null);
+      else if (cls == Lt.class)
+        branch = new IFGE(null);
+      else if (cls == Lte.class)
+        branch = new IFGT(null);
+      else if (cls == Gt.class)
+        branch = new IFLE(null);
+      else
+        branch = new IFLT(null);
+
+      toFalse = m_il.append(branch);
+    }
+
+    m_il.append(InstructionConstants.ICONST_1);
+
+    BranchHandle toEnd = m_il.append(new GOTO(null));
+    InstructionHandle falseHandle =
+      m_il.append(InstructionConstants.ICONST_0);
+
+    toFalse.setTarget(falseHandle);
+    toEnd.setTarget(m_il.append(InstructionConstants.NOP));
+  }
+
+  /**
+   * Emit code that pushes an interpretive subexpression from the operand
+   * array.
+   *
+   * @param expr The subexpression.
+   */
+  private void loadOperand(Expression expr)
+  {
+    int index = -1;
+    int n = m_operands.size();
+
+    for (int i = 0; i < n; i++)
+    {
+      if (m_operands.elementAt(i) == expr)
+      {
+        index = i;
+        break;
+      }
+    }
+
+    if (index < 0)
+    {
+      index = n;
+      m_operands.addElement(expr);
+    }
+
+    m_il.append(new ALOAD(OPERANDS_SLOT));
+    m_il.append(new PUSH(m_cpg, index));
+    m_il.append(InstructionConstants.AALOAD);
+  }
+
+  /**
+   * Class loader for a single generated expression class.
+   */
+  static final class ExpressionClassLoader extends ClassLoader
+  {
+
+    /**
+     * Construct a loader.
+     *
+     * @param parent The loader that can see the Xalan classes.
+     */
+    ExpressionClassLoader(ClassLoader parent)
+    {
+      super(parent);
+    }
+
+    /**
+     * Access to final protected superclass member from outer class.
+     *
+     * @param b The class file bytes.
+     * @return The defined class.
+     */
+    Class defineClass(final byte[] b)
+    {
+      return defineClass(null, b, 0, b.length);
+    }
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath.compiler;
+
+import java.io.ObjectStreamException;
+
+import org.apache.xpath.Expression;
+import org.apache.xpath.ExpressionOwner;
+import org.apache.xpath.XPathVisitor;
+import org.apache.xpath.objects.XBoolean;
+import org.apache.xpath.objects.XNumber;
+import org.apache.xpath.objects.XObject;
+
+/**
+ * Base class of the expression classes generated by
+ * {@link BytecodeCompiler}.  A generated subclass overrides
+ * {@link Expression#execute(org.apache.xpath.XPathContext)},
+ * {@link Expression#num(org.apache.xpath.XPathContext)} and
+ * {@link Expression#bool(org.apache.xpath.XPathContext)} with straight-line
+ * code for the operators of the original tree, and calls back into the
+ * interpretive expressions only for the leaves it could not compile, such as
+ * location paths and variables.
+ *
+ * <p>Everything else, including variable fixup, visitors and serialization,
+ * is delegated to the original expression tree.  Leaves are shared with that
+ * tree, so the expression must not be rewritten by visitors after it has been
+ * compiled.</p>
+ *
+ * <p>The static methods are called from generated code, which lives in its
+ * own class loader and so can only link to public members.</p>
+ * @xsl.usage internal
+ */
+public abstract class CompiledExpression extends Expression
+{
+    static final long serialVersionUID = -1393409373813462216L;
+
+  /** The interpretive expression this class was compiled from. */
+  protected final Expression m_source;
+
+  /** Subexpressions evaluated by interpretation, indexed by generated code. */
+  protected final Expression[] m_operands;
+
+  /**
+   * Construct a compiled expression.
+   *
+   * @param source The interpretive expression that was compiled.
+   * @param operands The uncompiled leaves and constants, in the order the
+   *                 generated code refers to them.
+   */
+  protected CompiledExpression(Expression source, Expression[] operands)
+  {
+    m_source = source;
+    m_operands = operands;
+  }
+
+  /**
+   * Get the interpretive expression this class was compiled from.
+   *
+   * @return The source expression, never null.
+   */
+  public Expression getSourceExpression()
+  {
+    return m_source;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void fixupVariables(java.util.Vector vars, int globalsSize)
+  {
+    m_source.fixupVariables(vars, globalsSize);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public boolean deepEquals(Expression expr)
+  {
+    if (expr instanceof CompiledExpression)
+      expr = ((CompiledExpression) expr).m_source;
+
+    return m_source.deepEquals(expr);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void callVisitors(ExpressionOwner owner, XPathVisitor visitor)
+  {
+    m_source.callVisitors(owner, visitor);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public boolean canTraverseOutsideSubtree()
+  {
+    return m_source.canTraverseOutsideSubtree();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public boolean isStableNumber()
+  {
+    return m_source.isStableNumber();
+  }
+
+  /**
+   * Generated classes cannot be deserialized in another VM, so serialize
+   * the source expression instead.
+   *
+   * @return The source expression.
+   *
+   * @throws ObjectStreamException never.
+   */
+  protected Object writeReplace() throws ObjectStreamException
+  {
+    return m_source;
+  }
+
+  /**
+   * Wrap a number result.
+   *
+   * @param d The number.
+   * @return A new XNumber.
+   */
+  public static XObject box(double d)
+  {
+    return new XNumber(d);
+  }
+
+  /**
+   * Wrap a boolean result.
+   *
+   * @param b The boolean.
+   * @return One of the shared XBoolean constants.
+   */
+  public static XObject box(boolean b)
+  {
+    return b ? XBoolean.S_TRUE : XBoolean.S_FALSE;
+  }
+
+  /**
+   * Convert a number to a boolean as the boolean() function does.
+   *
+   * @param d The number.
+   * @return false for zero and NaN, else true.
+   */
+  public static boolean bool(double d)
+  {
+    return (d != 0.0) && !java.lang.Double.isNaN(d);
+  }
+
+  /**
+   * Round a number as the round() function does.
+   *
+   * @param val The number.
+   * @return The rounded number.
+   */
+  public static double round(double val)
+  {
+    if (val >= -0.5 && val < 0)
+      return -0.0;
+    if (val == 0.0)
+      return val;
+    return java.lang.Math.floor(val + 0.5);
+  }
+
+  /**
+   * Compare two operands with '=' and release them.
+   *
+   * @param left The left operand.
+   * @param right The right operand.
+   * @return The result of the comparison.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public static boolean equals(XObject left, XObject right)
+          throws javax.xml.transform.TransformerException
+  {
+    boolean result = left.equals(right);
+    left.detach();
+    right.detach();
+    return result;
+  }
+
+  /**
+   * Compare two operands with '!=' and release them.
+   *
+   * @param left The left operand.
+   * @param right The right operand.
+   * @return The result of the comparison.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public static boolean notEquals(XObject left, XObject right)
+          throws javax.xml.transform.TransformerException
+  {
+    boolean result = left.notEquals(right);
+    left.detach();
+    right.detach();
+    return result;
+  }
+
+  /**
+   * Compare two operands with '&lt;' and release them.
+   *
+   * @param left The left operand.
+   * @param right The right operand.
+   * @return The result of the comparison.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public static boolean lessThan(XObject left, XObject right)
+          throws javax.xml.transform.TransformerException
+  {
+    boolean result = left.lessThan(right);
+    left.detach();
+    right.detach();
+    return result;
+  }
+
+  /**
+   * Compare two operands with '&lt;=' and release them.
+   *
+   * @param left The left operand.
+   * @param right The right operand.
+   * @return The result of the comparison.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public static boolean lessThanOrEqual(XObject left, XObject right)
+          throws javax.xml.transform.TransformerException
+  {
+    boolean result = left.lessThanOrEqual(right);
+    left.detach();
+    right.detach();
+    return result;
+  }
+
+  /**
+   * Compare two operands with '&gt;' and release them.
+   *
+   * @param left The left operand.
+   * @param right The right operand.
+   * @return The result of the comparison.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public static boolean greaterThan(XObject left, XObject right)
+          throws javax.xml.transform.TransformerException
+  {
+    boolean result = left.greaterThan(right);
+    left.detach();
+    right.detach();
+    return result;
+  }
+
+  /**
+   * Compare two operands with '&gt;=' and release them.
+   *
+   * @param left The left operand.
+   * @param right The right operand.
+   * @return The result of the comparison.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public static boolean greaterThanOrEqual(XObject left, XObject right)
+          throws javax.xml.transform.TransformerException
+  {
+    boolean result = left.greaterThanOrEqual(right);
+    left.detach();
+    right.detach();
+    return result;
+  }
+}
@@ -34,11 +34,35 @@ import org.apache.xml.utils.SAXSourceLocator;
 import org.apache.xpath.Expression;
 import org.apache.xpath.axes.UnionPathIterator;
 import org.apache.xpath.axes.WalkerFactory;
+import org.apache.xpath.functions.FuncBoolean;
+import org.apache.xpath.functions.FuncCeiling;
+import org.apache.xpath.functions.FuncConcat;
+import org.apache.xpath.functions.FuncContains;
+import org.apache.xpath.functions.FuncCount;
 import org.apache.xpath.functions.FuncExtFunction;
 import org.apache.xpath.functions.FuncExtFunctionAvailable;
+import org.apache.xpath.functions.FuncFalse;
+import org.apache.xpath.functions.FuncFloor;
+import org.apache.xpath.functions.FuncLang;
+import org.apache.xpath.functions.FuncLast;
+import org.apache.xpath.functions.FuncNormalizeSpace;
+import org.apache.xpath.functions.FuncNot;
+import org.apache.xpath.functions.FuncNumber;
+import org.apache.xpath.functions.FuncPosition;
+import org.apache.xpath.functions.FuncRound;
+import org.apache.xpath.functions.FuncStartsWith;
+import org.apache.xpath.functions.FuncString;
+import org.apache.xpath.functions.FuncStringLength;
+import org.apache.xpath.functions.FuncSubstring;
+import org.apache.xpath.functions.FuncSubstringAfter;
+import org.apache.xpath.functions.FuncSubstringBefore;
+import org.apache.xpath.functions.FuncSum;
+import org.apache.xpath.functions.FuncTranslate;
+import org.apache.xpath.functions.FuncTrue;
 import org.apache.xpath.functions.Function;
 import org.apache.xpath.functions.WrongNumberArgsException;
 import org.apache.xpath.objects.XNumber;
+import org.apache.xpath.objects.XObject;
 import org.apache.xpath.objects.XString;
 import org.apache.xpath.operations.And;
 import org.apache.xpath.operations.Div;
@@ -218,6 +242,117 @@ public class Compiler extends OpMap
     return operation;
   }
 
+  /**
+   * Compile a comparison, and record whether its operands can be compared
+   * as numbers or booleans through {@link Expression#num} and
+   * {@link Expression#bool}, so that neither they nor the result need to
+   * be allocated as XObjects.  That holds when neither operand can
+   * evaluate to a node-set or result tree fragment.  A variable reference
+   * can be bound to either, so a comparison such as <code>$a &gt; $b</code>
+   * is left to the XObjects the variables already hold.
+   *
+   * @param operation The comparison.
+   * @param opPos The op map position of the comparison.
+   * @param isEquality true for '=' and '!=', false for the relational
+   *                   operators.
+   *
+   * @return reference to the comparison.
+   *
+   * @throws TransformerException if there is a syntax or other error.
+   */
+  private Expression compileComparison(Operation operation, int opPos,
+                                       boolean isEquality)
+          throws TransformerException
+  {
+
+    compileOperation(operation, opPos);
+
+    int leftType = getStaticType(operation.getLeftOperand());
+    int rightType = getStaticType(operation.getRightOperand());
+    int compareType = XObject.CLASS_UNKNOWN;
+
+    if (XObject.CLASS_UNKNOWN != leftType
+        && XObject.CLASS_UNKNOWN != rightType)
+    {
+      if (!isEquality)
+        compareType = XObject.CLASS_NUMBER;
+      else if (XObject.CLASS_BOOLEAN == leftType
+               || XObject.CLASS_BOOLEAN == rightType)
+        compareType = XObject.CLASS_BOOLEAN;
+      else if (XObject.CLASS_NUMBER == leftType
+               || XObject.CLASS_NUMBER == rightType)
+        compareType = XObject.CLASS_NUMBER;
+    }
+
+    operation.setCompareType(compareType);
+
+    return operation;
+  }
+
+  /**
+   * Find the type an expression is guaranteed to evaluate to.  Variables,
+   * location paths, extension functions and anything else whose type is
+   * only known at run time are reported as unknown.
+   *
+   * @param expr A compiled expression.
+   *
+   * @return {@link XObject#CLASS_NUMBER}, {@link XObject#CLASS_BOOLEAN},
+   *         {@link XObject#CLASS_STRING} or {@link XObject#CLASS_UNKNOWN}.
+   */
+  private static int getStaticType(Expression expr)
+  {
+
+    if (expr instanceof XObject)
+    {
+      int type = ((XObject) expr).getType();
+
+      switch (type)
+      {
+      case XObject.CLASS_NUMBER :
+      case XObject.CLASS_BOOLEAN :
+      case XObject.CLASS_STRING :
+        return type;
+      default :
+        return XObject.CLASS_UNKNOWN;
+      }
+    }
+
+    // Functions are checked by exact class, since an installed
+    // replacement may return something else.
+    Class cls = expr.getClass();
+
+    if (expr instanceof Plus || expr instanceof Minus
+        || expr instanceof Mult || expr instanceof Div
+        || expr instanceof Mod || expr instanceof Neg
+        || expr instanceof org.apache.xpath.operations.Number
+        || cls == FuncCount.class || cls == FuncSum.class
+        || cls == FuncNumber.class || cls == FuncFloor.class
+        || cls == FuncCeiling.class || cls == FuncRound.class
+        || cls == FuncStringLength.class || cls == FuncPosition.class
+        || cls == FuncLast.class)
+      return XObject.CLASS_NUMBER;
+
+    if (expr instanceof And || expr instanceof Or
+        || expr instanceof org.apache.xpath.operations.Bool
+        || expr instanceof Equals || expr instanceof NotEquals
+        || expr instanceof Lt || expr instanceof Lte
+        || expr instanceof Gt || expr instanceof Gte
+        || cls == FuncNot.class || cls == FuncBoolean.class
+        || cls == FuncTrue.class || cls == FuncFalse.class
+        || cls == FuncLang.class || cls == FuncContains.class
+        || cls == FuncStartsWith.class)
+      return XObject.CLASS_BOOLEAN;
+
+    if (expr instanceof org.apache.xpath.operations.String
+        || cls == FuncString.class || cls == FuncConcat.class
+        || cls == FuncSubstring.class || cls == FuncSubstringBefore.class
+        || cls == FuncSubstringAfter.class
+        || cls == FuncNormalizeSpace.class || cls == FuncTranslate.class)
+      return XObject.CLASS_STRING;
+
+    return XObject.CLASS_UNKNOWN;
+  }
+
   /**
    * Bottle-neck compilation of a unary operation.
    *
@@ -278,7 +413,7 @@ public class Compiler extends OpMap
    */
   protected Expression notequals(int opPos) throws TransformerException
   {
-    return compileOperation(new NotEquals(), opPos);
+    return compileComparison(new NotEquals(), opPos, true);
   }
 
   /**
@@ -292,7 +427,7 @@ public class Compiler extends OpMap
    */
   protected Expression equals(int opPos) throws TransformerException
   {
-    return compileOperation(new Equals(), opPos);
+    return compileComparison(new Equals(), opPos, true);
   }
 
   /**
@@ -306,7 +441,7 @@ public class Compiler extends OpMap
    */
   protected Expression lte(int opPos) throws TransformerException
   {
-    return compileOperation(new Lte(), opPos);
+    return compileComparison(new Lte(), opPos, false);
   }
 
   /**
@@ -320,7 +455,7 @@ public class Compiler extends OpMap
    */
   protected Expression lt(int opPos) throws TransformerException
   {
-    return compileOperation(new Lt(), opPos);
+    return compileComparison(new Lt(), opPos, false);
   }
 
   /**
@@ -334,7 +469,7 @@ public class Compiler extends OpMap
    */
   protected Expression gte(int opPos) throws TransformerException
   {
-    return compileOperation(new Gte(), opPos);
+    return compileComparison(new Gte(), opPos, false);
   }
 
   /**
@@ -348,7 +483,7 @@ public class Compiler extends OpMap
    */
   protected Expression gt(int opPos) throws TransformerException
   {
-    return compileOperation(new Gt(), opPos);
+    return compileComparison(new Gt(), opPos, false);
   }
 
   /**
@@ -42,6 +42,19 @@ public class FuncCeiling extends FunctionOneArg
    */
   public XObject execute(XPathContext xctxt) throws javax.xml.transform.TransformerException
   {
-    return new XNumber(Math.ceil(m_arg0.execute(xctxt).num()));
+    return new XNumber(num(xctxt));
+  }
+
+  /**
+   * Evaluate the function directly to a double, without creating an
+   * XNumber.
+   * @param xctxt The current execution context.
+   * @return The result of the function as a double.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return Math.ceil(m_arg0.num(xctxt));
   }
 }
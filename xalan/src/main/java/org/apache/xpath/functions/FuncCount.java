@@ -55,10 +55,23 @@ public class FuncCount extends FunctionOneArg
 //      i++;
 //    }
 //    nl.detach();
+    return new XNumber(num(xctxt));
+  }
+
+  /**
+   * Evaluate the function directly to a double, without creating an
+   * XNumber.
+   * @param xctxt The current execution context.
+   * @return The result of the function as a double.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
 	DTMIterator nl = m_arg0.asIterator(xctxt, xctxt.getCurrentNode());
 	int i = nl.getLength();	
 	nl.detach();
 
-    return new XNumber((double) i);
+    return (double) i;
   }
 }
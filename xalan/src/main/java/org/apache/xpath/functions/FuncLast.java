@@ -94,6 +94,19 @@ public class FuncLast extends Function
     // System.out.println("last: "+xnum.num());
     return xnum;
   }
+
+  /**
+   * Evaluate the function directly to a double, without creating an
+   * XNumber.
+   * @param xctxt The current execution context.
+   * @return The result of the function as a double.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return (double) getCountOfContextNodeList(xctxt);
+  }
   
   /**
    * No arguments to process, so this does nothing.
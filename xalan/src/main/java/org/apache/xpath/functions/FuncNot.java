@@ -42,6 +42,18 @@ public class FuncNot extends FunctionOneArg
    */
   public XObject execute(XPathContext xctxt) throws javax.xml.transform.TransformerException
   {
-    return m_arg0.execute(xctxt).bool() ? XBoolean.S_FALSE : XBoolean.S_TRUE;
+    return bool(xctxt) ? XBoolean.S_TRUE : XBoolean.S_FALSE;
+  }
+
+  /**
+   * Evaluate the function directly to a boolean.
+   * @param xctxt The current execution context.
+   * @return The result of the function as a boolean.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public boolean bool(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return !m_arg0.bool(xctxt);
   }
 }
@@ -44,4 +44,17 @@ public class FuncNumber extends FunctionDef1Arg
   {
     return new XNumber(getArg0AsNumber(xctxt));
   }
+
+  /**
+   * Evaluate the function directly to a double, without creating an
+   * XNumber.
+   * @param xctxt The current execution context.
+   * @return The result of the function as a double.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return getArg0AsNumber(xctxt);
+  }
 }
@@ -123,6 +123,19 @@ public class FuncPosition extends Function
     
     return new XNumber(pos);
   }
+
+  /**
+   * Evaluate the function directly to a double, without creating an
+   * XNumber.
+   * @param xctxt The current execution context.
+   * @return The result of the function as a double.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return (double) getPositionInContextNodeList(xctxt);
+  }
   
   /**
    * No arguments to process, so this does nothing.
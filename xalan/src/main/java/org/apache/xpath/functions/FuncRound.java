@@ -42,11 +42,22 @@ public class FuncRound extends FunctionOneArg
    */
   public XObject execute(XPathContext xctxt) throws javax.xml.transform.TransformerException
   {
-          final XObject obj = m_arg0.execute(xctxt);
-          final double val= obj.num();
-          if (val >= -0.5 && val < 0) return new XNumber(-0.0);
-          if (val == 0.0) return new XNumber(val);
-          return new XNumber(java.lang.Math.floor(val
-                                            + 0.5));
+    return new XNumber(num(xctxt));
+  }
+
+  /**
+   * Evaluate the function directly to a double, without creating an
+   * XNumber.
+   * @param xctxt The current execution context.
+   * @return The result of the function as a double.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+          final double val= m_arg0.num(xctxt);
+          if (val >= -0.5 && val < 0) return -0.0;
+          if (val == 0.0) return val;
+          return java.lang.Math.floor(val + 0.5);
   }
 }
@@ -44,6 +44,19 @@ public class FuncSum extends FunctionOneArg
    * @throws javax.xml.transform.TransformerException
    */
   public XObject execute(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return new XNumber(num(xctxt));
+  }
+
+  /**
+   * Evaluate the function directly to a double, without creating an
+   * XNumber.
+   * @param xctxt The current execution context.
+   * @return The result of the function as a double.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public double num(XPathContext xctxt) throws javax.xml.transform.TransformerException
   {
 
     DTMIterator nodes = m_arg0.asIterator(xctxt, xctxt.getCurrentNode());
@@ -60,6 +73,6 @@ public class FuncSum extends FunctionOneArg
     }
     nodes.detach();
 
-    return new XNumber(sum);
+    return sum;
   }
 }
@@ -44,6 +44,18 @@ public class FuncTrue extends Function
   {
     return XBoolean.S_TRUE;
   }
+
+  /**
+   * Evaluate the function directly to a boolean.
+   * @param xctxt The current execution context.
+   * @return The result of the function as a boolean.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public boolean bool(XPathContext xctxt) throws javax.xml.transform.TransformerException
+  {
+    return true;
+  }
   
   /**
    * No arguments to process, so this does nothing.
@@ -20,6 +20,8 @@
  */
 package org.apache.xpath.objects;
 
+import org.apache.xml.utils.DoubleToDecimal;
+import org.apache.xml.utils.FastStringBuffer;
 import org.apache.xpath.ExpressionOwner;
 import org.apache.xpath.XPathContext;
 import org.apache.xpath.XPathVisitor;
@@ -276,96 +278,41 @@ public class XNumber extends XObject
    */
   public String str()
   {
-
-    if (Double.isNaN(m_val))
-    {
-      return "NaN";
-    }
-    else if (Double.isInfinite(m_val))
-    {
-      if (m_val > 0)
-        return "Infinity";
-      else
-        return "-Infinity";
-    }
-
-    double num = m_val;
-    String s = Double.toString(num);
-    int len = s.length();
-
-    if (s.charAt(len - 2) == '.' && s.charAt(len - 1) == '0')
-    {
-      s = s.substring(0, len - 2);
-
-      if (s.equals("-0"))
-        return "0";
-
-      return s;
-    }
-
-    int e = s.indexOf('E');
-
-    if (e < 0)
-    {
-      if (s.charAt(len - 1) == '0')
-        return s.substring(0, len - 1);
-      else
-        return s;
-    }
-
-    int exp = Integer.parseInt(s.substring(e + 1));
-    String sign;
-
-    if (s.charAt(0) == '-')
-    {
-      sign = "-";
-      s = s.substring(1);
-
-      --e;
-    }
-    else
-      sign = "";
-
-    int nDigits = e - 2;
-
-    if (exp >= nDigits)
-      return sign + s.substring(0, 1) + s.substring(2, e)
-             + zeros(exp - nDigits);
-
-    // Eliminate trailing 0's - bugzilla 14241
-    while (s.charAt(e-1) == '0')
-      e--;
-         
-    if (exp > 0)
-      return sign + s.substring(0, 1) + s.substring(2, 2 + exp) + "."
-             + s.substring(2 + exp, e);
-
-    return sign + "0." + zeros(-1 - exp) + s.substring(0, 1)
-           + s.substring(2, e);
+    return DoubleToDecimal.toString(m_val);
   }
 
-
   /**
-   * Return a string of '0' of the given length
+   * Directly call the
+   * characters method on the passed ContentHandler for the
+   * string-value, without creating a String.
    *
+   * @param ch A non-null reference to a ContentHandler.
    *
-   * @param n Length of the string to be returned
-   *
-   * @return a string of '0' with the given length
+   * @throws org.xml.sax.SAXException
    */
-  static private String zeros(int n)
+  public void dispatchCharactersEvents(org.xml.sax.ContentHandler ch)
+          throws org.xml.sax.SAXException
   {
-    if (n < 1)
-      return "";
-
-    char[] buf = new char[n];
+    char[] buf = new char[24];
+    int n = DoubleToDecimal.toChars(m_val, buf, 0);
 
-    for (int i = 0; i < n; i++)
+    if (n < 0)
     {
-      buf[i] = '0';
+      buf = new char[-n];
+      n = DoubleToDecimal.toChars(m_val, buf, 0);
     }
 
-    return new String(buf);
+    ch.characters(buf, 0, n);
+  }
+
+  /**
+   * Cast result object to a string and append it to the buffer.
+   *
+   * @param fsb The buffer.
+   */
+  public void appendToFsb(FastStringBuffer fsb)
+  {
+    DoubleToDecimal.appendTo(m_val, fsb);
   }
 
   /**
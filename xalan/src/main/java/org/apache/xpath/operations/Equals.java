@@ -47,27 +47,31 @@ public class Equals extends Operation
   {
     return left.equals(right) ? XBoolean.S_TRUE : XBoolean.S_FALSE;
   }
-  
+
   /**
-   * Execute a binary operation by calling execute on each of the operands,
-   * and then calling the operate method on the derived class.
-   *
+   * Tell whether the operands are equal.  Known operand types are
+   * compared as booleans if either is a boolean, and otherwise as numbers.
    *
    * @param xctxt The runtime execution context.
    *
-   * @return The XObject result of the operation.
+   * @return The result of the comparison.
    *
    * @throws javax.xml.transform.TransformerException
    */
   public boolean bool(XPathContext xctxt)
           throws javax.xml.transform.TransformerException
   {
+    if (XObject.CLASS_NUMBER == m_compareType)
+      return m_left.num(xctxt) == m_right.num(xctxt);
+    if (XObject.CLASS_BOOLEAN == m_compareType)
+      return m_left.bool(xctxt) == m_right.bool(xctxt);
+
     XObject left = m_left.execute(xctxt, true);
     XObject right = m_right.execute(xctxt, true);
 
-    boolean result = left.equals(right) ? true : false;
-	left.detach();
-	right.detach();
+    boolean result = left.equals(right);
+    left.detach();
+    right.detach();
     return result;
   }
 
@@ -20,6 +20,7 @@
  */
 package org.apache.xpath.operations;
 
+import org.apache.xpath.XPathContext;
 import org.apache.xpath.objects.XBoolean;
 import org.apache.xpath.objects.XObject;
 
@@ -46,4 +47,28 @@ public class Lte extends Operation
   {
     return left.lessThanOrEqual(right) ? XBoolean.S_TRUE : XBoolean.S_FALSE;
   }
+
+  /**
+   * Tell whether the left operand is less than or equal to the right one.
+   *
+   * @param xctxt The runtime execution context.
+   *
+   * @return The result of the comparison.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public boolean bool(XPathContext xctxt)
+          throws javax.xml.transform.TransformerException
+  {
+    if (XObject.CLASS_NUMBER == m_compareType)
+      return m_left.num(xctxt) <= m_right.num(xctxt);
+
+    XObject left = m_left.execute(xctxt, true);
+    XObject right = m_right.execute(xctxt, true);
+
+    boolean result = left.lessThanOrEqual(right);
+    left.detach();
+    right.detach();
+    return result;
+  }
 }
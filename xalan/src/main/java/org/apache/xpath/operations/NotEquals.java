@@ -20,6 +20,7 @@
  */
 package org.apache.xpath.operations;
 
+import org.apache.xpath.XPathContext;
 import org.apache.xpath.objects.XBoolean;
 import org.apache.xpath.objects.XObject;
 
@@ -46,4 +47,31 @@ public class NotEquals extends Operation
   {
     return (left.notEquals(right)) ? XBoolean.S_TRUE : XBoolean.S_FALSE;
   }
+
+  /**
+   * Tell whether the operands are not equal, converting them the same
+   * way {@link Equals#bool} does.
+   *
+   * @param xctxt The runtime execution context.
+   *
+   * @return The result of the comparison.
+   *
+   * @throws javax.xml.transform.TransformerException
+   */
+  public boolean bool(XPathContext xctxt)
+          throws javax.xml.transform.TransformerException
+  {
+    if (XObject.CLASS_NUMBER == m_compareType)
+      return m_left.num(xctxt) != m_right.num(xctxt);
+    if (XObject.CLASS_BOOLEAN == m_compareType)
+      return m_left.bool(xctxt) != m_right.bool(xctxt);
+
+    XObject left = m_left.execute(xctxt, true);
+    XObject right = m_right.execute(xctxt, true);
+
+    boolean result = left.notEquals(right);
+    left.detach();
+    right.detach();
+    return result;
+  }
 }
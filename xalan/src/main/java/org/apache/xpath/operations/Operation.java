@@ -24,6 +24,7 @@ import org.apache.xpath.Expression;
 import org.apache.xpath.ExpressionOwner;
 import org.apache.xpath.XPathContext;
 import org.apache.xpath.XPathVisitor;
+import org.apache.xpath.objects.XBoolean;
 import org.apache.xpath.objects.XObject;
 
 /**
@@ -40,6 +41,14 @@ public class Operation extends Expression implements ExpressionOwner
   /** The right operand expression.
    *  @serial */
   protected Expression m_right;
+
+  /** The type the comparison operators may convert both operands to
+   *  before any evaluation, as found by the
+   *  {@link org.apache.xpath.compiler.Compiler}, or
+   *  {@link XObject#CLASS_UNKNOWN} if they have to be evaluated to objects
+   *  first.
+   *  @serial */
+  protected int m_compareType = XObject.CLASS_UNKNOWN;
   
   /**
    * This function is used to fixup variables from QNames to stack frame 
@@ -91,10 +100,40 @@ public class Operation extends Expression implements ExpressionOwner
     r.exprSetParent(this);
   }
 
+  /**
+   * Set the type both operands can be compared as without evaluating them
+   * to objects.  Only the comparison operators use this.
+   *
+   * @param type {@link XObject#CLASS_NUMBER}, {@link XObject#CLASS_BOOLEAN}
+   *             or {@link XObject#CLASS_UNKNOWN}.
+   */
+  public void setCompareType(int type)
+  {
+    m_compareType = type;
+  }
+
+  /**
+   * Get the type both operands can be compared as without evaluating them
+   * to objects.
+   *
+   * @return {@link XObject#CLASS_NUMBER}, {@link XObject#CLASS_BOOLEAN}
+   *         or {@link XObject#CLASS_UNKNOWN}.
+   */
+  public int getCompareType()
+  {
+    return m_compareType;
+  }
+
   /**
    * Execute a binary operation by calling execute on each of the operands,
    * and then calling the operate method on the derived class.
    *
+   * A comparison whose compare type is known is instead evaluated by its
+   * bool method, which converts the operands without creating objects
+   * for them.  Operands whose type is only known at run time, such as the
+   * variable references in <code>$a &gt; $b</code>, still go through
+   * operate; a variable hands back the object it is bound to, so comparing
+   * two number or boolean variables creates no objects either.
    *
    * @param xctxt The runtime execution context.
    *
@@ -106,6 +145,9 @@ public class Operation extends Expression implements ExpressionOwner
           throws javax.xml.transform.TransformerException
   {
 
+    if (XObject.CLASS_UNKNOWN != m_compareType)
+      return bool(xctxt) ? XBoolean.S_TRUE : XBoolean.S_FALSE;
+
     XObject left = m_left.execute(xctxt, true);
     XObject right = m_right.execute(xctxt, true);
 
@@ -354,6 +354,9 @@ public static final String ER_IGNORABLE_WHITESPACE_NOT_HANDLED =
   /**  str() not supported by XRTreeFragSelectWrapper   */
   public static final String ER_STR_NOT_SUPPORTED_XRTREEFRAGSELECTWRAPPER =
 	 "ER_STR_NOT_SUPPORTED_XRTREEFRAGSELECTWRAPPER";
+  /**  Expression outside the subset supported by StreamingXPath   */
+  public static final String ER_EXPRESSION_NOT_STREAMABLE =
+	 "ER_EXPRESSION_NOT_STREAMABLE";
 
   // Error messages...
 
@@ -602,6 +605,9 @@ public static final String ER_IGNORABLE_WHITESPACE_NOT_HANDLED =
    { ER_STR_NOT_SUPPORTED_XRTREEFRAGSELECTWRAPPER,
 		"str() not supported by XRTreeFragSelectWrapper"},
 
+   { ER_EXPRESSION_NOT_STREAMABLE,
+		"The XPath expression ''{0}'' cannot be evaluated in a single forward pass over the document."},
+
   { ER_FSB_NOT_SUPPORTED_XSTRINGFORCHARS,
        "fsb() not supported for XStringForChars"},
 
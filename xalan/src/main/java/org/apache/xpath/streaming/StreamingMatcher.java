@@ -0,0 +1,748 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath.streaming;
+
+import java.util.Arrays;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX handler that runs the steps of a {@link StreamingXPath} as a
+ * nondeterministic automaton over the parse events.  Each open element
+ * keeps the set of step indexes for which it is a context node; a child's
+ * set is derived from its parent's set when its start tag arrives, so the
+ * matcher never needs more than the current ancestor chain.
+ *
+ * <p>Selected nodes are reported in document order.  When string-values are
+ * wanted, an element's value is only complete at its end tag, so values are
+ * queued in document order and released as soon as the earliest one is
+ * done.</p>
+ *
+ * <p>A matcher is used for one parse and is not thread safe.</p>
+ * @xsl.usage internal
+ */
+final class StreamingMatcher extends DefaultHandler implements LexicalHandler
+{
+
+  /**
+   * Thrown from a callback to abandon the parse once the result of the
+   * evaluation is known.
+   */
+  static final class StopParsingException extends SAXException
+  {
+    static final long serialVersionUID = -3071591349541447427L;
+
+    /**
+     * Construct the exception.
+     */
+    StopParsingException()
+    {
+      super("Streaming XPath evaluation complete");
+    }
+  }
+
+  /** The steps of the path. */
+  private final StreamingStep[] m_steps;
+
+  /** Number of steps; a frame whose state set holds this value is selected. */
+  private final int m_n;
+
+  /** true if string-values must be collected for selected nodes. */
+  private final boolean m_wantValues;
+
+  /** Stop after this many selected nodes, or never if not positive. */
+  private final int m_limit;
+
+  /** Callback for selected nodes, may be null. */
+  private final StreamingXPathListener m_listener;
+
+  /** The number of selected nodes reported so far. */
+  private int m_count;
+
+  /** The string-value of the first selected node, if values are wanted. */
+  private String m_first;
+
+  /** The frame stack; m_frames[0] is the document node. */
+  private Frame[] m_frames = new Frame[16];
+
+  /** Index of the current frame. */
+  private int m_depth = -1;
+
+  /** Dedupe marks for state set construction, indexed by step. */
+  private final int[] m_seen;
+
+  /** Current generation for m_seen. */
+  private int m_generation;
+
+  /** Values of selected nodes not yet reported, in document order. */
+  private StringBuffer[] m_values = new StringBuffer[8];
+
+  /** Completion flags that parallel m_values. */
+  private boolean[] m_done = new boolean[8];
+
+  /** First unreported entry in m_values. */
+  private int m_head;
+
+  /** One past the last entry in m_values. */
+  private int m_tail;
+
+  /** Indexes into m_values of selected elements whose end tag is pending. */
+  private int[] m_open = new int[8];
+
+  /** Number of entries in m_open. */
+  private int m_openTop;
+
+  /** true while inside a text node, i.e. after characters and before markup. */
+  private boolean m_inText;
+
+  /** Index into m_values of the current text node, or -1 if not selected. */
+  private int m_textSlot = -1;
+
+  /**
+   * Construct a matcher for one parse.
+   *
+   * @param steps The compiled steps.
+   * @param wantValues true if string-values of selected nodes are needed.
+   * @param limit Stop after this many selected nodes, or 0 for no limit.
+   * @param listener Callback for selected nodes, or null.
+   */
+  StreamingMatcher(StreamingStep[] steps, boolean wantValues, int limit,
+                   StreamingXPathListener listener)
+  {
+    m_steps = steps;
+    m_n = steps.length;
+    m_wantValues = wantValues;
+    m_limit = limit;
+    m_listener = listener;
+    m_seen = new int[m_n + 1];
+  }
+
+  /**
+   * Get the number of selected nodes seen before the parse ended.
+   *
+   * @return The count, which is at most the limit given at construction.
+   */
+  int getCount()
+  {
+    return m_count;
+  }
+
+  /**
+   * Get the string-value of the first selected node.
+   *
+   * @return The value, or null if nothing was selected.
+   */
+  String getFirst()
+  {
+    return m_first;
+  }
+
+  // ======== ContentHandler ========
+
+  /**
+   * Push the frame for the document node.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  public void startDocument() throws SAXException
+  {
+    m_depth = -1;
+    Frame root = pushFrame();
+
+    addState(root, 0);
+    closure(root, null, null);
+
+    if (root.contains(m_n))
+      startMatch(root);
+  }
+
+  /**
+   * Report the document node if it was selected.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  public void endDocument() throws SAXException
+  {
+    endText();
+
+    if (m_depth >= 0)
+      endFrame(m_frames[m_depth]);
+
+    m_depth = -1;
+  }
+
+  /**
+   * Derive the state set of a new element from its parent's.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  public void startElement(String uri, String localName, String qName,
+                           Attributes attrs) throws SAXException
+  {
+    endText();
+
+    Frame parent = m_frames[m_depth];
+    Frame frame = pushFrame();
+
+    for (int i = 0; i < parent.m_size; i++)
+    {
+      int k = parent.m_states[i];
+
+      if (k == m_n)
+        continue;
+
+      StreamingStep step = m_steps[k];
+
+      switch (step.m_axis)
+      {
+      case StreamingStep.AXIS_CHILD :
+        if (step.testName(uri, localName)
+            && (!step.hasPredicates()
+                || step.acceptPredicates(attrs, parent.counters(k, step))))
+          addState(frame, k + 1);
+        break;
+      case StreamingStep.AXIS_DESCENDANT :
+        addState(frame, k);
+        if (step.testName(uri, localName)
+            && (!step.hasPredicates()
+                || step.acceptPredicates(attrs, parent.counters(k, step))))
+          addState(frame, k + 1);
+        break;
+      case StreamingStep.AXIS_DESCENDANT_OR_SELF :
+        addState(frame, k);
+        break;
+      default :
+        break;
+      }
+    }
+
+    closure(frame, uri, localName);
+
+    if (frame.contains(m_n))
+      startMatch(frame);
+
+    if (m_n > 0 && frame.contains(m_n - 1)
+        && StreamingStep.AXIS_ATTRIBUTE == m_steps[m_n - 1].m_axis)
+      matchAttributes(frame, attrs);
+  }
+
+  /**
+   * Finish the current element.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  public void endElement(String uri, String localName, String qName)
+          throws SAXException
+  {
+    endText();
+    endFrame(m_frames[m_depth]);
+    m_depth--;
+  }
+
+  /**
+   * Start or extend a text node.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  public void characters(char ch[], int start, int length) throws SAXException
+  {
+    if (!m_inText)
+    {
+      m_inText = true;
+      startText(m_frames[m_depth]);
+    }
+
+    if (m_wantValues)
+    {
+      for (int i = 0; i < m_openTop; i++)
+        m_values[m_open[i]].append(ch, start, length);
+
+      if (m_textSlot >= 0)
+        m_values[m_textSlot].append(ch, start, length);
+    }
+  }
+
+  /**
+   * Whitespace in element content is still a text node in the XPath
+   * data model.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  public void ignorableWhitespace(char ch[], int start, int length)
+          throws SAXException
+  {
+    characters(ch, start, length);
+  }
+
+  /**
+   * A processing instruction ends the current text node.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  public void processingInstruction(String target, String data)
+          throws SAXException
+  {
+    endText();
+  }
+
+  // ======== LexicalHandler ========
+
+  /**
+   * A comment ends the current text node.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  public void comment(char ch[], int start, int length) throws SAXException
+  {
+    endText();
+  }
+
+  /** Ignored. */
+  public void startDTD(String name, String publicId, String systemId) {}
+
+  /** Ignored. */
+  public void endDTD() {}
+
+  /** Ignored. */
+  public void startEntity(String name) {}
+
+  /** Ignored. */
+  public void endEntity(String name) {}
+
+  /** Ignored; CDATA content is part of the surrounding text node. */
+  public void startCDATA() {}
+
+  /** Ignored; CDATA content is part of the surrounding text node. */
+  public void endCDATA() {}
+
+  // ======== Matching ========
+
+  /**
+   * Push a cleared frame, reusing a previously allocated one if possible.
+   *
+   * @return The new current frame.
+   */
+  private Frame pushFrame()
+  {
+    if (++m_depth == m_frames.length)
+    {
+      Frame[] frames = new Frame[m_frames.length * 2];
+      System.arraycopy(m_frames, 0, frames, 0, m_frames.length);
+      m_frames = frames;
+    }
+
+    Frame frame = m_frames[m_depth];
+
+    if (null == frame)
+      m_frames[m_depth] = frame = new Frame();
+    else
+      frame.clear();
+
+    if (++m_generation == Integer.MAX_VALUE)
+    {
+      Arrays.fill(m_seen, 0);
+      m_generation = 1;
+    }
+
+    return frame;
+  }
+
+  /**
+   * Add a state to a frame unless it is already there.
+   *
+   * @param frame The frame being built by {@link #pushFrame}.
+   * @param k The step index.
+   */
+  private void addState(Frame frame, int k)
+  {
+    if (m_seen[k] != m_generation)
+    {
+      m_seen[k] = m_generation;
+      frame.add(k);
+    }
+  }
+
+  /**
+   * Add the states reached from the frame's own node through self and
+   * descendant-or-self steps.
+   *
+   * @param frame The frame being built.
+   * @param uri The element's namespace URI, or null for the document node.
+   * @param localName The element's local name, or null for the document node.
+   */
+  private void closure(Frame frame, String uri, String localName)
+  {
+    // The set grows while we walk it.
+    for (int i = 0; i < frame.m_size; i++)
+    {
+      int k = frame.m_states[i];
+
+      if (k == m_n)
+        continue;
+
+      StreamingStep step = m_steps[k];
+
+      if (StreamingStep.AXIS_SELF == step.m_axis
+          || StreamingStep.AXIS_DESCENDANT_OR_SELF == step.m_axis)
+      {
+        boolean pass = (null == uri)
+                       ? StreamingStep.TEST_NODE == step.m_testType
+                       : step.testName(uri, localName);
+
+        if (pass)
+          addState(frame, k + 1);
+      }
+    }
+  }
+
+  /**
+   * Report the attributes of an element that pass the final attribute step.
+   *
+   * @param frame The element's frame.
+   * @param attrs The element's attributes.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  private void matchAttributes(Frame frame, Attributes attrs)
+          throws SAXException
+  {
+    int k = m_n - 1;
+    StreamingStep step = m_steps[k];
+    int n = attrs.getLength();
+
+    for (int i = 0; i < n; i++)
+    {
+      String uri = attrs.getURI(i);
+
+      if (step.testName((null == uri) ? "" : uri, attrs.getLocalName(i))
+          && (!step.hasPredicates()
+              || step.acceptPredicates(null, frame.counters(k, step))))
+      {
+        if (m_wantValues)
+          complete(reserve(), attrs.getValue(i));
+        else
+          found(null);
+      }
+    }
+  }
+
+  /**
+   * Decide whether a new text node is selected.
+   *
+   * @param parent The frame of the text node's parent.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  private void startText(Frame parent) throws SAXException
+  {
+    m_textSlot = -1;
+
+    // Only the last step can select a text node.
+    int k = m_n - 1;
+
+    if (k >= 0 && parent.contains(k))
+    {
+      StreamingStep step = m_steps[k];
+
+      if (StreamingStep.AXIS_ATTRIBUTE != step.m_axis
+          && StreamingStep.AXIS_SELF != step.m_axis
+          && step.testText()
+          && (!step.hasPredicates()
+              || step.acceptPredicates(null, parent.counters(k, step))))
+      {
+        if (m_wantValues)
+          m_textSlot = reserve();
+        else
+          found(null);
+      }
+    }
+  }
+
+  /**
+   * End the current text node, if any.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  private void endText() throws SAXException
+  {
+    if (m_inText)
+    {
+      m_inText = false;
+
+      if (m_textSlot >= 0)
+      {
+        int slot = m_textSlot;
+
+        m_textSlot = -1;
+        complete(slot, null);
+      }
+    }
+  }
+
+  /**
+   * Note that the node of a frame was selected.
+   *
+   * @param frame The frame of the selected node.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  private void startMatch(Frame frame) throws SAXException
+  {
+    if (!m_wantValues)
+    {
+      found(null);
+      return;
+    }
+
+    int slot = reserve();
+
+    frame.m_slot = slot;
+
+    if (m_openTop == m_open.length)
+    {
+      int[] open = new int[m_openTop * 2];
+      System.arraycopy(m_open, 0, open, 0, m_openTop);
+      m_open = open;
+    }
+
+    m_open[m_openTop++] = slot;
+  }
+
+  /**
+   * Complete the value of a selected element or document node.
+   *
+   * @param frame The frame being popped.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  private void endFrame(Frame frame) throws SAXException
+  {
+    if (frame.m_slot >= 0)
+    {
+      int slot = frame.m_slot;
+
+      frame.m_slot = -1;
+      m_openTop--;
+      complete(slot, null);
+    }
+  }
+
+  /**
+   * Reserve the next slot in the value queue.
+   *
+   * @return The slot index.
+   */
+  private int reserve()
+  {
+    if (m_tail == m_values.length)
+    {
+      int live = m_tail - m_head;
+
+      if (m_head > 0 && live < m_values.length / 2)
+      {
+        // Compact in place; open slots are renumbered accordingly.
+        System.arraycopy(m_values, m_head, m_values, 0, live);
+        System.arraycopy(m_done, m_head, m_done, 0, live);
+        Arrays.fill(m_values, live, m_tail, null);
+
+        for (int i = 0; i < m_openTop; i++)
+          m_open[i] -= m_head;
+
+        for (int i = 0; i <= m_depth; i++)
+        {
+          if (m_frames[i].m_slot >= 0)
+            m_frames[i].m_slot -= m_head;
+        }
+
+        if (m_textSlot >= 0)
+          m_textSlot -= m_head;
+
+        m_head = 0;
+        m_tail = live;
+      }
+      else
+      {
+        StringBuffer[] values = new StringBuffer[m_values.length * 2];
+        boolean[] done = new boolean[values.length];
+
+        System.arraycopy(m_values, 0, values, 0, m_tail);
+        System.arraycopy(m_done, 0, done, 0, m_tail);
+        m_values = values;
+        m_done = done;
+      }
+    }
+
+    int slot = m_tail++;
+
+    m_values[slot] = new StringBuffer();
+    m_done[slot] = false;
+
+    return slot;
+  }
+
+  /**
+   * Mark a slot complete and report every leading completed slot.
+   *
+   * @param slot The slot index.
+   * @param value The complete value, or null to use the accumulated text.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  private void complete(int slot, String value) throws SAXException
+  {
+    if (null != value)
+      m_values[slot].append(value);
+
+    m_done[slot] = true;
+
+    while (m_head < m_tail && m_done[m_head])
+    {
+      String s = m_values[m_head].toString();
+
+      m_values[m_head++] = null;
+      found(s);
+    }
+
+    if (m_head == m_tail)
+      m_head = m_tail = 0;
+  }
+
+  /**
+   * Count a selected node and stop the parse if the result is known.
+   *
+   * @param value The node's string-value, or null if values are not wanted.
+   *
+   * @throws SAXException if the evaluation is complete.
+   */
+  private void found(String value) throws SAXException
+  {
+    m_count++;
+
+    if (null == m_first)
+      m_first = value;
+
+    if (null != m_listener && !m_listener.match(value))
+      throw new StopParsingException();
+
+    if (m_limit > 0 && m_count >= m_limit)
+      throw new StopParsingException();
+  }
+
+  /**
+   * The matching state for one open node.
+   */
+  private final class Frame
+  {
+
+    /** Indexes of the steps for which this node is a context node. */
+    int[] m_states = new int[4];
+
+    /** Number of entries in m_states. */
+    int m_size;
+
+    /** Proximity counters per step and predicate, allocated on demand. */
+    int[][] m_counters;
+
+    /** true if m_counters has been touched since the last clear. */
+    boolean m_countersUsed;
+
+    /** Value queue slot if this node was selected, else -1. */
+    int m_slot = -1;
+
+    /**
+     * Reset the frame for reuse.
+     */
+    void clear()
+    {
+      m_size = 0;
+      m_slot = -1;
+
+      if (m_countersUsed)
+      {
+        for (int i = 0; i < m_counters.length; i++)
+        {
+          if (null != m_counters[i])
+            Arrays.fill(m_counters[i], 0);
+        }
+
+        m_countersUsed = false;
+      }
+    }
+
+    /**
+     * Append a state; callers handle duplicates.
+     *
+     * @param k The step index.
+     */
+    void add(int k)
+    {
+      if (m_size == m_states.length)
+      {
+        int[] states = new int[m_size * 2];
+        System.arraycopy(m_states, 0, states, 0, m_size);
+        m_states = states;
+      }
+
+      m_states[m_size++] = k;
+    }
+
+    /**
+     * Tell if a state is in the set.
+     *
+     * @param k The step index.
+     * @return true if present.
+     */
+    boolean contains(int k)
+    {
+      for (int i = 0; i < m_size; i++)
+      {
+        if (m_states[i] == k)
+          return true;
+      }
+
+      return false;
+    }
+
+    /**
+     * Get the proximity counters this node keeps for the children it
+     * offers to a step.
+     *
+     * @param k The step index.
+     * @param step The step.
+     * @return One counter per predicate of the step.
+     */
+    int[] counters(int k, StreamingStep step)
+    {
+      if (null == m_counters)
+        m_counters = new int[m_n][];
+
+      if (null == m_counters[k])
+        m_counters[k] = new int[step.m_predicates.length];
+
+      m_countersUsed = true;
+
+      return m_counters[k];
+    }
+  }
+}
@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath.streaming;
+
+import org.apache.xpath.objects.XString;
+import org.apache.xpath.patterns.NodeTest;
+
+import org.xml.sax.Attributes;
+
+/**
+ * One location step of a forward-only path, as extracted from the
+ * XPath op map by {@link StreamingXPath}.  A step is immutable once
+ * compiled, so it may be shared by any number of concurrent
+ * {@link StreamingMatcher}s.
+ * @xsl.usage internal
+ */
+final class StreamingStep
+{
+
+  /** child:: axis. */
+  static final int AXIS_CHILD = 0;
+
+  /** descendant:: axis. */
+  static final int AXIS_DESCENDANT = 1;
+
+  /** descendant-or-self:: axis. */
+  static final int AXIS_DESCENDANT_OR_SELF = 2;
+
+  /** self:: axis. */
+  static final int AXIS_SELF = 3;
+
+  /** attribute:: axis, only allowed as the last step. */
+  static final int AXIS_ATTRIBUTE = 4;
+
+  /** Name test, which may use wildcards. */
+  static final int TEST_NAME = 0;
+
+  /** The text() node test. */
+  static final int TEST_TEXT = 1;
+
+  /** The node() node test. */
+  static final int TEST_NODE = 2;
+
+  /** The axis, one of the AXIS_XXX values. */
+  final int m_axis;
+
+  /** The node test, one of the TEST_XXX values. */
+  final int m_testType;
+
+  /** Namespace URI of a name test, {@link NodeTest#WILD}, or null for no namespace. */
+  final String m_namespace;
+
+  /** Local name of a name test, or {@link NodeTest#WILD}. */
+  final String m_localName;
+
+  /** The predicates, in the order they are applied. Never null. */
+  final Predicate[] m_predicates;
+
+  /**
+   * Construct a location step.
+   *
+   * @param axis One of the AXIS_XXX values.
+   * @param testType One of the TEST_XXX values.
+   * @param namespace Namespace URI for a name test, WILD, or null.
+   * @param localName Local name for a name test, or WILD.
+   * @param predicates The step's predicates, never null.
+   */
+  StreamingStep(int axis, int testType, String namespace, String localName,
+                Predicate[] predicates)
+  {
+    m_axis = axis;
+    m_testType = testType;
+    m_namespace = namespace;
+    m_localName = localName;
+    m_predicates = predicates;
+  }
+
+  /**
+   * Tell if this step has any predicates.
+   *
+   * @return true if the step carries at least one predicate.
+   */
+  boolean hasPredicates()
+  {
+    return m_predicates.length > 0;
+  }
+
+  /**
+   * Tell if the node test accepts an element or attribute with the given name.
+   *
+   * @param uri The namespace URI, or the empty string for no namespace.
+   * @param localName The local name.
+   *
+   * @return true if the node test passes.
+   */
+  boolean testName(String uri, String localName)
+  {
+    if (TEST_NODE == m_testType)
+      return true;
+    if (TEST_NAME != m_testType)
+      return false;
+
+    if (m_namespace != NodeTest.WILD)
+    {
+      if (null == m_namespace)
+      {
+        if (uri.length() != 0)
+          return false;
+      }
+      else if (!m_namespace.equals(uri))
+        return false;
+    }
+
+    return m_localName == NodeTest.WILD || m_localName.equals(localName);
+  }
+
+  /**
+   * Tell if the node test accepts a text node.
+   *
+   * @return true if the node test passes.
+   */
+  boolean testText()
+  {
+    return TEST_TEXT == m_testType || TEST_NODE == m_testType;
+  }
+
+  /**
+   * Apply the predicates to a candidate node, advancing the proximity
+   * counters that the parent frame keeps for this step.
+   *
+   * @param attrs The attributes of the candidate, or null for a text or
+   *              attribute node.
+   * @param counters One counter per predicate, owned by the parent frame.
+   *
+   * @return true if every predicate accepts the node.
+   */
+  boolean acceptPredicates(Attributes attrs, int[] counters)
+  {
+    for (int i = 0; i < m_predicates.length; i++)
+    {
+      Predicate pred = m_predicates[i];
+
+      if (Predicate.POSITION == pred.m_kind)
+      {
+        if (++counters[i] != pred.m_position)
+          return false;
+      }
+      else if (!pred.bool(attrs))
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * A predicate that can be decided from the candidate node's own
+   * attributes and its proximity position alone.
+   */
+  static final class Predicate
+  {
+
+    /** [n]: true for the n'th node that passes the preceding predicates. */
+    static final int POSITION = 0;
+
+    /** [@a]: the attribute exists. */
+    static final int ATTR_EXISTS = 1;
+
+    /** [@a = literal]. */
+    static final int ATTR_EQUALS = 2;
+
+    /** [@a != literal]. */
+    static final int ATTR_NOT_EQUALS = 3;
+
+    /** [p and q]. */
+    static final int AND = 4;
+
+    /** [p or q]. */
+    static final int OR = 5;
+
+    /** [not(p)]. */
+    static final int NOT = 6;
+
+    /** One of the kind constants above. */
+    final int m_kind;
+
+    /** The proximity position for POSITION predicates. */
+    final double m_position;
+
+    /** The attribute namespace, or null for no namespace. */
+    final String m_attrNamespace;
+
+    /** The attribute local name. */
+    final String m_attrLocalName;
+
+    /** The string to compare with, if the literal is a string. */
+    final String m_literal;
+
+    /** True if the comparison is numeric, i.e. the literal is a number. */
+    final boolean m_numeric;
+
+    /** The number to compare with, if m_numeric is true. */
+    final double m_number;
+
+    /** Operands of AND, OR and NOT. */
+    final Predicate m_left, m_right;
+
+    /**
+     * Construct a predicate.  Callers use the static factory methods.
+     */
+    private Predicate(int kind, double position, String attrNamespace,
+                      String attrLocalName, String literal, boolean numeric,
+                      double number, Predicate left, Predicate right)
+    {
+      m_kind = kind;
+      m_position = position;
+      m_attrNamespace = attrNamespace;
+      m_attrLocalName = attrLocalName;
+      m_literal = literal;
+      m_numeric = numeric;
+      m_number = number;
+      m_left = left;
+      m_right = right;
+    }
+
+    /**
+     * Create a positional predicate.
+     *
+     * @param position The proximity position to accept.
+     * @return A new predicate.
+     */
+    static Predicate position(double position)
+    {
+      return new Predicate(POSITION, position, null, null, null, false, 0,
+                           null, null);
+    }
+
+    /**
+     * Create an attribute test.
+     *
+     * @param kind ATTR_EXISTS, ATTR_EQUALS or ATTR_NOT_EQUALS.
+     * @param ns The attribute namespace, or null.
+     * @param localName The attribute local name.
+     * @param literal The string literal for string comparisons, else null.
+     * @param numeric true if the literal is a number.
+     * @param number The number literal for numeric comparisons.
+     * @return A new predicate.
+     */
+    static Predicate attribute(int kind, String ns, String localName,
+                               String literal, boolean numeric, double number)
+    {
+      return new Predicate(kind, 0, ns, localName, literal, numeric, number,
+                           null, null);
+    }
+
+    /**
+     * Create a boolean combination.
+     *
+     * @param kind AND, OR or NOT.
+     * @param left The first operand.
+     * @param right The second operand, or null for NOT.
+     * @return A new predicate.
+     */
+    static Predicate logical(int kind, Predicate left, Predicate right)
+    {
+      return new Predicate(kind, 0, null, null, null, false, 0, left, right);
+    }
+
+    /**
+     * Evaluate a non-positional predicate.
+     *
+     * @param attrs The candidate's attributes, or null if it has none.
+     * @return The boolean value of the predicate.
+     */
+    boolean bool(Attributes attrs)
+    {
+      switch (m_kind)
+      {
+      case AND :
+        return m_left.bool(attrs) && m_right.bool(attrs);
+      case OR :
+        return m_left.bool(attrs) || m_right.bool(attrs);
+      case NOT :
+        return !m_left.bool(attrs);
+      default :
+        break;
+      }
+
+      if (null == attrs)
+        return false;
+
+      String value = attrs.getValue((null == m_attrNamespace)
+                                    ? "" : m_attrNamespace, m_attrLocalName);
+
+      if (null == value)
+        return false;
+
+      switch (m_kind)
+      {
+      case ATTR_EXISTS :
+        return true;
+      case ATTR_EQUALS :
+        return m_numeric ? (new XString(value).num() == m_number)
+                         : value.equals(m_literal);
+      case ATTR_NOT_EQUALS :
+        return m_numeric ? (new XString(value).num() != m_number)
+                         : !value.equals(m_literal);
+      default :
+        return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,645 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath.streaming;
+
+import java.io.IOException;
+import java.util.Vector;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.TransformerException;
+
+import org.apache.xalan.res.XSLMessages;
+import org.apache.xml.utils.DefaultErrorHandler;
+import org.apache.xml.utils.PrefixResolver;
+import org.apache.xml.utils.XMLReaderManager;
+import org.apache.xpath.compiler.Compiler;
+import org.apache.xpath.compiler.FunctionTable;
+import org.apache.xpath.compiler.OpCodes;
+import org.apache.xpath.compiler.OpMap;
+import org.apache.xpath.compiler.XPathParser;
+import org.apache.xpath.objects.XBoolean;
+import org.apache.xpath.objects.XNumber;
+import org.apache.xpath.objects.XString;
+import org.apache.xpath.patterns.NodeTest;
+import org.apache.xpath.res.XPATHErrorResources;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Evaluates the forward-only subset of XPath 1.0 directly over a SAX
+ * parse, without building a DTM.  Matches are found while the document is
+ * being read, and parsing stops as soon as the result is known, e.g. at the
+ * first match for {@link #bool} or {@link #str}.
+ *
+ * <p>The expression is parsed by the regular {@link XPathParser}, and the
+ * resulting op map is checked against the supported subset:</p>
+ * <ul>
+ * <li>an absolute or relative location path, evaluated with the document
+ *     node as context, optionally as the single argument of
+ *     <code>count()</code>, <code>boolean()</code>, <code>string()</code>
+ *     or <code>number()</code>;</li>
+ * <li>the child, descendant, descendant-or-self and self axes, and the
+ *     attribute axis as the last step;</li>
+ * <li>name tests, <code>node()</code>, and <code>text()</code> as the last
+ *     step;</li>
+ * <li>predicates that are a number (proximity position, not on the
+ *     descendant axis), <code>@a</code>, <code>@a = literal</code>,
+ *     <code>@a != literal</code>, and <code>and</code>, <code>or</code> and
+ *     <code>not()</code> combinations of the attribute tests.</li>
+ * </ul>
+ *
+ * <p>Expressions outside the subset are rejected at construction time, so
+ * callers can fall back to {@link org.apache.xpath.XPathAPI} or
+ * {@link org.apache.xpath.CachedXPathAPI}.  A StreamingXPath is immutable
+ * and may be shared between threads.</p>
+ * @xsl.usage general
+ */
+public class StreamingXPath
+{
+
+  /** The expression, for diagnostics. */
+  private final String m_patternString;
+
+  /** The location path. */
+  private final StreamingStep[] m_steps;
+
+  /** The FunctionTable.FUNC_XXX id of the wrapping function, or -1. */
+  private final int m_funcID;
+
+  /**
+   * Compile an expression for streaming evaluation.
+   *
+   * @param exprString The XPath expression.
+   * @param prefixResolver Resolves prefixes in the expression to namespaces,
+   *                       may be null if the expression has no prefixes.
+   *
+   * @throws TransformerException if the expression has a syntax error or is
+   *                              not in the streamable subset.
+   */
+  public StreamingXPath(String exprString, PrefixResolver prefixResolver)
+          throws TransformerException
+  {
+    this(exprString, prefixResolver, null);
+  }
+
+  /**
+   * Compile an expression for streaming evaluation.
+   *
+   * @param exprString The XPath expression.
+   * @param prefixResolver Resolves prefixes in the expression to namespaces,
+   *                       may be null if the expression has no prefixes.
+   * @param errorListener The error listener, or null if default should be used.
+   *
+   * @throws TransformerException if the expression has a syntax error or is
+   *                              not in the streamable subset.
+   */
+  public StreamingXPath(String exprString, PrefixResolver prefixResolver,
+                        ErrorListener errorListener)
+          throws TransformerException
+  {
+    if (null == errorListener)
+      errorListener = new DefaultErrorHandler();
+
+    m_patternString = exprString;
+
+    XPathParser parser = new XPathParser(errorListener, null);
+    Compiler compiler = new Compiler(errorListener, null, new FunctionTable());
+
+    parser.initXPath(compiler, exprString, prefixResolver);
+
+    int opPos = OpMap.getFirstChildPos(0);
+    int op = compiler.getOp(opPos);
+
+    if (OpCodes.OP_LOCATIONPATH == op)
+    {
+      m_funcID = -1;
+    }
+    else if (OpCodes.OP_FUNCTION == op)
+    {
+      int endFunc = opPos + compiler.getOp(opPos + 1) - 1;
+      int funcID = compiler.getOp(opPos + 2);
+      int argPos = opPos + 3;
+
+      if ((FunctionTable.FUNC_COUNT != funcID
+           && FunctionTable.FUNC_BOOLEAN != funcID
+           && FunctionTable.FUNC_STRING != funcID
+           && FunctionTable.FUNC_NUMBER != funcID)
+          || argPos >= endFunc
+          || OpCodes.OP_ARGUMENT != compiler.getOp(argPos)
+          || compiler.getNextOpPos(argPos) < endFunc)
+        throw notStreamable();
+
+      m_funcID = funcID;
+      opPos = OpMap.getFirstChildPos(argPos);
+
+      if (OpCodes.OP_LOCATIONPATH != compiler.getOp(opPos))
+        throw notStreamable();
+    }
+    else
+      throw notStreamable();
+
+    m_steps = compileSteps(compiler, opPos);
+  }
+
+  /**
+   * Return the XPath string associated with this object.
+   *
+   * @return the XPath string associated with this object.
+   */
+  public String getPatternString()
+  {
+    return m_patternString;
+  }
+
+  /**
+   * Report each node selected by the location path, in document order.
+   * The function wrapping the path, if any, is ignored.
+   *
+   * @param source The document to read.
+   * @param listener Receives the string-value of each selected node, and
+   *                 may stop the parse early.
+   *
+   * @throws TransformerException if the document cannot be read.
+   */
+  public void select(InputSource source, StreamingXPathListener listener)
+          throws TransformerException
+  {
+    run(source, true, 0, listener);
+  }
+
+  /**
+   * Count the nodes selected by the location path, reading no further than
+   * needed to reach the limit.  The function wrapping the path, if any, is
+   * ignored.
+   *
+   * @param source The document to read.
+   * @param limit Stop counting at this many nodes; zero or less for no limit.
+   *
+   * @return The number of selected nodes, at most <code>limit</code>.
+   *
+   * @throws TransformerException if the document cannot be read.
+   */
+  public int count(InputSource source, int limit) throws TransformerException
+  {
+    return run(source, false, limit, null).getCount();
+  }
+
+  /**
+   * Evaluate the expression and convert the result to a boolean.
+   *
+   * @param source The document to read.
+   *
+   * @return The boolean value of the expression.
+   *
+   * @throws TransformerException if the document cannot be read.
+   */
+  public boolean bool(InputSource source) throws TransformerException
+  {
+    switch (m_funcID)
+    {
+    case FunctionTable.FUNC_STRING :
+      return str(source).length() > 0;
+    case FunctionTable.FUNC_NUMBER :
+      return new XNumber(num(source)).bool();
+    default :
+      // boolean() and count() of a node-set are both "is it non-empty".
+      return count(source, 1) > 0;
+    }
+  }
+
+  /**
+   * Evaluate the expression and convert the result to a number.
+   *
+   * @param source The document to read.
+   *
+   * @return The numeric value of the expression.
+   *
+   * @throws TransformerException if the document cannot be read.
+   */
+  public double num(InputSource source) throws TransformerException
+  {
+    switch (m_funcID)
+    {
+    case FunctionTable.FUNC_COUNT :
+      return count(source, 0);
+    case FunctionTable.FUNC_BOOLEAN :
+      return bool(source) ? 1.0 : 0.0;
+    default :
+      return new XString(first(source)).num();
+    }
+  }
+
+  /**
+   * Evaluate the expression and convert the result to a string.
+   *
+   * @param source The document to read.
+   *
+   * @return The string value of the expression.
+   *
+   * @throws TransformerException if the document cannot be read.
+   */
+  public String str(InputSource source) throws TransformerException
+  {
+    switch (m_funcID)
+    {
+    case FunctionTable.FUNC_COUNT :
+    case FunctionTable.FUNC_NUMBER :
+      return new XNumber(num(source)).str();
+    case FunctionTable.FUNC_BOOLEAN :
+      return new XBoolean(bool(source)).str();
+    default :
+      return first(source);
+    }
+  }
+
+  /**
+   * Get the string-value of the first selected node.
+   *
+   * @param source The document to read.
+   *
+   * @return The value, or the empty string if nothing was selected.
+   *
+   * @throws TransformerException if the document cannot be read.
+   */
+  private String first(InputSource source) throws TransformerException
+  {
+    String s = run(source, true, 1, null).getFirst();
+
+    return (null == s) ? "" : s;
+  }
+
+  /**
+   * Parse a document through a new matcher.
+   *
+   * @param source The document to read.
+   * @param wantValues true if string-values of selected nodes are needed.
+   * @param limit Stop after this many selected nodes, or 0 for no limit.
+   * @param listener Callback for selected nodes, or null.
+   *
+   * @return The matcher, holding the results.
+   *
+   * @throws TransformerException if the document cannot be read.
+   */
+  private StreamingMatcher run(InputSource source, boolean wantValues,
+                               int limit, StreamingXPathListener listener)
+          throws TransformerException
+  {
+    StreamingMatcher matcher = new StreamingMatcher(m_steps, wantValues,
+                                                    limit, listener);
+    XMLReaderManager readerManager = XMLReaderManager.getInstance();
+    XMLReader reader = null;
+
+    try
+    {
+      reader = readerManager.getXMLReader();
+      reader.setContentHandler(matcher);
+
+      try
+      {
+        reader.setProperty("http://xml.org/sax/properties/lexical-handler",
+                           matcher);
+      }
+      catch (SAXException se)
+      {
+        // Without it comments do not split text nodes; carry on.
+      }
+
+      reader.parse(source);
+    }
+    catch (StreamingMatcher.StopParsingException spe)
+    {
+      // The result is known; the rest of the document is not needed.
+    }
+    catch (SAXException se)
+    {
+      throw new TransformerException(se);
+    }
+    catch (IOException ioe)
+    {
+      throw new TransformerException(ioe);
+    }
+    finally
+    {
+      if (null != reader)
+        readerManager.releaseXMLReader(reader);
+    }
+
+    return matcher;
+  }
+
+  /**
+   * Create the exception for an expression outside the streamable subset.
+   *
+   * @return A new exception.
+   */
+  private TransformerException notStreamable()
+  {
+    return new TransformerException(XSLMessages.createXPATHMessage(
+      XPATHErrorResources.ER_EXPRESSION_NOT_STREAMABLE,
+      new Object[]{ m_patternString }));
+  }
+
+  /**
+   * Compile the steps of a location path.
+   *
+   * @param compiler The compiler holding the op map.
+   * @param opPos The position of the OP_LOCATIONPATH.
+   *
+   * @return The steps, with a leading root step removed.
+   *
+   * @throws TransformerException if the path is not streamable.
+   */
+  private StreamingStep[] compileSteps(Compiler compiler, int opPos)
+          throws TransformerException
+  {
+    Vector steps = new Vector();
+    int stepPos = OpMap.getFirstChildPos(opPos);
+
+    if (OpCodes.FROM_ROOT == compiler.getOp(stepPos))
+      stepPos = compiler.getNextOpPos(stepPos);
+
+    while (OpCodes.ENDOP != compiler.getOp(stepPos))
+    {
+      steps.addElement(compileStep(compiler, stepPos));
+      stepPos = compiler.getNextOpPos(stepPos);
+    }
+
+    StreamingStep[] result = new StreamingStep[steps.size()];
+    steps.copyInto(result);
+
+    for (int i = 0; i < result.length; i++)
+    {
+      StreamingStep step = result[i];
+      boolean last = (i == result.length - 1);
+
+      switch (step.m_axis)
+      {
+      case StreamingStep.AXIS_ATTRIBUTE :
+        if (!last)
+          throw notStreamable();
+        break;
+      case StreamingStep.AXIS_SELF :
+        if (step.hasPredicates()
+            || StreamingStep.TEST_TEXT == step.m_testType)
+          throw notStreamable();
+        break;
+      case StreamingStep.AXIS_DESCENDANT_OR_SELF :
+        // As the last step it would select text, comments and PIs too.
+        if (step.hasPredicates() || last
+            || StreamingStep.TEST_TEXT == step.m_testType)
+          throw notStreamable();
+        break;
+      case StreamingStep.AXIS_DESCENDANT :
+        // Proximity positions on this axis are not per parent.
+        for (int j = 0; j < step.m_predicates.length; j++)
+        {
+          if (StreamingStep.Predicate.POSITION == step.m_predicates[j].m_kind)
+            throw notStreamable();
+        }
+        // fall through
+      default :
+        if ((StreamingStep.TEST_TEXT == step.m_testType && !last)
+            || (StreamingStep.TEST_NODE == step.m_testType && last))
+          throw notStreamable();
+        break;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Compile one location step.
+   *
+   * @param compiler The compiler holding the op map.
+   * @param stepPos The position of the FROM_XXX op.
+   *
+   * @return The step.
+   *
+   * @throws TransformerException if the step is not streamable.
+   */
+  private StreamingStep compileStep(Compiler compiler, int stepPos)
+          throws TransformerException
+  {
+    int axis;
+
+    switch (compiler.getOp(stepPos))
+    {
+    case OpCodes.FROM_CHILDREN :
+      axis = StreamingStep.AXIS_CHILD; break;
+    case OpCodes.FROM_DESCENDANTS :
+      axis = StreamingStep.AXIS_DESCENDANT; break;
+    case OpCodes.FROM_DESCENDANTS_OR_SELF :
+      axis = StreamingStep.AXIS_DESCENDANT_OR_SELF; break;
+    case OpCodes.FROM_SELF :
+      axis = StreamingStep.AXIS_SELF; break;
+    case OpCodes.FROM_ATTRIBUTES :
+      axis = StreamingStep.AXIS_ATTRIBUTE; break;
+    default :
+      throw notStreamable();
+    }
+
+    int testType;
+    String namespace = null;
+    String localName = null;
+
+    switch (compiler.getStepTestType(stepPos))
+    {
+    case OpCodes.NODENAME :
+      testType = StreamingStep.TEST_NAME;
+      namespace = compiler.getStepNS(stepPos);
+      localName = compiler.getStepLocalName(stepPos);
+      break;
+    case OpCodes.NODETYPE_TEXT :
+      testType = StreamingStep.TEST_TEXT; break;
+    case OpCodes.NODETYPE_NODE :
+      testType = StreamingStep.TEST_NODE; break;
+    default :
+      throw notStreamable();
+    }
+
+    Vector preds = new Vector();
+
+    for (int predPos = compiler.getFirstPredicateOpPos(stepPos);
+         OpCodes.OP_PREDICATE == compiler.getOp(predPos);
+         predPos = compiler.getNextOpPos(predPos))
+    {
+      int exprPos = OpMap.getFirstChildPos(predPos);
+
+      if (OpCodes.OP_NUMBERLIT == compiler.getOp(exprPos))
+        preds.addElement(StreamingStep.Predicate.position(
+          numberLiteral(compiler, exprPos)));
+      else
+        preds.addElement(compilePredicate(compiler, exprPos));
+    }
+
+    StreamingStep.Predicate[] predicates =
+      new StreamingStep.Predicate[preds.size()];
+    preds.copyInto(predicates);
+
+    return new StreamingStep(axis, testType, namespace, localName, predicates);
+  }
+
+  /**
+   * Compile a boolean predicate expression over the candidate's attributes.
+   *
+   * @param compiler The compiler holding the op map.
+   * @param opPos The position of the expression.
+   *
+   * @return The predicate.
+   *
+   * @throws TransformerException if the predicate is not streamable.
+   */
+  private StreamingStep.Predicate compilePredicate(Compiler compiler,
+                                                   int opPos)
+          throws TransformerException
+  {
+    switch (compiler.getOp(opPos))
+    {
+    case OpCodes.OP_GROUP :
+      return compilePredicate(compiler, OpMap.getFirstChildPos(opPos));
+    case OpCodes.OP_AND :
+    case OpCodes.OP_OR :
+    {
+      int leftPos = OpMap.getFirstChildPos(opPos);
+      int rightPos = compiler.getNextOpPos(leftPos);
+
+      return StreamingStep.Predicate.logical(
+        (OpCodes.OP_AND == compiler.getOp(opPos))
+          ? StreamingStep.Predicate.AND : StreamingStep.Predicate.OR,
+        compilePredicate(compiler, leftPos),
+        compilePredicate(compiler, rightPos));
+    }
+    case OpCodes.OP_FUNCTION :
+    {
+      int endFunc = opPos + compiler.getOp(opPos + 1) - 1;
+      int argPos = opPos + 3;
+
+      if (FunctionTable.FUNC_NOT != compiler.getOp(opPos + 2)
+          || argPos >= endFunc
+          || OpCodes.OP_ARGUMENT != compiler.getOp(argPos)
+          || compiler.getNextOpPos(argPos) < endFunc)
+        throw notStreamable();
+
+      return StreamingStep.Predicate.logical(
+        StreamingStep.Predicate.NOT,
+        compilePredicate(compiler, OpMap.getFirstChildPos(argPos)), null);
+    }
+    case OpCodes.OP_LOCATIONPATH :
+    {
+      String[] name = attributeName(compiler, opPos);
+
+      if (null == name)
+        throw notStreamable();
+
+      return StreamingStep.Predicate.attribute(
+        StreamingStep.Predicate.ATTR_EXISTS, name[0], name[1], null, false, 0);
+    }
+    case OpCodes.OP_EQUALS :
+    case OpCodes.OP_NOTEQUALS :
+    {
+      int leftPos = OpMap.getFirstChildPos(opPos);
+      int rightPos = compiler.getNextOpPos(leftPos);
+      String[] name = attributeName(compiler, leftPos);
+      int literalPos = rightPos;
+
+      if (null == name)
+      {
+        name = attributeName(compiler, rightPos);
+        literalPos = leftPos;
+      }
+
+      if (null == name)
+        throw notStreamable();
+
+      int kind = (OpCodes.OP_EQUALS == compiler.getOp(opPos))
+                 ? StreamingStep.Predicate.ATTR_EQUALS
+                 : StreamingStep.Predicate.ATTR_NOT_EQUALS;
+
+      switch (compiler.getOp(literalPos))
+      {
+      case OpCodes.OP_LITERAL :
+        return StreamingStep.Predicate.attribute(kind, name[0], name[1],
+          ((XString) compiler.getToken(
+             compiler.getOp(OpMap.getFirstChildPos(literalPos)))).str(),
+          false, 0);
+      case OpCodes.OP_NUMBERLIT :
+        return StreamingStep.Predicate.attribute(kind, name[0], name[1], null,
+          true, numberLiteral(compiler, literalPos));
+      default :
+        throw notStreamable();
+      }
+    }
+    default :
+      throw notStreamable();
+    }
+  }
+
+  /**
+   * Get the value of a number literal.
+   *
+   * @param compiler The compiler holding the op map.
+   * @param opPos The position of the OP_NUMBERLIT.
+   *
+   * @return The number.
+   */
+  private static double numberLiteral(Compiler compiler, int opPos)
+  {
+    return ((XNumber) compiler.getToken(
+      compiler.getOp(OpMap.getFirstChildPos(opPos)))).num();
+  }
+
+  /**
+   * If the expression is a relative path of exactly one attribute step
+   * with a plain name test, return the attribute's name.
+   *
+   * @param compiler The compiler holding the op map.
+   * @param opPos The position of the expression.
+   *
+   * @return {namespace, localName}, or null if the expression is anything
+   *         else.
+   */
+  private static String[] attributeName(Compiler compiler, int opPos)
+          throws TransformerException
+  {
+    if (OpCodes.OP_LOCATIONPATH != compiler.getOp(opPos))
+      return null;
+
+    int stepPos = OpMap.getFirstChildPos(opPos);
+
+    if (OpCodes.FROM_ATTRIBUTES != compiler.getOp(stepPos)
+        || OpCodes.NODENAME != compiler.getStepTestType(stepPos)
+        || OpCodes.OP_PREDICATE
+           == compiler.getOp(compiler.getFirstPredicateOpPos(stepPos))
+        || OpCodes.ENDOP != compiler.getOp(compiler.getNextOpPos(stepPos)))
+      return null;
+
+    String ns = compiler.getStepNS(stepPos);
+    String localName = compiler.getStepLocalName(stepPos);
+
+    if (NodeTest.WILD == ns || NodeTest.WILD == localName)
+      return null;
+
+    return new String[]{ ns, localName };
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+package org.apache.xpath.streaming;
+
+/**
+ * Receives the nodes selected by a {@link StreamingXPath} while the
+ * document is still being parsed.
+ * @xsl.usage general
+ */
+public interface StreamingXPathListener
+{
+
+  /**
+   * Called once for each selected node, in document order, as soon as
+   * its string-value is complete.  For an element that is at its end tag.
+   *
+   * @param value The string-value of the selected node.
+   *
+   * @return true to continue, or false to stop parsing the document.
+   */
+  public boolean match(String value);
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * $Id$
+ */
+
+package samples.translets;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.xalan.xsltc.trax.TransformerFactoryImpl;
+
+/**
+ * Compares the throughput of a translet compiled with and without the
+ * compact-dispatch attribute of the XSLTC TransformerFactory, on a
+ * generated stylesheet with a template for each of many element names
+ * and a document that uses all of them.
+ *
+ * <p>Without compact dispatch, the pattern tests of all the names are
+ * compiled into the applyTemplates() method of the translet, which the
+ * JIT compiler leaves interpreted once it is large enough. With compact
+ * dispatch, the tests of each name are compiled into a small method of
+ * their own. The default method also stops compiling somewhere below a
+ * thousand names, when applyTemplates() outgrows the 64 kilobytes a Java
+ * method can hold.</p>
+ *
+ * <p>Usage: java samples.translets.JAXPTransletCompactDispatch
+ * [names [elements [iterations]]]</p>
+ */
+public class JAXPTransletCompactDispatch
+{
+  public static void main(String argv[]) throws Exception
+  {
+    int names = argv.length > 0 ? Integer.parseInt(argv[0]) : 500;
+    int elements = argv.length > 1 ? Integer.parseInt(argv[1]) : 20000;
+    int iterations = argv.length > 2 ? Integer.parseInt(argv[2]) : 20;
+
+    String stylesheet = generateStylesheet(names);
+    String document = generateDocument(names, elements);
+
+    String expected = null;
+    for (int round = 0; round < 2; round++)
+    {
+      for (int compact = 0; compact < 2; compact++)
+      {
+        TransformerFactory tFactory = new TransformerFactoryImpl();
+        tFactory.setAttribute(TransformerFactoryImpl.COMPACT_DISPATCH,
+                              compact == 1 ? Boolean.TRUE : Boolean.FALSE);
+
+        String label = compact == 1 ? "compact dispatch: " : "default dispatch: ";
+        long start = System.currentTimeMillis();
+        Templates translet;
+        try
+        {
+          translet =
+            tFactory.newTemplates(new StreamSource(new StringReader(stylesheet)));
+        }
+        catch (TransformerConfigurationException e)
+        {
+          if (round == 1)
+            System.out.println(label + "the stylesheet could not be compiled");
+          continue;
+        }
+        long compiled = System.currentTimeMillis();
+
+        String output = null;
+        for (int i = 0; i < iterations; i++)
+        {
+          Transformer transformer = translet.newTransformer();
+          StringWriter writer = new StringWriter();
+          transformer.transform(new StreamSource(new StringReader(document)),
+                                new StreamResult(writer));
+          output = writer.toString();
+        }
+        long end = System.currentTimeMillis();
+
+        if (expected == null)
+          expected = output;
+        else if (!expected.equals(output))
+          throw new IllegalStateException("The outputs differ");
+
+        // The first round warms up the JIT compiler
+        if (round == 1)
+        {
+          System.out.println(label + "compile " + (compiled - start) + " ms, "
+                             + iterations + " transformations "
+                             + (end - compiled) + " ms");
+        }
+      }
+    }
+  }
+
+  /**
+   * Return a stylesheet with two templates for each of the element names
+   * e0 to e(names - 1), one of them with a predicate.
+   */
+  static String generateStylesheet(int names)
+  {
+    StringBuffer buffer = new StringBuffer();
+    buffer.append("<xsl:stylesheet version='1.0'"
+                  + " xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>\n");
+    buffer.append("<xsl:template match='/'><out><xsl:apply-templates/></out>"
+                  + "</xsl:template>\n");
+    buffer.append("<xsl:template match='doc'>");
+    for (int i = 0; i < 10; i++)
+      buffer.append("<xsl:apply-templates/>");
+    buffer.append("</xsl:template>\n");
+    for (int i = 0; i < names; i++)
+    {
+      buffer.append("<xsl:template match='e").append(i)
+            .append("[@a = \"1\"]'>+").append(i).append("</xsl:template>\n");
+      buffer.append("<xsl:template match='e").append(i)
+            .append("'>-").append(i).append("</xsl:template>\n");
+    }
+    buffer.append("</xsl:stylesheet>\n");
+    return buffer.toString();
+  }
+
+  /**
+   * Return a document with the given number of elements, whose names go
+   * through the names the stylesheet matches.
+   */
+  static String generateDocument(int names, int elements)
+  {
+    StringBuffer buffer = new StringBuffer();
+    buffer.append("<doc>");
+    for (int i = 0; i < elements; i++)
+    {
+      int name = (int) ((i * 7919L) % names);
+      buffer.append("<e").append(name);
+      if (i % 3 == 0)
+        buffer.append(" a='1'");
+      buffer.append("/>");
+    }
+    buffer.append("</doc>");
+    return buffer.toString();
+  }
+}